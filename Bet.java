@@ -9,10 +9,14 @@ public class Bet {
     private Horse horse;          // The horse the bet is placed on
     private double amount;        // The amount of the bet
     private double odds;          // The odds at the time of the bet
-    private boolean settled;      // Whether the bet has been settled
-    private boolean won;          // Whether the bet was won
-    private double payout;        // The payout amount if the bet was won
+    private volatile boolean settled; // Whether the bet has been settled
+    private volatile boolean won;     // Whether the bet was won
+    private volatile double payout;   // The payout amount if the bet was won
     private Date timestamp;       // When the bet was placed
+    private long raceId;          // The race the bet was placed on
+    private VirtualWallet wallet; // The wallet the stake came from and any payout goes to, if not the service's
+    private BettingHistory history; // History to tell when the bet is settled, if any
+    private long sequence;        // Position in the history the bet was added to
    
     /**
      * Constructor for a new bet
@@ -22,7 +26,34 @@ public class Bet {
      * @param odds The odds at the time of the bet
      */
     public Bet(Horse horse, double amount, double odds) {
+        this(horse, amount, odds, 0);
+    }
+
+    /**
+     * Constructor for a new bet on a particular race
+     *
+     * @param horse The horse to bet on
+     * @param amount The amount to bet
+     * @param odds The odds at the time of the bet
+     * @param raceId The race the bet is placed on
+     */
+    public Bet(Horse horse, double amount, double odds, long raceId) {
+        this(horse, amount, odds, raceId, null);
+    }
+
+    /**
+     * Constructor for a new bet on a particular race, paid from a particular wallet
+     *
+     * @param horse The horse to bet on
+     * @param amount The amount to bet
+     * @param odds The odds at the time of the bet
+     * @param raceId The race the bet is placed on
+     * @param wallet The wallet the stake came from and any payout goes to
+     */
+    public Bet(Horse horse, double amount, double odds, long raceId, VirtualWallet wallet) {
         this.horse = horse;
+        this.wallet = wallet;
+        this.raceId = raceId;
         this.amount = amount;
         this.odds = odds;
         this.settled = false;
@@ -39,6 +70,25 @@ public class Bet {
     public Horse getHorse() {
         return horse;
     }
+
+    /**
+     * Get the race the bet was placed on
+     *
+     * @return The race id, or 0 if the bet was not placed on a particular race
+     */
+    public long getRaceId() {
+        return raceId;
+    }
+
+    /**
+     * Get the wallet the bet was paid from
+     *
+     * @return The wallet, or null if the bet was paid from the betting service's own wallet
+     */
+    public VirtualWallet getWallet() {
+        return wallet;
+    }
+
     /**
      * Get the amount that was bet
      *
@@ -106,26 +156,70 @@ public class Bet {
      * Settle the bet with a winning horse
      *
      * @param winningHorse The horse that won the race
-     * @return The payout amount if this bet won, 0 otherwise
+     * @return The payout amount if this bet won, 0 if it lost or was already settled
      */
     public double settle(Horse winningHorse) {
+        BettingHistory settledIn;
+        double result;
+        synchronized (this) {
+            if (settled) {
+                return 0.0; // Already settled; the payout was handed out then
+            }
+           
+            settled = true;
+           
+            if (horse.equals(winningHorse)) {
+                won = true;
+                payout = getPotentialPayout();
+            } else {
+                won = false;
+                payout = 0.0;
+            }
+            result = payout;
+            settledIn = history;
+        }
+        
+        // Outside the lock, so the bet is never locked while the history counts it
+        if (settledIn != null) {
+            settledIn.betSettled(this);
+        }
+        return result;
+    }
+
+    /**
+     * Ask the bet to tell a history when it is settled
+     *
+     * @param history The history the bet was added to
+     * @return true if the bet will tell the history, false if it is already settled
+     */
+    synchronized boolean attach(BettingHistory history) {
         if (settled) {
-            return payout; // Already settled
+            return false;
         }
-       
-        settled = true;
-       
-        if (horse.equals(winningHorse)) {
-            won = true;
-            payout = getPotentialPayout();
-            return payout;
-        } else {
-            won = false;
-            payout = 0.0;
-            return 0.0;
+        this.history = history;
+        return true;
+    }
+
+    /**
+     * Stop telling a history when the bet is settled
+     *
+     * @param history The history the bet was removed from
+     */
+    synchronized void detach(BettingHistory history) {
+        if (this.history == history) {
+            this.history = null;
         }
     }
-        /**
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
      * Get a string representation of the bet
      */
     @Override
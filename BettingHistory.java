@@ -1,217 +1,368 @@
-// BettingHistory.java needs to be updated as the uploaded file appears 
-// to be a duplicate of Bet.java. Here's the correct implementation:
-
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages the history of bets for the betting system.
  * Tracks all bets placed, computes statistics, and provides historical analysis.
+ *
+ * Running totals are kept for every horse, for every race and overall, and
+ * are updated as each bet is added and as it is settled, so statistics are
+ * answered without going through the bets: pricing a field costs the same
+ * after a million bets as after ten.
+ *
+ * Bets can be added and settled from any number of threads without locking:
+ * bets are appended to a lock-free queue, and the totals are striped
+ * counters (in cents, so money adds up exactly) that threads update without
+ * waiting for each other. A set of totals read while bets are coming in may
+ * include a bet's stake but not yet its count; once the bets stop, every
+ * total is exact.
  */
 public class BettingHistory {
-    private List<Bet> bets;
-    
+    private Queue<Bet> bets;                          // Every bet, in the order added
+    private ConcurrentSkipListMap<Long, Bet> unsettledBets; // Bets waiting to be settled, by sequence number
+    private ConcurrentHashMap<Horse, Tally> horseTotals;    // Running totals of the bets on each horse
+    private ConcurrentHashMap<Long, Tally> raceTotals;      // Running totals of the bets on each race
+    private volatile Tally overallTotals;                   // Running totals of every bet
+    private AtomicLong nextSequence;                        // Sequence number of the next bet added
+
+    /**
+     * Running totals for a group of bets, read at one moment
+     */
+    public static class Totals {
+        private int betCount;
+        private double totalStake;
+        private int winCount;
+        private int lossCount;
+        private double totalPayout;
+
+        Totals(int betCount, double totalStake, int winCount, int lossCount, double totalPayout) {
+            this.betCount = betCount;
+            this.totalStake = totalStake;
+            this.winCount = winCount;
+            this.lossCount = lossCount;
+            this.totalPayout = totalPayout;
+        }
+
+        public int getBetCount() { return betCount; }
+        public double getTotalStake() { return totalStake; }
+        public int getWinCount() { return winCount; }
+        public int getLossCount() { return lossCount; }
+        public int getSettledCount() { return winCount + lossCount; }
+        public double getTotalPayout() { return totalPayout; }
+
+        /**
+         * Get the share of settled bets that won
+         *
+         * @return Win rate as a decimal (0.0 to 1.0)
+         */
+        public double getWinRate() {
+            int settled = getSettledCount();
+            return settled == 0 ? 0.0 : (double) winCount / settled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d bets, %.2f staked, %d won, %d lost, %.2f paid out",
+                                 betCount, totalStake, winCount, lossCount, totalPayout);
+        }
+    }
+
+    /**
+     * Counters behind a set of totals, updated by many threads at once
+     */
+    private static class Tally {
+        private LongAdder betCount = new LongAdder();
+        private LongAdder stakeCents = new LongAdder();
+        private LongAdder winCount = new LongAdder();
+        private LongAdder lossCount = new LongAdder();
+        private LongAdder payoutCents = new LongAdder();
+
+        void add(Bet bet) {
+            betCount.increment();
+            stakeCents.add(VirtualWallet.toCents(bet.getAmount()));
+        }
+
+        void settle(Bet bet) {
+            if (bet.isWon()) {
+                winCount.increment();
+                payoutCents.add(VirtualWallet.toCents(bet.getPayout()));
+            } else {
+                lossCount.increment();
+            }
+        }
+
+        double getWinRate() {
+            long wins = winCount.sum();
+            long settled = wins + lossCount.sum();
+            return settled == 0 ? 0.0 : (double) wins / settled;
+        }
+
+        Totals read() {
+            return new Totals(betCount.intValue(), stakeCents.sum() / 100.0, winCount.intValue(),
+                              lossCount.intValue(), payoutCents.sum() / 100.0);
+        }
+    }
+
     /**
      * Constructor for a new betting history
      */
     public BettingHistory() {
-        this.bets = new ArrayList<>();
+        this.bets = new ConcurrentLinkedQueue<>();
+        this.unsettledBets = new ConcurrentSkipListMap<>();
+        this.horseTotals = new ConcurrentHashMap<>();
+        this.raceTotals = new ConcurrentHashMap<>();
+        this.overallTotals = new Tally();
+        this.nextSequence = new AtomicLong();
     }
-    
+
     /**
      * Add a bet to the history
-     * 
+     *
      * @param bet The bet to add
      */
     public void addBet(Bet bet) {
+        long sequence = nextSequence.getAndIncrement();
+        bet.setSequence(sequence);
         bets.add(bet);
+        horseTotals.computeIfAbsent(bet.getHorse(), horse -> new Tally()).add(bet);
+        raceTotals.computeIfAbsent(bet.getRaceId(), race -> new Tally()).add(bet);
+        overallTotals.add(bet);
+
+        // The bet is listed as unsettled before it is asked to report its result,
+        // so a result reported from another thread always finds it
+        unsettledBets.put(sequence, bet);
+        if (!bet.attach(this)) {
+            // Settled before it was added, or while it was being added
+            betSettled(bet);
+        }
+    }
+
+    /**
+     * Count a bet's result in the totals. Called by the bet when it is settled.
+     * Only the first call for a bet counts.
+     *
+     * @param bet The settled bet
+     */
+    void betSettled(Bet bet) {
+        if (unsettledBets.remove(bet.getSequence(), bet)) {
+            horseTotals.get(bet.getHorse()).settle(bet);
+            raceTotals.get(bet.getRaceId()).settle(bet);
+            overallTotals.settle(bet);
+        }
     }
-    
+
     /**
      * Get all bets in the history
-     * 
+     *
      * @return List of all bets
      */
     public List<Bet> getAllBets() {
         return new ArrayList<>(bets);
     }
-    
+
     /**
      * Get all settled bets in the history
-     * 
+     *
      * @return List of settled bets
      */
     public List<Bet> getSettledBets() {
-        return bets.stream()
-                .filter(Bet::isSettled)
-                .collect(Collectors.toList());
+        List<Bet> settled = new ArrayList<>();
+        for (Bet bet : bets) {
+            if (bet.isSettled()) {
+                settled.add(bet);
+            }
+        }
+        return settled;
     }
-    
+
     /**
      * Get all unsettled bets in the history
-     * 
-     * @return List of unsettled bets
+     *
+     * @return List of unsettled bets, in the order they were placed
      */
     public List<Bet> getUnsettledBets() {
-        return bets.stream()
-                .filter(bet -> !bet.isSettled())
-                .collect(Collectors.toList());
+        return new ArrayList<>(unsettledBets.values());
     }
-    
+
     /**
      * Get all winning bets in the history
-     * 
+     *
      * @return List of winning bets
      */
     public List<Bet> getWinningBets() {
-        return bets.stream()
-                .filter(Bet::isWon)
-                .collect(Collectors.toList());
+        List<Bet> winning = new ArrayList<>();
+        for (Bet bet : bets) {
+            if (bet.isWon()) {
+                winning.add(bet);
+            }
+        }
+        return winning;
     }
-    
+
     /**
      * Get all losing bets in the history
-     * 
+     *
      * @return List of losing bets
      */
     public List<Bet> getLosingBets() {
-        return bets.stream()
-                .filter(bet -> bet.isSettled() && !bet.isWon())
-                .collect(Collectors.toList());
+        List<Bet> losing = new ArrayList<>();
+        for (Bet bet : bets) {
+            if (bet.isSettled() && !bet.isWon()) {
+                losing.add(bet);
+            }
+        }
+        return losing;
     }
-    
+
     /**
      * Get the total number of bets placed
-     * 
+     *
      * @return Total bet count
      */
     public int getTotalBetCount() {
-        return bets.size();
+        return overallTotals.betCount.intValue();
     }
-    
+
     /**
      * Get the number of bets placed on each horse
-     * 
+     *
      * @return Map of horse to bet count
      */
     public Map<Horse, Integer> getBetCountByHorse() {
         Map<Horse, Integer> counts = new HashMap<>();
-        
-        for (Bet bet : bets) {
-            Horse horse = bet.getHorse();
-            counts.put(horse, counts.getOrDefault(horse, 0) + 1);
+        for (Map.Entry<Horse, Tally> entry : horseTotals.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().betCount.intValue());
         }
-        
         return counts;
     }
-    
+
     /**
      * Get the number of winning bets for each horse
-     * 
+     *
      * @return Map of horse to win count
      */
     public Map<Horse, Integer> getWinCountByHorse() {
         Map<Horse, Integer> counts = new HashMap<>();
-        
-        for (Bet bet : getWinningBets()) {
-            Horse horse = bet.getHorse();
-            counts.put(horse, counts.getOrDefault(horse, 0) + 1);
+        for (Map.Entry<Horse, Tally> entry : horseTotals.entrySet()) {
+            int wins = entry.getValue().winCount.intValue();
+            if (wins > 0) {
+                counts.put(entry.getKey(), wins);
+            }
         }
-        
         return counts;
     }
-    
+
     /**
      * Get the number of losing bets for each horse
-     * 
+     *
      * @return Map of horse to loss count
      */
     public Map<Horse, Integer> getLossCountByHorse() {
         Map<Horse, Integer> counts = new HashMap<>();
-        
-        for (Bet bet : getLosingBets()) {
-            Horse horse = bet.getHorse();
-            counts.put(horse, counts.getOrDefault(horse, 0) + 1);
+        for (Map.Entry<Horse, Tally> entry : horseTotals.entrySet()) {
+            int losses = entry.getValue().lossCount.intValue();
+            if (losses > 0) {
+                counts.put(entry.getKey(), losses);
+            }
         }
-        
         return counts;
     }
-    
+
     /**
      * Get the total amount bet across all bets
-     * 
+     *
      * @return Total bet amount
      */
     public double getTotalBetAmount() {
-        return bets.stream()
-                .mapToDouble(Bet::getAmount)
-                .sum();
+        return overallTotals.stakeCents.sum() / 100.0;
     }
-    
+
     /**
      * Get the total amount bet on a specific horse
-     * 
+     *
      * @param horse The horse to get bet amount for
      * @return Total bet amount on the horse
      */
     public double getTotalBetOnHorse(Horse horse) {
-        return bets.stream()
-                .filter(bet -> bet.getHorse().equals(horse))
-                .mapToDouble(Bet::getAmount)
-                .sum();
+        Tally tally = horseTotals.get(horse);
+        return tally == null ? 0.0 : tally.stakeCents.sum() / 100.0;
     }
-    
+
     /**
      * Get the total winnings from all bets
-     * 
+     *
      * @return Total winnings
      */
     public double getTotalWinnings() {
-        return getWinningBets().stream()
-                .mapToDouble(Bet::getPayout)
-                .sum();
+        return overallTotals.payoutCents.sum() / 100.0;
     }
-    
+
     /**
      * Get the overall win rate (wins / total settled bets)
-     * 
+     *
      * @return Win rate as a decimal (0.0 to 1.0)
      */
     public double getOverallWinRate() {
-        List<Bet> settledBets = getSettledBets();
-        if (settledBets.isEmpty()) {
-            return 0.0;
-        }
-        
-        return (double) getWinningBets().size() / settledBets.size();
+        return overallTotals.getWinRate();
     }
-    
+
     /**
      * Get the win rate for a specific horse
-     * 
+     *
      * @param horse The horse to get win rate for
      * @return Win rate as a decimal (0.0 to 1.0)
      */
     public double getWinRateForHorse(Horse horse) {
-        List<Bet> horseBets = bets.stream()
-                .filter(bet -> bet.getHorse().equals(horse) && bet.isSettled())
-                .collect(Collectors.toList());
-        
-        if (horseBets.isEmpty()) {
-            return 0.0;
-        }
-        
-        long wins = horseBets.stream()
-                .filter(Bet::isWon)
-                .count();
-        
-        return (double) wins / horseBets.size();
+        Tally tally = horseTotals.get(horse);
+        return tally == null ? 0.0 : tally.getWinRate();
     }
-    
+
     /**
-     * Clear all bet history
+     * Get the running totals of the bets on a horse
+     *
+     * @param horse The horse
+     * @return The totals (all zero if nothing was bet on the horse)
+     */
+    public Totals getTotalsForHorse(Horse horse) {
+        Tally tally = horseTotals.get(horse);
+        return tally == null ? new Tally().read() : tally.read();
+    }
+
+    /**
+     * Get the running totals of the bets on a race
+     *
+     * @param raceId The race id the bets were placed with
+     * @return The totals (all zero if nothing was bet on the race)
+     */
+    public Totals getTotalsForRace(long raceId) {
+        Tally tally = raceTotals.get(raceId);
+        return tally == null ? new Tally().read() : tally.read();
+    }
+
+    /**
+     * Get the running totals of every bet
+     *
+     * @return The totals
+     */
+    public Totals getOverallTotals() {
+        return overallTotals.read();
+    }
+
+    /**
+     * Clear all bet history. Not to be called while bets are being added.
      */
     public void clear() {
+        for (Bet bet : unsettledBets.values()) {
+            bet.detach(this);
+        }
         bets.clear();
+        unsettledBets.clear();
+        horseTotals.clear();
+        raceTotals.clear();
+        overallTotals = new Tally();
     }
-}
\ No newline at end of file
+}
@@ -5,7 +5,6 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.DecimalFormat;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -361,17 +360,17 @@ public class BettingPanel extends JPanel {
     private void updateHorseSelector() {
         horseSelector.removeAllItems();
         
-        // Get horses from the race manager
-        List<Horse> horses = raceManager != null ? raceManager.getHorses() : null;
+        // Get the field from the race manager's latest snapshot
+        RaceSnapshot snapshot = raceManager != null ? raceManager.getSnapshot() : null;
         
         // Get current odds to ensure we only show horses in the current race
         Map<Horse, Double> odds = bettingService.getCurrentOdds();
         
         // Add horses to the selector
-        if (odds.isEmpty() && horses != null) {
+        if (odds.isEmpty() && snapshot != null) {
             // If no odds calculated yet, use all horses from race manager
-            for (Horse horse : horses) {
-                horseSelector.addItem(horse);
+            for (int i = 0; i < snapshot.getSize(); i++) {
+                horseSelector.addItem(snapshot.getHorse(i));
             }
         } else {
             // Otherwise use horses with calculated odds
@@ -2,6 +2,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import javax.swing.event.EventListenerList;
 import java.util.EventListener;
 
@@ -9,16 +11,32 @@ import java.util.EventListener;
  * Main service class for the betting system.
  * Manages odds calculation, bet placement, and race settlement.
  * Provides events for UI components to stay updated.
+ * 
+ * Bets can be placed from many threads at once without a service-wide lock:
+ * each stake is taken from its wallet atomically, the odds book moves by
+ * compare-and-set, and the history appends without locking. The book is
+ * published through an atomic reference, so a new race or new in-running
+ * prices replace the odds in one swap and readers never see half of them.
+ * The race moves between its states by compare-and-set too, so only one
+ * caller can start, settle or end a race and its bets are paid out once.
+ * Starting a race closes the book bets were taken in, so a bet still on its
+ * way in when the race starts is either taken before that or refunded, and
+ * waits for the bets taken to be recorded, so settling the race sees them all.
  */
 public class BettingService {
     private static BettingService instance;
     
     private OddsCalculator oddsCalculator;
-    private BettingHistory bettingHistory;
-    private VirtualWallet wallet;
-    private Map<Horse, Double> currentOdds;
+    private volatile BettingHistory bettingHistory;
+    private VirtualWallet wallet; // The house punter's wallet, used when a bet names no other
+    private WalletService walletService; // Every bettor's account
+    private AtomicReference<OddsCalculator.OddsBook> oddsBook; // Odds of the current race, moved by each bet
     private EventListenerList listenerList;
-    private boolean raceInProgress;
+    private AtomicReference<RaceState> raceState; // Where the current race is, claimed by compare-and-set
+    private InRunningOddsPricer inRunningPricer; // Updates the odds while a race is running
+    private volatile long currentRaceId; // Id of the race bets are being taken on, counted from 1, moved on by settling
+    private volatile double unclaimedWinnings; // Winnings owed to wallets closed before their race was settled
+    private LongAdder placing; // Bets past the state check and not yet recorded
     
     /**
      * Private constructor for singleton pattern
@@ -26,10 +44,23 @@ public class BettingService {
     private BettingService() {
         this.oddsCalculator = new OddsCalculator();
         this.bettingHistory = new BettingHistory();
-        this.wallet = new VirtualWallet();
-        this.currentOdds = new HashMap<>();
+        this.walletService = WalletService.getInstance();
+        this.wallet = new VirtualWallet(walletService);
+        this.oddsBook = new AtomicReference<>(emptyBook());
         this.listenerList = new EventListenerList();
-        this.raceInProgress = false;
+        this.raceState = new AtomicReference<>(RaceState.IDLE);
+        this.inRunningPricer = new InRunningOddsPricer();
+        this.placing = new LongAdder();
+        this.currentRaceId = 1;
+    }
+    
+    /**
+     * Where the current race is in its life
+     */
+    private enum RaceState {
+        IDLE,        // No race; bets can be taken for the next one
+        IN_PROGRESS, // The race is running; bets are closed
+        SETTLING     // One caller is paying out the race's bets
     }
     
     /**
@@ -44,13 +75,20 @@ public class BettingService {
         return instance;
     }
     
+    /**
+     * A book with no horses in it, for when there is no race to bet on
+     */
+    private OddsCalculator.OddsBook emptyBook() {
+        return oddsCalculator.openBook(new HashMap<Horse, Double>(), bettingHistory);
+    }
+    
     /**
      * Get the current odds for all horses
      * 
      * @return Map of horse to odds
      */
     public Map<Horse, Double> getCurrentOdds() {
-        return new HashMap<>(currentOdds);
+        return new HashMap<>(oddsBook.get().getOdds());
     }
     
     /**
@@ -60,7 +98,16 @@ public class BettingService {
      * @return The odds, or 0 if the horse is not in the current race
      */
     public double getOddsForHorse(Horse horse) {
-        return currentOdds.getOrDefault(horse, 0.0);
+        return oddsBook.get().getOdds().getOrDefault(horse, 0.0);
+    }
+    
+    /**
+     * Get the book the current odds come from
+     * 
+     * @return The odds book of the current race (empty if there is none)
+     */
+    public OddsCalculator.OddsBook getOddsBook() {
+        return oddsBook.get();
     }
     
     /**
@@ -76,7 +123,7 @@ public class BettingService {
     }
     
     /**
-     * Place a bet on a horse
+     * Place a bet on a horse, paid from the service's wallet
      * 
      * @param horse The horse to bet on
      * @param amount The bet amount
@@ -87,9 +134,44 @@ public class BettingService {
      */
     public Bet placeBet(Horse horse, double amount) 
             throws VirtualWallet.InsufficientFundsException, IllegalStateException, IllegalArgumentException {
+        return placeBet(null, horse, amount);
+    }
+    
+    /**
+     * Place a bet on a horse, paid from an account in the wallet service.
+     * Any winnings are paid back into the account when the race is settled.
+     * 
+     * @param account The account id in the wallet service
+     * @param horse The horse to bet on
+     * @param amount The bet amount
+     * @return The placed bet
+     * @throws VirtualWallet.InsufficientFundsException if there are not enough funds
+     * @throws IllegalStateException if a race is in progress
+     * @throws IllegalArgumentException if the bet amount is invalid or there is no such account
+     */
+    public Bet placeBet(int account, Horse horse, double amount) 
+            throws VirtualWallet.InsufficientFundsException, IllegalStateException, IllegalArgumentException {
+        return placeBet(walletService.getWallet(account), horse, amount);
+    }
+    
+    /**
+     * Place a bet on a horse, paid from a bettor's own wallet. Any winnings
+     * are paid back into the same wallet when the race is settled. Safe to
+     * call from many threads at once.
+     * 
+     * @param payer The wallet to take the stake from, or null for the service's wallet
+     * @param horse The horse to bet on
+     * @param amount The bet amount
+     * @return The placed bet
+     * @throws VirtualWallet.InsufficientFundsException if there are not enough funds
+     * @throws IllegalStateException if a race is in progress or starts before the bet is taken
+     * @throws IllegalArgumentException if the bet amount is invalid
+     */
+    public Bet placeBet(VirtualWallet payer, Horse horse, double amount) 
+            throws VirtualWallet.InsufficientFundsException, IllegalStateException, IllegalArgumentException {
         // Add this at the beginning of your BettingService.placeBet method
         // Check if race is in proper state for betting
-        if (raceInProgress) {
+        if (raceState.get() != RaceState.IDLE) {
             throw new IllegalStateException("Cannot place bets while a race is in progress");
         }
 
@@ -108,7 +190,7 @@ public class BettingService {
         }
         
         // Check if the horse is in the current race
-        if (!currentOdds.containsKey(horse)) {
+        if (!oddsBook.get().contains(horse)) {
             throw new IllegalArgumentException("Horse is not in the current race");
         }
         
@@ -116,19 +198,38 @@ public class BettingService {
             throw new IllegalArgumentException("Bet amount must be positive");
         }
         
-        // Check if there are sufficient funds and withdraw the amount
-        wallet.withdraw(amount);
-        
-        // Rest of the method remains the same...
-        // Create the bet with current odds
-        double odds = currentOdds.get(horse);
-        Bet bet = new Bet(horse, amount, odds);
-        
-        // Add to betting history
-        bettingHistory.addBet(bet);
-        
-        // Recalculate odds after the bet
-        recalculateOdds();
+        // From here a race that starts waits for the bet to be refused or recorded
+        VirtualWallet account = payer != null ? payer : wallet;
+        Bet bet;
+        placing.increment();
+        try {
+            // Check if there are sufficient funds and withdraw the amount
+            account.withdraw(amount);
+            
+            // Take the bet at the current odds and move them by its stake; the
+            // field is not repriced. If the book was repriced meanwhile the stake
+            // went into one nobody reads, so take it again in the new one. A closed
+            // book means the race has started: a bet taken before that stands,
+            // a bet refused by it gets its stake back
+            double odds;
+            try {
+                OddsCalculator.OddsBook book;
+                do {
+                    book = oddsBook.get();
+                    odds = book.addBet(horse, amount);
+                } while (oddsBook.get() != book && !book.isClosed());
+            } catch (RuntimeException e) {
+                account.addFunds(amount);
+                throw e;
+            }
+            bet = new Bet(horse, amount, odds, currentRaceId, payer);
+            
+            // Add to betting history
+            bettingHistory.addBet(bet);
+        } finally {
+            placing.decrement();
+        }
+        fireOddsChangedEvent();
         
         // Fire bet placed event
         fireBetPlacedEvent(bet);
@@ -137,40 +238,60 @@ public class BettingService {
     }
     
     /**
-     * Settle all outstanding bets after a race
+     * Settle all outstanding bets after a race. Winnings owed to a wallet
+     * that has been closed since its bet was placed cannot be paid; they are
+     * left out of the payout and added to the unclaimed winnings instead.
      * 
      * @param winner The winning horse
      * @return Total payout amount
      */
     public double settleRace(Horse winner) {
-        if (!raceInProgress) {
+        // Claim the settlement, so a second caller cannot pay the bets again
+        if (!raceState.compareAndSet(RaceState.IN_PROGRESS, RaceState.SETTLING)) {
             throw new IllegalStateException("No race in progress to settle");
         }
         
         double totalPayout = 0.0;
-        
-        // Get all unsettled bets
-        List<Bet> unsettledBets = new ArrayList<>();
-        for (Bet bet : bettingHistory.getAllBets()) {
-            if (!bet.isSettled()) {
-                unsettledBets.add(bet);
+        double servicePayout = 0.0;
+        double unpaid = 0.0;
+        int unpaidBets = 0;
+        try {
+            inRunningPricer.stop();
+            
+            // Settle each unsettled bet, paying bettors' winnings into their own wallets
+            for (Bet bet : bettingHistory.getUnsettledBets()) {
+                double payout = bet.settle(winner); // 0 if it was already settled
+                if (payout > 0 && bet.getWallet() != null) {
+                    try {
+                        bet.getWallet().addFunds(payout);
+                    } catch (IllegalStateException e) {
+                        // The bettor's wallet was closed after the bet was placed
+                        unpaid += payout;
+                        unpaidBets++;
+                        continue;
+                    }
+                } else {
+                    servicePayout += payout;
+                }
+                totalPayout += payout;
             }
+            
+            // Add the rest of the payout to the service's wallet
+            if (servicePayout > 0) {
+                wallet.addFunds(servicePayout);
+            }
+            if (unpaidBets > 0) {
+                unclaimedWinnings += unpaid;
+                System.err.printf("Winnings of %d bets (%.2f) not paid: their wallets are closed%n", unpaidBets, unpaid);
+            }
+        } finally {
+            // Bets taken from now on are for the next race
+            currentRaceId++;
+            
+            // Race is no longer in progress
+            raceState.set(RaceState.IDLE);
         }
         
-        // Settle each bet
-        for (Bet bet : unsettledBets) {
-            double payout = bet.settle(winner);
-            totalPayout += payout;
-        }
-        
-        // Add the payout to the wallet
-        if (totalPayout > 0) {
-            wallet.addFunds(totalPayout);
-        }
-        
-        // Race is no longer in progress
-        raceInProgress = false;
-        
         // Fire race settled event
         fireRaceSettledEvent(winner, totalPayout);
         
@@ -184,47 +305,100 @@ public class BettingService {
      * @param track The track for the race
      */
     public void startRace(List<Horse> horses, Track track) {
-        if (raceInProgress) {
+        // Price the field once for the race; bets then move the odds incrementally
+        OddsCalculator.OddsBook book = oddsCalculator.openBook(horses, track, bettingHistory);
+        
+        // Set race in progress
+        if (!raceState.compareAndSet(RaceState.IDLE, RaceState.IN_PROGRESS)) {
             throw new IllegalStateException("A race is already in progress");
         }
         
-        // Calculate initial odds
-        currentOdds = oddsCalculator.calculateOdds(horses, track, bettingHistory);
-        
-        // Set race in progress
-        raceInProgress = true;
+        // Close betting, then wait for the bets taken before that to be recorded
+        oddsBook.get().close();
+        while (placing.sum() != 0) {
+            Thread.onSpinWait();
+        }
+        oddsBook.set(book);
         
         // Fire odds changed event
         fireOddsChangedEvent();
     }
     
     /**
-     * Recalculate odds during a race (e.g., due to new bets or track condition changes)
+     * Reprice the field from scratch (e.g., after a track condition change).
+     * Bets do not need this: they move the odds of the current book.
      */
     public void recalculateOdds() {
         // Get current horses
-        List<Horse> horses = new ArrayList<>(currentOdds.keySet());
+        List<Horse> horses = new ArrayList<>(oddsBook.get().getHorses());
         
         // Need to get the track from the race manager
         Track track = RaceManagerSingleton.getInstance().getTrack();
         
         // Calculate new odds
-        currentOdds = oddsCalculator.calculateOdds(horses, track, bettingHistory);
+        oddsBook.set(oddsCalculator.openBook(horses, track, bettingHistory));
         
         // Fire odds changed event
         fireOddsChangedEvent();
     }
     
+    /**
+     * Start updating the odds while a race runs. The race is priced from its
+     * current state on the pricer's cadence, and every update is announced
+     * through oddsChanged, on the pricing thread. Stops by itself when the race ends.
+     * Open the race's book first: updates only ever replace the book they
+     * started from, so once another book is opened the updates are dropped.
+     * 
+     * @param raceManager The running race
+     */
+    public void startInRunningOdds(RaceManager raceManager) {
+        AtomicReference<OddsCalculator.OddsBook> pricedBook = new AtomicReference<>(oddsBook.get());
+        inRunningPricer.start(raceManager, probabilities -> updateInRunningOdds(pricedBook, probabilities));
+    }
+    
+    /**
+     * Stop updating the odds during the race
+     */
+    public void stopInRunningOdds() {
+        inRunningPricer.stop();
+    }
+    
+    /**
+     * Get the pricer behind the in-running odds, to change its cadence or budget
+     * 
+     * @return The in-running pricer
+     */
+    public InRunningOddsPricer getInRunningPricer() {
+        return inRunningPricer;
+    }
+    
+    /**
+     * Replace the odds with in-running prices and tell the listeners, unless
+     * another race's book has been opened since pricing started
+     * 
+     * @param pricedBook The book the last update put in place, moved on by this one
+     * @param winProbabilities The latest win probability of each horse
+     */
+    private void updateInRunningOdds(AtomicReference<OddsCalculator.OddsBook> pricedBook,
+                                     Map<Horse, Double> winProbabilities) {
+        OddsCalculator.OddsBook expected = pricedBook.get();
+        OddsCalculator.OddsBook book = oddsCalculator.openBook(winProbabilities, bettingHistory);
+        if (oddsBook.compareAndSet(expected, book)) {
+            pricedBook.set(book);
+            fireOddsChangedEvent();
+        }
+    }
+    
     /**
      * End the current race without settling bets
      * (used if race is canceled)
      */
     public void endRace() {
-        if (!raceInProgress) {
+        if (!raceState.compareAndSet(RaceState.IN_PROGRESS, RaceState.IDLE)) {
             return;
         }
         
-        raceInProgress = false;
+        inRunningPricer.stop();
         
         // Fire race ended event
         fireRaceEndedEvent();
@@ -236,7 +410,29 @@ public class BettingService {
      * @return true if a race is in progress, false otherwise
      */
     public boolean isRaceInProgress() {
-        return raceInProgress;
+        return raceState.get() != RaceState.IDLE;
+    }
+    
+    /**
+     * Get the id of the race bets are being taken on. Every bet records it,
+     * so the history can total the bets race by race. The id moves on when
+     * a race is settled; a race ended without settling leaves its bets for
+     * the next race, so that race keeps the same id.
+     * 
+     * @return The race id, counted from 1
+     */
+    public long getCurrentRaceId() {
+        return currentRaceId;
+    }
+    
+    /**
+     * Get the winnings that could not be paid because the bettor's wallet
+     * had been closed by the time the race was settled
+     * 
+     * @return The total unclaimed winnings
+     */
+    public double getUnclaimedWinnings() {
+        return unclaimedWinnings;
     }
     
     /**
@@ -257,6 +453,15 @@ public class BettingService {
         return wallet;
     }
     
+    /**
+     * Get the service holding every bettor's account
+     * 
+     * @return The wallet service
+     */
+    public WalletService getWalletService() {
+        return walletService;
+    }
+    
     /**
      * Reset the betting system
      * Clears betting history and resets the wallet
@@ -269,7 +474,7 @@ public class BettingService {
         wallet.reset();
         
         // Clear current odds
-        currentOdds.clear();
+        oddsBook.set(emptyBook());
         
         // Fire reset event
         fireResetEvent();
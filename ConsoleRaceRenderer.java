@@ -0,0 +1,174 @@
+import java.util.List;
+
+/**
+ * Race sink that draws the race on the terminal after every tick and prints
+ * the results when it ends. This is the output of the console version of Race.
+ */
+public class ConsoleRaceRenderer implements RaceSink {
+
+    @Override
+    public void onTick(RaceEngine race) {
+        printRace(race);
+    }
+
+    @Override
+    public void onRaceEnd(RaceEngine race, Horse winner) {
+        if (race.reachedRoundLimit()) {
+            System.out.println("\nRace ended due to maximum number of rounds reached!");
+        }
+        announceWinner(race, winner);
+    }
+
+    /**
+     * Announce the winner of the race
+     */
+    private void announceWinner(RaceEngine race, Horse winner)
+    {
+        List<Horse> horses = race.getHorses();
+        List<Integer> lanes = race.getLanes();
+        System.out.println("\n*** RACE RESULTS ***");
+
+        // Display winner with emphasis
+        if (winner != null) {
+            System.out.println("🏆 " + winner.getName() + " IS THE WINNER! 🏆");
+
+            // Add explanation if race ended prematurely
+            if (race.allHorsesFallen()) {
+                System.out.println("Race ended early as all horses fell. Winner determined by distance traveled.");
+            }
+        } else {
+            System.out.println("No horses completed the race!");
+        }
+
+        // Print race statistics
+        System.out.println("\nRace Statistics:");
+        for (int i = 0; i < horses.size(); i++) {
+            Horse horse = horses.get(i);
+            System.out.printf("Lane %d: %s - Distance: %.1f/%d%s%n",
+                lanes.get(i),
+                horse.getName(),
+                horse.getDistanceTravelled(),
+                race.getTrack().getLength(),
+                horse == winner ? " (WINNER)" : "");
+        }
+
+        // Print fallen horses
+        System.out.println("\nFallen horses:");
+        boolean anyFallen = false;
+        for (Horse horse : horses) {
+            if (horse.hasFallen()) {
+                System.out.println(horse.getName() + " has fallen at position " + horse.getDistanceTravelled());
+                anyFallen = true;
+            }
+        }
+        if (!anyFallen) {
+            System.out.println("No horses fell during this race!");
+        }
+
+        // Print final confidence values
+        System.out.println("\nHorse confidence values:");
+        for (Horse horse : horses) {
+            System.out.printf("%s (Current confidence %.2f)%n", horse.getName(), horse.getConfidence());
+        }
+    }
+
+    /**
+     * Clear the terminal screen
+     * Uses a more portable approach than \u000C
+     */
+    private void clearScreen() {
+        // First try ANSI escape code (works on most terminals)
+        System.out.print("\033[H\033[2J");
+        System.out.flush();
+
+        // Fallback to printing newlines
+        for (int i = 0; i < 50; i++) {
+            System.out.println();
+        }
+    }
+
+    /***
+     * Print the race on the terminal
+     */
+    private void printRace(RaceEngine race)
+    {
+        int raceLength = race.getTrack().getLength();
+        List<Horse> horses = race.getHorses();
+        List<Integer> lanes = race.getLanes();
+        clearScreen();  // Clear the terminal window using improved method
+
+        multiplePrint('=', raceLength + 3); //top edge of track
+        System.out.println();
+
+        for (int i = 0; i < horses.size(); i++) {
+            Horse horse = horses.get(i);
+            printLane(horse, lanes.get(i), raceLength);
+            System.out.println(" " + horse.getName());
+        }
+
+        multiplePrint('=', raceLength + 3); //bottom edge of track
+        System.out.println();
+    }
+
+    /**
+     * print a horse's lane during the race
+     * for example
+     * |           X                      |
+     * to show how far the horse has run
+     */
+    private void printLane(Horse theHorse, int laneNumber, int raceLength)
+    {
+        // Calculate how many spaces are needed before
+        // and after the horse
+        int spacesBefore = theHorse.getDistanceAsInt();
+        int spacesAfter = raceLength - theHorse.getDistanceAsInt();
+
+        // Ensure we don't get negative spaces if horse goes beyond finish line
+        if (spacesAfter < 0) spacesAfter = 0;
+
+        // Print a | for the beginning of the lane
+        System.out.print(laneNumber + ":|");
+
+        // Print the spaces before the horse
+        multiplePrint(' ', spacesBefore);
+
+        // If the horse has fallen then print dead
+        // else print the horse's symbol
+        if (theHorse.hasFallen())
+        {
+            System.out.print('X');  // Simple ASCII for fallen horse
+        }
+        else
+        {
+            // If Unicode is likely to cause issues, use ASCII fallback
+            try {
+                System.out.print(theHorse.getSymbol());
+            } catch (Exception e) {
+                System.out.print('>'); // ASCII fallback
+            }
+        }
+
+        // Print the spaces after the horse
+        multiplePrint(' ', spacesAfter);
+
+        // Print the | for the end of the track
+        System.out.print('|');
+    }
+
+    /***
+     * print a character a given number of times.
+     * e.g. printmany('x',5) will print: xxxxx
+     *
+     * @param aChar the character to Print
+     * @param times number of times to print the character
+     */
+    private void multiplePrint(char aChar, int times)
+    {
+        // Don't try to print negative number of times
+        if (times < 0) times = 0;
+
+        for (int i = 0; i < times; i++) {
+            System.out.print(aChar);
+        }
+    }
+}
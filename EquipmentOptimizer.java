@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds the equipment that gives a horse the best chance of winning against
+ * a field on a track, by simulating every loadout (every saddle, horseshoe
+ * and accessory combination) rather than trying them one by one.
+ *
+ * Loadouts are scored by successive halving: every loadout gets a few
+ * batches of races, loadouts whose win chance is clearly below the best one
+ * are dropped, the better half of the rest go on to a round with twice the
+ * races, and so on until only the requested number of loadouts is left.
+ * Most of the races are spent telling the good loadouts apart instead of
+ * confirming that the bad ones are bad.
+ *
+ * Every loadout is raced on the same random numbers, batch for batch, and
+ * changing equipment re-rolls a horse's turn handling, stamina and luck, so
+ * each batch also rolls those from a seed every loadout shares. Differences
+ * between loadouts then come from the equipment and not from the dice.
+ * Each batch rolls afresh, so a score is the win chance averaged over the
+ * rolls equipping the horse could give, and its confidence interval comes
+ * from the spread between batches.
+ */
+public class EquipmentOptimizer {
+    public static final int DEFAULT_RACES_PER_BATCH = 200; // Races in each batch
+    public static final int DEFAULT_INITIAL_BATCHES = 2;   // Batches every loadout gets in the first round
+    public static final int DEFAULT_MAX_BATCHES = 64;      // Batches a loadout gets at most
+    private static final double Z_95 = 1.96;              // z-score for a 95% confidence interval
+
+    /**
+     * A loadout and how it scored
+     */
+    public static class Loadout {
+        private HorseEquipment equipment;
+        private int batches;          // Batches raced so far
+        private long wins;            // Wins over all batches
+        private double squares;       // Sum of squared batch win counts
+        private int racesPerBatch;
+        private int eliminatedInRound = -1; // Round the loadout was dropped in, or -1 if it was kept
+
+        Loadout(HorseEquipment equipment, int racesPerBatch) {
+            this.equipment = equipment;
+            this.racesPerBatch = racesPerBatch;
+        }
+
+        void addBatch(long batchWins) {
+            batches++;
+            wins += batchWins;
+            squares += (double) batchWins * batchWins;
+        }
+
+        public HorseEquipment getEquipment() {
+            return equipment;
+        }
+
+        /**
+         * Get the number of races simulated with this loadout
+         *
+         * @return The race count
+         */
+        public long getRaces() {
+            return (long) batches * racesPerBatch;
+        }
+
+        /**
+         * Get the estimated win chance with this loadout
+         *
+         * @return The win chance, from 0 to 1
+         */
+        public double getWinProbability() {
+            return batches == 0 ? 0 : (double) wins / getRaces();
+        }
+
+        /**
+         * Get the standard error of the win chance, measured from the spread between batches
+         *
+         * @return The standard error, or the binomial one if there are too few batches to measure it
+         */
+        public double getStandardError() {
+            double p = getWinProbability();
+            if (batches < 2) {
+                return Math.sqrt(p * (1 - p) / Math.max(1, getRaces()));
+            }
+            double mean = (double) wins / batches;
+            double batchVariance = Math.max(0, (squares - batches * mean * mean) / (batches - 1));
+            return Math.sqrt(batchVariance / batches) / racesPerBatch;
+        }
+
+        /**
+         * Get the win chance with a 95% confidence interval
+         *
+         * @return The win estimate
+         */
+        public MonteCarloOddsEngine.Estimate getWin() {
+            double p = getWinProbability();
+            double error = getStandardError();
+            double trials = error > 0 ? p * (1 - p) / (error * error) : getRaces();
+            return MonteCarloOddsEngine.Estimate.fromProbability(p, Math.max(1, trials));
+        }
+
+        public double getLower() {
+            return getWinProbability() - Z_95 * getStandardError();
+        }
+
+        public double getUpper() {
+            return getWinProbability() + Z_95 * getStandardError();
+        }
+
+        /**
+         * Get the round this loadout was dropped in
+         *
+         * @return The round number, or -1 if it made the final selection
+         */
+        public int getEliminatedInRound() {
+            return eliminatedInRound;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s / %s / %s: %s (%,d races)", equipment.getSaddle().getName(),
+                equipment.getHorseshoes().getName(), equipment.getAccessory().getName(), getWin(), getRaces());
+        }
+    }
+
+    /**
+     * The outcome of an optimization
+     */
+    public static class OptimizationResult {
+        private List<Loadout> best;     // Kept loadouts, best first
+        private List<Loadout> all;      // Every loadout, kept ones first, then by the round they were dropped in
+        private int rounds;
+        private long races;
+        private double seconds;
+
+        OptimizationResult(List<Loadout> best, List<Loadout> all, int rounds, long races, double seconds) {
+            this.best = best;
+            this.all = all;
+            this.rounds = rounds;
+            this.races = races;
+            this.seconds = seconds;
+        }
+
+        /**
+         * Get the loadouts that made the final selection
+         *
+         * @return The kept loadouts, best first
+         */
+        public List<Loadout> getBest() {
+            return best;
+        }
+
+        /**
+         * Get every loadout tried
+         *
+         * @return The loadouts, kept ones first, then later drops before earlier ones
+         */
+        public List<Loadout> getAll() {
+            return all;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * Get the number of races simulated in total
+         *
+         * @return The race count
+         */
+        public long getRaces() {
+            return races;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(
+                "%d loadouts, %d rounds, %,d races in %.2f s%n", all.size(), rounds, races, seconds));
+            for (int i = 0; i < best.size(); i++) {
+                text.append(String.format("%d. %s%n", i + 1, best.get(i)));
+            }
+            return text.toString();
+        }
+    }
+
+    private ForkJoinPool pool;            // Pool the loadouts are scored on
+    private MonteCarloOddsEngine engine;  // Simulates each batch
+    private int racesPerBatch = DEFAULT_RACES_PER_BATCH;
+    private int initialBatches = DEFAULT_INITIAL_BATCHES;
+    private int maxBatches = DEFAULT_MAX_BATCHES;
+
+    /**
+     * Constructor using the common ForkJoin pool
+     */
+    public EquipmentOptimizer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor with a specific ForkJoin pool
+     *
+     * @param pool The pool to score loadouts on
+     */
+    public EquipmentOptimizer(ForkJoinPool pool) {
+        this.pool = pool;
+        this.engine = new MonteCarloOddsEngine(pool);
+    }
+
+    /**
+     * Get every combination of saddle, horseshoes and accessory
+     *
+     * @return The loadouts
+     */
+    public static List<HorseEquipment> allLoadouts() {
+        List<HorseEquipment> loadouts = new ArrayList<>();
+        for (HorseEquipment.SaddleType saddle : HorseEquipment.SaddleType.values()) {
+            for (HorseEquipment.HorseshoeType horseshoes : HorseEquipment.HorseshoeType.values()) {
+                for (HorseEquipment.AccessoryType accessory : HorseEquipment.AccessoryType.values()) {
+                    loadouts.add(new HorseEquipment(saddle, horseshoes, accessory));
+                }
+            }
+        }
+        return loadouts;
+    }
+
+    /**
+     * Find the best loadouts for a horse racing a field on a track
+     *
+     * @param horse The horse to equip
+     * @param rivals The horses it races against
+     * @param track The track to race on (with its condition)
+     * @param keep The number of loadouts to return
+     * @return The best loadouts with their win chances
+     */
+    public OptimizationResult optimize(Horse horse, List<Horse> rivals, Track track, int keep) {
+        return optimize(horse, rivals, track, allLoadouts(), keep, RaceRandom.randomSeed());
+    }
+
+    /**
+     * Find the best of some loadouts, reproducibly
+     *
+     * @param horse The horse to equip
+     * @param rivals The horses it races against
+     * @param track The track to race on (with its condition)
+     * @param candidates The loadouts to try
+     * @param keep The number of loadouts to return
+     * @param seed The seed every batch's races and attribute rolls are derived from
+     * @return The best loadouts with their win chances
+     */
+    public OptimizationResult optimize(Horse horse, List<Horse> rivals, Track track,
+                                       List<HorseEquipment> candidates, int keep, long seed) {
+        if (candidates.isEmpty() || keep < 1) {
+            throw new IllegalArgumentException("Need at least one loadout to try and one to keep");
+        }
+        long start = System.nanoTime();
+        List<Horse> field = new ArrayList<>();
+        field.add(horse);
+        for (Horse rival : rivals) {
+            field.add(new Horse(rival));
+        }
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < field.size(); i++) {
+            lanes.add(i);
+        }
+
+        List<Loadout> alive = new ArrayList<>();
+        for (HorseEquipment equipment : candidates) {
+            alive.add(new Loadout(equipment, racesPerBatch));
+        }
+        List<Loadout> dropped = new ArrayList<>();
+        Comparator<Loadout> byWin = Comparator.comparingDouble(Loadout::getWinProbability).reversed();
+
+        int round = 0;
+        int target = Math.min(initialBatches, maxBatches);
+        while (true) {
+            scoreRound(alive, horse, field, lanes, track, target, seed);
+            Collections.sort(alive, byWin);
+            if (alive.size() <= keep || target >= maxBatches) {
+                break;
+            }
+
+            // Drop loadouts that are clearly worse than the leader, then the worse half of the rest
+            double bar = alive.get(0).getLower();
+            int survivors = 0;
+            for (Loadout loadout : alive) {
+                if (loadout.getUpper() >= bar) {
+                    survivors++;
+                }
+            }
+            survivors = Math.max(keep, Math.min(survivors, (alive.size() + 1) / 2));
+            for (Loadout loadout : alive.subList(survivors, alive.size())) {
+                loadout.eliminatedInRound = round;
+            }
+            List<Loadout> eliminated = new ArrayList<>(alive.subList(survivors, alive.size()));
+            Collections.sort(eliminated, byWin);
+            dropped.addAll(0, eliminated);
+            alive = new ArrayList<>(alive.subList(0, survivors));
+
+            round++;
+            target = Math.min(maxBatches, target * 2);
+        }
+
+        // Anything beyond keep left when the batch limit was reached is dropped in the last round
+        List<Loadout> best = new ArrayList<>(alive.subList(0, Math.min(keep, alive.size())));
+        for (int i = alive.size() - 1; i >= best.size(); i--) {
+            alive.get(i).eliminatedInRound = round;
+            dropped.add(0, alive.get(i));
+        }
+        List<Loadout> all = new ArrayList<>(best);
+        all.addAll(dropped);
+        long races = 0;
+        for (Loadout loadout : all) {
+            races += loadout.getRaces();
+        }
+        return new OptimizationResult(Collections.unmodifiableList(best), Collections.unmodifiableList(all),
+            round + 1, races, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Bring every loadout up to a number of batches, scoring the loadouts in parallel
+     */
+    private void scoreRound(List<Loadout> loadouts, Horse horse, List<Horse> field, List<Integer> lanes,
+                            Track track, int batches, long seed) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Loadout loadout : loadouts) {
+            tasks.add(pool.submit(() -> {
+                List<Horse> equipped = new ArrayList<>(field);
+                while (loadout.batches < batches) {
+                    int batch = loadout.batches;
+                    // Same attribute rolls and race seed for every loadout in this batch
+                    equipped.set(0, new Horse(horse, loadout.equipment, RaceRandom.deriveSeed(~seed, batch)));
+                    MonteCarloOddsEngine.SimulationResult result = engine.simulate(equipped, lanes, track,
+                        racesPerBatch, RaceRandom.deriveSeed(seed, batch));
+                    loadout.addBatch(result.getCounts()[0]);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Set the number of races in each batch
+     *
+     * @param races The race count (must be positive)
+     */
+    public void setRacesPerBatch(int races) {
+        if (races > 0) {
+            this.racesPerBatch = races;
+        }
+    }
+
+    public int getRacesPerBatch() {
+        return racesPerBatch;
+    }
+
+    /**
+     * Set the number of batches every loadout gets in the first round
+     *
+     * @param batches The batch count (at least 2, so the spread can be measured)
+     */
+    public void setInitialBatches(int batches) {
+        this.initialBatches = Math.max(2, batches);
+    }
+
+    public int getInitialBatches() {
+        return initialBatches;
+    }
+
+    /**
+     * Set the number of batches a loadout gets at most. Once the survivors
+     * reach it, the best of them are returned even if more were to be kept.
+     *
+     * @param batches The batch limit
+     */
+    public void setMaxBatches(int batches) {
+        this.maxBatches = Math.max(2, batches);
+    }
+
+    public int getMaxBatches() {
+        return maxBatches;
+    }
+}
@@ -23,6 +23,7 @@ public class Horse
     private double turnHandling;   // How well the horse handles turns (0.0 to 1.0)
     private double stamina;        // How well the horse maintains speed over time (0.0 to 1.0)
     private double luck;           // Random factor affecting performance (0.0 to 1.0)
+    private RaceRandom random;     // Random stream used to roll this horse's attributes
     
     // Customization fields
     private HorseBreed breed;      // The breed of the horse
@@ -45,11 +46,12 @@ public class Horse
         this.xPosition = 0;
         this.yPosition = 0;
         this.fallen = false;
+        this.random = new RaceRandom();
         this.baseSpeed = 0.5 + (confidence * 0.5); // Speed influenced by confidence
         this.speed = baseSpeed;
-        this.turnHandling = Math.random() * 0.5 + 0.5; // Random handling ability between 0.5 and 1.0
+        this.turnHandling = random.nextDouble() * 0.5 + 0.5; // Random handling ability between 0.5 and 1.0
         this.stamina = 0.7;
-        this.luck = Math.random();
+        this.luck = random.nextDouble();
         
         // Default customization
         this.breed = HorseBreed.THOROUGHBRED;
@@ -70,11 +72,12 @@ public class Horse
         this.xPosition = 0;
         this.yPosition = 0;
         this.fallen = false;
+        this.random = new RaceRandom();
         this.baseSpeed = horseBaseSpeed;
         this.speed = baseSpeed;
         this.turnHandling = horseTurnHandling;
         this.stamina = 0.7;
-        this.luck = Math.random();
+        this.luck = random.nextDouble();
         
         // Default customization
         this.breed = HorseBreed.THOROUGHBRED;
@@ -97,6 +100,7 @@ public class Horse
         this.xPosition = 0;
         this.yPosition = 0;
         this.fallen = false;
+        this.random = new RaceRandom();
         
         this.breed = breed;
         this.coatColor = coatColor;
@@ -109,6 +113,65 @@ public class Horse
         this.speed = baseSpeed;
     }
     
+    /**
+     * Copy constructor. The copy has the same attributes and customization as the
+     * original but its own race state, so it can be raced in a simulation without
+     * touching the original horse. The copy's random stream is split from a copy
+     * of the original's, so the original's stream does not move.
+     * 
+     * @param other The horse to copy
+     */
+    public Horse(Horse other) {
+        this(other, other.random.copy().split());
+    }
+
+    /**
+     * Copy a horse with the given random stream
+     */
+    private Horse(Horse other, RaceRandom random) {
+        this.symbol = other.symbol;
+        this.name = other.name;
+        this.displaySymbol = other.displaySymbol;
+        this.confidence = other.confidence;
+        this.distanceTravelled = 0;
+        this.xPosition = 0;
+        this.yPosition = 0;
+        this.fallen = false;
+        this.baseSpeed = other.baseSpeed;
+        this.speed = other.baseSpeed;
+        this.turnHandling = other.turnHandling;
+        this.stamina = other.stamina;
+        this.luck = other.luck;
+        this.random = random;
+        
+        this.breed = other.breed;
+        this.coatColor = other.coatColor;
+        this.equipment = new HorseEquipment(
+            other.equipment.getSaddle(),
+            other.equipment.getHorseshoes(),
+            other.equipment.getAccessory());
+    }
+
+    /**
+     * Copy constructor that fits different equipment. Changing equipment
+     * re-rolls turn handling, stamina and luck, so the rolls come from the
+     * given seed: copies made with the same seed roll the same, whatever
+     * their equipment, and differ only by what the equipment does.
+     *
+     * @param other The horse to copy
+     * @param equipment The equipment to fit
+     * @param attributeSeed Seed for the attribute rolls
+     */
+    Horse(Horse other, HorseEquipment equipment, long attributeSeed) {
+        this(other, new RaceRandom(attributeSeed));
+        this.equipment = new HorseEquipment(
+            equipment.getSaddle(),
+            equipment.getHorseshoes(),
+            equipment.getAccessory());
+        calculateBaseAttributes();
+        this.speed = baseSpeed;
+    }
+
     /**
      * Calculate the horse's base attributes based on breed and equipment
      */
@@ -120,19 +183,19 @@ public class Horse
         this.baseSpeed = baseSpeedValue;
         
         // Turn handling calculation
-        double baseTurnHandling = 0.5 + (Math.random() * 0.3);
+        double baseTurnHandling = 0.5 + (random.nextDouble() * 0.3);
         baseTurnHandling *= breed.getAgilityFactor();
         baseTurnHandling *= equipment.getStabilityFactor();
         this.turnHandling = Math.min(1.0, baseTurnHandling);
         
         // Stamina calculation
-        double baseStamina = 0.6 + (Math.random() * 0.3);
+        double baseStamina = 0.6 + (random.nextDouble() * 0.3);
         baseStamina *= breed.getStaminaFactor();
         baseStamina *= equipment.getEnduranceFactor();
         this.stamina = Math.min(1.0, baseStamina);
         
         // Luck calculation
-        this.luck = Math.random() * equipment.getLuckFactor();
+        this.luck = random.nextDouble() * equipment.getLuckFactor();
     }
     
     /**
@@ -372,6 +435,21 @@ public class Horse
         this.speed = baseSpeed;
     }
     
+    /**
+     * Restore the horse's race state in one go. Used by simulation kernels
+     * that keep race state outside the Horse object and write it back when
+     * the race ends or a snapshot is needed.
+     * 
+     * @param distance The distance travelled
+     * @param currentSpeed The current speed
+     * @param hasFallen Whether the horse has fallen
+     */
+    public void restoreRaceState(double distance, double currentSpeed, boolean hasFallen) {
+        this.distanceTravelled = distance;
+        this.speed = currentSpeed;
+        this.fallen = hasFallen;
+    }
+    
     /**
      * Checks if the horse has fallen during the race
      * 
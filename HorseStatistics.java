@@ -1,5 +1,5 @@
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.Date;
 import java.util.Collections;
 
@@ -12,7 +12,7 @@ import java.util.Collections;
  */
 public class HorseStatistics {
     private Horse horse;                  // The horse these statistics are for
-    private List<RaceResult> raceHistory; // History of all races this horse has participated in
+    private List<RaceResult> raceHistory; // History of all races this horse has participated in, safe to read while races are added
     
     /**
      * Constructor for HorseStatistics
@@ -21,7 +21,7 @@ public class HorseStatistics {
      */
     public HorseStatistics(Horse horse) {
         this.horse = horse;
-        this.raceHistory = new ArrayList<>();
+        this.raceHistory = new CopyOnWriteArrayList<>();
     }
     
     /**
@@ -0,0 +1,269 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Prices a race while it is running. On a fixed cadence it checkpoints the
+ * race, simulates a bounded number of continuations from that checkpoint
+ * and hands the updated win probabilities on.
+ *
+ * The work never runs on the race thread: taking a checkpoint holds the race
+ * up for well under a microsecond, and the simulations run on their own
+ * thread and the odds engine's pool. A continuation only races the ticks
+ * that are left, so updates get cheaper as the race goes on.
+ *
+ * Each update is blended with the one before, weighted down for every tick
+ * the race has moved on since and dropped altogether when a horse falls.
+ * Chances move a long way in a single tick of these short races, so the
+ * carry-over is small by default: it steadies small budgets priced every
+ * tick and fades to nothing over a few ticks.
+ */
+public class InRunningOddsPricer {
+    public static final long DEFAULT_INTERVAL_MILLIS = 250; // Time between updates
+    public static final int DEFAULT_SIMULATIONS = 2000;     // Continuations simulated per update
+    public static final double DEFAULT_PRIOR_DECAY = 0.1;   // How much of the previous estimate's weight survives each tick
+
+    // Thread that takes the checkpoints and runs the pricing
+    private static final ScheduledExecutorService PRICING = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "in-running-odds");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MonteCarloOddsEngine engine;   // Simulates the continuations
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile int simulations = DEFAULT_SIMULATIONS;
+    private volatile double priorDecay = DEFAULT_PRIOR_DECAY;
+
+    // Pricing of the current race, guarded by this
+    private ScheduledFuture<?> task;       // The scheduled updates, or null when stopped
+    private int generation;                // Changes whenever pricing starts or stops, so stale updates are dropped
+    private Map<Horse, Double> estimate;   // Latest win probabilities
+    private double estimateWeight;         // How many simulations the latest estimate stands for
+    private int lastTick = -1;             // Tick the latest estimate was taken at
+    private int lastFallen;                // Horses down when the latest estimate was taken
+    private long updates;
+    private long totalUpdateNanos;
+
+    /**
+     * Constructor for a pricer using the common ForkJoin pool
+     */
+    public InRunningOddsPricer() {
+        this(new MonteCarloOddsEngine());
+    }
+
+    /**
+     * Constructor for a pricer with a specific odds engine
+     *
+     * @param engine The engine that simulates the continuations
+     */
+    public InRunningOddsPricer(MonteCarloOddsEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Start pricing a running race. Pricing stops by itself when the race ends.
+     *
+     * @param race The race to price
+     * @param onUpdate Receives the win probabilities after every update, on the pricing thread
+     */
+    public synchronized void start(RaceManager race, Consumer<Map<Horse, Double>> onUpdate) {
+        stop();
+        reset();
+        int current = generation;
+        task = PRICING.scheduleWithFixedDelay(() -> update(race, onUpdate, current),
+            0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop pricing. An update already being worked out is discarded.
+     */
+    public synchronized void stop() {
+        generation++;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Forget the previous estimate, before pricing a different race
+     */
+    public synchronized void reset() {
+        estimate = null;
+        estimateWeight = 0;
+        lastTick = -1;
+        lastFallen = 0;
+    }
+
+    /**
+     * Check if a race is being priced
+     *
+     * @return true between start() and the end of the race or stop()
+     */
+    public synchronized boolean isRunning() {
+        return task != null;
+    }
+
+    private void update(RaceManager race, Consumer<Map<Horse, Double>> onUpdate, int updateGeneration) {
+        if (!race.isRaceInProgress()) {
+            synchronized (this) {
+                if (generation == updateGeneration) {
+                    stop();
+                }
+            }
+            return;
+        }
+        RaceCheckpoint checkpoint = race.checkpoint();
+        Map<Horse, Double> probabilities;
+        synchronized (this) {
+            if (generation != updateGeneration || checkpoint.getTick() == lastTick || checkpoint.isFinished()) {
+                return;
+            }
+        }
+        try {
+            probabilities = price(checkpoint);
+        } catch (RuntimeException e) {
+            System.err.println("Error pricing race in running: " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            // Prices worked out as the race ended must not replace the next race's odds
+            if (generation != updateGeneration || !race.isRaceInProgress()) {
+                return;
+            }
+        }
+        onUpdate.accept(probabilities);
+    }
+
+    /**
+     * Work out win probabilities from a checkpoint, blended with the previous
+     * estimate, and make them the latest estimate
+     *
+     * @param checkpoint The race as it stands
+     * @return The win probability of every horse
+     */
+    public Map<Horse, Double> price(RaceCheckpoint checkpoint) {
+        long start = System.nanoTime();
+        MonteCarloOddsEngine.SimulationResult result = engine.simulate(checkpoint, simulations);
+        List<Horse> horses = checkpoint.getHorses();
+
+        int fallen = 0;
+        for (int i = 0; i < checkpoint.getSize(); i++) {
+            if (checkpoint.hasFallen(i)) {
+                fallen++;
+            }
+        }
+
+        synchronized (this) {
+            // The previous estimate counts for less the further the race has moved on,
+            // and for nothing once a horse has fallen, since that changes everyone's chances
+            Map<Horse, Double> previous = fallen == lastFallen && lastTick >= 0 ? estimate : null;
+            double priorWeight = previous == null ? 0
+                : estimateWeight * Math.pow(priorDecay, Math.max(1, checkpoint.getTick() - lastTick));
+            int count = result.getSimulations();
+            Map<Horse, Double> blended = new HashMap<>();
+            double total = 0;
+            for (int i = 0; i < horses.size(); i++) {
+                Horse horse = horses.get(i);
+                double simulated = result.getWin(horse).getProbability();
+                double p = simulated;
+                if (previous != null) {
+                    p = (count * simulated + priorWeight * previous.getOrDefault(horse, simulated))
+                        / (count + priorWeight);
+                }
+                blended.put(horse, p);
+                total += p;
+            }
+            if (total > 0) {
+                for (Map.Entry<Horse, Double> entry : blended.entrySet()) {
+                    entry.setValue(entry.getValue() / total);
+                }
+            }
+
+            estimate = blended;
+            estimateWeight = count + priorWeight;
+            lastTick = checkpoint.getTick();
+            lastFallen = fallen;
+            updates++;
+            totalUpdateNanos += System.nanoTime() - start;
+            return new HashMap<>(blended);
+        }
+    }
+
+    /**
+     * Get the latest win probabilities
+     *
+     * @return The estimate, or an empty map before the first update
+     */
+    public synchronized Map<Horse, Double> getEstimate() {
+        return estimate == null ? new HashMap<>() : new HashMap<>(estimate);
+    }
+
+    /**
+     * Set how often the odds are updated
+     *
+     * @param intervalMillis Milliseconds between updates; takes effect when pricing next starts
+     */
+    public void setInterval(long intervalMillis) {
+        if (intervalMillis > 0) {
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    public long getInterval() {
+        return intervalMillis;
+    }
+
+    /**
+     * Set how many continuations are simulated for each update
+     *
+     * @param simulations The simulation budget per update (must be positive)
+     */
+    public void setSimulationBudget(int simulations) {
+        if (simulations > 0) {
+            this.simulations = simulations;
+        }
+    }
+
+    public int getSimulationBudget() {
+        return simulations;
+    }
+
+    /**
+     * Set how much of the previous estimate's weight carries over for each
+     * tick the race has moved on. 0 turns blending off.
+     *
+     * @param priorDecay The carry-over per tick, from 0 to 1
+     */
+    public void setPriorDecay(double priorDecay) {
+        this.priorDecay = Math.max(0, Math.min(1, priorDecay));
+    }
+
+    public double getPriorDecay() {
+        return priorDecay;
+    }
+
+    /**
+     * Get the number of updates worked out so far
+     *
+     * @return The update count
+     */
+    public synchronized long getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * Get the average time an update took to work out
+     *
+     * @return The mean update time in milliseconds
+     */
+    public synchronized double getAverageUpdateMillis() {
+        return updates == 0 ? 0 : totalUpdateNanos / 1e6 / updates;
+    }
+}
@@ -0,0 +1,874 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Estimates win, place and show probabilities for a field by running many
+ * headless races of that field on a track. The runs are split into chunks
+ * that are raced in parallel on a ForkJoin pool, each chunk in its own
+ * RaceKernel, so nothing is shared between worker threads except the
+ * (read-only) horses and track.
+ *
+ * Every run gets its own random stream derived from the batch seed and the
+ * run's index, so a batch is reproducible from its seed no matter how the
+ * runs were split between threads.
+ *
+ * Runs can also be sampled in antithetic pairs or stratified blocks, which
+ * reach the same precision with fewer runs (see Sampling), and two variants
+ * of a field can be compared on common random numbers with compare(). The
+ * results report the effective sample size each option achieved, measured
+ * from the spread between independent pairs or blocks.
+ */
+public class MonteCarloOddsEngine {
+    private static final int RUNS_PER_TASK = 1000; // Runs a single task handles before splitting
+    private static final double Z_95 = 1.96;       // z-score for a 95% confidence interval
+    private static final int STRATIFIED_BLOCK = 64; // Runs in each stratified block (a power of two)
+
+    /**
+     * How the runs of a batch are sampled. Every option gives unbiased
+     * estimates; the others just get there with fewer runs.
+     */
+    public enum Sampling {
+        INDEPENDENT, // Every run draws fresh random numbers
+        ANTITHETIC,  // Runs come in pairs, the second mirroring every draw of the first
+        STRATIFIED;  // Runs come in blocks that spread every draw evenly over its range (Latin hypercube)
+
+        /**
+         * Get the number of runs sampled together. Groups are independent of each other.
+         */
+        int getGroupSize() {
+            switch (this) {
+                case ANTITHETIC:
+                    return 2;
+                case STRATIFIED:
+                    return STRATIFIED_BLOCK;
+                default:
+                    return 1;
+            }
+        }
+    }
+
+    private ForkJoinPool pool; // Pool the simulations are run on
+    private volatile Sampling sampling = Sampling.INDEPENDENT; // How runs are sampled
+    private volatile boolean commonRandomNumbers = true; // Whether compare() races both variants on the same draws
+
+    /**
+     * Constructor using the common ForkJoin pool
+     */
+    public MonteCarloOddsEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor with a specific ForkJoin pool
+     *
+     * @param pool The pool to run simulations on
+     */
+    public MonteCarloOddsEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Simulate a field with each horse in the lane matching its position in the list
+     *
+     * @param horses The horses in the race
+     * @param track The track to race on (with its current condition)
+     * @param simulations The number of races to simulate
+     * @return The simulated outcome probabilities
+     */
+    public SimulationResult simulate(List<Horse> horses, Track track, int simulations) {
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+        return simulate(horses, lanes, track, simulations);
+    }
+
+    /**
+     * Simulate a field
+     *
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param simulations The number of races to simulate
+     * @return The simulated outcome probabilities
+     */
+    public SimulationResult simulate(List<Horse> horses, List<Integer> lanes, Track track, int simulations) {
+        return simulate(horses, lanes, track, simulations, RaceRandom.randomSeed());
+    }
+
+    /**
+     * Simulate a field with a fixed batch seed, so the result can be reproduced exactly
+     *
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param simulations The number of races to simulate
+     * @param seed The seed every run's random stream is derived from
+     * @return The simulated outcome probabilities
+     */
+    public SimulationResult simulate(List<Horse> horses, List<Integer> lanes, Track track,
+                                     int simulations, long seed) {
+        Sampling current = sampling;
+        if (horses.isEmpty() || simulations <= 0) {
+            return new SimulationResult(horses, 0, new long[6 * horses.size()], seed, current);
+        }
+
+        int groups = groupsFor(simulations, current);
+        long[] counts = pool.invoke(new SimulationTask(horses, lanes, track, null, seed, current, 0, groups));
+        return new SimulationResult(horses, groups * current.getGroupSize(), counts, seed, current);
+    }
+
+    /**
+     * Simulate how a race goes on from a checkpoint, for in-running prices
+     *
+     * @param checkpoint The race as it stands
+     * @param simulations The number of continuations to simulate
+     * @return The simulated outcome probabilities
+     */
+    public SimulationResult simulate(RaceCheckpoint checkpoint, int simulations) {
+        return simulate(checkpoint, simulations, RaceRandom.randomSeed());
+    }
+
+    /**
+     * Simulate how a race goes on from a checkpoint with a fixed batch seed.
+     * Every continuation starts from the same checkpoint, which is shared by
+     * all the worker threads and never copied up front.
+     *
+     * @param checkpoint The race as it stands
+     * @param simulations The number of continuations to simulate
+     * @param seed The seed every continuation's random stream is derived from
+     * @return The simulated outcome probabilities
+     */
+    public SimulationResult simulate(RaceCheckpoint checkpoint, int simulations, long seed) {
+        List<Horse> horses = checkpoint.getHorses();
+        Sampling current = sampling;
+        if (horses.isEmpty() || simulations <= 0) {
+            return new SimulationResult(horses, 0, new long[6 * horses.size()], seed, current);
+        }
+
+        int groups = groupsFor(simulations, current);
+        long[] counts = pool.invoke(new SimulationTask(horses, null, null, checkpoint, seed, current, 0, groups));
+        return new SimulationResult(horses, groups * current.getGroupSize(), counts, seed, current);
+    }
+
+    /**
+     * Compare two variants of one entry in a field, such as the same horse
+     * with different equipment, by how often each variant wins. With common
+     * random numbers on (the default) both variants race on exactly the same
+     * draws, so the difference between them is not buried in race-to-race
+     * noise and is measured with far fewer runs.
+     *
+     * @param horses The field with the baseline entry
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param index The position of the entry in the field
+     * @param variant The horse to race in that position instead
+     * @param simulations The number of races to simulate for each variant
+     * @param seed The seed every run's random stream is derived from
+     * @return The win chances of both variants and the difference between them
+     */
+    public VariantComparison compare(List<Horse> horses, List<Integer> lanes, Track track, int index,
+                                     Horse variant, int simulations, long seed) {
+        if (index < 0 || index >= horses.size()) {
+            throw new IllegalArgumentException("No entry " + index + " in a field of " + horses.size());
+        }
+        Sampling current = sampling;
+        boolean common = commonRandomNumbers;
+        if (simulations <= 0) {
+            return new VariantComparison(0, 1, new long[5], current, common);
+        }
+
+        List<Horse> variantField = new ArrayList<>(horses);
+        variantField.set(index, variant);
+        int groups = groupsFor(simulations, current);
+        long[] sums = pool.invoke(new ComparisonTask(horses, variantField, lanes, track, index, seed, current,
+            common, 0, groups));
+        return new VariantComparison(groups * current.getGroupSize(), current.getGroupSize(), sums, current, common);
+    }
+
+    /**
+     * Compare two variants of one entry in a field with a fresh batch seed
+     *
+     * @param horses The field with the baseline entry
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param index The position of the entry in the field
+     * @param variant The horse to race in that position instead
+     * @param simulations The number of races to simulate for each variant
+     * @return The win chances of both variants and the difference between them
+     */
+    public VariantComparison compare(List<Horse> horses, List<Integer> lanes, Track track, int index,
+                                     Horse variant, int simulations) {
+        return compare(horses, lanes, track, index, variant, simulations, RaceRandom.randomSeed());
+    }
+
+    /**
+     * Set how the runs of later batches are sampled
+     *
+     * @param sampling The sampling option; INDEPENDENT is the default
+     */
+    public void setSampling(Sampling sampling) {
+        this.sampling = sampling == null ? Sampling.INDEPENDENT : sampling;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Set whether compare() races both variants on the same random numbers.
+     * Turning it off gives each variant fresh randomness, as separate batches would.
+     *
+     * @param commonRandomNumbers true to share the random numbers
+     */
+    public void setCommonRandomNumbers(boolean commonRandomNumbers) {
+        this.commonRandomNumbers = commonRandomNumbers;
+    }
+
+    public boolean isCommonRandomNumbers() {
+        return commonRandomNumbers;
+    }
+
+    /**
+     * Get the number of groups of runs needed for at least a number of runs
+     */
+    private static int groupsFor(int simulations, Sampling sampling) {
+        int size = sampling.getGroupSize();
+        return (int) (((long) simulations + size - 1) / size);
+    }
+
+    /**
+     * Put a kernel at the start of one run of a batch. Independent runs get the
+     * seeds they always have, so existing batch seeds reproduce the same results.
+     *
+     * @param kernel The kernel to run in
+     * @param checkpoint Where the run starts, or null for the start of the race
+     * @param sampling How the batch is sampled
+     * @param seed The batch seed
+     * @param group The group the run belongs to
+     * @param member The run's position within its group
+     */
+    private static void startRun(RaceKernel kernel, RaceCheckpoint checkpoint, Sampling sampling, long seed,
+                                 long group, int member) {
+        long runSeed;
+        switch (sampling) {
+            case ANTITHETIC:
+                // Both runs of a pair share their draws, mirrored in the second
+                runSeed = RaceRandom.deriveSeed(seed, group);
+                kernel.setAntithetic(member == 1);
+                break;
+            case STRATIFIED:
+                runSeed = RaceRandom.deriveSeed(seed, group * STRATIFIED_BLOCK + member);
+                kernel.setStratum(RaceRandom.deriveSeed(~seed, group), member, STRATIFIED_BLOCK);
+                break;
+            default:
+                runSeed = RaceRandom.deriveSeed(seed, group);
+                break;
+        }
+        if (checkpoint != null) {
+            kernel.restore(checkpoint, runSeed);
+        } else {
+            kernel.reset(runSeed);
+        }
+    }
+
+    /**
+     * Task that races a number of groups of simulations, splitting itself in
+     * half while there are more runs than a single task should handle.
+     * The result holds win counts, then place counts, then show counts, then
+     * the same again with every group's count squared, for the spread between groups.
+     */
+    private static class SimulationTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private List<Horse> horses;
+        private List<Integer> lanes;
+        private Track track;
+        private RaceCheckpoint checkpoint; // Where every run starts from, or null for the start of the race
+        private long seed;
+        private Sampling sampling;
+        private int firstGroup;
+        private int groups;
+
+        SimulationTask(List<Horse> horses, List<Integer> lanes, Track track, RaceCheckpoint checkpoint, long seed,
+                       Sampling sampling, int firstGroup, int groups) {
+            this.horses = horses;
+            this.lanes = lanes;
+            this.track = track;
+            this.checkpoint = checkpoint;
+            this.seed = seed;
+            this.sampling = sampling;
+            this.firstGroup = firstGroup;
+            this.groups = groups;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (groups < 2 || (long) groups * sampling.getGroupSize() <= RUNS_PER_TASK) {
+                return runSimulations();
+            }
+
+            int half = groups / 2;
+            SimulationTask left = new SimulationTask(horses, lanes, track, checkpoint, seed, sampling,
+                firstGroup, half);
+            SimulationTask right = new SimulationTask(horses, lanes, track, checkpoint, seed, sampling,
+                firstGroup + half, groups - half);
+            left.fork();
+            long[] counts = right.compute();
+            long[] leftCounts = left.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += leftCounts[i];
+            }
+            return counts;
+        }
+
+        /**
+         * Race this task's share of the simulations in a race kernel, which reads
+         * the horses' attributes once and never writes to the horses themselves.
+         * Runs from a checkpoint reuse one kernel, restoring it before every run.
+         */
+        private long[] runSimulations() {
+            int fieldSize = horses.size();
+            long[] counts = new long[6 * fieldSize];
+            long[] groupCounts = new long[3 * fieldSize];
+
+            RaceKernel kernel = checkpoint != null ? checkpoint.fork() : new RaceKernel(track, horses, lanes);
+            // Only the finishing order is counted, so a race can stop once that is settled
+            kernel.setDetail(RaceKernel.Detail.FULL_ORDER);
+            kernel.setKeyedRandom(sampling != Sampling.INDEPENDENT);
+            int[] order = new int[fieldSize];
+
+            for (int group = firstGroup; group < firstGroup + groups; group++) {
+                java.util.Arrays.fill(groupCounts, 0);
+                for (int member = 0; member < sampling.getGroupSize(); member++) {
+                    startRun(kernel, checkpoint, sampling, seed, group, member);
+                    kernel.run();
+                    kernel.fillFinishingOrder(order);
+                    for (int position = 0; position < fieldSize && position < 3; position++) {
+                        int index = order[position];
+                        if (position == 0) {
+                            groupCounts[index]++;
+                        }
+                        if (position < 2) {
+                            groupCounts[fieldSize + index]++;
+                        }
+                        groupCounts[2 * fieldSize + index]++;
+                    }
+                }
+                for (int i = 0; i < groupCounts.length; i++) {
+                    counts[i] += groupCounts[i];
+                    counts[groupCounts.length + i] += groupCounts[i] * groupCounts[i];
+                }
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Task that races groups of simulations of two variants of a field and
+     * counts the entry's wins in each. The result holds the baseline's win
+     * count, the variant's, both squared per group, and the squared
+     * difference between them per group.
+     */
+    private static class ComparisonTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private List<Horse> baseline;
+        private List<Horse> variant;
+        private List<Integer> lanes;
+        private Track track;
+        private int index;         // Position of the entry being compared
+        private long seed;
+        private Sampling sampling;
+        private boolean common;    // Whether both variants race on the same draws
+        private int firstGroup;
+        private int groups;
+
+        ComparisonTask(List<Horse> baseline, List<Horse> variant, List<Integer> lanes, Track track, int index,
+                       long seed, Sampling sampling, boolean common, int firstGroup, int groups) {
+            this.baseline = baseline;
+            this.variant = variant;
+            this.lanes = lanes;
+            this.track = track;
+            this.index = index;
+            this.seed = seed;
+            this.sampling = sampling;
+            this.common = common;
+            this.firstGroup = firstGroup;
+            this.groups = groups;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (groups < 2 || (long) groups * sampling.getGroupSize() <= RUNS_PER_TASK) {
+                return runComparisons();
+            }
+
+            int half = groups / 2;
+            ComparisonTask left = new ComparisonTask(baseline, variant, lanes, track, index, seed, sampling,
+                common, firstGroup, half);
+            ComparisonTask right = new ComparisonTask(baseline, variant, lanes, track, index, seed, sampling,
+                common, firstGroup + half, groups - half);
+            left.fork();
+            long[] sums = right.compute();
+            long[] leftSums = left.join();
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += leftSums[i];
+            }
+            return sums;
+        }
+
+        private long[] runComparisons() {
+            long[] sums = new long[5];
+            RaceKernel baseKernel = new RaceKernel(track, baseline, lanes);
+            RaceKernel variantKernel = new RaceKernel(track, variant, lanes);
+            for (RaceKernel kernel : new RaceKernel[] {baseKernel, variantKernel}) {
+                kernel.setDetail(RaceKernel.Detail.FULL_ORDER);
+                // Keyed draws keep the variants in step even when one falls and the other does not
+                kernel.setKeyedRandom(common || sampling != Sampling.INDEPENDENT);
+            }
+            // Without common random numbers the variant gets a batch seed unrelated to the baseline's
+            long variantSeed = common ? seed : RaceRandom.deriveSeed(seed, -1);
+
+            for (int group = firstGroup; group < firstGroup + groups; group++) {
+                long baseWins = 0;
+                long variantWins = 0;
+                for (int member = 0; member < sampling.getGroupSize(); member++) {
+                    startRun(baseKernel, null, sampling, seed, group, member);
+                    if (baseKernel.run() == index) {
+                        baseWins++;
+                    }
+                    startRun(variantKernel, null, sampling, variantSeed, group, member);
+                    if (variantKernel.run() == index) {
+                        variantWins++;
+                    }
+                }
+                sums[0] += baseWins;
+                sums[1] += variantWins;
+                sums[2] += baseWins * baseWins;
+                sums[3] += variantWins * variantWins;
+                sums[4] += (variantWins - baseWins) * (variantWins - baseWins);
+            }
+            return sums;
+        }
+    }
+
+    /**
+     * Outcome probabilities from a batch of simulations
+     */
+    public static class SimulationResult {
+        private List<Horse> horses;
+        private int simulations;
+        private long[] counts;      // Win, place and show counts, then the same squared per group
+        private long seed;          // Batch seed the runs were derived from
+        private Sampling sampling;  // How the runs were sampled
+
+        SimulationResult(List<Horse> horses, int simulations, long[] counts, long seed, Sampling sampling) {
+            this.horses = new ArrayList<>(horses);
+            this.simulations = simulations;
+            this.counts = counts;
+            this.seed = seed;
+            this.sampling = sampling;
+        }
+
+        /**
+         * Get how the runs were sampled
+         *
+         * @return The sampling option
+         */
+        public Sampling getSampling() {
+            return sampling;
+        }
+
+        /**
+         * Get the raw outcome counts, for storing the result. The array is shared, not copied.
+         */
+        long[] getCounts() {
+            return counts;
+        }
+
+        /**
+         * Get the number of independent runs that would estimate a horse's win
+         * chance as precisely as this batch did
+         *
+         * @param horse The horse
+         * @return The effective sample size, or the number of runs if the spread could not be measured
+         */
+        public double getEffectiveSampleSize(Horse horse) {
+            int index = horses.indexOf(horse);
+            return index < 0 ? 0 : effectiveSampleSize(index, 0);
+        }
+
+        /**
+         * Get how many times fewer runs the sampling needed for a horse's win
+         * chance than independent runs would
+         *
+         * @param horse The horse
+         * @return The effective sample size over the number of runs
+         */
+        public double getVarianceReduction(Horse horse) {
+            return simulations == 0 ? 1 : getEffectiveSampleSize(horse) / simulations;
+        }
+
+        /**
+         * Get the effective sample size of the win chances across the whole field
+         *
+         * @return The number of independent runs that would give the same total variance
+         */
+        public double getEffectiveSampleSize() {
+            double independent = 0;
+            double measured = 0;
+            for (int i = 0; i < horses.size(); i++) {
+                double p = (double) counts[i] / Math.max(1, simulations);
+                double variance = variance(i, 0);
+                if (variance > 0) {
+                    independent += p * (1 - p);
+                    measured += variance;
+                }
+            }
+            return measured > 0 ? independent / measured : simulations;
+        }
+
+        /**
+         * Get how many times fewer runs the sampling needed across the whole field
+         *
+         * @return The effective sample size over the number of runs
+         */
+        public double getVarianceReduction() {
+            return simulations == 0 ? 1 : getEffectiveSampleSize() / simulations;
+        }
+
+        /**
+         * Get the number of runs this sampling would need for every horse's
+         * win chance to be within a margin at 95% confidence
+         *
+         * @param halfWidth The margin either side of the estimate
+         * @return The number of runs
+         */
+        public long getSimulationsNeeded(double halfWidth) {
+            double worst = 0;
+            for (int i = 0; i < horses.size(); i++) {
+                double p = (double) counts[i] / Math.max(1, simulations);
+                double variance = variance(i, 0);
+                // Variance of a single run's worth of the estimate
+                worst = Math.max(worst, variance > 0 ? variance * simulations : p * (1 - p));
+            }
+            return (long) Math.ceil(Z_95 * Z_95 * worst / (halfWidth * halfWidth));
+        }
+
+        /**
+         * Work out the variance of an estimate from the spread between groups
+         *
+         * @return The variance, or 0 if it cannot be measured
+         */
+        private double variance(int index, int outcome) {
+            int size = horses.size();
+            int groupSize = sampling.getGroupSize();
+            long groups = simulations / groupSize;
+            if (groups < 2) {
+                return 0;
+            }
+            double sum = counts[outcome * size + index];
+            double squares = counts[(3 + outcome) * size + index];
+            double groupVariance = Math.max(0, (squares - sum * sum / groups) / (groups - 1));
+            return groupVariance / ((double) groupSize * groupSize * groups);
+        }
+
+        private double effectiveSampleSize(int index, int outcome) {
+            double p = (double) counts[outcome * horses.size() + index] / Math.max(1, simulations);
+            double variance = variance(index, outcome);
+            return variance > 0 ? p * (1 - p) / variance : simulations;
+        }
+
+        /**
+         * Get the batch seed, which reproduces these results when passed back to simulate
+         *
+         * @return The batch seed
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Get the number of races simulated
+         *
+         * @return The simulation count
+         */
+        public int getSimulations() {
+            return simulations;
+        }
+
+        /**
+         * Get the estimated probability of a horse winning
+         *
+         * @param horse The horse
+         * @return The win estimate
+         */
+        public Estimate getWin(Horse horse) {
+            return estimate(horse, 0);
+        }
+
+        /**
+         * Get the estimated probability of a horse finishing in the first two
+         *
+         * @param horse The horse
+         * @return The place estimate
+         */
+        public Estimate getPlace(Horse horse) {
+            return estimate(horse, 1);
+        }
+
+        /**
+         * Get the estimated probability of a horse finishing in the first three
+         *
+         * @param horse The horse
+         * @return The show estimate
+         */
+        public Estimate getShow(Horse horse) {
+            return estimate(horse, 2);
+        }
+
+        /**
+         * Get the win probability of every horse in the field
+         *
+         * @return Map of horse to win probability
+         */
+        public Map<Horse, Double> getWinProbabilities() {
+            Map<Horse, Double> probabilities = new HashMap<>();
+            for (Horse horse : horses) {
+                probabilities.put(horse, getWin(horse).getProbability());
+            }
+            return probabilities;
+        }
+
+        private Estimate estimate(Horse horse, int outcome) {
+            int index = horses.indexOf(horse);
+            if (index < 0 || simulations == 0) {
+                return new Estimate(0, 0, 0);
+            }
+            long successes = counts[outcome * horses.size() + index];
+            if (sampling == Sampling.INDEPENDENT) {
+                return Estimate.fromCount(successes, simulations);
+            }
+            return Estimate.fromProbability((double) successes / simulations, effectiveSampleSize(index, outcome));
+        }
+    }
+
+    /**
+     * The win chances of two variants of an entry and the difference between them
+     */
+    public static class VariantComparison {
+        private int simulations;   // Runs of each variant
+        private int groupSize;     // Runs per independent group
+        private long[] sums;       // Baseline wins, variant wins, both squared per group, difference squared per group
+        private Sampling sampling;
+        private boolean common;    // Whether both variants raced on the same draws
+
+        VariantComparison(int simulations, int groupSize, long[] sums, Sampling sampling, boolean common) {
+            this.simulations = simulations;
+            this.groupSize = groupSize;
+            this.sums = sums;
+            this.sampling = sampling;
+            this.common = common;
+        }
+
+        /**
+         * Get the number of races simulated for each variant
+         *
+         * @return The simulation count
+         */
+        public int getSimulations() {
+            return simulations;
+        }
+
+        public Sampling getSampling() {
+            return sampling;
+        }
+
+        public boolean isCommonRandomNumbers() {
+            return common;
+        }
+
+        /**
+         * Get the estimated chance of the baseline entry winning
+         *
+         * @return The win estimate
+         */
+        public Estimate getBaseline() {
+            return estimate(sums[0], sums[2]);
+        }
+
+        /**
+         * Get the estimated chance of the variant winning
+         *
+         * @return The win estimate
+         */
+        public Estimate getVariant() {
+            return estimate(sums[1], sums[3]);
+        }
+
+        /**
+         * Get how much more often the variant wins than the baseline
+         *
+         * @return The variant's win chance minus the baseline's
+         */
+        public double getDifference() {
+            return simulations == 0 ? 0 : (double) (sums[1] - sums[0]) / simulations;
+        }
+
+        /**
+         * Get the standard error of the difference, measured from the spread between groups
+         *
+         * @return The standard error
+         */
+        public double getStandardError() {
+            return Math.sqrt(variance(sums[1] - sums[0], sums[4]));
+        }
+
+        /**
+         * Get the lower end of the 95% confidence interval of the difference
+         *
+         * @return The lower bound
+         */
+        public double getLower() {
+            return getDifference() - Z_95 * getStandardError();
+        }
+
+        /**
+         * Get the upper end of the 95% confidence interval of the difference
+         *
+         * @return The upper bound
+         */
+        public double getUpper() {
+            return getDifference() + Z_95 * getStandardError();
+        }
+
+        /**
+         * Get the number of runs of each variant with fresh, independent
+         * randomness that would measure the difference as precisely
+         *
+         * @return The effective sample size
+         */
+        public double getEffectiveSampleSize() {
+            double variance = variance(sums[1] - sums[0], sums[4]);
+            if (variance <= 0) {
+                return simulations;
+            }
+            double base = (double) sums[0] / simulations;
+            double other = (double) sums[1] / simulations;
+            return (base * (1 - base) + other * (1 - other)) / variance;
+        }
+
+        /**
+         * Get how many times fewer runs the comparison needed than independent batches would
+         *
+         * @return The effective sample size over the number of runs
+         */
+        public double getVarianceReduction() {
+            return simulations == 0 ? 1 : getEffectiveSampleSize() / simulations;
+        }
+
+        /**
+         * Get the number of runs of each variant this comparison would need
+         * to pin the difference down to within a margin at 95% confidence
+         *
+         * @param halfWidth The margin either side of the difference
+         * @return The number of runs
+         */
+        public long getSimulationsNeeded(double halfWidth) {
+            double variance = variance(sums[1] - sums[0], sums[4]) * simulations;
+            return (long) Math.ceil(Z_95 * Z_95 * variance / (halfWidth * halfWidth));
+        }
+
+        private Estimate estimate(long wins, long squares) {
+            if (simulations == 0) {
+                return new Estimate(0, 0, 0);
+            }
+            double p = (double) wins / simulations;
+            double variance = variance(wins, squares);
+            return Estimate.fromProbability(p, variance > 0 ? p * (1 - p) / variance : simulations);
+        }
+
+        /**
+         * Work out the variance of a mean from the sum and sum of squares of its group totals
+         */
+        private double variance(double sum, double squares) {
+            long groups = simulations / groupSize;
+            if (groups < 2) {
+                return 0;
+            }
+            double groupVariance = Math.max(0, (squares - sum * sum / groups) / (groups - 1));
+            return groupVariance / ((double) groupSize * groupSize * groups);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%+.4f [%+.4f, %+.4f], effective sample size %,.0f (%.1fx)",
+                getDifference(), getLower(), getUpper(), getEffectiveSampleSize(), getVarianceReduction());
+        }
+    }
+
+    /**
+     * A probability estimate with its 95% confidence interval
+     */
+    public static class Estimate {
+        private double probability;
+        private double lower;
+        private double upper;
+
+        Estimate(double probability, double lower, double upper) {
+            this.probability = probability;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        /**
+         * Build an estimate from a success count using the Wilson score interval,
+         * which stays inside [0, 1] even for outsiders that rarely win
+         *
+         * @param successes The number of simulations with the outcome
+         * @param trials The total number of simulations
+         * @return The estimate
+         */
+        static Estimate fromCount(long successes, long trials) {
+            return fromProbability((double) successes / trials, trials);
+        }
+
+        /**
+         * Build an estimate from a probability and the effective number of
+         * independent trials behind it, using the Wilson score interval
+         *
+         * @param p The estimated probability
+         * @param trials The effective number of trials
+         * @return The estimate
+         */
+        static Estimate fromProbability(double p, double trials) {
+            double z2 = Z_95 * Z_95;
+            double denominator = 1 + z2 / trials;
+            double centre = (p + z2 / (2.0 * trials)) / denominator;
+            double margin = Z_95 * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials * trials)) / denominator;
+            return new Estimate(p, Math.max(0.0, centre - margin), Math.min(1.0, centre + margin));
+        }
+
+        public double getProbability() {
+            return probability;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.4f [%.4f, %.4f]", probability, lower, upper);
+        }
+    }
+}
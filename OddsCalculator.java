@@ -1,15 +1,25 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Calculates betting odds for horses based on their performance, track conditions,
- * and recent betting patterns.
+ * Calculates betting odds for horses by simulating the race on the current track
+ * and condition, then adjusting for recent betting patterns.
  */
 public class OddsCalculator {
     private static final double MIN_ODDS = 1.1;  // Minimum odds (almost certain win)
     private static final double MAX_ODDS = 50.0; // Maximum odds (very unlikely win)
     private static final double BETTING_PATTERN_WEIGHT = 0.3; // How much betting patterns affect odds
+    private static final int DEFAULT_SIMULATIONS = 5000; // Races simulated per odds calculation
+    
+    private MonteCarloOddsEngine engine = new MonteCarloOddsEngine(); // Simulates the field to price it
+    private OutcomeCache cache = OutcomeCache.getInstance(); // Fields already priced, or null to always simulate
+    private int simulationCount = DEFAULT_SIMULATIONS;
+    private RaceRandom random = new RaceRandom(); // Random stream for the odds variation
     
     /**
      * Calculate odds for a list of horses
@@ -31,6 +41,59 @@ public class OddsCalculator {
         return adjustedOdds;
     }
     
+    /**
+     * Open a book of odds for a race: the field is priced once, and every
+     * bet taken afterwards only moves the odds by its share of the stakes,
+     * without repricing the field or rolling a new random variation.
+     * 
+     * @param horses The horses in the race
+     * @param track The track they will be racing on
+     * @param bettingHistory The bets placed so far, whose stakes the odds start from
+     * @return The book, with odds equal to calculateOdds for the same field and bets
+     */
+    public OddsBook openBook(List<Horse> horses, Track track, BettingHistory bettingHistory) {
+        return new OddsBook(calculateBaseOdds(horses, track), bettingHistory);
+    }
+    
+    /**
+     * Calculate odds from win probabilities worked out elsewhere, such as
+     * in-running estimates, adjusted for betting patterns. No random variation
+     * is applied, so prices only move when the probabilities do.
+     * 
+     * @param winProbabilities The win probability of each horse
+     * @param bettingHistory The betting history to consider for betting patterns
+     * @return Map of horse to odds
+     */
+    public Map<Horse, Double> calculateOdds(Map<Horse, Double> winProbabilities, BettingHistory bettingHistory) {
+        return adjustForBettingPatterns(oddsFromProbabilities(winProbabilities), bettingHistory);
+    }
+    
+    /**
+     * Open a book of odds from win probabilities worked out elsewhere, such
+     * as in-running estimates. No random variation is applied.
+     * 
+     * @param winProbabilities The win probability of each horse
+     * @param bettingHistory The bets placed so far, whose stakes the odds start from
+     * @return The book, with odds equal to calculateOdds for the same probabilities and bets
+     */
+    public OddsBook openBook(Map<Horse, Double> winProbabilities, BettingHistory bettingHistory) {
+        return new OddsBook(oddsFromProbabilities(winProbabilities), bettingHistory);
+    }
+    
+    /**
+     * Turn win probabilities into odds within the allowed range
+     */
+    private Map<Horse, Double> oddsFromProbabilities(Map<Horse, Double> winProbabilities) {
+        Map<Horse, Double> baseOdds = new HashMap<>();
+        for (Map.Entry<Horse, Double> entry : winProbabilities.entrySet()) {
+            double probability = entry.getValue();
+            double calculatedOdds = probability > 0 ? 1.0 / probability : MAX_ODDS;
+            double finalOdds = Math.max(MIN_ODDS, Math.min(MAX_ODDS, calculatedOdds));
+            baseOdds.put(entry.getKey(), Math.round(finalOdds * 10) / 10.0);
+        }
+        return baseOdds;
+    }
+    
     /**
      * Calculate base odds for horses based on their attributes and track conditions
      * 
@@ -46,7 +109,7 @@ public class OddsCalculator {
         for (Horse horse : winProbabilities.keySet()) {
             double probability = winProbabilities.get(horse);
             // Apply small random variation to make odds more interesting
-            double variation = 0.9 + (Math.random() * 0.2); // 0.9 to 1.1
+            double variation = 0.9 + (random.nextDouble() * 0.2); // 0.9 to 1.1
             double calculatedOdds = (1.0 / probability) * variation;
             
             // Ensure odds are within acceptable range
@@ -62,161 +125,56 @@ public class OddsCalculator {
     }
     
     /**
-     * Calculate the probability of each horse winning based on attributes and track
+     * Calculate the probability of each horse winning by simulating the race
+     * on the given track and its current condition. A field that has already
+     * been priced on the same track and condition is answered from the cache.
      * 
      * @param horses The list of horses
      * @param track The track
      * @return Map of horse to win probability (values sum to 1.0)
      */
     private Map<Horse, Double> calculateWinProbabilities(List<Horse> horses, Track track) {
-        Map<Horse, Double> scores = new HashMap<>();
-        double totalScore = 0.0;
-        
-        for (Horse horse : horses) {
-            // Calculate a score based on horse attributes
-            double score = calculateHorseScore(horse, track);
-            scores.put(horse, score);
-            totalScore += score;
+        if (horses.isEmpty()) {
+            return new HashMap<>();
         }
         
-        // Normalize scores to probabilities (sum to 1.0)
-        Map<Horse, Double> probabilities = new HashMap<>();
-        for (Horse horse : horses) {
-            double probability = totalScore > 0 ? scores.get(horse) / totalScore : 1.0 / horses.size();
-            probabilities.put(horse, probability);
+        if (cache == null) {
+            return engine.simulate(horses, track, simulationCount).getWinProbabilities();
         }
-        
-        return probabilities;
-    }
-    
-    /**
-     * Calculate a score for a horse based on its attributes and track conditions
-     * 
-     * @param horse The horse
-     * @param track The track
-     * @return A score representing the horse's chance of winning
-     */
-    private double calculateHorseScore(Horse horse, Track track) {
-        double baseSpeed = horse.getBaseSpeed();
-        double confidence = horse.getConfidence();
-        double turnHandling = horse.getTurnHandling();
-        double stamina = horse.getStamina();
-        
-        // Get track condition effect
-        TrackCondition condition = track.getCondition();
-        double conditionEffect = getTrackConditionEffect(horse, condition);
-        
-        // Calculate curve factor effect based on turn handling
-        double curveFactor = 0.0;
-        if (track instanceof OvalTrack) {
-            curveFactor = 0.8; // Moderate curves
-        } else if (track instanceof FigureEightTrack) {
-            curveFactor = 0.6; // Sharp curves
-        } else if (track instanceof ZigzagTrack) {
-            curveFactor = 0.4; // Very sharp turns
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
         }
-        
-        double curveHandling = 1.0 - ((1.0 - curveFactor) * (1.0 - turnHandling));
-        
-        // Calculate breed advantage
-        double breedAdvantage = getBreedAdvantage(horse.getBreed());
-        
-        // Calculate equipment advantage
-        double equipmentAdvantage = getEquipmentAdvantage(horse.getEquipment(), track);
-        
-        // Calculate overall score
-        double score = baseSpeed * confidence * curveHandling * conditionEffect * 
-                       stamina * breedAdvantage * equipmentAdvantage;
-        
-        return score;
+        return cache.simulate(engine, horses, lanes, track, simulationCount).getWinProbabilities();
     }
     
     /**
-     * Get the effect of track conditions on a horse's performance
+     * Set the number of races simulated each time odds are calculated
      * 
-     * @param horse The horse
-     * @param condition The track condition
-     * @return Multiplier for the horse's score
+     * @param simulations The number of simulations (must be positive)
      */
-    private double getTrackConditionEffect(Horse horse, TrackCondition condition) {
-        double baseEffect = condition.getSpeedFactor();
-        
-        // Some breeds perform better in certain conditions
-        HorseBreed breed = horse.getBreed();
-        if (condition == TrackCondition.MUDDY && breed == HorseBreed.ARABIAN) {
-            baseEffect += 0.1; // Arabs do better in mud
-        } else if (condition == TrackCondition.ICY && breed == HorseBreed.CLYDESDALE) {
-            baseEffect += 0.15; // Clydesdales do better on ice
-        } else if (condition == TrackCondition.WINDY && breed == HorseBreed.THOROUGHBRED) {
-            baseEffect += 0.05; // Thoroughbreds do better in wind
-        }
-        
-        // Horse equipment affects performance in conditions
-        HorseEquipment equipment = horse.getEquipment();
-        if (condition == TrackCondition.MUDDY && 
-            equipment.getHorseshoes() == HorseEquipment.HorseshoeType.TRACTION) {
-            baseEffect += 0.1; // Traction horseshoes help in mud
-        } else if (condition == TrackCondition.WINDY && 
-                  equipment.getAccessory() == HorseEquipment.AccessoryType.BLINDERS) {
-            baseEffect += 0.05; // Blinders help in wind
+    public void setSimulationCount(int simulations) {
+        if (simulations > 0) {
+            this.simulationCount = simulations;
         }
-        
-        return baseEffect;
     }
     
     /**
-     * Get the advantage factor for a horse breed
+     * Set the cache consulted before simulating a field
      * 
-     * @param breed The horse breed
-     * @return Multiplier for the horse's score
+     * @param cache The cache to use, or null to simulate every time
      */
-    private double getBreedAdvantage(HorseBreed breed) {
-        if (breed == HorseBreed.THOROUGHBRED) {
-            return 1.2; // Thoroughbreds are bred for racing
-        } else if (breed == HorseBreed.QUARTER_HORSE) {
-            return 1.15; // Quarter horses are fast sprinters
-        } else if (breed == HorseBreed.ARABIAN) {
-            return 1.1; // Arabians have good endurance
-        } else if (breed == HorseBreed.STANDARDBRED) {
-            return 1.05; // Good all-around racers
-        }
-        return 1.0; // Default for other breeds
+    public void setCache(OutcomeCache cache) {
+        this.cache = cache;
     }
     
     /**
-     * Get the advantage factor for horse equipment on a specific track
+     * Get the number of races simulated each time odds are calculated
      * 
-     * @param equipment The horse equipment
-     * @param track The track
-     * @return Multiplier for the horse's score
+     * @return The number of simulations
      */
-    private double getEquipmentAdvantage(HorseEquipment equipment, Track track) {
-        double advantage = 1.0;
-        
-        // Saddle effects
-        if (equipment.getSaddle() == HorseEquipment.SaddleType.RACING) {
-            advantage *= 1.1; // Racing saddles are best for racing
-        } else if (equipment.getSaddle() == HorseEquipment.SaddleType.WESTERN && 
-                  track instanceof ZigzagTrack) {
-            advantage *= 1.05; // Western saddles help with quick turns
-        }
-        
-        // Horseshoe effects
-        if (equipment.getHorseshoes() == HorseEquipment.HorseshoeType.LIGHTWEIGHT) {
-            advantage *= 1.08; // Lightweight horseshoes increase speed
-        } else if (equipment.getHorseshoes() == HorseEquipment.HorseshoeType.TRACTION && 
-                  (track instanceof FigureEightTrack || track instanceof ZigzagTrack)) {
-            advantage *= 1.05; // Traction helps with sharp turns
-        }
-        
-        // Accessory effects
-        if (equipment.getAccessory() == HorseEquipment.AccessoryType.BLINDERS) {
-            advantage *= 1.03; // Blinders help focus
-        } else if (equipment.getAccessory() == HorseEquipment.AccessoryType.LUCKY_CHARM) {
-            advantage *= 1.01; // Slight "lucky" advantage
-        }
-        
-        return advantage;
+    public int getSimulationCount() {
+        return simulationCount;
     }
     
     /**
@@ -246,23 +204,196 @@ public class OddsCalculator {
         
         // Adjust odds based on betting distribution
         for (Horse horse : baseOdds.keySet()) {
-            double baseOdd = baseOdds.get(horse);
-            double betPercentage = betAmounts.get(horse) / totalBetAmount;
-            
-            // As more bets go to a horse, its odds decrease (favorite effect)
-            // The adjustment is proportional to the bet percentage, but capped
-            double adjustmentFactor = 1.0 - (betPercentage * BETTING_PATTERN_WEIGHT);
-            double adjustedOdd = baseOdd * adjustmentFactor;
-            
-            // Ensure odds remain within acceptable range
-            adjustedOdd = Math.max(MIN_ODDS, Math.min(MAX_ODDS, adjustedOdd));
-            
-            // Round to one decimal place
-            adjustedOdd = Math.round(adjustedOdd * 10) / 10.0;
-            
-            adjustedOdds.put(horse, adjustedOdd);
+            adjustedOdds.put(horse, adjust(baseOdds.get(horse), betAmounts.get(horse), totalBetAmount));
         }
         
         return adjustedOdds;
     }
+    
+    /**
+     * Adjust one horse's odds for its share of the money bet
+     * 
+     * @param baseOdd The horse's base odds
+     * @param betAmount The amount bet on the horse
+     * @param totalBetAmount The amount bet on the whole field
+     * @return The adjusted odds
+     */
+    static double adjust(double baseOdd, double betAmount, double totalBetAmount) {
+        double betPercentage = betAmount / totalBetAmount;
+        
+        // As more bets go to a horse, its odds decrease (favorite effect)
+        // The adjustment is proportional to the bet percentage, but capped
+        double adjustmentFactor = 1.0 - (betPercentage * BETTING_PATTERN_WEIGHT);
+        double adjustedOdd = baseOdd * adjustmentFactor;
+        
+        // Ensure odds remain within acceptable range
+        adjustedOdd = Math.max(MIN_ODDS, Math.min(MAX_ODDS, adjustedOdd));
+        
+        // Round to one decimal place
+        return Math.round(adjustedOdd * 10) / 10.0;
+    }
+    
+    /**
+     * The odds of one race, kept up to date bet by bet. The base odds are
+     * fixed when the book is opened; a bet adds its stake to its horse and
+     * re-applies the betting adjustment, which touches each horse once and
+     * never simulates or rolls anything, so the odds only move with the money.
+     * 
+     * The stakes and the odds they give are one immutable snapshot, swapped
+     * for a new one by compare-and-set, so bets from many threads never lock:
+     * a bet that loses the race to another simply reprices from the newer
+     * snapshot. Readers always see the odds of a whole number of bets.
+     * Closing the book swaps in a closed snapshot the same way, so each bet
+     * is either taken before the book closes or refused.
+     */
+    public static class OddsBook {
+        private Horse[] horses;             // The field
+        private double[] baseOdds;          // Odds before the betting adjustment, by horse
+        private Map<Horse, Integer> index;  // Position of each horse in the arrays
+        private AtomicReference<Snapshot> state; // Latest stakes and odds
+        
+        /**
+         * Stakes and the odds they give, never changed once published
+         */
+        private static class Snapshot {
+            private double[] stakes;        // Amount bet on each horse
+            private double totalStake;      // Amount bet on the whole field
+            private Map<Horse, Double> odds;
+            private boolean closed;         // Whether the book has stopped taking bets
+            
+            Snapshot(double[] stakes, double totalStake, Map<Horse, Double> odds, boolean closed) {
+                this.stakes = stakes;
+                this.totalStake = totalStake;
+                this.odds = odds;
+                this.closed = closed;
+            }
+        }
+        
+        OddsBook(Map<Horse, Double> base, BettingHistory bettingHistory) {
+            int size = base.size();
+            horses = new Horse[size];
+            baseOdds = new double[size];
+            double[] stakes = new double[size];
+            double totalStake = 0.0;
+            index = new HashMap<>();
+            int i = 0;
+            for (Map.Entry<Horse, Double> entry : base.entrySet()) {
+                horses[i] = entry.getKey();
+                baseOdds[i] = entry.getValue();
+                stakes[i] = bettingHistory.getTotalBetOnHorse(entry.getKey());
+                totalStake += stakes[i];
+                index.put(entry.getKey(), i);
+                i++;
+            }
+            state = new AtomicReference<>(new Snapshot(stakes, totalStake, price(stakes, totalStake), false));
+        }
+        
+        /**
+         * Take a bet into account
+         * 
+         * @param horse The horse bet on
+         * @param amount The amount bet
+         * @return The odds the bet was taken at: the horse's odds just before it
+         * @throws IllegalArgumentException if the horse is not in the book
+         * @throws IllegalStateException if the book is closed
+         */
+        public double addBet(Horse horse, double amount) {
+            Integer position = index.get(horse);
+            if (position == null) {
+                throw new IllegalArgumentException("Horse is not in the current race");
+            }
+            while (true) {
+                Snapshot current = state.get();
+                if (current.closed) {
+                    throw new IllegalStateException("Betting on this race is closed");
+                }
+                double[] stakes = current.stakes.clone();
+                stakes[position] += amount;
+                double totalStake = current.totalStake + amount;
+                if (state.compareAndSet(current, new Snapshot(stakes, totalStake, price(stakes, totalStake), false))) {
+                    return current.odds.get(horse);
+                }
+            }
+        }
+        
+        /**
+         * Stop taking bets. Bets already taken keep their odds; any later one is refused.
+         */
+        public void close() {
+            while (true) {
+                Snapshot current = state.get();
+                if (current.closed || state.compareAndSet(current,
+                        new Snapshot(current.stakes, current.totalStake, current.odds, true))) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Check if the book has stopped taking bets
+         * 
+         * @return true once the book is closed
+         */
+        public boolean isClosed() {
+            return state.get().closed;
+        }
+        
+        private Map<Horse, Double> price(double[] stakes, double totalStake) {
+            Map<Horse, Double> prices = new HashMap<>(horses.length * 2);
+            for (int i = 0; i < horses.length; i++) {
+                prices.put(horses[i], totalStake <= 0 ? baseOdds[i] : adjust(baseOdds[i], stakes[i], totalStake));
+            }
+            return Collections.unmodifiableMap(prices);
+        }
+        
+        /**
+         * Get the current odds
+         * 
+         * @return Map of horse to odds (read-only)
+         */
+        public Map<Horse, Double> getOdds() {
+            return state.get().odds;
+        }
+        
+        /**
+         * Check if a horse is in the book
+         * 
+         * @param horse The horse
+         * @return true if bets can be taken on the horse
+         */
+        public boolean contains(Horse horse) {
+            return index.containsKey(horse);
+        }
+        
+        /**
+         * Get the horses in the book
+         * 
+         * @return The field
+         */
+        public List<Horse> getHorses() {
+            return Arrays.asList(horses.clone());
+        }
+        
+        /**
+         * Get a horse's odds before the betting adjustment
+         * 
+         * @param horse The horse
+         * @return The base odds, or 0 if the horse is not in the book
+         */
+        public double getBaseOdds(Horse horse) {
+            Integer position = index.get(horse);
+            return position == null ? 0.0 : baseOdds[position];
+        }
+        
+        /**
+         * Get the amount bet on a horse, including bets placed before the book was opened
+         * 
+         * @param horse The horse
+         * @return The amount bet
+         */
+        public double getStake(Horse horse) {
+            Integer position = index.get(horse);
+            return position == null ? 0.0 : state.get().stakes[position];
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,513 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Cache of simulated outcome distributions in front of race pricing. The
+ * schedule races the same fields on the same tracks over and over, so a
+ * field that has been priced once is answered from the cache instead of
+ * being simulated again.
+ *
+ * Entries are keyed by a FieldSignature: the exact attributes the race
+ * kernel reads from every horse, each horse's lane, and the track's shape,
+ * length and condition. Horse names play no part, so copies of a field
+ * share an entry. Changing any attribute, confidence included, changes the
+ * signature, so a cached result is never served for a field that races
+ * differently; the entries of the old values simply age out. An owner that
+ * wants them gone at once can invalidate a horse.
+ *
+ * The cache holds a bounded number of entries and evicts by least recent or
+ * least frequent use. It can be saved to and loaded from disk. Horses are
+ * only held weakly, so a horse that is no longer raced does not keep any
+ * memory in the cache.
+ */
+public class OutcomeCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final int MAGIC = 0x4f434143;     // "OCAC"
+    private static final int VERSION = 2;
+
+    private static OutcomeCache instance;            // Singleton instance
+
+    /**
+     * Which entry makes way when the cache is full
+     */
+    public enum EvictionPolicy {
+        LRU, // The entry used least recently
+        LFU  // The entry used least often, the least recent of those on a tie
+    }
+
+    private LinkedHashMap<FieldSignature, Entry> entries;  // Entries in access order, least recent first
+    private Map<Horse, Set<FieldSignature>> entriesByHorse; // The entries each horse has been priced in, held weakly
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private EvictionPolicy policy = EvictionPolicy.LRU;
+    private File persistenceFile;                    // Where save() writes, or null
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * A cached outcome distribution
+     */
+    private static class Entry {
+        int simulations;
+        long seed;
+        MonteCarloOddsEngine.Sampling sampling;
+        long[] counts;              // As held by SimulationResult
+        long uses;                  // Hits since the entry was stored
+        Set<Horse> horses = Collections.newSetFromMap(new WeakHashMap<>()); // Horses priced with this entry
+
+        Entry(int simulations, long seed, MonteCarloOddsEngine.Sampling sampling, long[] counts) {
+            this.simulations = simulations;
+            this.seed = seed;
+            this.sampling = sampling;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Constructor for a cache of its own, separate from the shared one
+     */
+    public OutcomeCache() {
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        entriesByHorse = new WeakHashMap<>();
+    }
+
+    /**
+     * Get the cache shared by all pricing
+     *
+     * @return The singleton instance
+     */
+    public static synchronized OutcomeCache getInstance() {
+        if (instance == null) {
+            instance = new OutcomeCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the outcome distribution of a field, simulating it only if the
+     * cache has no result of at least the requested size
+     *
+     * @param engine The engine to simulate with on a miss
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param simulations The number of races the result must be based on
+     * @return The outcome distribution, for these horses
+     */
+    public MonteCarloOddsEngine.SimulationResult simulate(MonteCarloOddsEngine engine, List<Horse> horses,
+                                                          List<Integer> lanes, Track track, int simulations) {
+        FieldSignature signature = FieldSignature.of(horses, lanes, track);
+        MonteCarloOddsEngine.SimulationResult cached = get(signature, horses, simulations);
+        if (cached != null) {
+            return cached;
+        }
+        // Simulated outside the lock, so one slow field does not hold up pricing of the others
+        MonteCarloOddsEngine.SimulationResult result = engine.simulate(horses, lanes, track, simulations);
+        put(signature, horses, result);
+        return result;
+    }
+
+    /**
+     * Look a field up in the cache
+     *
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     * @param track The track to race on (with its current condition)
+     * @param simulations The fewest races a usable result can be based on
+     * @return The cached outcome distribution for these horses, or null on a miss
+     */
+    public MonteCarloOddsEngine.SimulationResult get(List<Horse> horses, List<Integer> lanes, Track track,
+                                                     int simulations) {
+        return get(FieldSignature.of(horses, lanes, track), horses, simulations);
+    }
+
+    private synchronized MonteCarloOddsEngine.SimulationResult get(FieldSignature signature, List<Horse> horses,
+                                                                   int simulations) {
+        Entry entry = entries.get(signature);
+        if (entry == null || entry.simulations < simulations) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.uses++;
+        track(signature, entry, horses);
+        return new MonteCarloOddsEngine.SimulationResult(horses, entry.simulations, entry.counts.clone(),
+            entry.seed, entry.sampling);
+    }
+
+    /**
+     * Store the outcome distribution of a field
+     *
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     * @param track The track they raced on (with its condition)
+     * @param result The simulated result for that field
+     */
+    public void put(List<Horse> horses, List<Integer> lanes, Track track,
+                    MonteCarloOddsEngine.SimulationResult result) {
+        put(FieldSignature.of(horses, lanes, track), horses, result);
+    }
+
+    private synchronized void put(FieldSignature signature, List<Horse> horses,
+                                  MonteCarloOddsEngine.SimulationResult result) {
+        if (result.getSimulations() == 0) {
+            return;
+        }
+        Entry existing = entries.get(signature);
+        if (existing != null && existing.simulations > result.getSimulations()) {
+            // Keep the larger sample that is already there
+            return;
+        }
+        Entry entry = new Entry(result.getSimulations(), result.getSeed(), result.getSampling(),
+            result.getCounts().clone());
+        if (existing != null) {
+            entry.uses = existing.uses;
+            entry.horses.addAll(existing.horses);
+        }
+        entries.put(signature, entry);
+        track(signature, entry, horses);
+        while (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Remember which horses an entry was used for, so it can be dropped when one of them changes
+     */
+    private void track(FieldSignature signature, Entry entry, List<Horse> horses) {
+        for (Horse horse : horses) {
+            if (entry.horses.add(horse)) {
+                entriesByHorse.computeIfAbsent(horse, h -> new HashSet<>()).add(signature);
+            }
+        }
+    }
+
+    private void evict() {
+        Map.Entry<FieldSignature, Entry> victim = null;
+        for (Map.Entry<FieldSignature, Entry> candidate : entries.entrySet()) {
+            if (victim == null) {
+                victim = candidate;
+                if (policy == EvictionPolicy.LRU) {
+                    break;
+                }
+            } else if (candidate.getValue().uses < victim.getValue().uses) {
+                victim = candidate;
+            }
+        }
+        remove(victim.getKey());
+        evictions++;
+    }
+
+    private void remove(FieldSignature signature) {
+        Entry entry = entries.remove(signature);
+        if (entry == null) {
+            return;
+        }
+        for (Horse horse : entry.horses) {
+            Set<FieldSignature> signatures = entriesByHorse.get(horse);
+            if (signatures != null) {
+                signatures.remove(signature);
+                if (signatures.isEmpty()) {
+                    entriesByHorse.remove(horse);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop every entry a horse has been priced in, leaving the rest of the cache alone
+     *
+     * @param horse The horse that changed
+     */
+    public synchronized void invalidate(Horse horse) {
+        Set<FieldSignature> signatures = entriesByHorse.remove(horse);
+        if (signatures == null) {
+            return;
+        }
+        for (FieldSignature signature : new ArrayList<>(signatures)) {
+            if (entries.containsKey(signature)) {
+                remove(signature);
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drop every entry
+     */
+    public synchronized void clear() {
+        entries.clear();
+        entriesByHorse.clear();
+    }
+
+    /**
+     * Set the most entries the cache holds, evicting entries if it holds more
+     *
+     * @param maxEntries The size limit (must be positive)
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries > 0) {
+            this.maxEntries = maxEntries;
+            while (entries.size() > maxEntries) {
+                evict();
+            }
+        }
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy != null) {
+            this.policy = policy;
+        }
+    }
+
+    public synchronized EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the number of entries held
+     *
+     * @return The cache size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Get the share of lookups answered from the cache
+     *
+     * @return Hits over lookups, or 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Set the file the cache is kept in and load whatever it already holds
+     *
+     * @param file The cache file, or null to stop persisting
+     * @throws IOException If the file exists but cannot be read
+     */
+    public void setPersistenceFile(File file) throws IOException {
+        synchronized (this) {
+            persistenceFile = file;
+        }
+        if (file != null && file.exists()) {
+            load(file);
+        }
+    }
+
+    /**
+     * Save the cache to its persistence file, if it has one
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void save() throws IOException {
+        File file;
+        synchronized (this) {
+            file = persistenceFile;
+        }
+        if (file != null) {
+            save(file);
+        }
+    }
+
+    /**
+     * Write every entry to a file. Which horses used an entry is not saved:
+     * after loading, an entry is tied to horses again as they hit it.
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            // Least recently used first, so loading restores the order
+            for (Map.Entry<FieldSignature, Entry> item : entries.entrySet()) {
+                long[] words = item.getKey().words;
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey().trackType);
+                out.writeUTF(item.getKey().conditionName);
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+                out.writeInt(entry.simulations);
+                out.writeLong(entry.seed);
+                out.writeUTF(entry.sampling.name());
+                out.writeLong(entry.uses);
+                out.writeInt(entry.counts.length);
+                for (long count : entry.counts) {
+                    out.writeLong(count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the entries saved in a file to the cache
+     *
+     * @param file The file to read
+     * @throws IOException If the file cannot be read or is not a saved cache
+     */
+    public void load(File file) throws IOException {
+        Map<FieldSignature, Entry> loaded = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a saved outcome cache: " + file);
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                String trackType = in.readUTF();
+                String conditionName = in.readUTF();
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                int simulations = in.readInt();
+                long seed = in.readLong();
+                MonteCarloOddsEngine.Sampling sampling;
+                try {
+                    sampling = MonteCarloOddsEngine.Sampling.valueOf(in.readUTF());
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown sampling in outcome cache: " + file);
+                }
+                long uses = in.readLong();
+                long[] counts = new long[in.readInt()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = in.readLong();
+                }
+                Entry entry = new Entry(simulations, seed, sampling, counts);
+                entry.uses = uses;
+                loaded.put(new FieldSignature(words, trackType, conditionName), entry);
+            }
+        }
+
+        synchronized (this) {
+            for (Map.Entry<FieldSignature, Entry> item : loaded.entrySet()) {
+                Entry existing = entries.get(item.getKey());
+                if (existing == null || existing.simulations < item.getValue().simulations) {
+                    remove(item.getKey());
+                    entries.put(item.getKey(), item.getValue());
+                }
+            }
+            while (entries.size() > maxEntries) {
+                evict();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("OutcomeCache[%d/%d entries, %d hits, %d misses (%.1f%%), %d evictions, "
+            + "%d invalidations]", entries.size(), maxEntries, hits, misses, 100 * getHitRate(), evictions,
+            invalidations);
+    }
+
+    /**
+     * Canonical description of a field on a track: the exact bits of every
+     * attribute the race kernel reads from each horse, in field order with
+     * each horse's lane, followed by the track's length, lookup resolution
+     * and condition factors. The track's class and condition name are kept
+     * as strings and compared in full. Two fields with equal signatures race
+     * identically, whatever the horses are called.
+     */
+    public static final class FieldSignature {
+        private final long[] words;
+        private final String trackType;
+        private final String conditionName;
+        private final int hash;
+
+        FieldSignature(long[] words, String trackType, String conditionName) {
+            this.words = words;
+            this.trackType = trackType;
+            this.conditionName = conditionName;
+            this.hash = (Arrays.hashCode(words) * 31 + trackType.hashCode()) * 31 + conditionName.hashCode();
+        }
+
+        /**
+         * Build the signature of a field
+         *
+         * @param horses The horses in the race
+         * @param lanes The lane of each horse
+         * @param track The track to race on (with its current condition)
+         * @return The signature
+         */
+        public static FieldSignature of(List<Horse> horses, List<Integer> lanes, Track track) {
+            int size = horses.size();
+            long[] words = new long[1 + size * 6 + 5];
+            int w = 0;
+            words[w++] = size;
+            for (int i = 0; i < size; i++) {
+                Horse horse = horses.get(i);
+                words[w++] = Double.doubleToLongBits(horse.getBaseSpeed());
+                words[w++] = Double.doubleToLongBits(horse.getConfidence());
+                words[w++] = Double.doubleToLongBits(horse.getTurnHandling());
+                words[w++] = Double.doubleToLongBits(horse.getStamina());
+                words[w++] = Double.doubleToLongBits(horse.getLuck());
+                words[w++] = lanes.get(i);
+            }
+            TrackCondition condition = track.getCondition();
+            words[w++] = track.getLength();
+            words[w++] = track.getLookupResolution();
+            words[w++] = Double.doubleToLongBits(condition.getSpeedFactor());
+            words[w++] = Double.doubleToLongBits(condition.getGripFactor());
+            words[w++] = Double.doubleToLongBits(condition.getFallProbability());
+            return new FieldSignature(words, track.getClass().getName(), condition.getName());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FieldSignature)) {
+                return false;
+            }
+            FieldSignature signature = (FieldSignature) other;
+            return hash == signature.hash && Arrays.equals(words, signature.words)
+                && trackType.equals(signature.trackType) && conditionName.equals(signature.conditionName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,2081 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line benchmarks for the simulation code.
+ * Run with no arguments to run every benchmark, or name the ones to run,
+ * e.g. "java PerformanceBenchmark kernel".
+ * Timings are wall-clock and include a warm-up pass so the JIT has compiled
+ * the hot loops before anything is measured.
+ */
+public class PerformanceBenchmark {
+
+    public static void main(String[] args) {
+        List<String> selected = new ArrayList<>();
+        for (String arg : args) {
+            selected.add(arg.toLowerCase());
+        }
+
+        if (selected.isEmpty() || selected.contains("kernel")) {
+            benchmarkKernel();
+        }
+        if (selected.isEmpty() || selected.contains("track")) {
+            benchmarkTrackLookup();
+        }
+        if (selected.isEmpty() || selected.contains("allocation")) {
+            if (!checkPositionAllocation()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("host")) {
+            benchmarkRaceHost(10000);
+        }
+        if (selected.isEmpty() || selected.contains("events")) {
+            benchmarkEventStream();
+        }
+        if (selected.isEmpty() || selected.contains("fork")) {
+            if (!benchmarkCheckpoints()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("inrunning")) {
+            benchmarkInRunningOdds();
+        }
+        if (selected.isEmpty() || selected.contains("replay")) {
+            if (!benchmarkRecording(10000)) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("termination")) {
+            if (!benchmarkTermination()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("variance")) {
+            if (!benchmarkVarianceReduction()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("cache")) {
+            if (!benchmarkOutcomeCache()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("sweep")) {
+            if (!benchmarkScenarioSweep()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("equipment")) {
+            if (!benchmarkEquipmentOptimizer()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("tournament")) {
+            if (!benchmarkTournament()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("history")) {
+            if (!benchmarkBettingHistory()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("odds")) {
+            if (!benchmarkOddsBook()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("concurrency")) {
+            if (!benchmarkConcurrentBets()) {
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty() || selected.contains("wallets")) {
+            if (!benchmarkWalletService()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Open two million accounts and measure what each costs, against an
+     * AtomicLong per wallet. Then have 16 threads debit and credit them with
+     * every transaction delivered twice, by two threads, and check each
+     * account moved by exactly one copy of its transactions. Last, check a
+     * debit refused for lack of funds leaves the balance alone and can be
+     * retried with the same transaction id, that a repeat is still refused
+     * after TRANSACTION_HORIZON - 1 newer transactions, and that a closed
+     * account refuses money and is never handed out again.
+     *
+     * @return true if every balance and transaction came out right
+     */
+    private static boolean benchmarkWalletService() {
+        System.out.println("=== Wallet service ===");
+        int accounts = 2000000;
+        long opening = 10000;
+
+        long baseline = usedMemory();
+        WalletService service = new WalletService();
+        for (int a = 0; a < accounts; a++) {
+            service.openAccount(opening);
+        }
+        double serviceBytes = (double) (usedMemory() - baseline) / accounts;
+        baseline = usedMemory();
+        java.util.concurrent.atomic.AtomicLong[] boxed = new java.util.concurrent.atomic.AtomicLong[accounts];
+        for (int a = 0; a < accounts; a++) {
+            boxed[a] = new java.util.concurrent.atomic.AtomicLong(opening);
+        }
+        double boxedBytes = (double) (usedMemory() - baseline) / accounts;
+        System.out.printf("%,d accounts: %.1f bytes each in the service, %.1f bytes each as AtomicLongs%n",
+            service.getAccountCount(), serviceBytes, boxedBytes);
+        boolean boxedGood = boxed[accounts - 1].get() == opening; // Keeps the AtomicLongs alive until measured
+        boxed = null;
+
+        // Every transaction stream is delivered by two threads. No account
+        // gets more transactions than the service remembers ids for, so a
+        // second delivery always falls inside the horizon however late it is
+        int streams = 8;
+        int opsPerStream = 200000;
+        long[] expected = new long[accounts];
+        int[] transactionsOn = new int[accounts];
+        int[][] streamAccounts = new int[streams][opsPerStream];
+        long[][] streamCents = new long[streams][opsPerStream]; // Negative for a debit
+        for (int stream = 0; stream < streams; stream++) {
+            RaceRandom random = new RaceRandom(RaceRandom.deriveSeed(25, stream));
+            for (int i = 0; i < opsPerStream; i++) {
+                int account;
+                do {
+                    account = random.nextInt(accounts);
+                } while (transactionsOn[account] == WalletService.TRANSACTION_HORIZON);
+                transactionsOn[account]++;
+                long cents = 1 + random.nextInt(500);
+                streamAccounts[stream][i] = account;
+                streamCents[stream][i] = random.nextBoolean() ? cents : -cents;
+                expected[account] += streamCents[stream][i];
+            }
+        }
+        java.util.concurrent.atomic.AtomicInteger applied = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicBoolean failed = new java.util.concurrent.atomic.AtomicBoolean();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < streams * 2; t++) {
+            int stream = t / 2;
+            workers.add(new Thread(() -> {
+                int mine = 0;
+                try {
+                    for (int i = 0; i < opsPerStream; i++) {
+                        int account = streamAccounts[stream][i];
+                        long cents = streamCents[stream][i];
+                        long transactionId = (long) stream * opsPerStream + i;
+                        boolean done = cents > 0
+                            ? service.credit(account, cents, transactionId)
+                            : service.debit(account, -cents, transactionId);
+                        if (done) {
+                            mine++;
+                        }
+                    }
+                } catch (VirtualWallet.InsufficientFundsException | RuntimeException e) {
+                    System.err.println("Transaction failed: " + e);
+                    failed.set(true);
+                }
+                applied.addAndGet(mine);
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int attempts = streams * 2 * opsPerStream;
+
+        boolean exactlyOnce = applied.get() == streams * opsPerStream && !failed.get();
+        for (int a = 0; a < accounts; a++) {
+            exactlyOnce &= service.getBalance(a) == opening + expected[a];
+        }
+        System.out.printf("%d threads: %,d transactions, each sent twice, in %.2f s (%,.0f/s); applied %,d%n",
+            workers.size(), streams * opsPerStream, seconds, attempts / seconds, applied.get());
+        System.out.println("Every transaction " + (exactlyOnce ? "moved money exactly once" : "DID NOT move money exactly once"));
+
+        // Without transaction ids, for comparison
+        RaceRandom random = new RaceRandom(26);
+        int plain = 4000000;
+        start = System.nanoTime();
+        for (int i = 0; i < plain; i++) {
+            int account = random.nextInt(accounts);
+            service.credit(account, 100);
+            try {
+                service.debit(account, 100);
+            } catch (VirtualWallet.InsufficientFundsException e) {
+                exactlyOnce = false;
+            }
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Plain debit and credit on one thread: %,.0f/s%n", plain * 2 / seconds);
+
+        // A refused debit is not applied and can be retried
+        int account = service.openAccount(100);
+        long transactionId = -1;
+        boolean refusedGood = false;
+        try {
+            service.debit(account, 150, transactionId);
+        } catch (VirtualWallet.InsufficientFundsException e) {
+            refusedGood = service.getBalance(account) == 100 && !service.isApplied(account, transactionId);
+        }
+        try {
+            service.credit(account, 100);
+            refusedGood &= service.debit(account, 150, transactionId)
+                && !service.debit(account, 150, transactionId)
+                && service.getBalance(account) == 50
+                && service.getWallet(account).equals(service.getWallet(account));
+        } catch (VirtualWallet.InsufficientFundsException e) {
+            refusedGood = false;
+        }
+        System.out.println("Refused debit " + (refusedGood ? "left the balance alone and was retried once"
+            : "DID NOT behave"));
+
+        // Late repeats: the first transaction is replayed after every number
+        // of newer ones up to the horizon, and is only applied again past it
+        int late = service.openAccount(0);
+        service.credit(late, 1, 0);
+        boolean lateGood = true;
+        for (int i = 1; i < WalletService.TRANSACTION_HORIZON; i++) {
+            service.credit(late, 1, i);
+            lateGood &= !service.credit(late, 1, 0) && !service.credit(late, 1, i / 2);
+        }
+        lateGood &= service.getBalance(late) == WalletService.TRANSACTION_HORIZON;
+        service.credit(late, 1, WalletService.TRANSACTION_HORIZON);
+        lateGood &= !service.isApplied(late, 0) && service.isApplied(late, 1)
+            && service.credit(late, 1, 0) && service.getBalance(late) == WalletService.TRANSACTION_HORIZON + 2;
+        System.out.println("Late repeats " + (lateGood ? "were refused for " + WalletService.TRANSACTION_HORIZON
+            + " transactions" : "WERE APPLIED AGAIN"));
+
+        // A wallet of the account resets to the opening balance; a closed
+        // account hands back its balance, refuses money and is not reused
+        VirtualWallet view = service.getWallet(account);
+        view.reset();
+        view.addFunds(0.25);
+        boolean closeGood = view.getBalanceCents() == 125;
+        int open = service.getAccountCount();
+        closeGood &= service.closeAccount(account) == 125;
+        view.close();
+        closeGood &= service.getAccountCount() == open - 1 && !service.isOpen(account) && !view.isOpen()
+            && view.getBalanceCents() == 0 && service.openAccount(300) != account
+            && !service.isApplied(account, transactionId);
+        try {
+            view.addFunds(1);
+            closeGood = false;
+        } catch (IllegalStateException e) {
+            // Refused, as it should be
+        }
+        try {
+            service.debit(account, 0);
+            closeGood = false;
+        } catch (IllegalStateException | VirtualWallet.InsufficientFundsException e) {
+            closeGood &= e instanceof IllegalStateException;
+        }
+        System.out.println("Reset and close " + (closeGood ? "restored the opening balance and shut the account"
+            : "DID NOT behave"));
+        System.out.println();
+        return exactlyOnce && refusedGood && lateGood && closeGood && boxedGood;
+    }
+
+    /**
+     * Measure the heap in use after a collection
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Place bets from 64 threads at once, drawn from 16 shared wallets that
+     * run dry part of the way through, then settle the race. Check that every
+     * wallet lost exactly the stakes of its accepted bets and never went
+     * below zero, that the history and the odds book each counted every
+     * accepted bet once, and that settling paid each winning bet into its own
+     * wallet exactly once, keeping back the winnings of a wallet closed
+     * before the race was settled, and that the bets are totalled under the
+     * id of the race they were settled on.
+     *
+     * @return true if no money was lost or counted twice
+     */
+    private static boolean benchmarkConcurrentBets() {
+        System.out.println("=== Concurrent bets ===");
+        int threads = 64;
+        int betsPerThread = 2000;
+        List<Horse> field = createField(8);
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        RaceManagerSingleton.setInstance(new RaceManager(track, TickScheduler.getInstance()));
+        BettingService service = BettingService.getInstance();
+        service.reset();
+        service.startRace(field, track);
+        service.endRace(); // Bets are taken between pricing the race and running it
+        long raceId = service.getCurrentRaceId();
+
+        VirtualWallet[] wallets = new VirtualWallet[16];
+        for (int w = 0; w < wallets.length; w++) {
+            wallets[w] = new VirtualWallet(service.getWalletService(), 50000);
+        }
+        long[][] acceptedCents = new long[threads][wallets.length]; // Stakes taken, by thread and wallet
+        int[] rejected = new int[threads];
+        List<List<Bet>> placed = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        java.util.concurrent.CountDownLatch go = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.atomic.AtomicBoolean failed = new java.util.concurrent.atomic.AtomicBoolean();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            List<Bet> mine = new ArrayList<>();
+            placed.add(mine);
+            workers.add(new Thread(() -> {
+                RaceRandom random = new RaceRandom(RaceRandom.deriveSeed(24, id));
+                try {
+                    go.await();
+                    for (int b = 0; b < betsPerThread; b++) {
+                        int w = random.nextInt(wallets.length);
+                        Horse horse = field.get(random.nextInt(field.size()));
+                        double amount = (100 + random.nextInt(2900)) / 100.0;
+                        try {
+                            mine.add(service.placeBet(wallets[w], horse, amount));
+                            acceptedCents[id][w] += VirtualWallet.toCents(amount);
+                        } catch (VirtualWallet.InsufficientFundsException e) {
+                            rejected[id]++;
+                        }
+                    }
+                } catch (InterruptedException | RuntimeException e) {
+                    System.err.println("Bet failed: " + e);
+                    failed.set(true);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int accepted = 0;
+        int refused = 0;
+        long stakeCents = 0;
+        boolean walletsGood = true;
+        for (int t = 0; t < threads; t++) {
+            accepted += placed.get(t).size();
+            refused += rejected[t];
+        }
+        for (int w = 0; w < wallets.length; w++) {
+            long taken = 0;
+            for (int t = 0; t < threads; t++) {
+                taken += acceptedCents[t][w];
+            }
+            stakeCents += taken;
+            walletsGood &= wallets[w].getBalanceCents() == VirtualWallet.toCents(50000) - taken
+                && wallets[w].getBalanceCents() >= 0;
+        }
+        System.out.printf("%d threads: %,d bets taken and %,d refused for lack of funds in %.2f s (%,.0f bets/s)%n",
+            threads, accepted, refused, seconds, (accepted + refused) / seconds);
+        System.out.println("Wallet balances " + (walletsGood ? "match" : "DO NOT MATCH") + " the stakes taken from them");
+
+        BettingHistory history = service.getBettingHistory();
+        BettingHistory.Totals totals = history.getOverallTotals();
+        boolean historyGood = totals.getBetCount() == accepted
+            && VirtualWallet.toCents(totals.getTotalStake()) == stakeCents;
+        OddsCalculator.OddsBook book = service.getOddsBook();
+        double total = history.getTotalBetAmount();
+        for (Horse horse : field) {
+            double staked = history.getTotalBetOnHorse(horse);
+            historyGood &= Math.abs(book.getStake(horse) - staked) < 1e-6
+                && Math.abs(service.getOddsForHorse(horse)
+                            - OddsCalculator.adjust(book.getBaseOdds(horse), staked, total)) < 1e-9;
+        }
+        System.out.println("History and odds book " + (historyGood ? "each count" : "DO NOT each count")
+            + " every bet taken once");
+
+        // Settle, paying winners into their own wallets
+        long[] before = new long[wallets.length];
+        for (int w = 0; w < wallets.length; w++) {
+            before[w] = wallets[w].getBalanceCents();
+        }
+        Horse winner = field.get(3);
+        wallets[0].close();
+        double unclaimed = service.getUnclaimedWinnings();
+        service.startRace(field, track);
+        double paid = service.settleRace(winner);
+        unclaimed = service.getUnclaimedWinnings() - unclaimed;
+        long[] owed = new long[wallets.length];
+        long owedCents = 0;
+        int winners = 0;
+        for (List<Bet> bets : placed) {
+            for (Bet bet : bets) {
+                if (bet.getHorse() == winner) {
+                    long cents = VirtualWallet.toCents(bet.getAmount() * bet.getOdds());
+                    for (int w = 0; w < wallets.length; w++) {
+                        if (bet.getWallet() == wallets[w]) {
+                            owed[w] += cents;
+                        }
+                    }
+                    owedCents += cents;
+                    winners++;
+                }
+            }
+        }
+        boolean settleGood = history.getOverallTotals().getSettledCount() == accepted
+            && history.getTotalsForRace(raceId).getSettledCount() == accepted
+            && service.getCurrentRaceId() == raceId + 1
+            && history.getOverallTotals().getWinCount() == winners
+            && VirtualWallet.toCents(history.getTotalWinnings()) == owedCents
+            && Math.abs(paid - (owedCents - owed[0]) / 100.0) < 0.01 * winners + 1e-6
+            && Math.abs(unclaimed - owed[0] / 100.0) < 0.01 * winners + 1e-6
+            && wallets[0].getBalanceCents() == 0;
+        for (int w = 1; w < wallets.length; w++) {
+            settleGood &= wallets[w].getBalanceCents() - before[w] == owed[w];
+        }
+        System.out.printf("Settled %,d winning bets for %,.2f: payouts %s%n", winners, paid,
+            settleGood ? "credited exactly once" : "DO NOT MATCH");
+        service.reset();
+        for (VirtualWallet wallet : wallets) {
+            wallet.close();
+        }
+        boolean closingGood = benchmarkBetsAtRaceStart(service, field, track);
+        System.out.println();
+        return walletsGood && historyGood && settleGood && closingGood && !failed.get();
+    }
+
+    /**
+     * Start a race while 64 threads are placing bets as fast as they can.
+     * Check that every bet either made it into the history before the race
+     * started or was refused with its stake given back.
+     *
+     * @return true if each wallet lost exactly the stakes of the bets recorded
+     */
+    private static boolean benchmarkBetsAtRaceStart(BettingService service, List<Horse> field, Track track) {
+        int threads = 64;
+        service.startRace(field, track);
+        service.endRace();
+        VirtualWallet[] wallets = new VirtualWallet[threads];
+        long[] takenCents = new long[threads];
+        java.util.concurrent.atomic.AtomicInteger placed = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.CountDownLatch started = new java.util.concurrent.CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            wallets[t] = new VirtualWallet(service.getWalletService(), 1000000);
+            workers.add(new Thread(() -> {
+                RaceRandom random = new RaceRandom(RaceRandom.deriveSeed(240, id));
+                started.countDown();
+                try {
+                    while (true) {
+                        double amount = (100 + random.nextInt(900)) / 100.0;
+                        service.placeBet(wallets[id], field.get(random.nextInt(field.size())), amount);
+                        takenCents[id] += VirtualWallet.toCents(amount);
+                        placed.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // Betting closed
+                } catch (VirtualWallet.InsufficientFundsException e) {
+                    System.err.println("Bet failed: " + e);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            started.await();
+            Thread.sleep(10);
+            service.startRace(field, track);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        int recorded = service.getBettingHistory().getUnsettledBets().size();
+        boolean good = recorded == placed.get();
+        for (int t = 0; t < threads; t++) {
+            good &= wallets[t].getBalanceCents() == VirtualWallet.toCents(1000000) - takenCents[t];
+        }
+        service.endRace();
+        System.out.printf("Race started under %d betting threads: %,d bets taken before it, late bets %s%n",
+            threads, placed.get(), good ? "refunded" : "DID NOT ALL COME OUT RIGHT");
+        service.reset();
+        for (VirtualWallet wallet : wallets) {
+            wallet.close();
+        }
+        return good;
+    }
+
+    /**
+     * Take a stream of bets on a race, repricing the field after every bet
+     * as the odds used to be worked out, and moving the odds of a book. Check
+     * that the book's odds are the betting adjustment of fixed base odds and
+     * compare how much each way moves the odds of horses nobody bet on.
+     *
+     * @return true if the book's odds matched the adjustment worked out from scratch
+     */
+    private static boolean benchmarkOddsBook() {
+        System.out.println("=== Incremental odds ===");
+        List<Horse> field = createField(8);
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        OddsCalculator calculator = new OddsCalculator();
+        calculator.setCache(new OutcomeCache());
+        RaceRandom random = new RaceRandom(23);
+
+        BettingHistory history = new BettingHistory();
+        for (int b = 0; b < 10000; b++) {
+            history.addBet(new Bet(field.get(random.nextInt(field.size())), 1 + random.nextInt(50), 3, 0));
+        }
+
+        // Repricing the whole field after every bet (the cache spares it the simulations)
+        int bets = 20000;
+        java.util.Map<Horse, Double> odds = calculator.calculateOdds(field, track, history);
+        double repriceDrift = 0;
+        long start = System.nanoTime();
+        for (int b = 0; b < bets; b++) {
+            Horse horse = field.get(random.nextInt(field.size()));
+            history.addBet(new Bet(horse, 1 + random.nextInt(50), odds.get(horse), 1));
+            java.util.Map<Horse, Double> next = calculator.calculateOdds(field, track, history);
+            repriceDrift += oddsDrift(odds, next, horse);
+            odds = next;
+        }
+        double repriceSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Moving the odds of a book
+        OddsCalculator.OddsBook book = calculator.openBook(field, track, history);
+        odds = book.getOdds();
+        double bookDrift = 0;
+        start = System.nanoTime();
+        for (int b = 0; b < bets; b++) {
+            Horse horse = field.get(random.nextInt(field.size()));
+            double amount = 1 + random.nextInt(50);
+            history.addBet(new Bet(horse, amount, odds.get(horse), 2));
+            book.addBet(horse, amount);
+            java.util.Map<Horse, Double> next = book.getOdds();
+            bookDrift += oddsDrift(odds, next, horse);
+            odds = next;
+        }
+        double bookSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d bets: repricing %.2f s (%,.0f bets/s), book %.3f s (%,.0f bets/s), %.0fx faster%n",
+            bets, repriceSeconds, bets / repriceSeconds, bookSeconds, bets / bookSeconds, repriceSeconds / bookSeconds);
+        System.out.printf("Average move of the other horses' odds per bet: repricing %.3f, book %.3f%n",
+            repriceDrift / bets, bookDrift / bets);
+
+        // The book must agree with the adjustment worked out from the history
+        double total = 0;
+        for (Horse horse : field) {
+            total += history.getTotalBetOnHorse(horse);
+        }
+        boolean good = true;
+        for (Horse horse : field) {
+            double expected = OddsCalculator.adjust(book.getBaseOdds(horse), history.getTotalBetOnHorse(horse), total);
+            good &= Math.abs(expected - odds.get(horse)) < 1e-9
+                && Math.abs(book.getStake(horse) - history.getTotalBetOnHorse(horse)) < 1e-6;
+        }
+        System.out.println("Book odds " + (good ? "match" : "DO NOT MATCH") + " the adjustment worked out from scratch");
+        System.out.println();
+        return good;
+    }
+
+    /**
+     * Add up how far the odds of every horse but the one bet on moved
+     */
+    private static double oddsDrift(java.util.Map<Horse, Double> before, java.util.Map<Horse, Double> after,
+                                    Horse betOn) {
+        double drift = 0;
+        for (java.util.Map.Entry<Horse, Double> entry : before.entrySet()) {
+            if (entry.getKey() != betOn) {
+                drift += Math.abs(after.get(entry.getKey()) - entry.getValue());
+            }
+        }
+        return drift / (before.size() - 1);
+    }
+
+    /**
+     * Grow a betting history race by race and time what the odds need after
+     * every bet (the stake on each horse) by going through the bets, as the
+     * history used to, and from its running totals. Then check every total
+     * against a recount of the bets.
+     *
+     * @return true if every running total matched the recount
+     */
+    private static boolean benchmarkBettingHistory() {
+        System.out.println("=== Betting history ===");
+        List<Horse> field = createField(8);
+        BettingHistory history = new BettingHistory();
+        RaceRandom random = new RaceRandom(22);
+        int betsPerRace = 100;
+        long raceId = 0;
+
+        System.out.println("     bets   scanning (us/pricing)   running totals (us/pricing)");
+        for (int target : new int[] {1000, 10000, 100000, 1000000}) {
+            while (history.getTotalBetCount() < target) {
+                raceId++;
+                List<Bet> race = new ArrayList<>();
+                for (int b = 0; b < betsPerRace; b++) {
+                    Bet bet = new Bet(field.get(random.nextInt(field.size())), 1 + random.nextInt(100),
+                        2 + random.nextInt(10), raceId);
+                    history.addBet(bet);
+                    race.add(bet);
+                }
+                Horse winner = field.get(random.nextInt(field.size()));
+                for (Bet bet : race) {
+                    bet.settle(winner);
+                }
+            }
+
+            List<Bet> bets = history.getAllBets();
+            int scans = Math.max(3, 3000000 / target);
+            double checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                for (Horse horse : field) {
+                    checksum += bets.stream().filter(bet -> bet.getHorse().equals(horse))
+                        .mapToDouble(Bet::getAmount).sum();
+                }
+            }
+            double scanMicros = (System.nanoTime() - start) / 1e3 / scans;
+            int lookups = 200000;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                for (Horse horse : field) {
+                    checksum += history.getTotalBetOnHorse(horse);
+                }
+            }
+            double totalsMicros = (System.nanoTime() - start) / 1e3 / lookups;
+            System.out.printf("%9d   %21.1f   %27.3f%s%n", target, scanMicros, totalsMicros,
+                checksum < 0 ? " " : "");
+        }
+
+        // Recount everything from the bets themselves
+        boolean good = true;
+        for (Horse horse : field) {
+            double stake = 0;
+            int count = 0;
+            int wins = 0;
+            int settled = 0;
+            for (Bet bet : history.getAllBets()) {
+                if (bet.getHorse() == horse) {
+                    stake += bet.getAmount();
+                    count++;
+                    wins += bet.isWon() ? 1 : 0;
+                    settled += bet.isSettled() ? 1 : 0;
+                }
+            }
+            good &= Math.abs(stake - history.getTotalBetOnHorse(horse)) < 1e-6
+                && count == history.getBetCountByHorse().get(horse)
+                && wins == history.getWinCountByHorse().getOrDefault(horse, 0)
+                && settled - wins == history.getLossCountByHorse().getOrDefault(horse, 0)
+                && Math.abs((double) wins / settled - history.getWinRateForHorse(horse)) < 1e-12;
+        }
+        double winnings = 0;
+        double lastRaceStake = 0;
+        for (Bet bet : history.getWinningBets()) {
+            winnings += bet.getPayout();
+        }
+        for (Bet bet : history.getAllBets()) {
+            if (bet.getRaceId() == raceId) {
+                lastRaceStake += bet.getAmount();
+            }
+        }
+        good &= Math.abs(winnings - history.getTotalWinnings()) < 1e-6
+            && Math.abs(lastRaceStake - history.getTotalsForRace(raceId).getTotalStake()) < 1e-9
+            && history.getTotalsForRace(raceId).getBetCount() == betsPerRace
+            && history.getUnsettledBets().isEmpty();
+
+        Bet pending = new Bet(field.get(0), 10, 3, raceId + 1);
+        history.addBet(pending);
+        good &= history.getUnsettledBets().size() == 1 && history.getTotalsForRace(raceId + 1).getLossCount() == 0;
+        pending.settle(field.get(1));
+        good &= history.getUnsettledBets().isEmpty() && history.getTotalsForRace(raceId + 1).getLossCount() == 1;
+
+        System.out.println("Running totals " + (good ? "match" : "DO NOT MATCH") + " a recount of "
+            + history.getTotalBetCount() + " bets over " + (raceId + 1) + " races");
+        System.out.println();
+        return good;
+    }
+
+    /**
+     * Run a 200-race season on one thread and on the whole pool, and a
+     * 64-horse knockout, checking that every race was recorded, that no race
+     * finished before a race it depends on, and that every horse went into
+     * each race with the confidence it came out of its previous one with.
+     *
+     * @return true if every check passed
+     */
+    private static boolean benchmarkTournament() {
+        System.out.println("=== Tournament scheduler ===");
+        List<Track> tracks = java.util.Arrays.asList(
+            TrackTypes.oval("Oval", 600, 8, TrackCondition.DRY),
+            TrackTypes.figureEight("Figure Eight", 800, 8, TrackCondition.WET),
+            TrackTypes.zigzag("Zigzag", 500, 8, TrackCondition.MUDDY));
+        StatisticsManager statistics = StatisticsManager.getInstance();
+        boolean good = true;
+
+        try {
+            Tournament.season("Warm-up", tracks, createField(40), 10, 4, 8, 1).run();
+            for (int threads : new int[] {1, java.util.concurrent.ForkJoinPool.getCommonPoolParallelism()}) {
+                Tournament season = Tournament.season("Season", tracks, createField(40), 50, 4, 8, 21);
+                java.util.concurrent.atomic.AtomicBoolean ordered = watchOrder(season);
+                int recordedBefore = statistics.getRaceCount();
+                java.util.concurrent.ForkJoinPool pool = threads == 1
+                    ? new java.util.concurrent.ForkJoinPool(1) : java.util.concurrent.ForkJoinPool.commonPool();
+                long start = System.nanoTime();
+                season.start(pool).await();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (threads == 1) {
+                    pool.shutdown();
+                }
+                boolean checked = ordered.get()
+                    && checkTournament(season, statistics.getRaceCount() - recordedBefore);
+                System.out.printf("%d-race season on %d thread(s): %.2f s (%.0f races/s), critical path %d races%s%n",
+                    season.getTotalRaces(), threads, seconds, season.getTotalRaces() / seconds,
+                    season.getCriticalPathLength(), checked ? "" : " (CHECKS FAILED)");
+                good &= checked;
+            }
+
+            Tournament knockout = Tournament.knockout("Cup", tracks.get(0), createField(64), 8, 2);
+            java.util.concurrent.atomic.AtomicBoolean ordered = watchOrder(knockout);
+            int recordedBefore = statistics.getRaceCount();
+            long start = System.nanoTime();
+            knockout.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            boolean checked = ordered.get() && checkTournament(knockout, statistics.getRaceCount() - recordedBefore);
+            System.out.printf("64-horse knockout: %d races in %d stages, %.3f s; %s%s%n", knockout.getTotalRaces(),
+                knockout.getCriticalPathLength(), seconds, knockout.getFinal(), checked ? "" : " (CHECKS FAILED)");
+            good &= checked;
+        } catch (InterruptedException e) {
+            System.out.println("Tournament interrupted");
+            return false;
+        }
+        System.out.println();
+        return good;
+    }
+
+    /**
+     * Watch a tournament for races that finish before a race they depend on
+     *
+     * @return A flag that stays true as long as every race finished after its dependencies
+     */
+    private static java.util.concurrent.atomic.AtomicBoolean watchOrder(Tournament tournament) {
+        java.util.concurrent.atomic.AtomicBoolean ordered = new java.util.concurrent.atomic.AtomicBoolean(true);
+        tournament.addListener(new Tournament.TournamentListener() {
+            public void onRaceFinished(Tournament finishing, Tournament.Fixture fixture) {
+                for (Tournament.Fixture dependency : fixture.getDependencies()) {
+                    if (!dependency.isFinished()) {
+                        ordered.set(false);
+                    }
+                }
+            }
+
+            public void onTournamentFinished(Tournament finished) {
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Check a finished tournament's races against their dependencies and the horses' confidences
+     */
+    private static boolean checkTournament(Tournament tournament, int recorded) {
+        java.util.Map<Horse, Double> confidence = new java.util.HashMap<>();
+        boolean good = recorded == tournament.getTotalRaces();
+        for (Tournament.Fixture fixture : tournament.getFixtures()) {
+            good &= fixture.isFinished() && fixture.getWinner() != null;
+            for (Horse horse : fixture.getEntrants()) {
+                Double previous = confidence.get(horse);
+                good &= previous == null || previous == fixture.getConfidenceBefore(horse);
+                confidence.put(horse, fixture.getConfidenceAfter(horse));
+            }
+        }
+        for (java.util.Map.Entry<Horse, Double> entry : confidence.entrySet()) {
+            good &= entry.getKey().getConfidence() == entry.getValue();
+        }
+        return good;
+    }
+
+    /**
+     * Find the best equipment for a horse by successive halving, then score
+     * every loadout with the full budget on the same random numbers and check
+     * that the loadout halving picked is as good as the best one.
+     *
+     * @return true if the picked loadout is within the best one's confidence interval
+     */
+    private static boolean benchmarkEquipmentOptimizer() {
+        System.out.println("=== Equipment optimizer ===");
+        List<Horse> rivals = createField(6);
+        Horse horse = rivals.remove(3);
+        Track track = TrackTypes.oval("Oval", 800, 6, TrackCondition.ICY);
+        List<HorseEquipment> loadouts = EquipmentOptimizer.allLoadouts();
+
+        EquipmentOptimizer optimizer = new EquipmentOptimizer();
+        optimizer.optimize(horse, rivals, track, loadouts.subList(0, 10), 2, 1);
+        EquipmentOptimizer.OptimizationResult halving = optimizer.optimize(horse, rivals, track, loadouts, 5, 20);
+        System.out.print("Successive halving: " + halving);
+
+        EquipmentOptimizer exhaustive = new EquipmentOptimizer();
+        exhaustive.setInitialBatches(exhaustive.getMaxBatches());
+        EquipmentOptimizer.OptimizationResult full = exhaustive.optimize(horse, rivals, track, loadouts,
+            loadouts.size(), 20);
+        EquipmentOptimizer.Loadout best = full.getBest().get(0);
+        EquipmentOptimizer.Loadout picked = null;
+        int rank = 0;
+        for (int i = 0; i < full.getBest().size() && picked == null; i++) {
+            if (full.getBest().get(i).getEquipment().toString()
+                    .equals(halving.getBest().get(0).getEquipment().toString())) {
+                picked = full.getBest().get(i);
+                rank = i + 1;
+            }
+        }
+        System.out.printf("Every loadout at full budget: %,d races in %.2f s (halving used %.0f%% of the races, "
+            + "%.1fx faster)%n", full.getRaces(), full.getSeconds(), 100.0 * halving.getRaces() / full.getRaces(),
+            full.getSeconds() / halving.getSeconds());
+        System.out.printf("Best at full budget: %s%nHalving's pick ranks %d of %d at full budget: %.1f%% "
+            + "against the best's %.1f%% (lower bound %.1f%%)%n", best, rank, loadouts.size(),
+            100 * picked.getWinProbability(), 100 * best.getWinProbability(), 100 * best.getLower());
+        boolean good = picked.getWinProbability() >= best.getLower();
+        System.out.println(good ? "Pick is within the best loadout's interval" : "PICK IS CLEARLY WORSE");
+        System.out.println();
+        return good;
+    }
+
+    /**
+     * Sweep a field over every condition, shape and length, on one thread
+     * and on the whole pool, then check that both sweeps agree, that slices
+     * and CSV exports cover the right cells, and that a cancelled sweep stops
+     * early with the cells it finished.
+     *
+     * @return true if every check passed
+     */
+    private static boolean benchmarkScenarioSweep() {
+        System.out.println("=== Scenario sweep ===");
+        List<Horse> field = createField(8);
+        ScenarioGrid grid = ScenarioGrid.allConditionsAndShapes(400, 800, 1200);
+        int simulations = 2000;
+
+        try {
+            ScenarioSweep warmUp = new ScenarioSweep(field, new ScenarioGrid(grid.getConditions(),
+                grid.getShapes(), java.util.Arrays.asList(400)));
+            warmUp.setSimulationsPerCell(simulations);
+            warmUp.run();
+
+            java.util.concurrent.ForkJoinPool single = new java.util.concurrent.ForkJoinPool(1);
+            ScenarioSweep sequential = new ScenarioSweep(field, grid, single);
+            sequential.setSimulationsPerCell(simulations);
+            sequential.setSeed(19);
+            long start = System.nanoTime();
+            ResultsCube sequentialCube = sequential.run();
+            double sequentialSeconds = (System.nanoTime() - start) / 1e9;
+            single.shutdown();
+
+            java.util.concurrent.atomic.AtomicInteger reported = new java.util.concurrent.atomic.AtomicInteger();
+            ScenarioSweep parallel = new ScenarioSweep(field, grid);
+            parallel.setSimulationsPerCell(simulations);
+            parallel.setSeed(19);
+            parallel.addListener(new ScenarioSweep.SweepListener() {
+                public void onCellCompleted(ScenarioSweep sweep, int cell,
+                                            MonteCarloOddsEngine.SimulationResult result) {
+                    reported.incrementAndGet();
+                }
+
+                public void onSweepFinished(ScenarioSweep sweep, boolean cancelled) {
+                }
+            });
+            start = System.nanoTime();
+            ResultsCube cube = parallel.run();
+            double parallelSeconds = (System.nanoTime() - start) / 1e9;
+            long races = (long) grid.getCellCount() * simulations;
+            System.out.printf("%d cells x %,d races: %.2f s on 1 thread, %.2f s on %d (%.1fx, %,.0f races/s)%n",
+                grid.getCellCount(), simulations, sequentialSeconds, parallelSeconds,
+                java.util.concurrent.ForkJoinPool.getCommonPoolParallelism(), sequentialSeconds / parallelSeconds,
+                races / parallelSeconds);
+
+            boolean identical = reported.get() == grid.getCellCount();
+            for (int cell = 0; cell < grid.getCellCount(); cell++) {
+                identical &= cube.getResult(cell).getWinProbabilities()
+                    .equals(sequentialCube.getResult(cell).getWinProbabilities());
+            }
+            System.out.printf("Progress reported for %d of %d cells; pool and single-thread sweeps %s%n",
+                reported.get(), grid.getCellCount(), identical ? "identical" : "DIFFER");
+
+            Horse favourite = field.get(0);
+            System.out.println("Average win chance of " + favourite.getName() + " by condition:");
+            for (java.util.Map.Entry<Object, java.util.Map<Horse, Double>> entry
+                    : cube.averageWinBy(ResultsCube.Dimension.CONDITION).entrySet()) {
+                System.out.printf("  %-6s %.1f%%%n", ((TrackCondition) entry.getKey()).getName(),
+                    100 * entry.getValue().get(favourite));
+            }
+
+            ResultsCube icy = cube.slice(ResultsCube.Dimension.CONDITION, TrackCondition.ICY)
+                .slice(ResultsCube.Dimension.HORSE, field.get(0), field.get(1));
+            java.io.StringWriter csv = new java.io.StringWriter();
+            icy.exportCsv(csv);
+            int rows = csv.toString().split("\n").length - 1;
+            boolean sliced = icy.getCellCount() == grid.getShapes().size() * grid.getLengths().size()
+                && rows == icy.getCellCount() * 2;
+            java.io.File file = java.io.File.createTempFile("sweep", ".csv");
+            file.deleteOnExit();
+            cube.exportCsv(file);
+            long lines = java.nio.file.Files.lines(file.toPath()).count() - 1;
+            boolean exported = lines == (long) grid.getCellCount() * field.size();
+            System.out.printf("Icy slice of 2 horses: %d cells, %d CSV rows; full export: %d rows%s%n",
+                icy.getCellCount(), rows, lines, sliced && exported ? "" : " (WRONG)");
+
+            ScenarioSweep cancelled = new ScenarioSweep(field, grid);
+            cancelled.setSimulationsPerCell(simulations);
+            boolean[] finished = new boolean[2];
+            cancelled.addListener(new ScenarioSweep.SweepListener() {
+                public void onCellCompleted(ScenarioSweep sweep, int cell,
+                                            MonteCarloOddsEngine.SimulationResult result) {
+                    if (sweep.getCompletedCells() >= 5) {
+                        sweep.cancel();
+                    }
+                }
+
+                public void onSweepFinished(ScenarioSweep sweep, boolean wasCancelled) {
+                    finished[0] = true;
+                    finished[1] = wasCancelled;
+                }
+            });
+            ResultsCube partial = cancelled.start().await();
+            int atFinish = cancelled.getCompletedCells();
+            // No cell may still be running once the sweep says it is finished
+            java.util.concurrent.ForkJoinPool.commonPool().awaitQuiescence(10, java.util.concurrent.TimeUnit.SECONDS);
+            boolean stopped = cancelled.isDone() && finished[0] && finished[1]
+                && partial.getCompletedCells() < grid.getCellCount()
+                && partial.getCompletedCells() == atFinish && cancelled.getCompletedCells() == atFinish;
+            System.out.printf("Cancelled after 5 cells: %d of %d cells finished (%.0f%%)%s%n",
+                partial.getCompletedCells(), grid.getCellCount(), 100 * cancelled.getProgress(),
+                stopped ? "" : " (DID NOT STOP)");
+            System.out.println();
+            return identical && sliced && exported && stopped;
+        } catch (InterruptedException | java.io.IOException e) {
+            System.out.println("Sweep failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Price a repeating schedule of fields with and without the outcome
+     * cache, then check that invalidating a horse drops only its entries,
+     * that a confidence change misses the old entries, that a saved cache
+     * loads back the same results, and how LRU
+     * and LFU eviction cope with a cache smaller than the schedule.
+     *
+     * @return true if every check passed
+     */
+    private static boolean benchmarkOutcomeCache() {
+        System.out.println("=== Outcome cache ===");
+        Track[] tracks = {
+            TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY),
+            TrackTypes.figureEight("Figure Eight", 600, 8, TrackCondition.DRY),
+            TrackTypes.zigzag("Zigzag", 400, 8, TrackCondition.MUDDY)
+        };
+        List<List<Horse>> fields = new ArrayList<>();
+        for (int f = 0; f < 10; f++) {
+            fields.add(createField(8));
+        }
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lanes.add(i);
+        }
+
+        // A schedule where a few fields and tracks come round far more often than the rest
+        int requests = 300;
+        int[][] schedule = new int[requests][2];
+        RaceRandom random = new RaceRandom(18);
+        for (int r = 0; r < requests; r++) {
+            schedule[r][0] = (int) (fields.size() * Math.pow(random.nextDouble(), 2));
+            schedule[r][1] = random.nextInt(tracks.length);
+        }
+
+        MonteCarloOddsEngine engine = new MonteCarloOddsEngine();
+        int simulations = 5000;
+        engine.simulate(fields.get(0), lanes, tracks[0], simulations);
+        long start = System.nanoTime();
+        for (int[] request : schedule) {
+            engine.simulate(fields.get(request[0]), lanes, tracks[request[1]], simulations);
+        }
+        double uncachedSeconds = (System.nanoTime() - start) / 1e9;
+
+        OutcomeCache cache = new OutcomeCache();
+        start = System.nanoTime();
+        for (int[] request : schedule) {
+            cache.simulate(engine, fields.get(request[0]), lanes, tracks[request[1]], simulations);
+        }
+        double cachedSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d pricing requests: %.2f s simulating every time, %.2f s cached (%.1fx); %s%n",
+            requests, uncachedSeconds, cachedSeconds, uncachedSeconds / cachedSeconds, cache);
+
+        // Copies of a field race identically, so they must share its entry
+        List<Horse> copies = new ArrayList<>();
+        for (Horse horse : fields.get(0)) {
+            copies.add(new Horse(horse));
+        }
+        boolean copyHits = cache.get(copies, lanes, tracks[0], simulations) != null;
+
+        // Changing one horse must drop exactly the entries it raced in
+        Horse changed = fields.get(1).get(0);
+        int before = cache.size();
+        int affected = 0;
+        for (Track track : tracks) {
+            if (cache.get(fields.get(1), lanes, track, simulations) != null) {
+                affected++;
+            }
+        }
+        cache.invalidate(changed);
+        boolean targeted = cache.size() == before - affected;
+        for (Track track : tracks) {
+            targeted &= cache.get(fields.get(1), lanes, track, simulations) == null;
+        }
+        System.out.printf("Copied field served from cache: %s; invalidating one horse dropped %d of %d entries "
+            + "(expected %d)%n", copyHits ? "yes" : "NO", before - cache.size(), before, affected);
+
+        // A confidence change alone makes a new signature, so the old entry is not served
+        Horse copy = copies.get(0);
+        copy.setConfidence(copy.getConfidence() * 0.9);
+        boolean rekeyed = cache.get(copies, lanes, tracks[0], simulations) == null;
+        System.out.println("Field with a changed confidence " + (rekeyed ? "missed" : "WAS SERVED") + " the old entry");
+
+        boolean persisted = true;
+        try {
+            java.io.File file = java.io.File.createTempFile("outcome-cache", ".bin");
+            file.deleteOnExit();
+            cache.save(file);
+            OutcomeCache loaded = new OutcomeCache();
+            loaded.load(file);
+            persisted = loaded.size() == cache.size();
+            for (int f = 0; f < fields.size() && persisted; f++) {
+                for (Track track : tracks) {
+                    MonteCarloOddsEngine.SimulationResult original = cache.get(fields.get(f), lanes, track, 1);
+                    MonteCarloOddsEngine.SimulationResult restored = loaded.get(fields.get(f), lanes, track, 1);
+                    if ((original == null) != (restored == null)) {
+                        persisted = false;
+                    } else if (original != null) {
+                        persisted &= original.getWinProbabilities().equals(restored.getWinProbabilities());
+                    }
+                }
+            }
+            System.out.printf("Saved and reloaded %d entries (%,d bytes): %s%n", loaded.size(), file.length(),
+                persisted ? "identical" : "DIFFERENT");
+        } catch (java.io.IOException e) {
+            System.out.println("Could not save the cache: " + e.getMessage());
+            persisted = false;
+        }
+
+        for (OutcomeCache.EvictionPolicy policy : OutcomeCache.EvictionPolicy.values()) {
+            OutcomeCache small = new OutcomeCache();
+            small.setMaxEntries(8);
+            small.setEvictionPolicy(policy);
+            for (int[] request : schedule) {
+                small.simulate(engine, fields.get(request[0]), lanes, tracks[request[1]], 500);
+            }
+            System.out.printf("%s with room for 8 of %d fields: %.1f%% hits, %d evictions%n", policy,
+                fields.size() * tracks.length, 100 * small.getHitRate(), small.getEvictions());
+        }
+        System.out.println();
+        return copyHits && targeted && rekeyed && persisted;
+    }
+
+    /**
+     * Price a field with each sampling option and compare the variance
+     * reduction each batch reports against the spread actually seen over
+     * many batches. Then compare two variants of one horse with and without
+     * common random numbers and report how many runs each needs to pin the
+     * difference down.
+     *
+     * @return true if every reported variance reduction agreed with the measured one
+     */
+    private static boolean benchmarkVarianceReduction() {
+        System.out.println("=== Variance reduction ===");
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        List<Horse> horses = createField(8);
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+        MonteCarloOddsEngine engine = new MonteCarloOddsEngine();
+        boolean passed = true;
+
+        int batches = 200;
+        int simulations = 2048;
+        for (MonteCarloOddsEngine.Sampling sampling : MonteCarloOddsEngine.Sampling.values()) {
+            engine.setSampling(sampling);
+            double[][] estimates = new double[batches][horses.size()];
+            double reported = 0;
+            long needed = 0;
+            long start = System.nanoTime();
+            for (int batch = 0; batch < batches; batch++) {
+                MonteCarloOddsEngine.SimulationResult result = engine.simulate(horses, lanes, track,
+                    simulations, RaceRandom.deriveSeed(17, batch));
+                for (int i = 0; i < horses.size(); i++) {
+                    estimates[batch][i] = result.getWin(horses.get(i)).getProbability();
+                }
+                reported += result.getVarianceReduction();
+                needed += result.getSimulationsNeeded(0.01);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            double independentVariance = 0;
+            double measuredVariance = 0;
+            for (int i = 0; i < horses.size(); i++) {
+                double mean = 0;
+                for (double[] estimate : estimates) {
+                    mean += estimate[i] / batches;
+                }
+                double variance = 0;
+                for (double[] estimate : estimates) {
+                    variance += (estimate[i] - mean) * (estimate[i] - mean) / (batches - 1);
+                }
+                independentVariance += mean * (1 - mean) / simulations;
+                measuredVariance += variance;
+            }
+            double measured = independentVariance / measuredVariance;
+            reported /= batches;
+            // The measured spread is itself an estimate from a couple of hundred batches
+            boolean agrees = reported / measured > 0.7 && reported / measured < 1.4;
+            passed &= agrees;
+            System.out.printf("%-12s %,9.0f races/s, variance reduction %.2fx reported, %.2fx measured over %d "
+                + "batches%s; %,d runs for +/-0.01 on every win chance%n", sampling,
+                batches * simulations / seconds, reported, measured, batches, agrees ? "" : " (DISAGREE)",
+                needed / batches);
+        }
+
+        Horse baseline = horses.get(3);
+        Horse variant = new Horse(baseline);
+        variant.setTurnHandling(baseline.getTurnHandling() + 0.1);
+        for (MonteCarloOddsEngine.Sampling sampling : MonteCarloOddsEngine.Sampling.values()) {
+            engine.setSampling(sampling);
+            for (boolean common : new boolean[] {false, true}) {
+                engine.setCommonRandomNumbers(common);
+                MonteCarloOddsEngine.VariantComparison comparison = engine.compare(horses, lanes, track, 3,
+                    variant, 20000, 5);
+                System.out.printf("Better turn handling, %-11s %-15s %s; %,d runs for +/-0.005%n",
+                    sampling + ",", common ? "common numbers:" : "fresh numbers:", comparison,
+                    comparison.getSimulationsNeeded(0.005));
+            }
+        }
+        System.out.println();
+        return passed;
+    }
+
+    /**
+     * Compare headless races that stop once their result is settled against
+     * races that are run out. Stopping early must give the same winner and
+     * order as the full race for every seed, and over independent batches the
+     * winners and runners-up must follow the same distribution, checked with
+     * two-sample chi-square tests at the 0.1% level.
+     *
+     * @return true if every check passed
+     */
+    private static boolean benchmarkTermination() {
+        System.out.println("=== Early termination ===");
+        boolean passed = true;
+        for (int fieldSize : new int[] {8, 100}) {
+            Track track = TrackTypes.oval("Oval", 500, fieldSize, TrackCondition.DRY);
+            List<Horse> horses = createField(fieldSize);
+            List<Integer> lanes = new ArrayList<>();
+            for (int i = 0; i < fieldSize; i++) {
+                lanes.add(i);
+            }
+            RaceKernel full = new RaceKernel(track, horses, lanes);
+            RaceKernel early = new RaceKernel(track, horses, lanes);
+            early.setDetail(RaceKernel.Detail.FULL_ORDER);
+
+            // Stopping early must not change the result of any race
+            int[] fullOrder = new int[fieldSize];
+            int[] earlyOrder = new int[fieldSize];
+            int checked = 20000;
+            int mismatches = 0;
+            long fullTicks = 0;
+            long earlyTicks = 0;
+            int stoppedEarly = 0;
+            for (int i = 0; i < checked; i++) {
+                long seed = RaceRandom.deriveSeed(16, i);
+                full.reset(seed);
+                full.run();
+                early.reset(seed);
+                early.run();
+                full.fillFinishingOrder(fullOrder);
+                early.fillFinishingOrder(earlyOrder);
+                if (!java.util.Arrays.equals(fullOrder, earlyOrder)) {
+                    mismatches++;
+                }
+                fullTicks += full.getTick();
+                earlyTicks += early.getTick();
+                if (early.isDecidedEarly()) {
+                    stoppedEarly++;
+                }
+            }
+            passed &= mismatches == 0;
+            System.out.printf("%3d runners: %.1f%% of races stopped early, %.1f ticks instead of %.1f; "
+                + "order mismatches %d/%d%n", fieldSize, 100.0 * stoppedEarly / checked,
+                (double) earlyTicks / checked, (double) fullTicks / checked, mismatches, checked);
+
+            int races = Math.max(2000, 400000 / fieldSize);
+            double fullRate = racesPerSecond(races, () -> {
+                full.reset(RaceRandom.randomSeed());
+                full.run();
+            });
+            System.out.printf("    %-16s %,10.0f races/s%n", RaceKernel.Detail.FULL_STATISTICS, fullRate);
+            double rate = racesPerSecond(races, () -> {
+                early.reset(RaceRandom.randomSeed());
+                early.run();
+            });
+            System.out.printf("    %-16s %,10.0f races/s (%.2fx)%n", RaceKernel.Detail.FULL_ORDER, rate,
+                rate / fullRate);
+
+            int samples = fieldSize <= 8 ? 200000 : 20000;
+            long[][] fullCounts = countOutcomes(full, samples, 1);
+            long[][] earlyCounts = countOutcomes(early, samples, 2);
+            String[] names = {"winner", "runner-up"};
+            for (int k = 0; k < names.length; k++) {
+                double[] test = chiSquare(fullCounts[k], earlyCounts[k]);
+                double critical = chiSquareCritical(test[1]);
+                boolean equivalent = test[0] <= critical;
+                passed &= equivalent;
+                System.out.printf("    %-10s chi-square %.1f on %.0f df (0.1%% critical value %.1f): %s%n",
+                    names[k], test[0], test[1], critical, equivalent ? "same distribution" : "DIFFERENT");
+            }
+        }
+        System.out.println();
+        return passed;
+    }
+
+    /**
+     * Run races and count how often each runner wins and comes second
+     */
+    private static long[][] countOutcomes(RaceKernel kernel, int races, long batchSeed) {
+        int size = kernel.getSize();
+        long[][] counts = {new long[size], new long[size]};
+        int[] order = new int[size];
+        for (int i = 0; i < races; i++) {
+            kernel.reset(RaceRandom.deriveSeed(batchSeed, i));
+            kernel.run();
+            kernel.fillFinishingOrder(order);
+            counts[0][order[0]]++;
+            counts[1][order[1]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Two-sample chi-square test on counts over the same categories. Sparse
+     * categories are pooled until each group has at least 10 observations.
+     *
+     * @return The statistic and its degrees of freedom
+     */
+    private static double[] chiSquare(long[] a, long[] b) {
+        double totalA = 0;
+        double totalB = 0;
+        for (int i = 0; i < a.length; i++) {
+            totalA += a[i];
+            totalB += b[i];
+        }
+        double ka = Math.sqrt(totalB / totalA);
+        double kb = Math.sqrt(totalA / totalB);
+        double statistic = 0;
+        int groups = 0;
+        long groupA = 0;
+        long groupB = 0;
+        for (int i = 0; i < a.length; i++) {
+            groupA += a[i];
+            groupB += b[i];
+            if (groupA + groupB >= 10 || (i == a.length - 1 && groupA + groupB > 0)) {
+                double diff = ka * groupA - kb * groupB;
+                statistic += diff * diff / (groupA + groupB);
+                groups++;
+                groupA = 0;
+                groupB = 0;
+            }
+        }
+        return new double[] {statistic, Math.max(1, groups - 1)};
+    }
+
+    /**
+     * Critical value of the chi-square distribution at the 0.1% level, by
+     * the Wilson-Hilferty approximation
+     */
+    private static double chiSquareCritical(double df) {
+        double z = 3.090; // Upper 0.1% point of the standard normal
+        double h = 2.0 / (9.0 * df);
+        return df * Math.pow(1 - h + z * Math.sqrt(h), 3);
+    }
+
+    /**
+     * Price races tick by tick from checkpoints and report how the cost of an
+     * update falls as the race goes on and how much blending with the previous
+     * estimate helps a small budget. Then price live paced races in the
+     * background and check the races kept to time.
+     */
+    private static void benchmarkInRunningOdds() {
+        System.out.println("=== In-running odds ===");
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        List<Horse> horses = createField(8);
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+        MonteCarloOddsEngine odds = new MonteCarloOddsEngine();
+        InRunningOddsPricer pricer = new InRunningOddsPricer(odds);
+        int budget = pricer.getSimulationBudget();
+        int reference = 100000;
+
+        // Find a race that lasts long enough to watch the cost fall
+        RaceKernel race = new RaceKernel(track, horses, lanes);
+        long seed = 0;
+        for (long candidate = 0; ; candidate++) {
+            race.reset(candidate);
+            if (race.run() >= 0 && race.getTick() >= 20) {
+                seed = candidate;
+                break;
+            }
+        }
+
+        double blendedError = 0;
+        double rawError = 0;
+        int priced = 0;
+        for (int warmUp = 0; warmUp < 2; warmUp++) {
+            race.reset(seed);
+            pricer.reset();
+            boolean report = warmUp == 1;
+            if (report) {
+                System.out.printf("Budget %,d continuations per update, error against %,d:%n", budget, reference);
+            }
+            while (!race.isFinished()) {
+                RaceCheckpoint checkpoint = race.checkpoint();
+                long start = System.nanoTime();
+                java.util.Map<Horse, Double> blended = pricer.price(checkpoint);
+                double millis = (System.nanoTime() - start) / 1e6;
+                if (report && checkpoint.getTick() % 4 == 0) {
+                    java.util.Map<Horse, Double> raw = odds.simulate(checkpoint, budget).getWinProbabilities();
+                    java.util.Map<Horse, Double> exact = odds.simulate(checkpoint, reference).getWinProbabilities();
+                    double blendedTick = 0;
+                    double rawTick = 0;
+                    for (Horse horse : horses) {
+                        blendedTick += Math.abs(blended.get(horse) - exact.get(horse));
+                        rawTick += Math.abs(raw.get(horse) - exact.get(horse));
+                    }
+                    blendedError += blendedTick;
+                    rawError += rawTick;
+                    priced++;
+                    System.out.printf("  tick %3d: update %.2f ms, total error %.4f blended, %.4f unblended%n",
+                        checkpoint.getTick(), millis, blendedTick, rawTick);
+                }
+                race.tick();
+            }
+        }
+        System.out.printf("Mean total error: %.4f blended, %.4f unblended%n",
+            blendedError / priced, rawError / priced);
+
+        // Price live races in the background and check they kept to time
+        RaceManager manager = new RaceManager();
+        manager.setConsoleOutput(false);
+        manager.setTrack(track);
+        for (int i = 0; i < horses.size(); i++) {
+            manager.addHorse(horses.get(i), i);
+        }
+        pricer.setInterval(100);
+        long[] updates = new long[1];
+        long overruns = 0;
+        long ticks = 0;
+        for (int i = 0; i < 5; i++) {
+            manager.setSeed(seed + i);
+            manager.startRace();
+            pricer.start(manager, probabilities -> updates[0]++);
+            while (manager.isRaceInProgress()) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            overruns += manager.getTickOverruns();
+            ticks += manager.getSnapshot().getTick();
+        }
+        pricer.stop();
+        System.out.printf("Live: %d odds updates over 5 paced races, %.1f ms each on average, "
+            + "%d of %d race ticks late%n", updates[0], pricer.getAverageUpdateMillis(), overruns, ticks);
+        System.out.println();
+    }
+
+    /**
+     * Check that a race continued from a checkpoint runs exactly the ticks the
+     * original race runs, and that checkpointing a race does not change it.
+     * Then time taking a checkpoint of a running race and simulating
+     * continuations from a checkpoint in parallel.
+     *
+     * @return true if every continuation matched the original race
+     */
+    private static boolean benchmarkCheckpoints() {
+        System.out.println("=== RaceCheckpoint fork-at-tick ===");
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        List<Horse> horses = createField(8);
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+
+        RaceKernel original = new RaceKernel(track, horses, lanes);
+        RaceKernel untouched = new RaceKernel(track, horses, lanes);
+        int checked = 0;
+        int mismatches = 0;
+        for (int i = 0; i < 1000; i++) {
+            long seed = RaceRandom.deriveSeed(7, i);
+            original.reset(seed);
+            for (int t = 0; t < 5 && original.tick(); t++) {
+                // Run a few ticks before taking the checkpoint
+            }
+            RaceKernel fork = original.checkpoint().fork();
+            original.run();
+            fork.run();
+            untouched.reset(seed);
+            untouched.run();
+            checked++;
+            if (!sameRace(original, fork) || !sameRace(original, untouched)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("Continuations matching the original race: %d/%d%n", checked - mismatches, checked);
+
+        for (int fieldSize : new int[] {8, 1000}) {
+            Track fieldTrack = TrackTypes.oval("Oval", 500, fieldSize, TrackCondition.DRY);
+            List<Horse> field = createField(fieldSize);
+            List<Integer> fieldLanes = new ArrayList<>();
+            for (int i = 0; i < fieldSize; i++) {
+                fieldLanes.add(i);
+            }
+            RaceEngine engine = new RaceEngine(fieldTrack, field, fieldLanes);
+            engine.setHeadless(true);
+            long[] samples = new long[200000];
+            int taken = 0;
+            for (int race = 0; race < 2000 && taken < samples.length; race++) {
+                engine.begin(RaceRandom.deriveSeed(11, race));
+                while (engine.step() && taken < samples.length) {
+                    long start = System.nanoTime();
+                    engine.checkpoint();
+                    long elapsed = System.nanoTime() - start;
+                    if (race >= 200) {
+                        // Skip the warm-up races
+                        samples[taken++] = elapsed;
+                    }
+                }
+                engine.finish(false);
+            }
+            java.util.Arrays.sort(samples, 0, taken);
+            System.out.printf("%5d runners: checkpoint of a running race %.2f us median, %.2f us 99.9th percentile "
+                + "(%,d taken)%n", fieldSize, samples[taken / 2] / 1e3, samples[(int) (taken * 0.999)] / 1e3, taken);
+        }
+
+        RaceKernel live = new RaceKernel(track, horses, lanes);
+        live.reset(3);
+        for (int t = 0; t < 5 && live.tick(); t++) {
+            // Take the checkpoint a few ticks in
+        }
+        RaceCheckpoint checkpoint = live.checkpoint();
+        MonteCarloOddsEngine odds = new MonteCarloOddsEngine();
+        int simulations = 200000;
+        odds.simulate(checkpoint, simulations / 4, 1);
+        odds.simulate(horses, lanes, track, simulations / 4, 1);
+        long start = System.nanoTime();
+        odds.simulate(checkpoint, simulations, 1);
+        double checkpointSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        odds.simulate(horses, lanes, track, simulations, 1);
+        double startSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Continuations from tick %d: %,.0f/s in parallel (races from the start: %,.0f/s)%n",
+            checkpoint.getTick(), simulations / checkpointSeconds, simulations / startSeconds);
+        System.out.println();
+        return mismatches == 0;
+    }
+
+    /**
+     * Check if two kernels ended in exactly the same state
+     */
+    private static boolean sameRace(RaceKernel a, RaceKernel b) {
+        if (a.getTick() != b.getTick() || a.getWinnerIndex() != b.getWinnerIndex()) {
+            return false;
+        }
+        for (int i = 0; i < a.getSize(); i++) {
+            if (a.getDistance(i) != b.getDistance(i) || a.hasFallen(i) != b.hasFallen(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record headless eight-horse races, then report the size of the
+     * recordings, how fast they encode and decode, and how much faster than
+     * real time they replay. Fails if a recording does not survive a round
+     * trip or a seek does not match sequential playback.
+     *
+     * @param raceCount The number of races to record
+     * @return true if every recording round-tripped and replayed correctly
+     */
+    private static boolean benchmarkRecording(int raceCount) {
+        System.out.println("=== RaceRecording size and replay speed ===");
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        List<Horse> horses = createField(8);
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+        List<RaceRecording> recordings = new ArrayList<>();
+        RaceEngine engine = new RaceEngine(track, horses, lanes);
+        engine.setHeadless(true);
+        engine.addSink(new RaceRecorder(recordings::add));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < raceCount; i++) {
+            engine.runRace(RaceRandom.deriveSeed(99, i), false, false);
+        }
+        double recordSeconds = (System.nanoTime() - start) / 1e9;
+
+        long totalBytes = 0;
+        int maxBytes = 0;
+        long totalTicks = 0;
+        int failures = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        List<RaceRecording> decoded = new ArrayList<>();
+        for (RaceRecording recording : recordings) {
+            long t0 = System.nanoTime();
+            byte[] bytes = recording.toBytes();
+            long t1 = System.nanoTime();
+            RaceRecording copy;
+            try {
+                copy = RaceRecording.fromBytes(bytes);
+            } catch (java.io.IOException e) {
+                copy = null;
+            }
+            decodeNanos += System.nanoTime() - t1;
+            encodeNanos += t1 - t0;
+            if (!recording.equals(copy)) {
+                failures++;
+            }
+            decoded.add(copy != null ? copy : recording);
+            totalBytes += bytes.length;
+            maxBytes = Math.max(maxBytes, bytes.length);
+            totalTicks += recording.getTickCount();
+        }
+
+        // Replay everything as fast as possible, checking seeks against sequential playback on the way
+        long raceMillis = 0;
+        long[] frames = new long[1];
+        start = System.nanoTime();
+        for (RaceRecording recording : decoded) {
+            RaceReplay replay = new RaceReplay(recording, track, horses);
+            int middle = recording.getTickCount() / 2;
+            RaceSnapshot sought = replay.snapshotAt(middle);
+            replay.replay(frame -> {
+                frames[0]++;
+                if (frame.getTick() == middle && frame.getDistance(0) != sought.getDistance(0)) {
+                    frames[0] = Long.MIN_VALUE;
+                }
+            });
+            raceMillis += recording.getRaceDuration();
+        }
+        double replaySeconds = (System.nanoTime() - start) / 1e9;
+        if (frames[0] < 0) {
+            failures++;
+        }
+
+        // Damaged recordings, with header bytes overwritten or the end cut
+        // off, must be refused with an IOException and nothing else
+        byte[] sample = decoded.get(0).toBytes();
+        RaceRandom damage = new RaceRandom(13);
+        int refused = 0;
+        int damagedCount = 20000;
+        for (int i = 0; i < damagedCount; i++) {
+            byte[] bytes = sample.clone();
+            // Runs of bytes with the top bit set make a count or tick read as a huge varint
+            int at = 5 + damage.nextInt(Math.min(bytes.length, 96) - 5);
+            int run = damage.nextBoolean() ? 1 : 1 + damage.nextInt(9);
+            for (int b = at; b < Math.min(bytes.length, at + run); b++) {
+                bytes[b] = (byte) (run == 1 ? damage.nextInt(256) : 0x80 | damage.nextInt(256));
+            }
+            if (damage.nextBoolean()) {
+                bytes = java.util.Arrays.copyOf(bytes, damage.nextInt(bytes.length));
+            }
+            try {
+                RaceRecording.fromBytes(bytes);
+            } catch (java.io.IOException e) {
+                refused++;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                System.err.println("Damaged recording not refused cleanly: " + e);
+                failures++;
+            }
+        }
+
+        System.out.printf("%,d races, %.1f ticks each on average, recorded in %.2f s alongside the race%n",
+            raceCount, (double) totalTicks / raceCount, recordSeconds);
+        System.out.printf("Size: %.0f bytes average, %d bytes largest (%.2f bytes per horse-tick)%n",
+            (double) totalBytes / raceCount, maxBytes, (double) totalBytes / Math.max(1, totalTicks * 8));
+        System.out.printf("Encode %.1f us, decode %.1f us per race%n",
+            encodeNanos / 1e3 / raceCount, decodeNanos / 1e3 / raceCount);
+        System.out.printf("Replay: %,.0f snapshots/s, %,.0fx faster than real time%n",
+            Math.max(0, frames[0]) / replaySeconds, raceMillis / 1000.0 / replaySeconds);
+        System.out.printf("Damaged recordings: %,d of %,d refused as corrupt, the rest still readable%n",
+            refused, damagedCount);
+        System.out.println("Round trip, seek and damage failures: " + failures);
+        System.out.println();
+        return failures == 0;
+    }
+
+    /**
+     * Publish race events to 1, 10 and 100 subscribers with each overflow
+     * strategy and report how fast the race thread can publish and how many
+     * events each strategy delivered or dropped
+     */
+    private static void benchmarkEventStream() {
+        System.out.println("=== RaceEventPublisher throughput ===");
+        Track track = TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY);
+        List<Horse> horses = createField(8);
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < horses.size(); i++) {
+            lanes.add(i);
+        }
+        RaceEngine engine = new RaceEngine(track, horses, lanes);
+        engine.begin(1);
+        engine.step();
+        RaceEvent event = RaceEvent.tick(engine.captureSnapshot());
+        int events = 100000;
+
+        for (int subscriberCount : new int[] {1, 10, 100}) {
+            for (RaceEventPublisher.OverflowStrategy strategy : RaceEventPublisher.OverflowStrategy.values()) {
+                RaceEventPublisher publisher = new RaceEventPublisher();
+                java.util.concurrent.atomic.LongAdder received = new java.util.concurrent.atomic.LongAdder();
+                java.util.concurrent.CountDownLatch completed = new java.util.concurrent.CountDownLatch(subscriberCount);
+                for (int i = 0; i < subscriberCount; i++) {
+                    publisher.subscribe(new java.util.concurrent.Flow.Subscriber<RaceEvent>() {
+                        @Override
+                        public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+                            subscription.request(Long.MAX_VALUE);
+                        }
+
+                        @Override
+                        public void onNext(RaceEvent item) {
+                            received.increment();
+                        }
+
+                        @Override
+                        public void onError(Throwable throwable) {
+                            completed.countDown();
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            completed.countDown();
+                        }
+                    }, strategy, RaceEventPublisher.DEFAULT_CAPACITY);
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < events; i++) {
+                    publisher.publish(event);
+                }
+                double publishSeconds = (System.nanoTime() - start) / 1e9;
+                long dropped = 0;
+                for (RaceEventPublisher.SubscriberStats stats : publisher.getSubscriberStats()) {
+                    dropped += stats.getDropped();
+                }
+                publisher.close();
+                try {
+                    completed.await(60, java.util.concurrent.TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                double totalSeconds = (System.nanoTime() - start) / 1e9;
+
+                long offered = (long) events * subscriberCount;
+                System.out.printf("%3d subscribers %-11s publish %,11.0f events/s, delivered %,10d in %.2f s, "
+                    + "%5.1f%% dropped%n",
+                    subscriberCount, strategy, events / publishSeconds, received.sum(), totalSeconds,
+                    100.0 * dropped / offered);
+            }
+        }
+
+        // A CONFLATE reader with no demand keeps at most its capacity, even of
+        // events that are never conflated
+        RaceEventPublisher idle = new RaceEventPublisher();
+        idle.subscribe(new java.util.concurrent.Flow.Subscriber<RaceEvent>() {
+            @Override
+            public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+            }
+
+            @Override
+            public void onNext(RaceEvent item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, RaceEventPublisher.OverflowStrategy.CONFLATE, 16);
+        RaceEvent fall = RaceEvent.fall(1, horses.get(0));
+        for (int i = 0; i < 10000; i++) {
+            idle.publish(fall);
+        }
+        RaceEventPublisher.SubscriberStats idleStats = idle.getSubscriberStats().get(0);
+        boolean bounded = idleStats.getBuffered() <= 16 && idleStats.getDropped() == 10000 - idleStats.getBuffered();
+        idle.close();
+
+        // A bad request made inside onNext is signalled after it returns, once
+        RaceEventPublisher strict = new RaceEventPublisher();
+        java.util.concurrent.atomic.AtomicBoolean inNext = new java.util.concurrent.atomic.AtomicBoolean();
+        java.util.concurrent.atomic.AtomicInteger errors = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicInteger overlaps = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.CountDownLatch failed = new java.util.concurrent.CountDownLatch(1);
+        strict.subscribe(new java.util.concurrent.Flow.Subscriber<RaceEvent>() {
+            private java.util.concurrent.Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(RaceEvent item) {
+                inNext.set(true);
+                subscription.request(0);
+                inNext.set(false);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (inNext.get()) {
+                    overlaps.incrementAndGet();
+                }
+                errors.incrementAndGet();
+                failed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, RaceEventPublisher.OverflowStrategy.DROP_OLDEST, RaceEventPublisher.DEFAULT_CAPACITY);
+        for (int i = 0; i < 1000; i++) {
+            strict.publish(event);
+        }
+        try {
+            failed.await(10, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean serial = errors.get() == 1 && overlaps.get() == 0 && !strict.hasSubscribers();
+        strict.close();
+        System.out.printf("Idle CONFLATE reader holds %d of 10,000 unconflated events (%s); "
+            + "bad request signalled serially (%s)%n",
+            idleStats.getBuffered(), bounded ? "OK" : "FAIL", serial ? "OK" : "FAIL");
+        System.out.println();
+    }
+
+    /**
+     * Run many paced races at once on a RaceHost and report the memory each
+     * race takes and whether the carrier threads kept up with the tick rate
+     *
+     * @param raceCount The number of concurrent races
+     */
+    private static void benchmarkRaceHost(int raceCount) {
+        System.out.println("=== RaceHost: " + raceCount + " concurrent paced races ===");
+        RaceHost host = new RaceHost();
+        Track[] tracks = {
+            TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY),
+            TrackTypes.figureEight("Figure Eight", 500, 8, TrackCondition.MUDDY),
+            TrackTypes.zigzag("Zigzag", 500, 8, TrackCondition.WET)
+        };
+
+        long heapBefore = usedHeap();
+        for (int i = 0; i < raceCount; i++) {
+            long id = host.createRace(tracks[i % tracks.length]);
+            RaceManager race = host.getRace(id);
+            List<Horse> field = createField(8);
+            for (int lane = 0; lane < field.size(); lane++) {
+                race.addHorse(field.get(lane), lane);
+            }
+        }
+        long start = System.nanoTime();
+        for (long id : host.getRaceIds()) {
+            host.startRace(id);
+        }
+        long heapRunning = usedHeap();
+
+        long deadline = System.nanoTime() + 300_000_000_000L;
+        while (host.getMetrics().getRacesCompleted() < raceCount && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        RaceHost.HostMetrics metrics = host.getMetrics();
+        host.shutdown();
+
+        System.out.printf("Threads: %d carriers, heap per running race: %,d bytes (%.0f MB for all races)%n",
+            Runtime.getRuntime().availableProcessors(), (heapRunning - heapBefore) / raceCount,
+            (heapRunning - heapBefore) / 1048576.0);
+        System.out.printf("Completed in %.1f s: %s%n", seconds, metrics);
+        System.out.printf("Ticks per second: %,.0f, late ticks: %.1f%%%n",
+            metrics.getTicks() / seconds, 100.0 * metrics.getTickOverruns() / Math.max(1, metrics.getTicks()));
+        System.out.println();
+    }
+
+    /**
+     * Measure the heap in use after a garbage collection
+     *
+     * @return Bytes of heap in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compare a bare RaceKernel against a headless RaceManager race, which runs
+     * the same kernel through a RaceEngine, for small and very large fields
+     */
+    private static void benchmarkKernel() {
+        System.out.println("=== RaceKernel vs RaceManager.runHeadlessRace ===");
+        int[] fieldSizes = {8, 100, 1000};
+
+        for (int fieldSize : fieldSizes) {
+            Track track = TrackTypes.oval("Benchmark Oval", 500, fieldSize, TrackCondition.DRY);
+            List<Horse> horses = createField(fieldSize);
+            List<Integer> lanes = new ArrayList<>();
+            RaceManager manager = new RaceManager();
+            manager.setTrack(track);
+            for (int i = 0; i < fieldSize; i++) {
+                lanes.add(i);
+                manager.addHorse(horses.get(i), i);
+            }
+            RaceKernel kernel = new RaceKernel(track, horses, lanes);
+
+            // Both must produce the same race from the same seed
+            int mismatches = 0;
+            for (int i = 0; i < 100; i++) {
+                long seed = RaceRandom.deriveSeed(1234, i);
+                manager.setSeed(seed);
+                Horse managerWinner = manager.runHeadlessRace(false);
+                kernel.reset(seed);
+                int kernelWinner = kernel.run();
+                if (kernel.getHorse(kernelWinner) != managerWinner) {
+                    mismatches++;
+                }
+            }
+
+            int races = Math.max(200, 200000 / fieldSize);
+            double managerRate = racesPerSecond(races, () -> manager.runHeadlessRace(false));
+            double kernelRate = racesPerSecond(races, () -> {
+                kernel.reset(RaceRandom.randomSeed());
+                kernel.run();
+            });
+
+            System.out.printf("%5d runners: RaceManager %,10.0f races/s, RaceKernel %,10.0f races/s (%.1fx), "
+                + "seeded mismatches: %d/100%n",
+                fieldSize, managerRate, kernelRate, kernelRate / managerRate, mismatches);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compare track lookups through the sampled tables against exact computation,
+     * and report the worst interpolation error at several resolutions
+     */
+    private static void benchmarkTrackLookup() {
+        System.out.println("=== Track lookup tables vs exact trig ===");
+        Track[] tracks = {
+            TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY),
+            TrackTypes.figureEight("Figure Eight", 500, 8, TrackCondition.DRY),
+            TrackTypes.zigzag("Zigzag", 500, 8, TrackCondition.DRY)
+        };
+        int[] resolutions = {256, 1024, 4096};
+        int lookups = 2000000;
+
+        for (Track track : tracks) {
+            track.setLookupResolution(0);
+            double exactRate = lookupsPerSecond(track, lookups);
+            System.out.printf("%-12s exact: %,12.0f lookups/s%n", track.getName(), exactRate);
+
+            for (int resolution : resolutions) {
+                track.setLookupResolution(0);
+                double[] exactCurves = new double[10007];
+                double[][] exactPositions = new double[exactCurves.length][];
+                for (int i = 0; i < exactCurves.length; i++) {
+                    double distance = i * track.getLength() / (double) exactCurves.length;
+                    exactCurves[i] = track.getCurveFactor(distance);
+                    java.awt.geom.Point2D.Double p = track.calculatePosition(distance, 7);
+                    exactPositions[i] = new double[] {p.x, p.y};
+                }
+
+                track.setLookupResolution(resolution);
+                double curveError = 0;
+                double positionError = 0;
+                for (int i = 0; i < exactCurves.length; i++) {
+                    double distance = i * track.getLength() / (double) exactCurves.length;
+                    curveError = Math.max(curveError, Math.abs(track.getCurveFactor(distance) - exactCurves[i]));
+                    java.awt.geom.Point2D.Double p = track.calculatePosition(distance, 7);
+                    positionError = Math.max(positionError,
+                        Math.hypot(p.x - exactPositions[i][0], p.y - exactPositions[i][1]));
+                }
+                double tableRate = lookupsPerSecond(track, lookups);
+                System.out.printf("%-12s %4d samples: %,12.0f lookups/s (%.1fx), max curve error %.5f, "
+                    + "max position error %.4f%n",
+                    "", resolution, tableRate, tableRate / exactRate, curveError, positionError);
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Regression check that moving horses and updating their positions allocates
+     * nothing once warmed up, on every track type, with and without lookup tables
+     *
+     * @return true if no tick allocated any memory
+     */
+    private static boolean checkPositionAllocation() {
+        System.out.println("=== Allocation per tick (position updates) ===");
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Per-thread allocation counters are not available on this JVM");
+            return true;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        long threadId = Thread.currentThread().getId();
+
+        Track[] tracks = {
+            TrackTypes.oval("Oval", 500, 8, TrackCondition.DRY),
+            TrackTypes.figureEight("Figure Eight", 500, 8, TrackCondition.DRY),
+            TrackTypes.zigzag("Zigzag", 500, 8, TrackCondition.DRY)
+        };
+        List<Horse> horses = createField(8);
+        java.awt.geom.Point2D.Double buffer = new java.awt.geom.Point2D.Double();
+        int ticks = 100000;
+        boolean passed = true;
+
+        for (Track track : tracks) {
+            for (int resolution : new int[] {Track.DEFAULT_LOOKUP_RESOLUTION, 0}) {
+                track.setLookupResolution(resolution);
+                double checksum = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    // The first pass warms up the JIT, the second is measured
+                    long before = allocation.getThreadAllocatedBytes(threadId);
+                    for (int tick = 0; tick < ticks; tick++) {
+                        for (int lane = 0; lane < horses.size(); lane++) {
+                            Horse horse = horses.get(lane);
+                            if (tick % 1000 == 0) {
+                                horse.goBackToStart();
+                            }
+                            horse.updateMovement(track.getCondition().getSpeedFactor(),
+                                track.getCurveFactor(horse.getDistanceTravelled()));
+                            track.updatePosition(horse, lane);
+                            track.calculatePosition(horse.getDistanceTravelled(), lane, buffer);
+                            checksum += buffer.x;
+                        }
+                    }
+                    long allocated = allocation.getThreadAllocatedBytes(threadId) - before;
+                    if (pass == 1) {
+                        boolean ok = allocated < 1024; // Allow for the counter's own noise
+                        passed &= ok;
+                        System.out.printf("%-12s %-14s %8.3f bytes/tick %s%n", track.getName(),
+                            resolution == 0 ? "(exact)" : "(" + resolution + " samples)",
+                            allocated / (double) ticks, ok ? "OK" : "FAIL");
+                    }
+                }
+                if (checksum == 42) {
+                    System.out.print(""); // Keep the updates from being optimised away
+                }
+            }
+        }
+        System.out.println();
+        return passed;
+    }
+
+    /**
+     * Time curve factor and position lookups spread over a whole lap
+     *
+     * @param track The track to query
+     * @param lookups The number of lookups to time
+     * @return Lookups per second
+     */
+    private static double lookupsPerSecond(Track track, int lookups) {
+        double step = track.getLength() / 9973.0;
+        double checksum = 0;
+        for (int i = 0; i < lookups / 4; i++) {
+            double distance = (i % 9973) * step;
+            checksum += track.getCurveFactor(distance) + track.calculatePosition(distance, i & 7).x;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            double distance = (i % 9973) * step;
+            checksum += track.getCurveFactor(distance) + track.calculatePosition(distance, i & 7).x;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) {
+            System.out.print(""); // Keep the lookups from being optimised away
+        }
+        return lookups / (elapsed / 1e9);
+    }
+
+    /**
+     * Run a race repeatedly (after a warm-up pass) and measure the throughput
+     *
+     * @param races The number of races to time
+     * @param race The race to run
+     * @return Races per second
+     */
+    private static double racesPerSecond(int races, Runnable race) {
+        for (int i = 0; i < races / 4; i++) {
+            race.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < races; i++) {
+            race.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return races / (elapsed / 1e9);
+    }
+
+    /**
+     * Create a field of horses with a spread of confidence values
+     *
+     * @param size The number of horses
+     * @return The field
+     */
+    private static List<Horse> createField(int size) {
+        List<Horse> horses = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            double confidence = 0.3 + 0.6 * (i % 10) / 9.0;
+            horses.add(new Horse((char) ('A' + i % 26), "Runner " + (i + 1), confidence));
+        }
+        return horses;
+    }
+}
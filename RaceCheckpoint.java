@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A race frozen at one tick: every runner's distance, speed and fallen flag,
+ * the position of the race's random stream and the track condition at the
+ * time. A checkpoint can be forked into any number of independent headless
+ * continuations to ask "what happens from here?".
+ *
+ * Checkpoints are cheap to take. The checkpoint takes over the race's state
+ * arrays instead of copying them, and the runner attributes stay shared with
+ * the kernel it came from; a kernel only copies the state when it is about
+ * to change it. A checkpoint itself never changes, so it can be forked from
+ * any number of threads at once.
+ */
+public final class RaceCheckpoint {
+    final RaceKernel kernel;        // Kernel the checkpoint was taken from, which holds the runner attributes
+    final double[] distance;        // Distance travelled by each runner
+    final double[] speed;           // Current speed of each runner
+    final boolean[] fallen;         // Whether each runner has fallen
+    final int running;              // Runners still on their feet
+    final int tick;                 // Ticks run when the checkpoint was taken
+    final int winner;               // Index of the winner, or -1 while undecided
+    final RaceRandom random;        // The race's random stream at the checkpoint (never advanced)
+    final TrackCondition condition; // Track condition at the checkpoint
+    final double speedFactor;       // Speed factor of that condition
+
+    RaceCheckpoint(RaceKernel kernel, double[] distance, double[] speed, boolean[] fallen, int running, int tick,
+                   int winner, RaceRandom random, TrackCondition condition, double speedFactor) {
+        this.kernel = kernel;
+        this.distance = distance;
+        this.speed = speed;
+        this.fallen = fallen;
+        this.running = running;
+        this.tick = tick;
+        this.winner = winner;
+        this.random = random;
+        this.condition = condition;
+        this.speedFactor = speedFactor;
+    }
+
+    /**
+     * Continue the race exactly as it would have gone on: the fork carries on
+     * with the race's own random stream, so it runs the same ticks the live
+     * race runs if nothing about the race is changed
+     *
+     * @return A kernel positioned at the checkpoint
+     */
+    public RaceKernel fork() {
+        return new RaceKernel(this, random.copy());
+    }
+
+    /**
+     * Continue the race with a new random stream, for one of many possible futures
+     *
+     * @param seed The seed of the fork's random stream
+     * @return A kernel positioned at the checkpoint
+     */
+    public RaceKernel fork(long seed) {
+        return new RaceKernel(this, new RaceRandom(seed));
+    }
+
+    /**
+     * Check if a kernel races the same field as this checkpoint, so it can be restored to it
+     *
+     * @param other The kernel
+     * @return true if the kernel shares the checkpoint's field
+     */
+    boolean matches(RaceKernel other) {
+        return other.getField() == kernel.getField();
+    }
+
+    /**
+     * Get the number of runners
+     *
+     * @return The field size
+     */
+    public int getSize() {
+        return distance.length;
+    }
+
+    public Horse getHorse(int index) {
+        return kernel.getHorse(index);
+    }
+
+    /**
+     * Get the horses in the race
+     *
+     * @return The horses, in runner index order
+     */
+    public List<Horse> getHorses() {
+        return Collections.unmodifiableList(Arrays.asList(kernel.getField()));
+    }
+
+    public double getDistance(int index) {
+        return distance[index];
+    }
+
+    public double getSpeed(int index) {
+        return speed[index];
+    }
+
+    public boolean hasFallen(int index) {
+        return fallen[index];
+    }
+
+    /**
+     * Get the number of ticks run when the checkpoint was taken
+     *
+     * @return The tick count
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the index of the winner
+     *
+     * @return The winner's runner index, or -1 if the race was undecided at the checkpoint
+     */
+    public int getWinnerIndex() {
+        return winner;
+    }
+
+    /**
+     * Check if the race was already over at the checkpoint
+     *
+     * @return true if a winner had been decided
+     */
+    public boolean isFinished() {
+        return winner >= 0 || distance.length == 0;
+    }
+
+    /**
+     * Get the track condition the continuations will race on
+     *
+     * @return The condition at the checkpoint
+     */
+    public TrackCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * Get the seed of the race the checkpoint was taken from
+     *
+     * @return The race seed
+     */
+    public long getSeed() {
+        return random.getSeed();
+    }
+}
@@ -0,0 +1,529 @@
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single race loop shared by every way of running a race. Race (console)
+ * and RaceManager (GUI) are thin front-ends that set up the field and hand it
+ * to an engine; the engine owns the rules, the random stream, the winner,
+ * confidence updates and statistics, and reports what happens to its sinks.
+ *
+ * A race can be driven one tick at a time with begin(), step() and finish(),
+ * or run to the end in one call with runRace(). Ticks are advanced by a
+ * RaceKernel. Sinks receive every event either way, but in headless mode the
+ * horses themselves are only updated when the race finishes, so a headless
+ * race should only have sinks that look at the result.
+ *
+ * Race time is simulation time: every tick covers a fixed number of
+ * milliseconds, so a race's duration depends only on how many ticks it
+ * lasted, not on how fast the machine ran it or how it was paced.
+ */
+public class RaceEngine {
+    public static final int MAX_RACE_ROUNDS = RaceKernel.MAX_RACE_ROUNDS; // Maximum race rounds to prevent infinite loops
+
+    private Track track;                // The track being raced on
+    private List<Horse> horses;         // Horses in the race
+    private List<Integer> lanes;        // Which lane each horse is in
+    private List<RaceSink> sinks;       // Receivers of race events
+    private boolean headless;           // Whether to skip updating the horses after every tick
+    private RaceKernel.Detail detail = RaceKernel.Detail.FULL_STATISTICS; // What a headless race needs to work out
+    private RaceKernel kernel;          // Race state for the current race
+    private Map<Horse, Double> initialConfidence; // Confidence of each horse before the race
+    private Horse winner;               // The winning horse
+    private long seed;                  // Seed of the current race's random stream
+    private volatile boolean running;   // Whether the race is in progress
+    private boolean resultsApplied;     // Whether the last finish updated the horses and statistics
+    private long tickMillis;            // Simulation time covered by one tick
+    private Point2D.Double position = new Point2D.Double(); // Reused when taking snapshots
+
+    /**
+     * Constructor for an engine racing a field on a track
+     *
+     * @param track The track to race on
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     */
+    public RaceEngine(Track track, List<Horse> horses, List<Integer> lanes) {
+        this.track = track;
+        this.horses = new ArrayList<>(horses);
+        this.lanes = new ArrayList<>(lanes);
+        this.sinks = new ArrayList<>();
+        this.initialConfidence = new HashMap<>();
+        this.tickMillis = TickScheduler.DEFAULT_TICK_MILLIS;
+    }
+
+    /**
+     * Add a sink to receive this engine's race events
+     *
+     * @param sink The sink to add
+     */
+    public void addSink(RaceSink sink) {
+        if (sink != null && !sinks.contains(sink)) {
+            sinks.add(sink);
+        }
+    }
+
+    /**
+     * Remove a sink
+     *
+     * @param sink The sink to remove
+     */
+    public void removeSink(RaceSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * Enable or disable headless mode. A headless race runs the same ticks but
+     * only writes the horses' state and positions back at the end.
+     *
+     * @param headless true to run headless
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    /**
+     * Check if the engine runs headless
+     *
+     * @return true if headless mode is enabled
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Say how much of a headless race's result is needed, so runRace() can
+     * stop as soon as that is settled. Only headless races run without
+     * applying results stop early; anything that is watched, or that updates
+     * confidences and statistics, is always run out.
+     *
+     * @param detail What the caller needs from the race
+     */
+    public void setDetail(RaceKernel.Detail detail) {
+        this.detail = detail == null ? RaceKernel.Detail.FULL_STATISTICS : detail;
+    }
+
+    public RaceKernel.Detail getDetail() {
+        return detail;
+    }
+
+    /**
+     * Set the simulation time covered by one tick
+     *
+     * @param tickMillis The tick length in milliseconds
+     */
+    public void setTickMillis(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * Get the simulation time covered by one tick
+     *
+     * @return The tick length in milliseconds
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Run a whole race on the calling thread
+     *
+     * @param seed The seed of the race's random stream
+     * @param paced Whether to play the race out in real time, one tick per tick length
+     * @param applyResults Whether to update horse confidences and record statistics afterwards
+     * @return The winning horse, or null if the race was stopped or the field is empty
+     */
+    public Horse runRace(long seed, boolean paced, boolean applyResults) {
+        begin(seed, headless && !applyResults ? detail : RaceKernel.Detail.FULL_STATISTICS);
+        long period = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long deadline = System.nanoTime();
+        while (step()) {
+            if (paced) {
+                // Wait for an absolute deadline so the time spent on the tick is not added to the pause
+                deadline += period;
+                long delay;
+                while ((delay = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(delay);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+        }
+        finish(applyResults);
+        return winner;
+    }
+
+    /**
+     * Bring the horses back to the start and get ready for the first tick
+     *
+     * @param seed The seed of the race's random stream
+     */
+    public void begin(long seed) {
+        begin(seed, RaceKernel.Detail.FULL_STATISTICS);
+    }
+
+    private void begin(long seed, RaceKernel.Detail raceDetail) {
+        this.seed = seed;
+        winner = null;
+
+        // Store initial confidence levels for statistics
+        initialConfidence.clear();
+        for (Horse horse : horses) {
+            initialConfidence.put(horse, horse.getConfidence());
+            horse.goBackToStart();
+        }
+
+        kernel = new RaceKernel(track, horses, lanes);
+        kernel.reset(seed);
+        kernel.setDetail(raceDetail);
+        running = true;
+
+        for (RaceSink sink : sinks) {
+            sink.onRaceStart(this);
+        }
+    }
+
+    /**
+     * Advance the race by one tick and report what happened to the sinks
+     *
+     * @return true if the race is still going, false once it has finished or been stopped
+     */
+    public boolean step() {
+        if (!running || kernel.isFinished()) {
+            return false;
+        }
+
+        // Held only for the tick itself, so a checkpoint never sees half a tick
+        synchronized (this) {
+            kernel.tick();
+        }
+        int winnerIndex = kernel.getWinnerIndex();
+        boolean decided = winner == null && winnerIndex >= 0;
+        if (decided) {
+            winner = kernel.getHorse(winnerIndex);
+        }
+
+        if (!headless) {
+            kernel.writeBack();
+        }
+        if (!sinks.isEmpty()) {
+            for (int i = 0; i < kernel.getFallCount(); i++) {
+                Horse horse = kernel.getHorse(kernel.getFall(i));
+                for (RaceSink sink : sinks) {
+                    sink.onHorseFallen(this, horse);
+                }
+            }
+            if (decided) {
+                for (RaceSink sink : sinks) {
+                    sink.onRaceWinner(this, winner);
+                }
+            }
+            for (RaceSink sink : sinks) {
+                sink.onTick(this);
+            }
+        }
+
+        return running && !kernel.isFinished();
+    }
+
+    /**
+     * Stop the race after the current tick. The race still has to be finished.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * End the race: write the final state back to the horses, apply the results
+     * and notify the sinks
+     *
+     * @param applyResults Whether to update horse confidences and record statistics
+     */
+    public void finish(boolean applyResults) {
+        running = false;
+        kernel.writeBack();
+
+        resultsApplied = applyResults;
+        if (applyResults) {
+            updateConfidences();
+            recordStatistics();
+        }
+
+        for (RaceSink sink : sinks) {
+            sink.onRaceEnd(this, winner);
+        }
+    }
+
+    /**
+     * Update confidence levels for horses based on race results:
+     * - Winners get a confidence boost
+     * - Fallen horses get a confidence reduction
+     * - Non-winners who got close to finishing get a small boost
+     */
+    private void updateConfidences() {
+        if (winner != null) {
+            winner.setConfidence(winner.getConfidence() * 1.10);
+        }
+
+        for (Horse horse : horses) {
+            if (horse.hasFallen()) {
+                horse.setConfidence(horse.getConfidence() * 0.95);
+            }
+        }
+
+        for (Horse horse : horses) {
+            if (horse != winner && !horse.hasFallen()) {
+                double progress = horse.getDistanceTravelled() / track.getLength();
+                if (progress > 0.8) {
+                    horse.setConfidence(horse.getConfidence() * 1.02);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the statistics of the race from the horses' final state
+     *
+     * @return The race statistics
+     */
+    public RaceStatistics buildStatistics() {
+        RaceStatistics raceStats = new RaceStatistics(
+            track.getName(),
+            track.getCondition(),
+            track.getLength()
+        );
+
+        long raceDuration = getRaceDuration();
+        raceStats.setRaceDuration(raceDuration);
+        raceStats.setSeed(seed);
+        if (winner != null) {
+            raceStats.setWinner(winner);
+        }
+
+        for (Horse horse : horses) {
+            raceStats.addHorsePerformance(
+                horse,
+                getFinishTime(horse),
+                horse.getDistanceTravelled(),
+                horse.hasFallen(),
+                initialConfidence.getOrDefault(horse, 0.5),
+                horse.getConfidence()
+            );
+        }
+        return raceStats;
+    }
+
+    /**
+     * Record the statistics of the race with the StatisticsManager
+     */
+    public void recordStatistics() {
+        StatisticsManager.getInstance().recordRace(buildStatistics());
+    }
+
+    /**
+     * Get the finishing order: the winner first, then the rest of the field
+     * by distance travelled
+     *
+     * @return The horses in finishing order
+     */
+    public List<Horse> getFinishingOrder() {
+        List<Horse> order = new ArrayList<>();
+        if (kernel == null) {
+            return order;
+        }
+        int[] indexes = new int[kernel.getSize()];
+        kernel.fillFinishingOrder(indexes);
+        for (int index : indexes) {
+            order.add(kernel.getHorse(index));
+        }
+        return order;
+    }
+
+    /**
+     * Take an immutable snapshot of the race as it stands
+     *
+     * @return The snapshot
+     */
+    public RaceSnapshot captureSnapshot() {
+        if (kernel == null) {
+            return RaceSnapshot.of(track, horses, lanes, winner);
+        }
+        int size = kernel.getSize();
+        Horse[] field = new Horse[size];
+        int[] laneNumbers = new int[size];
+        double[] distances = new double[size];
+        double[] x = new double[size];
+        double[] y = new double[size];
+        boolean[] fallen = new boolean[size];
+
+        for (int i = 0; i < size; i++) {
+            field[i] = kernel.getHorse(i);
+            laneNumbers[i] = kernel.getLane(i);
+            distances[i] = kernel.getDistance(i);
+            fallen[i] = kernel.hasFallen(i);
+            track.calculatePosition(distances[i], laneNumbers[i], position);
+            x[i] = position.x;
+            y[i] = position.y;
+        }
+        return new RaceSnapshot(kernel.getTick(), getRaceDuration(), track.getLength(), field, laneNumbers,
+            distances, x, y, fallen, winner, !running || kernel.isFinished());
+    }
+
+    /**
+     * Get the distance a horse has travelled in the current race, read from
+     * the race state rather than the horse, so it is up to date even when headless
+     *
+     * @param index The horse's position in getHorses()
+     * @return The distance travelled
+     */
+    public double getDistance(int index) {
+        return kernel == null ? 0 : kernel.getDistance(index);
+    }
+
+    /**
+     * Checkpoint the race between two ticks. The race is held up only while
+     * the checkpoint is taken, which copies no race state.
+     *
+     * @return The checkpoint, or null if no race has been started
+     */
+    public synchronized RaceCheckpoint checkpoint() {
+        return kernel == null ? null : kernel.checkpoint();
+    }
+
+    /**
+     * Check if the race is in progress
+     *
+     * @return true between begin() and the end of the race
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Check if the last finish applied the race's results
+     *
+     * @return true if confidences were updated and statistics recorded
+     */
+    public boolean hasAppliedResults() {
+        return resultsApplied;
+    }
+
+    /**
+     * Check if the race hit the round limit before anyone reached the line
+     *
+     * @return true if the race was cut short by the round limit
+     */
+    public boolean reachedRoundLimit() {
+        return kernel != null && kernel.getTick() >= MAX_RACE_ROUNDS;
+    }
+
+    /**
+     * Check if every horse has fallen
+     *
+     * @return true if the field is not empty and no horse is still running
+     */
+    public boolean allHorsesFallen() {
+        if (horses.isEmpty()) {
+            return false;
+        }
+        for (Horse horse : horses) {
+            if (!horse.hasFallen()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the winner of the race
+     *
+     * @return The winning horse, or null if there's no winner yet
+     */
+    public Horse getWinner() {
+        return winner;
+    }
+
+    /**
+     * Get the number of ticks run so far
+     *
+     * @return The tick count
+     */
+    public int getTick() {
+        return kernel == null ? 0 : kernel.getTick();
+    }
+
+    /**
+     * Get the seed of the race's random stream
+     *
+     * @return The race seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get the track being raced on
+     *
+     * @return The track
+     */
+    public Track getTrack() {
+        return track;
+    }
+
+    /**
+     * Get the horses in the race
+     *
+     * @return The horses, in lane assignment order
+     */
+    public List<Horse> getHorses() {
+        return horses;
+    }
+
+    /**
+     * Get the lane assignments of the horses
+     *
+     * @return The lane of each horse
+     */
+    public List<Integer> getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Get the confidence a horse had when the race started
+     *
+     * @param horse The horse
+     * @return The confidence before the race
+     */
+    public double getInitialConfidence(Horse horse) {
+        return initialConfidence.getOrDefault(horse, horse.getConfidence());
+    }
+
+    /**
+     * Get a horse's finish time. Horses that completed the race get a share
+     * of the race duration based on the distance they travelled.
+     *
+     * @param horse The horse
+     * @return The finish time in milliseconds, or 0 if the horse did not finish
+     */
+    public long getFinishTime(Horse horse) {
+        if (horse == winner || (horse.getDistanceTravelled() >= track.getLength() && !horse.hasFallen())) {
+            double completion = Math.min(1.0, horse.getDistanceTravelled() / track.getLength());
+            return (long) (getRaceDuration() * completion);
+        }
+        return 0;
+    }
+
+    /**
+     * Get the simulated duration of the race so far
+     *
+     * @return The number of ticks run times the tick length, in milliseconds
+     */
+    public long getRaceDuration() {
+        return getTick() * tickMillis;
+    }
+}
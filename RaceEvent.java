@@ -0,0 +1,80 @@
+/**
+ * A typed, immutable race event as published by RaceEventPublisher.
+ * Tick and end events carry the snapshot taken at that point; fall and
+ * winner events carry the horse concerned.
+ */
+public final class RaceEvent {
+    /**
+     * The kinds of race event
+     */
+    public enum Type {
+        TICK,   // The race moved on by one tick
+        FALL,   // A horse fell
+        WINNER, // The winner was decided
+        END     // The race ended
+    }
+
+    private final Type type;
+    private final int tick;
+    private final Horse horse;             // The horse that fell or won, or the winner at the end
+    private final RaceSnapshot snapshot;   // The race at this point, for tick and end events
+
+    private RaceEvent(Type type, int tick, Horse horse, RaceSnapshot snapshot) {
+        this.type = type;
+        this.tick = tick;
+        this.horse = horse;
+        this.snapshot = snapshot;
+    }
+
+    public static RaceEvent tick(RaceSnapshot snapshot) {
+        return new RaceEvent(Type.TICK, snapshot.getTick(), null, snapshot);
+    }
+
+    public static RaceEvent fall(int tick, Horse horse) {
+        return new RaceEvent(Type.FALL, tick, horse, null);
+    }
+
+    public static RaceEvent winner(int tick, Horse horse) {
+        return new RaceEvent(Type.WINNER, tick, horse, null);
+    }
+
+    public static RaceEvent end(RaceSnapshot snapshot) {
+        return new RaceEvent(Type.END, snapshot.getTick(), snapshot.getWinner(), snapshot);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the tick the event happened on
+     *
+     * @return The tick number
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the horse the event is about
+     *
+     * @return The fallen horse, the winner, or null for a tick event
+     */
+    public Horse getHorse() {
+        return horse;
+    }
+
+    /**
+     * Get the race snapshot carried by tick and end events
+     *
+     * @return The snapshot, or null for fall and winner events
+     */
+    public RaceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return type + "@" + tick + (horse != null ? " " + horse.getName() : "");
+    }
+}
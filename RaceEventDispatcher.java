@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers race events to RaceListeners off the race thread.
+ * Every listener has its own channel, drained by a pooled thread, so a slow
+ * listener only delays itself: the race and the other listeners carry on.
+ *
+ * onRaceStart, onHorseFallen, onRaceWinner and onRaceEnd are always
+ * delivered, in the order they happened. onRaceUpdate carries no data of its
+ * own (listeners read the latest RaceSnapshot), so updates that pile up while
+ * a listener is busy are coalesced into one and the extras are counted as
+ * dropped. An update is never delivered after an event that followed it.
+ */
+public class RaceEventDispatcher {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger(); // Names the delivery threads
+
+    // Threads that drain the channels; idle threads are reclaimed
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "race-events-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>(); // One per listener
+    private AtomicLong sequence = new AtomicLong();                                // Orders events and updates
+
+    /**
+     * Register a listener
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(RaceManager.RaceListener listener) {
+        if (listener == null) {
+            return;
+        }
+        for (Channel channel : channels) {
+            if (channel.listener == listener) {
+                return;
+            }
+        }
+        channels.add(new Channel(listener));
+    }
+
+    /**
+     * Unregister a listener. Events already queued for it are discarded.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(RaceManager.RaceListener listener) {
+        for (Channel channel : channels) {
+            if (channel.listener == listener) {
+                channels.remove(channel);
+                channel.events.clear();
+            }
+        }
+    }
+
+    /**
+     * Tell every listener the race has started
+     */
+    public void raceStarted() {
+        post(RaceManager.RaceListener::onRaceStart);
+    }
+
+    /**
+     * Tell every listener a horse has fallen
+     *
+     * @param horse The horse that fell
+     */
+    public void horseFallen(Horse horse) {
+        post(listener -> listener.onHorseFallen(horse));
+    }
+
+    /**
+     * Tell every listener the winner has been decided
+     *
+     * @param horse The winning horse
+     */
+    public void raceWinner(Horse horse) {
+        post(listener -> listener.onRaceWinner(horse));
+    }
+
+    /**
+     * Tell every listener the race has ended
+     *
+     * @param winner The winning horse (may be null)
+     */
+    public void raceEnded(Horse winner) {
+        post(listener -> listener.onRaceEnd(winner));
+    }
+
+    /**
+     * Tell every listener the race has moved on. Coalesced with any update
+     * the listener has not received yet.
+     */
+    public void raceUpdated() {
+        long seq = sequence.incrementAndGet();
+        long now = System.nanoTime();
+        for (Channel channel : channels) {
+            channel.postUpdate(seq, now);
+        }
+    }
+
+    private void post(Delivery delivery) {
+        long seq = sequence.incrementAndGet();
+        long now = System.nanoTime();
+        for (Channel channel : channels) {
+            channel.post(new Event(delivery, seq, now));
+        }
+    }
+
+    /**
+     * Get delivery statistics for every registered listener
+     *
+     * @return One entry per listener
+     */
+    public List<ListenerStats> getListenerStats() {
+        List<ListenerStats> stats = new ArrayList<>();
+        for (Channel channel : channels) {
+            stats.add(new ListenerStats(channel.listener, channel.delivered.sum(), channel.droppedUpdates.sum(),
+                channel.totalLatency.sum(), channel.maxLatency.get(), channel.events.size()));
+        }
+        return stats;
+    }
+
+    /**
+     * A callback on a listener
+     */
+    private interface Delivery {
+        void deliver(RaceManager.RaceListener listener);
+    }
+
+    /**
+     * An event waiting to be delivered
+     */
+    private static class Event {
+        private Delivery delivery;
+        private long sequence;
+        private long postedAt;
+
+        Event(Delivery delivery, long sequence, long postedAt) {
+            this.delivery = delivery;
+            this.sequence = sequence;
+            this.postedAt = postedAt;
+        }
+    }
+
+    /**
+     * The queue of one listener, drained by at most one thread at a time
+     */
+    private static class Channel {
+        private RaceManager.RaceListener listener;
+        private ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+        private AtomicLong pendingUpdate = new AtomicLong(-1); // Sequence of the undelivered update, or -1
+        private volatile long pendingSince;                     // When the oldest undelivered update was posted
+        private AtomicBoolean draining = new AtomicBoolean();
+        private LongAdder delivered = new LongAdder();
+        private LongAdder droppedUpdates = new LongAdder();
+        private LongAdder totalLatency = new LongAdder();
+        private AtomicLong maxLatency = new AtomicLong();
+
+        Channel(RaceManager.RaceListener listener) {
+            this.listener = listener;
+        }
+
+        void post(Event event) {
+            events.add(event);
+            schedule();
+        }
+
+        void postUpdate(long seq, long now) {
+            if (pendingUpdate.getAndSet(seq) >= 0) {
+                droppedUpdates.increment();
+            } else {
+                pendingSince = now;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                DELIVERY.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Event event;
+                while ((event = events.poll()) != null) {
+                    // An update that happened before this event goes first
+                    long update = pendingUpdate.get();
+                    if (update >= 0 && update < event.sequence) {
+                        deliverUpdate();
+                    }
+                    deliver(event.delivery, event.postedAt);
+                }
+                deliverUpdate();
+                draining.set(false);
+                // Something may have been posted after the queue looked empty
+            } while ((!events.isEmpty() || pendingUpdate.get() >= 0) && draining.compareAndSet(false, true));
+        }
+
+        private void deliverUpdate() {
+            long since = pendingSince;
+            if (pendingUpdate.getAndSet(-1) >= 0) {
+                deliver(RaceManager.RaceListener::onRaceUpdate, since);
+            }
+        }
+
+        private void deliver(Delivery delivery, long postedAt) {
+            long latency = System.nanoTime() - postedAt;
+            totalLatency.add(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+            delivered.increment();
+            try {
+                delivery.deliver(listener);
+            } catch (RuntimeException e) {
+                System.err.println("Error in race listener: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Delivery statistics of one listener
+     */
+    public static class ListenerStats {
+        private RaceManager.RaceListener listener;
+        private long delivered;
+        private long droppedUpdates;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private int queued;
+
+        ListenerStats(RaceManager.RaceListener listener, long delivered, long droppedUpdates,
+                      long totalLatencyNanos, long maxLatencyNanos, int queued) {
+            this.listener = listener;
+            this.delivered = delivered;
+            this.droppedUpdates = droppedUpdates;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+            this.queued = queued;
+        }
+
+        public RaceManager.RaceListener getListener() {
+            return listener;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Get the number of updates that were coalesced into a later one
+         *
+         * @return The dropped update count
+         */
+        public long getDroppedUpdates() {
+            return droppedUpdates;
+        }
+
+        /**
+         * Get the average time from an event happening to the listener receiving it
+         *
+         * @return The mean latency in milliseconds
+         */
+        public double getAverageLatencyMillis() {
+            return delivered == 0 ? 0 : totalLatencyNanos / 1e6 / delivered;
+        }
+
+        public double getMaxLatencyMillis() {
+            return maxLatencyNanos / 1e6;
+        }
+
+        /**
+         * Get the number of events waiting to be delivered
+         *
+         * @return The queue length
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d delivered, %d updates dropped, latency avg %.2f ms max %.2f ms, %d queued",
+                listener.getClass().getName(), delivered, droppedUpdates, getAverageLatencyMillis(),
+                getMaxLatencyMillis(), queued);
+        }
+    }
+}
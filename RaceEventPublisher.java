@@ -0,0 +1,392 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes a RaceManager's race events as a java.util.concurrent.Flow stream,
+ * for consumers such as recorders, in-running pricers and dashboards.
+ *
+ * Every subscriber has its own bounded buffer and is fed on a pooled thread
+ * as fast as it requests events. What happens when a subscriber falls behind
+ * and its buffer fills is chosen per subscriber:
+ * - DROP_OLDEST discards the oldest buffered event to make room.
+ * - CONFLATE replaces a buffered tick with the newer one, so a slow reader
+ *   skips intermediate ticks but still gets every fall, winner and end event
+ *   unless even those fill the buffer; then the oldest is discarded, as with
+ *   DROP_OLDEST.
+ * - BLOCK makes the race thread wait for room. Nothing is lost, but a slow
+ *   BLOCK subscriber slows the race itself and, through it, every other
+ *   subscriber; only use it for consumers that must see every tick, such as
+ *   a recorder, and that keep up.
+ *
+ * The stream spans every race the manager runs; it completes on close().
+ */
+public class RaceEventPublisher implements Flow.Publisher<RaceEvent> {
+    public static final int DEFAULT_CAPACITY = 256; // Default buffer size per subscriber
+    private static final int DRAIN_BATCH = 64;      // Most events taken from a buffer at once
+
+    /**
+     * What to do when a subscriber's buffer is full
+     */
+    public enum OverflowStrategy {
+        DROP_OLDEST,
+        CONFLATE,
+        BLOCK
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger(); // Names the delivery threads
+
+    // Threads that feed the subscribers; idle threads are reclaimed
+    private static final Executor DELIVERY = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "race-stream-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CopyOnWriteArrayList<RaceSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private Executor executor;      // Runs the deliveries
+    private volatile boolean closed;
+
+    /**
+     * Constructor for a publisher that delivers on the shared pool
+     */
+    public RaceEventPublisher() {
+        this(DELIVERY);
+    }
+
+    /**
+     * Constructor for a publisher that delivers on a given executor
+     *
+     * @param executor The executor that runs deliveries
+     */
+    public RaceEventPublisher(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribe with the CONFLATE strategy and the default buffer size
+     *
+     * @param subscriber The subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super RaceEvent> subscriber) {
+        subscribe(subscriber, OverflowStrategy.CONFLATE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribe with a chosen overflow strategy
+     *
+     * @param subscriber The subscriber
+     * @param strategy What to do when the subscriber's buffer is full
+     * @param capacity The size of the subscriber's buffer
+     */
+    public void subscribe(Flow.Subscriber<? super RaceEvent> subscriber, OverflowStrategy strategy, int capacity) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        RaceSubscription subscription = new RaceSubscription(subscriber, strategy, Math.max(1, capacity));
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscriber.onComplete();
+            return;
+        }
+        subscriptions.add(subscription);
+    }
+
+    /**
+     * Check if anyone is subscribed, so callers can skip building events nobody will see
+     *
+     * @return true if there is at least one subscriber
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Offer an event to every subscriber
+     *
+     * @param event The event to publish
+     */
+    public void publish(RaceEvent event) {
+        for (RaceSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Complete the stream. Subscribers receive onComplete once their buffers are drained.
+     */
+    public void close() {
+        closed = true;
+        for (RaceSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Get delivery statistics for every subscriber
+     *
+     * @return One entry per subscriber
+     */
+    public List<SubscriberStats> getSubscriberStats() {
+        List<SubscriberStats> stats = new ArrayList<>();
+        for (RaceSubscription subscription : subscriptions) {
+            synchronized (subscription) {
+                stats.add(new SubscriberStats(subscription.strategy, subscription.delivered, subscription.dropped,
+                    subscription.buffer.size(), subscription.blockedNanos));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * The buffer and demand of one subscriber
+     */
+    private class RaceSubscription implements Flow.Subscription {
+        private Flow.Subscriber<? super RaceEvent> subscriber;
+        private OverflowStrategy strategy;
+        private int capacity;
+        private ArrayDeque<RaceEvent> buffer = new ArrayDeque<>(); // Guarded by this
+        private long demand;          // Events requested but not yet delivered
+        private boolean draining;     // Whether a delivery task is scheduled or running
+        private boolean cancelled;
+        private boolean completing;   // Whether onComplete is due once the buffer is empty
+        private Throwable error;      // Error due to the subscriber in place of any more events
+        private long delivered;
+        private long dropped;
+        private long blockedNanos;    // Time the publishing thread spent waiting for room
+
+        RaceSubscription(Flow.Subscriber<? super RaceEvent> subscriber, OverflowStrategy strategy, int capacity) {
+            this.subscriber = subscriber;
+            this.strategy = strategy;
+            this.capacity = capacity;
+        }
+
+        void offer(RaceEvent event) {
+            boolean schedule;
+            synchronized (this) {
+                if (cancelled || completing || error != null) {
+                    return;
+                }
+                switch (strategy) {
+                    case DROP_OLDEST:
+                        if (buffer.size() >= capacity) {
+                            buffer.pollFirst();
+                            dropped++;
+                        }
+                        break;
+                    case CONFLATE:
+                        RaceEvent last = buffer.peekLast();
+                        if (event.getType() == RaceEvent.Type.TICK && last != null
+                                && last.getType() == RaceEvent.Type.TICK) {
+                            buffer.pollLast();
+                            dropped++;
+                        } else if (buffer.size() >= capacity) {
+                            buffer.pollFirst();
+                            dropped++;
+                        }
+                        break;
+                    case BLOCK:
+                        long start = System.nanoTime();
+                        while (buffer.size() >= capacity && !cancelled && error == null) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                dropped++;
+                                return;
+                            }
+                        }
+                        blockedNanos += System.nanoTime() - start;
+                        if (cancelled || error != null) {
+                            return;
+                        }
+                        break;
+                }
+                buffer.addLast(event);
+                schedule = claimDrain();
+            }
+            if (schedule) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    // Signalled by the delivery task, so it never overlaps an onNext
+                    if (!cancelled && error == null) {
+                        error = new IllegalArgumentException("Requested " + n + " events; must be positive");
+                        buffer.clear();
+                        notifyAll();
+                    }
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+                notifyAll();
+            }
+            subscriptions.remove(this);
+        }
+
+        void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            boolean schedule;
+            synchronized (this) {
+                schedule = claimDrain();
+            }
+            if (schedule) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * Decide whether a delivery task needs starting, and if so mark one as started.
+         * Must be called holding the lock.
+         */
+        private boolean claimDrain() {
+            if (draining || cancelled) {
+                return false;
+            }
+            boolean canDeliver = demand > 0 && !buffer.isEmpty();
+            boolean canComplete = completing && buffer.isEmpty();
+            if (!canDeliver && !canComplete && error == null) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        private void drain() {
+            RaceEvent[] batch = new RaceEvent[DRAIN_BATCH];
+            while (true) {
+                int count = 0;
+                boolean finished = false;
+                Throwable failure = null;
+                synchronized (this) {
+                    if (cancelled) {
+                        draining = false;
+                        return;
+                    }
+                    if (error != null) {
+                        cancelled = true;
+                        draining = false;
+                        failure = error;
+                    } else if (buffer.isEmpty() && completing) {
+                        cancelled = true;
+                        draining = false;
+                        finished = true;
+                    } else if (demand == 0 || buffer.isEmpty()) {
+                        draining = false;
+                        return;
+                    } else {
+                        // Take a batch so the lock is not taken once per event
+                        while (count < batch.length && demand > 0 && !buffer.isEmpty()) {
+                            batch[count++] = buffer.pollFirst();
+                            demand--;
+                        }
+                        delivered += count;
+                        if (strategy == OverflowStrategy.BLOCK) {
+                            notifyAll(); // Room for a blocked publisher
+                        }
+                    }
+                }
+                if (failure != null) {
+                    subscriptions.remove(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (finished) {
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    try {
+                        subscriber.onNext(batch[i]);
+                    } catch (RuntimeException e) {
+                        // A subscriber that throws is treated as having cancelled
+                        System.err.println("Error in race event subscriber: " + e.getMessage());
+                        cancel();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivery statistics of one subscriber
+     */
+    public static class SubscriberStats {
+        private OverflowStrategy strategy;
+        private long delivered;
+        private long dropped;
+        private int buffered;
+        private long blockedNanos;
+
+        SubscriberStats(OverflowStrategy strategy, long delivered, long dropped, int buffered, long blockedNanos) {
+            this.strategy = strategy;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.buffered = buffered;
+            this.blockedNanos = blockedNanos;
+        }
+
+        public OverflowStrategy getStrategy() {
+            return strategy;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Get the number of events discarded or conflated away for this subscriber
+         *
+         * @return The dropped event count
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public int getBuffered() {
+            return buffered;
+        }
+
+        /**
+         * Get the time the race thread spent waiting for this subscriber (BLOCK only)
+         *
+         * @return The blocked time in milliseconds
+         */
+        public double getBlockedMillis() {
+            return blockedNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d delivered, %d dropped, %d buffered, %.1f ms blocked",
+                strategy, delivered, dropped, buffered, getBlockedMillis());
+        }
+    }
+}
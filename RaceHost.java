@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts many independent live races in one process.
+ * Each race is an ordinary RaceManager with its own track, field and
+ * listeners, registered under an id. Races are not given threads of their
+ * own: every race is paced by one TickScheduler whose small pool of carrier
+ * threads (one per processor by default) runs whichever races have a tick
+ * due, so a waiting race costs a queued task rather than a blocked thread.
+ *
+ * The memory of a race is dominated by its track's lookup tables, so races
+ * on the same layout should share one Track instance.
+ */
+public class RaceHost {
+    private static RaceHost instance;                       // Shared host
+
+    private ConcurrentHashMap<Long, RaceManager> races;      // Hosted races by id
+    private AtomicLong nextId;                               // Id of the next race created
+    private ScheduledExecutorService carriers;               // Threads that run the ticks
+    private TickScheduler scheduler;                         // Paces every hosted race
+    private RaceMetrics metrics;                             // Counts shared by every race
+
+    /**
+     * Constructor for a host with one carrier thread per processor
+     */
+    public RaceHost() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for a host with a given number of carrier threads
+     *
+     * @param carrierThreads The number of threads that run race ticks
+     */
+    public RaceHost(int carrierThreads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        carriers = Executors.newScheduledThreadPool(carrierThreads, runnable -> {
+            Thread thread = new Thread(runnable, "race-host-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = new TickScheduler(carriers, TickScheduler.DEFAULT_TICK_MILLIS);
+        races = new ConcurrentHashMap<>();
+        nextId = new AtomicLong(1);
+        metrics = new RaceMetrics();
+    }
+
+    /**
+     * Get the shared race host
+     *
+     * @return The shared host
+     */
+    public static synchronized RaceHost getInstance() {
+        if (instance == null) {
+            instance = new RaceHost();
+        }
+        return instance;
+    }
+
+    /**
+     * Create a race on a track. Add horses and listeners through getRace
+     * before starting it.
+     *
+     * @param track The track to race on
+     * @return The id of the new race
+     */
+    public long createRace(Track track) {
+        long id = nextId.getAndIncrement();
+        RaceManager race = new RaceManager(track, scheduler);
+        race.setConsoleOutput(false);
+        race.addRaceSink(metrics);
+        races.put(id, race);
+        metrics.created.increment();
+        return id;
+    }
+
+    /**
+     * Get a hosted race
+     *
+     * @param id The race id
+     * @return The race, or null if there is no race with that id
+     */
+    public RaceManager getRace(long id) {
+        return races.get(id);
+    }
+
+    /**
+     * Get the ids of every hosted race
+     *
+     * @return The race ids
+     */
+    public List<Long> getRaceIds() {
+        return new ArrayList<>(races.keySet());
+    }
+
+    /**
+     * Start a hosted race
+     *
+     * @param id The race id
+     * @return true if the race was started, false if there is no such race or it is already running
+     */
+    public boolean startRace(long id) {
+        RaceManager race = races.get(id);
+        if (race == null || race.isRaceInProgress()) {
+            return false;
+        }
+        race.startRace();
+        return true;
+    }
+
+    /**
+     * Stop a hosted race. It ends after its current tick.
+     *
+     * @param id The race id
+     * @return true if the race was running and has been stopped
+     */
+    public boolean stopRace(long id) {
+        RaceManager race = races.get(id);
+        if (race == null || !race.isRaceInProgress()) {
+            return false;
+        }
+        race.stopRace();
+        return true;
+    }
+
+    /**
+     * Change how fast a hosted race is played out
+     *
+     * @param id The race id
+     * @param speedMultiplier The speed multiplier, from 0.25x to 100x
+     * @return true if the race exists
+     */
+    public boolean setSpeedMultiplier(long id, double speedMultiplier) {
+        RaceManager race = races.get(id);
+        if (race == null) {
+            return false;
+        }
+        race.setSpeedMultiplier(speedMultiplier);
+        return true;
+    }
+
+    /**
+     * Remove a race from the host, stopping it first if it is running
+     *
+     * @param id The race id
+     * @return true if the race was removed
+     */
+    public boolean removeRace(long id) {
+        RaceManager race = races.remove(id);
+        if (race == null) {
+            return false;
+        }
+        if (race.isRaceInProgress()) {
+            race.stopRace();
+        }
+        race.removeRaceSink(metrics);
+        return true;
+    }
+
+    /**
+     * Remove every race that has finished
+     *
+     * @return The number of races removed
+     */
+    public int removeCompletedRaces() {
+        int removed = 0;
+        for (Long id : getRaceIds()) {
+            RaceManager race = races.get(id);
+            if (race != null && race.getRaceStatus() == RaceManager.RaceStatus.COMPLETED && removeRace(id)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get the number of hosted races
+     *
+     * @return The race count
+     */
+    public int getRaceCount() {
+        return races.size();
+    }
+
+    /**
+     * Take a snapshot of the host's aggregate metrics
+     *
+     * @return The current metrics
+     */
+    public HostMetrics getMetrics() {
+        long overruns = 0;
+        for (RaceManager race : races.values()) {
+            overruns += race.getTickOverruns();
+        }
+        return new HostMetrics(races.size(), metrics.running.sum(), metrics.created.sum(),
+            metrics.completed.sum(), metrics.ticks.sum(), metrics.falls.sum(), overruns);
+    }
+
+    /**
+     * Stop every race and shut down the carrier threads
+     */
+    public void shutdown() {
+        for (RaceManager race : races.values()) {
+            if (race.isRaceInProgress()) {
+                race.stopRace();
+            }
+        }
+        carriers.shutdownNow();
+    }
+
+    /**
+     * Sink added to every hosted race to keep the aggregate counts
+     */
+    private static class RaceMetrics implements RaceSink {
+        private LongAdder created = new LongAdder();
+        private LongAdder running = new LongAdder();
+        private LongAdder completed = new LongAdder();
+        private LongAdder ticks = new LongAdder();
+        private LongAdder falls = new LongAdder();
+
+        @Override
+        public void onRaceStart(RaceEngine race) {
+            running.increment();
+        }
+
+        @Override
+        public void onHorseFallen(RaceEngine race, Horse horse) {
+            falls.increment();
+        }
+
+        @Override
+        public void onTick(RaceEngine race) {
+            ticks.increment();
+        }
+
+        @Override
+        public void onRaceEnd(RaceEngine race, Horse winner) {
+            running.decrement();
+            completed.increment();
+        }
+    }
+
+    /**
+     * Aggregate metrics of every race on a host
+     */
+    public static class HostMetrics {
+        private int hostedRaces;
+        private long runningRaces;
+        private long racesCreated;
+        private long racesCompleted;
+        private long ticks;
+        private long falls;
+        private long tickOverruns;
+
+        HostMetrics(int hostedRaces, long runningRaces, long racesCreated, long racesCompleted,
+                    long ticks, long falls, long tickOverruns) {
+            this.hostedRaces = hostedRaces;
+            this.runningRaces = runningRaces;
+            this.racesCreated = racesCreated;
+            this.racesCompleted = racesCompleted;
+            this.ticks = ticks;
+            this.falls = falls;
+            this.tickOverruns = tickOverruns;
+        }
+
+        public int getHostedRaces() {
+            return hostedRaces;
+        }
+
+        public long getRunningRaces() {
+            return runningRaces;
+        }
+
+        public long getRacesCreated() {
+            return racesCreated;
+        }
+
+        public long getRacesCompleted() {
+            return racesCompleted;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public long getFalls() {
+            return falls;
+        }
+
+        /**
+         * Get the number of ticks across the hosted races that started after their deadline
+         *
+         * @return The overrun count
+         */
+        public long getTickOverruns() {
+            return tickOverruns;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hosted, %d running, %d created, %d completed, %d ticks, %d falls, %d late ticks",
+                hostedRaces, runningRaces, racesCreated, racesCompleted, ticks, falls, tickOverruns);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+import java.util.List;
+
+/**
+ * Structure-of-arrays race state for running large fields.
+ * Every runner attribute and every piece of race state is kept in its own
+ * primitive array, and a tick advances the whole field in one tight loop
+ * without calling back into Horse objects or allocating anything.
+ * Results are only written back to the horses at the end of the race or
+ * when a snapshot is requested with writeBack().
+ *
+ * A race can be checkpointed at any tick and continued from there in any
+ * number of other kernels; see RaceCheckpoint.
+ *
+ * This is the race loop behind RaceEngine, so the console race, the GUI race
+ * and the odds simulations all follow exactly the same rules, and a kernel
+ * given the same seed as a RaceManager or Race runs the same race.
+ *
+ * Callers that only need part of the result can say so with setDetail(),
+ * and the race stops as soon as that part can no longer change. For
+ * variance-reduced simulation the random numbers can be keyed on the runner
+ * and tick instead of drawn in sequence; see setKeyedRandom().
+ */
+public class RaceKernel {
+    public static final int MAX_RACE_ROUNDS = 1000; // Maximum race rounds to prevent infinite loops
+    private static final double CROSSING_SLOWDOWN = 0.7; // Speed factor at a figure-8 crossing
+
+    /**
+     * How much of a race's result the caller needs, which decides how soon the race can stop
+     */
+    public enum Detail {
+        FULL_ORDER,      // The winner and the order of the rest of the field
+        FULL_STATISTICS  // Every distance and the full length of the race
+    }
+
+    private Track track;        // The track being raced on
+    private Horse[] horses;     // The horses the state was loaded from
+    private int size;           // Number of runners
+
+    // Runner attributes (fixed for the race)
+    private double[] baseSpeed;
+    private double[] confidence;
+    private double[] turnHandling;
+    private double[] stamina;
+    private double[] luck;
+    private int[] lane;
+
+    // Race state. The arrays may be shared with a RaceCheckpoint, in which
+    // case they are copied into the kernel's own buffers before the next tick.
+    private double[] distance;
+    private double[] speed;
+    private boolean[] fallen;
+    private boolean shared;     // Whether the state arrays belong to a checkpoint
+    private double[] ownDistance; // The kernel's own state buffers, or null once given to a checkpoint
+    private double[] ownSpeed;
+    private boolean[] ownFallen;
+    private int running;        // Number of runners still on their feet
+    private int[] falls;        // Runners that fell during the last tick
+    private int fallCount;      // Number of entries in falls
+    private int tick;           // Number of ticks run so far
+    private int winner;         // Index of the winner, or -1 while undecided
+    private RaceRandom random;  // Random stream for the current race
+    private Detail detail = Detail.FULL_STATISTICS; // What the caller needs from the race
+    private boolean decidedEarly; // Whether the race was stopped before it was run out
+
+    // Keyed random numbers, for variance-reduced simulation
+    private boolean keyedRandom;  // Whether each runner's draws are keyed on the runner and tick
+    private long keySeed;         // Seed the keyed draws come from (the race seed)
+    private boolean antithetic;   // Whether keyed draws are mirrored, u becoming 1 - u
+    private int strata = 1;       // Number of strata each keyed draw is spread over (a power of two)
+    private int stratum;          // The stratum this race samples
+    private long strataSeed;      // Seed of the stratum shuffles, shared by a block of races
+
+    // Track properties, cached for the duration of a race
+    private int trackLength;
+    private double speedFactor;
+    private TrackCondition condition;
+    private Track crossingTrack; // The track if it has a crossing, otherwise null
+
+    /**
+     * Constructor for a kernel loaded from a field
+     *
+     * @param track The track to race on
+     * @param horses The horses in the race
+     * @param lanes The lane of each horse
+     */
+    public RaceKernel(Track track, List<Horse> horses, List<Integer> lanes) {
+        this.track = track;
+        this.size = horses.size();
+        this.horses = horses.toArray(new Horse[size]);
+
+        baseSpeed = new double[size];
+        confidence = new double[size];
+        turnHandling = new double[size];
+        stamina = new double[size];
+        luck = new double[size];
+        lane = new int[size];
+        falls = new int[size];
+        takeOwnBuffers();
+
+        for (int i = 0; i < size; i++) {
+            Horse horse = this.horses[i];
+            baseSpeed[i] = horse.getBaseSpeed();
+            confidence[i] = horse.getConfidence();
+            turnHandling[i] = horse.getTurnHandling();
+            stamina[i] = horse.getStamina();
+            luck[i] = horse.getLuck();
+            lane[i] = lanes.get(i);
+        }
+
+        reset(RaceRandom.randomSeed());
+    }
+
+    /**
+     * Constructor for a kernel that continues a race from a checkpoint.
+     * The runner attributes are shared with the checkpoint's kernel and the
+     * race state is only copied when the new kernel first ticks.
+     *
+     * @param checkpoint The checkpoint to continue from
+     * @param random The random stream to continue with
+     */
+    RaceKernel(RaceCheckpoint checkpoint, RaceRandom random) {
+        RaceKernel source = checkpoint.kernel;
+        track = source.track;
+        size = source.size;
+        horses = source.horses;
+        baseSpeed = source.baseSpeed;
+        confidence = source.confidence;
+        turnHandling = source.turnHandling;
+        stamina = source.stamina;
+        luck = source.luck;
+        lane = source.lane;
+        falls = new int[size];
+        restore(checkpoint, random);
+    }
+
+    /**
+     * Put every runner back at the start, ready for a new race
+     *
+     * @param seed The seed of the new race's random stream
+     */
+    public void reset(long seed) {
+        if (shared) {
+            // Everything is about to be overwritten, so there is nothing to copy
+            takeOwnBuffers();
+        }
+        for (int i = 0; i < size; i++) {
+            distance[i] = 0;
+            speed[i] = baseSpeed[i];
+            fallen[i] = false;
+        }
+        running = size;
+        fallCount = 0;
+        tick = 0;
+        winner = -1;
+        decidedEarly = false;
+        random = new RaceRandom(seed);
+        keySeed = seed;
+
+        trackLength = track.getLength();
+        condition = track.getCondition();
+        speedFactor = condition.getSpeedFactor();
+        crossingTrack = track.hasCrossings() ? track : null;
+    }
+
+    /**
+     * Capture the race as it stands so it can be continued from here any
+     * number of times. Nothing is copied: the checkpoint takes over the
+     * current state arrays and this kernel copies them before its next tick,
+     * so taking a checkpoint costs a few object allocations whatever the field size.
+     *
+     * @return The checkpoint
+     */
+    public RaceCheckpoint checkpoint() {
+        RaceCheckpoint checkpoint = new RaceCheckpoint(this, distance, speed, fallen, running, tick, winner,
+            random.copy(), condition, speedFactor);
+        if (!shared) {
+            // The buffers now belong to the checkpoint
+            ownDistance = null;
+            ownSpeed = null;
+            ownFallen = null;
+            shared = true;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Put the kernel back at a checkpoint with a new random stream. Restoring
+     * a kernel rather than forking a new one reuses its buffers, which suits
+     * running many continuations one after another.
+     *
+     * @param checkpoint A checkpoint of this kernel's field, taken from this kernel or one forked from it
+     * @param seed The seed of the continuation's random stream
+     */
+    public void restore(RaceCheckpoint checkpoint, long seed) {
+        if (!checkpoint.matches(this)) {
+            throw new IllegalArgumentException("Checkpoint is of a different field");
+        }
+        restore(checkpoint, new RaceRandom(seed));
+    }
+
+    /**
+     * Put the kernel into the state of a checkpoint taken from a kernel with the same field
+     *
+     * @param checkpoint The checkpoint to continue from
+     * @param random The random stream to continue with
+     */
+    void restore(RaceCheckpoint checkpoint, RaceRandom random) {
+        distance = checkpoint.distance;
+        speed = checkpoint.speed;
+        fallen = checkpoint.fallen;
+        shared = true;
+        running = checkpoint.running;
+        tick = checkpoint.tick;
+        winner = checkpoint.winner;
+        decidedEarly = false;
+        fallCount = 0;
+        this.random = random;
+        keySeed = random.getSeed();
+
+        trackLength = track.getLength();
+        condition = checkpoint.condition;
+        speedFactor = checkpoint.speedFactor;
+        crossingTrack = track.hasCrossings() ? track : null;
+    }
+
+    /**
+     * Copy shared state arrays into the kernel's own buffers before changing them
+     */
+    private void unshare() {
+        double[] sharedDistance = distance;
+        double[] sharedSpeed = speed;
+        boolean[] sharedFallen = fallen;
+        takeOwnBuffers();
+        System.arraycopy(sharedDistance, 0, distance, 0, size);
+        System.arraycopy(sharedSpeed, 0, speed, 0, size);
+        System.arraycopy(sharedFallen, 0, fallen, 0, size);
+    }
+
+    /**
+     * Switch the state arrays to the kernel's own buffers, allocating them if
+     * they were given to a checkpoint
+     */
+    private void takeOwnBuffers() {
+        if (ownDistance == null) {
+            ownDistance = new double[size];
+            ownSpeed = new double[size];
+            ownFallen = new boolean[size];
+        }
+        distance = ownDistance;
+        speed = ownSpeed;
+        fallen = ownFallen;
+        shared = false;
+    }
+
+    /**
+     * Advance every runner by one tick
+     *
+     * @return true if the race is still going, false once it has finished
+     */
+    public boolean tick() {
+        if (isFinished()) {
+            return false;
+        }
+        if (shared) {
+            unshare();
+        }
+        tick++;
+        fallCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (fallen[i]) {
+                continue;
+            }
+
+            double d = distance[i];
+            double curveFactor = track.getCurveFactor(d);
+            double fallProb = condition.calculateFallProbability(confidence[i], curveFactor, turnHandling[i]);
+
+            if ((keyedRandom ? keyedDraw(i, 0) : random.nextDouble()) < fallProb) {
+                fallen[i] = true;
+                falls[fallCount++] = i;
+                running--;
+            } else if ((keyedRandom ? keyedDraw(i, 1) : random.nextDouble()) < confidence[i]) {
+                // Same movement model as Horse.updateMovement, assuming the race is halfway through
+                double staminaEffect = 1.0 - ((1.0 - stamina[i]) * 0.5);
+                double turnEffect = 1.0 - ((1.0 - curveFactor) * (1.0 - turnHandling[i]));
+                double luckFactor = 0.95 + (luck[i] * 0.1);
+                d += speed[i] * speedFactor * turnEffect * staminaEffect * luckFactor;
+                distance[i] = d;
+
+                if (crossingTrack != null && crossingTrack.isAtCrossing(d)) {
+                    speed[i] *= CROSSING_SLOWDOWN;
+                }
+            }
+
+            if (winner < 0 && d >= trackLength) {
+                winner = i;
+            }
+        }
+
+        if (winner < 0 && (running == 0 || tick >= MAX_RACE_ROUNDS)) {
+            winner = furthestRunner();
+        } else if (winner < 0 && running == 1 && detail != Detail.FULL_STATISTICS) {
+            stopIfDecided();
+        }
+        return !isFinished();
+    }
+
+    /**
+     * Stop the race if its last runner on its feet is ahead of every horse
+     * that has fallen. Fallen horses never move again, so that runner wins
+     * whether it reaches the line, falls or runs out of rounds, and the rest
+     * of the order is already fixed. The winner and the finishing order are
+     * exactly those of the full race, for any seed.
+     */
+    private void stopIfDecided() {
+        int leader = furthestRunner();
+        if (!fallen[leader]) {
+            winner = leader;
+            decidedEarly = true;
+        }
+    }
+
+    /**
+     * Get one of a runner's draws for the current tick from the keyed stream
+     *
+     * @param runner The runner index
+     * @param draw 0 for the fall draw, 1 for the move draw
+     */
+    private double keyedDraw(int runner, int draw) {
+        long key = ((long) tick << 32) | ((long) runner << 1) | draw;
+        double u = RaceRandom.keyedDouble(keySeed, key);
+        if (strata > 1) {
+            // Shuffle the strata differently for every draw, the same way for the whole block,
+            // so the block's races each land in a different stratum of every draw
+            long h = RaceRandom.keyedLong(strataSeed, key);
+            int cell = (int) (((stratum ^ h) * ((h >>> 32) | 1) + (h >>> 16)) & (strata - 1));
+            u = (cell + u) / strata;
+        }
+        return antithetic ? 1.0 - u : u;
+    }
+
+    /**
+     * Run the race to the end
+     *
+     * @return The index of the winner, or -1 if the field is empty
+     */
+    public int run() {
+        while (tick()) {
+            // Keep ticking until the race is decided
+        }
+        return winner;
+    }
+
+    /**
+     * Say how much of the result is needed, so the race can stop once that is
+     * settled. FULL_ORDER stops once the last runner on its feet is ahead of
+     * every horse that has fallen: the winner and order are then exact, but
+     * that runner's distance and the tick count are where the race stopped,
+     * not where it would have ended. Needing only the winner would not let a
+     * race stop any sooner: every runner falls with some chance each tick, so
+     * while two are up either could still win. FULL_STATISTICS, the default,
+     * always runs the race out.
+     *
+     * @param detail What the caller needs from the race
+     */
+    public void setDetail(Detail detail) {
+        this.detail = detail == null ? Detail.FULL_STATISTICS : detail;
+    }
+
+    public Detail getDetail() {
+        return detail;
+    }
+
+    /**
+     * Key every random number on the race seed, the runner and the tick
+     * instead of drawing them in sequence. A runner then gets the same draws
+     * on the same tick whatever happens to the rest of the field, so races of
+     * two variants of a field started with the same seed only differ where the
+     * variants themselves differ (common random numbers). Keyed races follow
+     * the same distribution as sequential ones but are not the same races.
+     * Stays in effect across reset() and restore().
+     *
+     * @param keyedRandom true to key the draws
+     */
+    public void setKeyedRandom(boolean keyedRandom) {
+        this.keyedRandom = keyedRandom;
+    }
+
+    public boolean isKeyedRandom() {
+        return keyedRandom;
+    }
+
+    /**
+     * Mirror every keyed draw, so u becomes 1 - u. A race run with this on
+     * and the same seed as one run with it off is its antithetic partner:
+     * a runner that was lucky in one is unlucky in the other.
+     *
+     * @param antithetic true to mirror the draws
+     */
+    public void setAntithetic(boolean antithetic) {
+        this.antithetic = antithetic;
+    }
+
+    /**
+     * Spread keyed draws over strata for Latin hypercube sampling. Races
+     * given the same strata seed and number of strata but different strata
+     * each land in a different slice of every draw, so a block of them covers
+     * the range of every draw evenly. Each race on its own still follows the
+     * normal distribution of races.
+     *
+     * @param strataSeed Seed shared by every race of the block
+     * @param stratum This race's stratum, from 0 to strata - 1
+     * @param strata The number of strata, a power of two; 1 turns stratifying off
+     */
+    public void setStratum(long strataSeed, int stratum, int strata) {
+        if (strata < 1 || Integer.bitCount(strata) != 1 || stratum < 0 || stratum >= strata) {
+            throw new IllegalArgumentException("Stratum " + stratum + " of " + strata + " strata");
+        }
+        this.strataSeed = strataSeed;
+        this.stratum = stratum;
+        this.strata = strata;
+    }
+
+    /**
+     * Check if the race was stopped as soon as its result was settled rather than run out
+     *
+     * @return true if the winner was decided early
+     */
+    public boolean isDecidedEarly() {
+        return decidedEarly;
+    }
+
+    /**
+     * Find the runner that has travelled furthest, used when nobody reaches the line
+     */
+    private int furthestRunner() {
+        if (size == 0) {
+            return -1;
+        }
+        int furthest = 0;
+        for (int i = 1; i < size; i++) {
+            if (distance[i] > distance[furthest]) {
+                furthest = i;
+            }
+        }
+        return furthest;
+    }
+
+    /**
+     * Check if the race has finished
+     *
+     * @return true if a winner has been decided
+     */
+    public boolean isFinished() {
+        return winner >= 0 || size == 0;
+    }
+
+    /**
+     * Fill an array with runner indexes in finishing order: the winner first,
+     * then the rest of the field by distance travelled
+     *
+     * @param order The array to fill (at least as long as the field)
+     */
+    public void fillFinishingOrder(int[] order) {
+        int count = 0;
+        if (winner >= 0) {
+            order[count++] = winner;
+        }
+        for (int i = 0; i < size; i++) {
+            if (i == winner) {
+                continue;
+            }
+            // Insertion sort, furthest first; stable so earlier lanes keep ties
+            int j = count;
+            while (j > 0 && order[j - 1] != winner && distance[order[j - 1]] < distance[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+            count++;
+        }
+    }
+
+    /**
+     * Write the current race state back to the Horse objects, including
+     * their 2D positions on the track
+     */
+    public void writeBack() {
+        for (int i = 0; i < size; i++) {
+            Horse horse = horses[i];
+            horse.restoreRaceState(distance[i], speed[i], fallen[i]);
+            track.updatePosition(horse, lane[i]);
+        }
+    }
+
+    /**
+     * Get the number of runners
+     *
+     * @return The field size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get a horse by its runner index
+     *
+     * @param index The runner index
+     * @return The horse
+     */
+    public Horse getHorse(int index) {
+        return horses[index];
+    }
+
+    /**
+     * Get the horses in runner index order. The array is shared, not copied.
+     */
+    Horse[] getField() {
+        return horses;
+    }
+
+    /**
+     * Get the distance a runner has travelled
+     *
+     * @param index The runner index
+     * @return The distance travelled
+     */
+    public double getDistance(int index) {
+        return distance[index];
+    }
+
+    /**
+     * Get the lane a runner is in
+     *
+     * @param index The runner index
+     * @return The lane
+     */
+    public int getLane(int index) {
+        return lane[index];
+    }
+
+    /**
+     * Check if a runner has fallen
+     *
+     * @param index The runner index
+     * @return true if the runner has fallen
+     */
+    public boolean hasFallen(int index) {
+        return fallen[index];
+    }
+
+    /**
+     * Get the number of runners that fell during the last tick
+     *
+     * @return The fall count
+     */
+    public int getFallCount() {
+        return fallCount;
+    }
+
+    /**
+     * Get one of the runners that fell during the last tick
+     *
+     * @param n Which fall, from 0 to getFallCount() - 1
+     * @return The runner index of the horse that fell
+     */
+    public int getFall(int n) {
+        return falls[n];
+    }
+
+    /**
+     * Get the number of ticks run so far
+     *
+     * @return The tick count
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the index of the winner
+     *
+     * @return The winner's runner index, or -1 while the race is undecided
+     */
+    public int getWinnerIndex() {
+        return winner;
+    }
+
+    /**
+     * Get the seed of the current race's random stream
+     *
+     * @return The race seed
+     */
+    public long getSeed() {
+        return random.getSeed();
+    }
+}
@@ -1,9 +1,5 @@
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.awt.geom.Point2D;
 
 /**
  * RaceManager class manages the race simulation, horses, track, and conditions.
@@ -16,14 +12,24 @@ public class RaceManager {
     private Track track;                // The current track
     private List<Horse> horses;         // List of horses in the race
     private List<Integer> lanes;        // Which lane each horse is in
-    private boolean raceInProgress;     // Whether a race is currently running
-    private Horse winner;               // The winning horse
-    private Random random;              // Random number generator
-    private List<RaceListener> listeners; // Listeners for race events
-    private static final int MAX_RACE_ROUNDS = 1000; // Maximum race rounds to prevent infinite loops
-    private Map<Horse, Double> initialConfidence; // Track initial confidence of horses
-    private long raceStartTime;         // When the race started
-    private long raceEndTime;           // When the race ended
+    private volatile boolean raceInProgress; // Whether a race is currently running
+    private volatile Horse winner;      // The winning horse
+    private volatile RaceSnapshot snapshot; // Latest picture of the race, replaced after every tick
+    private volatile RaceEngine engine; // Engine running the current (or last) race
+    private long raceSeed;              // Seed of the current race's random stream
+    private boolean useFixedSeed;       // Whether the next race uses the seed given to setSeed
+    private RaceEventDispatcher dispatcher; // Delivers race events to listeners off the race thread
+    private List<RaceSink> sinks;       // Sinks that run on the race thread
+    private RaceEventPublisher eventPublisher; // Stream of race events for Flow subscribers
+    private RaceRecorder recorder;      // Records every paced race tick by tick
+    private boolean recordHeadless;     // Whether headless races are recorded too
+    private TickScheduler scheduler;    // Paces races in real time
+    private TickScheduler.PacedRace pacedRace; // The race currently being paced, if any
+    private volatile double speedMultiplier = 1.0; // How fast paced races are played out
+    private RaceSink listenerBridge;    // Forwards engine events to the listeners
+    private boolean headless;           // Whether to skip pacing, console output and listener callbacks
+    private RaceKernel.Detail headlessDetail = RaceKernel.Detail.FULL_STATISTICS; // What headless races without results need to work out
+    private boolean useConsoleOutput = true; // Whether to print race messages to the console
     
     // Add this enum for race status
     public enum RaceStatus {
@@ -33,21 +39,35 @@ public class RaceManager {
     }
 
     // Add a field to track current race status
-    private RaceStatus currentRaceStatus = RaceStatus.PENDING;
+    private volatile RaceStatus currentRaceStatus = RaceStatus.PENDING;
 
     /**
      * Constructor for the RaceManager class
      */
     public RaceManager() {
+        // Create a default track
+        this(new OvalTrack("Standard Oval", 500, 5, TrackCondition.DRY), TickScheduler.getInstance());
+    }
+    
+    /**
+     * Constructor for a RaceManager with a given track and scheduler.
+     * Tracks are not changed by racing on them, so many managers can share one.
+     * 
+     * @param track The track to race on
+     * @param scheduler The scheduler that paces this manager's races
+     */
+    public RaceManager(Track track, TickScheduler scheduler) {
         horses = new ArrayList<>();
         lanes = new ArrayList<>();
-        random = new Random();
         raceInProgress = false;
-        listeners = new ArrayList<>();
-        initialConfidence = new HashMap<>();
-        
-        // Create a default track
-        track = new OvalTrack("Standard Oval", 500, 5, TrackCondition.DRY);
+        dispatcher = new RaceEventDispatcher();
+        eventPublisher = new RaceEventPublisher();
+        sinks = new ArrayList<>();
+        recorder = new RaceRecorder();
+        listenerBridge = new ListenerBridge();
+        this.track = track;
+        this.scheduler = scheduler;
+        publishFieldSnapshot();
     }
     
     /**
@@ -76,6 +96,7 @@ public class RaceManager {
         
         horses.add(horse);
         lanes.add(lane);
+        publishFieldSnapshot();
         return true;
     }
     
@@ -90,6 +111,7 @@ public class RaceManager {
         if (index >= 0) {
             horses.remove(index);
             lanes.remove(index);
+            publishFieldSnapshot();
             return true;
         }
         return false;
@@ -102,6 +124,7 @@ public class RaceManager {
      */
     public void setTrack(Track newTrack) {
         this.track = newTrack;
+        publishFieldSnapshot();
     }
     
     /**
@@ -122,6 +145,22 @@ public class RaceManager {
         return new ArrayList<>(horses);
     }
     
+    /**
+     * Get the finishing order of the last race. The winner comes first and the
+     * rest of the field follows in order of distance travelled.
+     * 
+     * @return The horses in finishing order
+     */
+    public List<Horse> getFinishingOrder() {
+        List<Horse> order = new ArrayList<>(horses);
+        order.sort((h1, h2) -> {
+            if (h1 == winner) return -1;
+            if (h2 == winner) return 1;
+            return Double.compare(h2.getDistanceTravelled(), h1.getDistanceTravelled());
+        });
+        return order;
+    }
+    
     /**
      * Get the lane number for a specific horse
      * 
@@ -147,6 +186,25 @@ public class RaceManager {
         currentRaceStatus = RaceStatus.PENDING;        
         // Make sure race is not marked as in progress
         raceInProgress = false;
+        publishFieldSnapshot();
+    }
+    
+    /**
+     * Get the latest snapshot of the race. While a race runs it is replaced
+     * after every tick; between races it shows the field as it stands.
+     * Safe to call from any thread.
+     * 
+     * @return The latest snapshot
+     */
+    public RaceSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Publish a snapshot of the field from the horses' own state, used when no race is running
+     */
+    private void publishFieldSnapshot() {
+        snapshot = RaceSnapshot.of(track, horses, lanes, winner);
     }
     
     /**
@@ -158,142 +216,84 @@ public class RaceManager {
             return;
         }
         
-        // Reset race state
-        raceInProgress = true;
+        RaceEngine race = prepareRace();
         
-        // Update race status
-        currentRaceStatus = RaceStatus.IN_PROGRESS;
-        winner = null;
-        
-        // Store initial confidence levels for statistics
-        initialConfidence.clear();
-        for (Horse horse : horses) {
-            initialConfidence.put(horse, horse.getConfidence());
-            horse.goBackToStart();
+        // Headless races run straight through on the calling thread
+        if (headless) {
+            race.runRace(raceSeed, false, true);
+            return;
         }
         
-        // Record start time
-        raceStartTime = System.currentTimeMillis();
+        // Listeners hear about the start before the first tick is scheduled
+        race.begin(raceSeed);
         
-        // Notify listeners that race is starting
-        for (RaceListener listener : listeners) {
-            listener.onRaceStart();
-        }
-        
-        // Start the race in a separate thread
-        Thread raceThread = new Thread(this::runRace);
-        raceThread.start();
+        // Hand the race to the scheduler, which runs the ticks at a fixed rate. A race
+        // whose tick fails is ended without results, so the status does not stay IN_PROGRESS
+        pacedRace = scheduler.schedule(race::step, () -> race.finish(true), e -> {
+            race.stop();
+            race.finish(false);
+        }, speedMultiplier);
     }
     
     /**
-     * Run the race simulation loop
+     * Run a complete race synchronously on the calling thread without pacing,
+     * console output or listener callbacks. The tick logic is exactly the same
+     * as a race started with startRace().
+     * 
+     * A race run without applying results stops as soon as the result set
+     * with setHeadlessDetail() is settled.
+     * 
+     * @param applyResults Whether to update horse confidences and record statistics afterwards
+     * @return The winning horse, or null if there are no horses in the race
      */
-    private void runRace() {
-        int raceRounds = 0;
-        boolean finished = false;
+    public Horse runHeadlessRace(boolean applyResults) {
+        if (horses.isEmpty()) {
+            return null;
+        }
         
-        while (raceInProgress && !finished && raceRounds < MAX_RACE_ROUNDS) {
-            raceRounds++;
-            
-            // Update each horse's position
-            for (int i = 0; i < horses.size(); i++) {
-                Horse horse = horses.get(i);
-                int lane = lanes.get(i);
-                
-                if (!horse.hasFallen()) {
-                    // Get the curve factor at the horse's current position
-                    double curveFactor = track.getCurveFactor(horse.getDistanceTravelled());
-                    
-                    // Calculate fall probability based on track condition, horse confidence, and curve
-                    double fallProb = track.getCondition().calculateFallProbability(
-                        horse.getConfidence(), curveFactor, horse.getTurnHandling());
-                    
-                    // Check if the horse falls
-                    if (random.nextDouble() < fallProb) {
-                        horse.fall();
-                        // Notify listeners that a horse has fallen
-                        for (RaceListener listener : listeners) {
-                            listener.onHorseFallen(horse);
-                        }
-                    } else {
-                        // Move the horse forward based on its speed and track conditions
-                        if (random.nextDouble() < horse.getConfidence()) {
-                            // Update horse movement based on track conditions and curves
-                            horse.updateMovement(track.getCondition().getSpeedFactor(), curveFactor);
-                            
-                            // Update the horse's 2D position on the track
-                            Point2D.Double position = track.calculatePosition(horse.getDistanceTravelled(), lane);
-                            horse.setPosition(position.x, position.y);
-                            
-                            // Special handling for figure-8 tracks at the crossing
-                            if (track instanceof FigureEightTrack && 
-                                ((FigureEightTrack)track).isAtCrossing(horse.getDistanceTravelled())) {
-                                // Slow down at the crossing
-                                horse.adjustSpeed(0.7);
-                            }
-                        }
-                    }
-                    
-                    // Check if the horse has finished the race
-                    if (track.isRaceCompleted(horse.getDistanceTravelled()) && winner == null) {
-                        winner = horse;
-                        
-                        // Notify listeners that a winner has been found
-                        for (RaceListener listener : listeners) {
-                            listener.onRaceWinner(horse);
-                        }
-                    }
-                }
-            }
-            
-            // Notify listeners to update UI
-            for (RaceListener listener : listeners) {
-                listener.onRaceUpdate();
-            }
-            
-            // Check race end conditions
-            if (winner != null || allHorsesFallen()) {
-                finished = true;
-            }
-            
-            // Short pause between updates
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+        boolean wasHeadless = headless;
+        headless = true;
+        try {
+            prepareRace().runRace(raceSeed, false, applyResults);
+        } finally {
+            headless = wasHeadless;
         }
+        return winner;
+    }
+    
+    /**
+     * Set up an engine for the current field
+     * 
+     * @return The engine that will run the race
+     */
+    private RaceEngine prepareRace() {
+        // Reset race state
+        raceInProgress = true;
         
-        // Record race end time
-        raceEndTime = System.currentTimeMillis();
+        // Update race status
+        currentRaceStatus = RaceStatus.IN_PROGRESS;
+        winner = null;
         
-        // If race was stopped due to maximum rounds being reached
-        if (raceRounds >= MAX_RACE_ROUNDS) {
-            System.out.println("Race ended due to maximum number of rounds reached");
-            determineWinnerByDistance();
+        // Give the race its own random stream, recording the seed so it can be replayed
+        if (!useFixedSeed) {
+            raceSeed = RaceRandom.randomSeed();
         }
-        
-        // If race ended with all horses fallen
-        if (allHorsesFallen() && winner == null) {
-            determineWinnerByDistance();
+        useFixedSeed = false;
+        
+        engine = new RaceEngine(track, horses, lanes);
+        engine.setHeadless(headless);
+        engine.setDetail(headlessDetail);
+        engine.setTickMillis(scheduler.getTickMillis());
+        // The recording is finished before listeners hear the race has ended.
+        // Headless races are run in bulk, so they are only recorded if asked for
+        if (!headless || recordHeadless) {
+            engine.addSink(recorder);
         }
-        
-        // Race is now over
-        raceInProgress = false;
-        
-        currentRaceStatus = RaceStatus.COMPLETED;
-        
-        // Update horse confidences based on race results
-        updateHorseConfidences();
-        
-        // Record statistics for this race
-        recordRaceStatistics();
-        
-        // Notify listeners that race has ended
-        for (RaceListener listener : listeners) {
-            listener.onRaceEnd(winner);
+        engine.addSink(listenerBridge);
+        for (RaceSink sink : sinks) {
+            engine.addSink(sink);
         }
+        return engine;
     }
     
     /**
@@ -301,152 +301,149 @@ public class RaceManager {
      * This is called automatically when a race is completed
      */
     public void recordRaceStatistics() {
-        // Create race statistics object
-        RaceStatistics raceStats = new RaceStatistics(
-            track.getName(),
-            track.getCondition(),
-            track.getLength()
-        );
-        
-        // Set race properties
-        long raceDuration = raceEndTime - raceStartTime;
-        raceStats.setRaceDuration(raceDuration);
-        
-        // Set winner
-        if (winner != null) {
-            raceStats.setWinner(winner);
+        if (engine == null) {
+            return;
         }
-        
-        // Add horse performances
-        for (Horse horse : horses) {
-            double distance = horse.getDistanceTravelled();
-            boolean fallen = horse.hasFallen();
-            
-            // Calculate finish time (adjust based on your implementation)
-            long finishTime = 0;
-            if (horse == winner) {
-                finishTime = raceDuration;
-            } else if (!fallen && distance >= track.getLength()) {
-                // Horse finished but wasn't the winner
-                finishTime = raceDuration + 1000; // Just an example, adjust as needed
-            }
-            
-            // Get horse's initial confidence
-            double confidenceBefore = initialConfidence.getOrDefault(horse, 0.5);
-            
-            // Add horse performance
-            raceStats.addHorsePerformance(
-                horse,
-                finishTime,
-                distance,
-                fallen,
-                confidenceBefore,
-                horse.getConfidence()
-            );
+        engine.recordStatistics();
+        if (!headless && useConsoleOutput) {
+            System.out.println("Race statistics recorded for: " + track.getName());
         }
-        
-        // Record race statistics
-        StatisticsManager.getInstance().recordRace(raceStats);
-        System.out.println("Race statistics recorded for: " + track.getName());
     }
     
     /**
-     * Get the finish time for a horse
-     * This is a mock implementation - adjust based on your actual tracking
+     * Get the finish time for a horse in the last race, as recorded in its statistics
+     *
+     * @param horse The horse
+     * @return The finish time in milliseconds, or 0 if the horse did not finish
      */
     public long getFinishTime(Horse horse) {
-        if (horse == winner) {
-            return raceEndTime - raceStartTime;
-        } else if (!horse.hasFallen() && horse.getDistanceTravelled() >= track.getLength()) {
-            // Finished but not the winner
-            return (raceEndTime - raceStartTime) + (long)(Math.random() * 5000);
+        return engine == null ? 0 : engine.getFinishTime(horse);
+    }
+    
+    /**
+     * Stop the current race
+     */
+    public void stopRace() {
+        raceInProgress = false;
+        if (engine != null) {
+            engine.stop();
         }
-        return 0; // Did not finish
+        currentRaceStatus = RaceStatus.COMPLETED;
     }
     
     /**
-     * Check if all horses have fallen
+     * Check if a race is currently in progress
      * 
-     * @return true if all horses have fallen, false otherwise
+     * @return true if a race is in progress, false otherwise
      */
-    private boolean allHorsesFallen() {
-        for (Horse horse : horses) {
-            if (!horse.hasFallen()) {
-                return false;
-            }
-        }
-        return !horses.isEmpty();
+    public boolean isRaceInProgress() {
+        return raceInProgress;
     }
     
     /**
-     * Determine a winner based on distance traveled
-     * Used when the race ends prematurely (all horses fallen or maximum rounds reached)
+     * Fix the seed of the next race's random stream. Starting a race with the
+     * seed recorded in an earlier race's statistics replays that race exactly,
+     * provided the horses are the same.
+     * 
+     * @param seed The seed for the next race
      */
-    private void determineWinnerByDistance() {
-        if (horses.isEmpty()) return;
-        
-        Horse furthestHorse = horses.get(0);
-        double maxDistance = furthestHorse.getDistanceTravelled();
-        
-        for (int i = 1; i < horses.size(); i++) {
-            Horse horse = horses.get(i);
-            if (horse.getDistanceTravelled() > maxDistance) {
-                maxDistance = horse.getDistanceTravelled();
-                furthestHorse = horse;
-            }
-        }
-        
-        winner = furthestHorse;
-        
-        // Notify listeners that a winner has been determined
-        for (RaceListener listener : listeners) {
-            listener.onRaceWinner(winner);
-        }
+    public void setSeed(long seed) {
+        this.raceSeed = seed;
+        this.useFixedSeed = true;
     }
     
     /**
-     * Update horse confidences based on race results
+     * Get the seed of the current (or last) race's random stream
+     * 
+     * @return The race seed
      */
-    private void updateHorseConfidences() {
-        // Boost winner's confidence
-        if (winner != null) {
-            winner.setConfidence(winner.getConfidence() * 1.10);
-        }
-        
-        // Reduce confidence for fallen horses
-        for (Horse horse : horses) {
-            if (horse.hasFallen()) {
-                horse.setConfidence(horse.getConfidence() * 0.95);
-            }
-        }
-        
-        // Adjust confidence for non-winners who didn't fall
-        for (Horse horse : horses) {
-            if (horse != winner && !horse.hasFallen()) {
-                double progress = horse.getDistanceTravelled() / track.getLength();
-                if (progress > 0.8) {
-                    // Good performance but not a win
-                    horse.setConfidence(horse.getConfidence() * 1.02);
-                }
-            }
+    public long getRaceSeed() {
+        return raceSeed;
+    }
+    
+    /**
+     * Set how fast paced races are played out, from 0.25x to 100x real time.
+     * Takes effect from the next tick if a race is running. The race itself,
+     * including its simulated duration, is the same at any speed.
+     * 
+     * @param speedMultiplier The speed multiplier (clamped to the supported range)
+     */
+    public void setSpeedMultiplier(double speedMultiplier) {
+        this.speedMultiplier = TickScheduler.clampSpeed(speedMultiplier);
+        TickScheduler.PacedRace race = pacedRace;
+        if (race != null) {
+            race.setSpeedMultiplier(this.speedMultiplier);
         }
     }
     
     /**
-     * Stop the current race
+     * Get how fast paced races are played out
+     * 
+     * @return The speed multiplier
      */
-    public void stopRace() {
-        raceInProgress = false;
-        currentRaceStatus = RaceStatus.COMPLETED;
+    public double getSpeedMultiplier() {
+        return speedMultiplier;
     }
     
     /**
-     * Check if a race is currently in progress
+     * Get the number of ticks of the current (or last) paced race that started late
      * 
-     * @return true if a race is in progress, false otherwise
+     * @return The overrun count, or 0 if no race has been paced
      */
-    public boolean isRaceInProgress() {
-        return raceInProgress;
+    public long getTickOverruns() {
+        TickScheduler.PacedRace race = pacedRace;
+        return race == null ? 0 : race.getOverruns();
+    }
+    
+    /**
+     * Set the scheduler that paces this manager's races
+     * 
+     * @param scheduler The scheduler to use for races started from now on
+     */
+    public void setScheduler(TickScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Enable or disable headless mode. A headless race runs on the thread that
+     * starts it, with no pause between ticks, no console output and no listener callbacks.
+     * 
+     * @param headless true to run races headless, false for normal paced races
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+    
+    /**
+     * Say how much of the result headless races run without applying results
+     * need, so they can stop as soon as it is settled
+     * 
+     * @param detail What the caller needs from the race
+     */
+    public void setHeadlessDetail(RaceKernel.Detail detail) {
+        this.headlessDetail = detail == null ? RaceKernel.Detail.FULL_STATISTICS : detail;
+    }
+    
+    public RaceKernel.Detail getHeadlessDetail() {
+        return headlessDetail;
+    }
+    
+    /**
+     * Enable or disable the race messages printed to the console
+     * 
+     * @param useConsoleOutput true to print race messages
+     */
+    public void setConsoleOutput(boolean useConsoleOutput) {
+        this.useConsoleOutput = useConsoleOutput;
+    }
+    
+    /**
+     * Check if races are run in headless mode
+     * 
+     * @return true if headless mode is enabled, false otherwise
+     */
+    public boolean isHeadless() {
+        return headless;
     }
     
     /**
@@ -473,9 +470,7 @@ public class RaceManager {
      * @param listener The listener to add
      */
     public void addRaceListener(RaceListener listener) {
-        if (listener != null && !listeners.contains(listener)) {
-            listeners.add(listener);
-        }
+        dispatcher.addListener(listener);
     }
     
     /**
@@ -484,7 +479,104 @@ public class RaceManager {
      * @param listener The listener to remove
      */
     public void removeRaceListener(RaceListener listener) {
-        listeners.remove(listener);
+        dispatcher.removeListener(listener);
+    }
+    
+    /**
+     * Get delivery statistics for every race listener: how many events each
+     * has received, how many updates were coalesced away and how late they arrived
+     * 
+     * @return One entry per listener
+     */
+    public List<RaceEventDispatcher.ListenerStats> getListenerStats() {
+        return dispatcher.getListenerStats();
+    }
+    
+    /**
+     * Get the stream of this manager's race events, for subscribers that need
+     * backpressure or typed events rather than RaceListener callbacks
+     * 
+     * @return The event publisher
+     */
+    public RaceEventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+    
+    /**
+     * Checkpoint the race so its possible continuations can be simulated,
+     * for example with MonteCarloOddsEngine.simulate(RaceCheckpoint, ...).
+     * While a race is running this captures it between two ticks without
+     * holding it up; otherwise it captures the current field at the start.
+     * 
+     * @return The checkpoint
+     */
+    public RaceCheckpoint checkpoint() {
+        RaceEngine current = engine;
+        if (current != null && current.isRunning()) {
+            RaceCheckpoint checkpoint = current.checkpoint();
+            if (checkpoint != null) {
+                return checkpoint;
+            }
+        }
+        RaceKernel kernel = new RaceKernel(track, horses, lanes);
+        kernel.reset(raceSeed);
+        return kernel.checkpoint();
+    }
+    
+    /**
+     * Get the recorder that records every paced race this manager runs, and
+     * headless ones too if setRecordHeadless(true) was called. Its recordings
+     * can be archived and played back with RaceReplay.
+     * 
+     * @return The race recorder
+     */
+    public RaceRecorder getRecorder() {
+        return recorder;
+    }
+    
+    /**
+     * Choose whether headless races are recorded. They are not by default,
+     * so bulk runs do not pay for copying every tick.
+     * 
+     * @param recordHeadless true to record headless races as well as paced ones
+     */
+    public void setRecordHeadless(boolean recordHeadless) {
+        this.recordHeadless = recordHeadless;
+    }
+    
+    public boolean isRecordHeadless() {
+        return recordHeadless;
+    }
+    
+    /**
+     * Get the recording of the last recorded race that ended
+     * 
+     * @return The recording, or null if no race has been recorded yet
+     */
+    public RaceRecording getLastRecording() {
+        return recorder.getLastRecording();
+    }
+    
+    /**
+     * Add a sink that receives the events of every race this manager runs,
+     * called directly on the race thread. Sinks must be quick; anything slow
+     * belongs in a RaceListener, which is called on a thread of its own.
+     * 
+     * @param sink The sink to add
+     */
+    public void addRaceSink(RaceSink sink) {
+        if (sink != null && !sinks.contains(sink)) {
+            sinks.add(sink);
+        }
+    }
+    
+    /**
+     * Remove a race sink
+     * 
+     * @param sink The sink to remove
+     */
+    public void removeRaceSink(RaceSink sink) {
+        sinks.remove(sink);
     }
     
     /**
@@ -558,12 +650,16 @@ public class RaceManager {
             track.getLength()
         );
         
+        // The made-up results come from a stream of their own, recorded like a race's
+        RaceRandom random = new RaceRandom();
+        raceStats.setSeed(random.getSeed());
+        
         // Set race duration (between 1-3 minutes)
-        long duration = 60000 + (long)(Math.random() * 120000);
+        long duration = 60000 + (long)(random.nextDouble() * 120000);
         raceStats.setRaceDuration(duration);
         
         // Randomly select winner
-        int winnerIndex = (int)(Math.random() * horses.size());
+        int winnerIndex = random.nextInt(horses.size());
         Horse testWinner = horses.get(winnerIndex);
         raceStats.setWinner(testWinner);
         
@@ -576,13 +672,13 @@ public class RaceManager {
                 (duration - 10000) : (duration - 8000 + (i * 3000));
                 
             // 5% chance of falling
-            boolean fallen = Math.random() < 0.05;
+            boolean fallen = random.nextDouble() < 0.05;
             
             // Distance - full distance unless fallen
             double distance = fallen ? (track.getLength() * 0.7) : track.getLength();
             
             // Confidence changes
-            double confidenceBefore = 0.4 + (Math.random() * 0.3);
+            double confidenceBefore = 0.4 + (random.nextDouble() * 0.3);
             double confidenceAfter;
             
             if (i == winnerIndex) {
@@ -594,7 +690,7 @@ public class RaceManager {
             } else {
                 // Others get minor changes
                 confidenceAfter = Math.max(0.1, Math.min(1.0, 
-                    confidenceBefore + (Math.random() * 0.1 - 0.05)));
+                    confidenceBefore + (random.nextDouble() * 0.1 - 0.05)));
             }
             
             // Set current confidence for future races
@@ -617,7 +713,74 @@ public class RaceManager {
     }
     
     /**
-     * Interface for objects that want to listen for race events
+     * Race sink that keeps the manager's state in step with its engine and
+     * passes the engine's events on to the race listeners (except in headless mode)
+     */
+    private class ListenerBridge implements RaceSink {
+        @Override
+        public void onRaceStart(RaceEngine race) {
+            if (race.isHeadless()) return;
+            snapshot = race.captureSnapshot();
+            dispatcher.raceStarted();
+        }
+        
+        @Override
+        public void onHorseFallen(RaceEngine race, Horse horse) {
+            if (race.isHeadless()) return;
+            dispatcher.horseFallen(horse);
+            if (eventPublisher.hasSubscribers()) {
+                eventPublisher.publish(RaceEvent.fall(race.getTick(), horse));
+            }
+        }
+        
+        @Override
+        public void onRaceWinner(RaceEngine race, Horse horse) {
+            winner = horse;
+            if (race.isHeadless()) return;
+            dispatcher.raceWinner(horse);
+            if (eventPublisher.hasSubscribers()) {
+                eventPublisher.publish(RaceEvent.winner(race.getTick(), horse));
+            }
+        }
+        
+        @Override
+        public void onTick(RaceEngine race) {
+            if (race.isHeadless()) return;
+            RaceSnapshot latest = race.captureSnapshot();
+            snapshot = latest;
+            dispatcher.raceUpdated();
+            if (eventPublisher.hasSubscribers()) {
+                eventPublisher.publish(RaceEvent.tick(latest));
+            }
+        }
+        
+        @Override
+        public void onRaceEnd(RaceEngine race, Horse raceWinner) {
+            winner = raceWinner;
+            snapshot = race.captureSnapshot();
+            raceInProgress = false;
+            currentRaceStatus = RaceStatus.COMPLETED;
+            if (race.isHeadless()) return;
+            
+            if (useConsoleOutput) {
+                if (race.reachedRoundLimit()) {
+                    System.out.println("Race ended due to maximum number of rounds reached");
+                }
+                if (race.hasAppliedResults()) {
+                    System.out.println("Race statistics recorded for: " + track.getName());
+                }
+            }
+            dispatcher.raceEnded(raceWinner);
+            if (eventPublisher.hasSubscribers()) {
+                eventPublisher.publish(RaceEvent.end(snapshot));
+            }
+        }
+    }
+    
+    /**
+     * Interface for objects that want to listen for race events.
+     * Callbacks arrive on a delivery thread of their own, never on the race
+     * thread or the Swing event thread, one at a time and in order.
      */
     public interface RaceListener {
         /**
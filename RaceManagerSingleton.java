@@ -3,14 +3,14 @@
  * This is used by BettingService to access the current race information.
  */
 public class RaceManagerSingleton {
-    private static RaceManager instance;
+    private static volatile RaceManager instance;
     
     /**
      * Get the singleton instance of RaceManager
      * 
      * @return The RaceManager instance
      */
-    public static synchronized RaceManager getInstance() {
+    public static RaceManager getInstance() {
         return instance;
     }
     
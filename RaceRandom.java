@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+/**
+ * Seedable random number stream used by races, horses and odds calculation.
+ * It produces exactly the same sequence as java.util.SplittableRandom created
+ * with the same seed (the SplitMix64 algorithm), but its whole state is a single
+ * long, so a race can be replayed exactly from the seed it was started with.
+ *
+ * Each race and each simulation worker owns its own stream, so parallel
+ * simulations never contend on a shared generator the way Math.random() does.
+ * A stream must only be used by one thread at a time.
+ */
+public class RaceRandom implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // Odd constant the state advances by
+
+    // Source of seeds for streams created without an explicit seed
+    private static final AtomicLong SEED_SOURCE =
+        new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    private long seed;  // Seed the stream was created with
+    private long state; // Current position in the stream
+
+    /**
+     * Constructor for a stream with a fresh, unpredictable seed
+     */
+    public RaceRandom() {
+        this(randomSeed());
+    }
+
+    /**
+     * Constructor for a stream with a fixed seed
+     *
+     * @param seed The seed; streams with the same seed produce the same values
+     */
+    public RaceRandom(long seed) {
+        this.seed = seed;
+        this.state = seed;
+    }
+
+    /**
+     * Create a fresh seed that differs from every other seed handed out in this process
+     *
+     * @return A new seed
+     */
+    public static long randomSeed() {
+        return mix64(SEED_SOURCE.getAndAdd(2 * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Derive the seed of one run in a batch from the batch's root seed.
+     * The derived seed only depends on the root seed and the run index, so
+     * a batch split across any number of threads produces the same runs.
+     *
+     * @param rootSeed The seed of the whole batch
+     * @param index The index of the run within the batch
+     * @return The seed for that run
+     */
+    public static long deriveSeed(long rootSeed, long index) {
+        return mix64(rootSeed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Get a value from a keyed stream. The same seed and key always give the
+     * same value, so values can be drawn in any order, or skipped, without
+     * changing any of the others.
+     *
+     * @param seed The seed of the keyed stream
+     * @param key Which value to get
+     * @return A value spread evenly over the whole range of long
+     */
+    public static long keyedLong(long seed, long key) {
+        return mix64(seed + mix64((key + 1) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Get a double from a keyed stream
+     *
+     * @param seed The seed of the keyed stream
+     * @param key Which value to get
+     * @return A value from 0 (inclusive) to 1 (exclusive)
+     */
+    public static double keyedDouble(long seed, long key) {
+        return (keyedLong(seed, key) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Get the seed this stream was created with
+     *
+     * @return The seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Create a copy of this stream at its current position. The copy and
+     * the original produce the same values from here on, independently.
+     *
+     * @return The copy
+     */
+    public RaceRandom copy() {
+        RaceRandom copy = new RaceRandom(seed);
+        copy.state = state;
+        return copy;
+    }
+
+    /**
+     * Get the current position in the stream
+     *
+     * @return The stream state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Create a new, independent stream seeded from this one
+     *
+     * @return The new stream
+     */
+    public RaceRandom split() {
+        return new RaceRandom(mix64(nextLong()));
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Stafford's variant 13 of the MurmurHash3 finalizer, as used by SplittableRandom
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sink that records every race it sees as a RaceRecording: the seed, the
+ * field, every horse's distance after every tick, the falls and the winner.
+ * Recording a tick only copies the distances into a growing int array, so it
+ * adds next to nothing to the race loop and works for headless races too.
+ *
+ * A recorder follows one race at a time; give every concurrently running
+ * race its own recorder.
+ */
+public class RaceRecorder implements RaceSink {
+    private Consumer<RaceRecording> archive;     // Receives each finished recording, or null
+    private volatile RaceRecording lastRecording; // The most recently finished recording
+
+    // State of the race being recorded
+    private int size;
+    private int[] positions;    // Fixed-point distances, one row of size entries per tick
+    private int[] fallTicks;
+    private int winnerIndex;
+    private int winnerTick;
+
+    /**
+     * Constructor for a recorder that keeps only the latest recording
+     */
+    public RaceRecorder() {
+        this(null);
+    }
+
+    /**
+     * Constructor for a recorder that hands every finished recording on
+     *
+     * @param archive Called with each recording when its race ends (may be null)
+     */
+    public RaceRecorder(Consumer<RaceRecording> archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public void onRaceStart(RaceEngine race) {
+        size = race.getHorses().size();
+        positions = new int[Math.max(1, size) * 32];
+        fallTicks = new int[size];
+        winnerIndex = -1;
+        winnerTick = 0;
+        // Everyone starts at 0, which is the first row as allocated
+    }
+
+    @Override
+    public void onTick(RaceEngine race) {
+        int row = race.getTick() * size;
+        if (row + size > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, row + size));
+        }
+        for (int i = 0; i < size; i++) {
+            positions[row + i] = (int) Math.round(race.getDistance(i) * RaceRecording.DISTANCE_SCALE);
+        }
+    }
+
+    @Override
+    public void onHorseFallen(RaceEngine race, Horse horse) {
+        int index = race.getHorses().indexOf(horse);
+        if (index >= 0) {
+            fallTicks[index] = race.getTick();
+        }
+    }
+
+    @Override
+    public void onRaceWinner(RaceEngine race, Horse horse) {
+        winnerIndex = race.getHorses().indexOf(horse);
+        winnerTick = race.getTick();
+    }
+
+    @Override
+    public void onRaceEnd(RaceEngine race, Horse winner) {
+        List<Horse> horses = race.getHorses();
+        String[] names = new String[size];
+        char[] symbols = new char[size];
+        int[] lanes = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = horses.get(i).getName();
+            symbols[i] = horses.get(i).getSymbol();
+            lanes[i] = race.getLanes().get(i);
+        }
+
+        int ticks = race.getTick();
+        RaceRecording recording = new RaceRecording(race.getSeed(), race.getTickMillis(),
+            race.getTrack().getLength(), names, symbols, lanes, ticks, winnerIndex, winnerTick,
+            fallTicks, Arrays.copyOf(positions, (ticks + 1) * size));
+        positions = null;
+        lastRecording = recording;
+        if (archive != null) {
+            archive.accept(recording);
+        }
+    }
+
+    /**
+     * Get the recording of the last race that ended
+     *
+     * @return The recording, or null if no race has been recorded yet
+     */
+    public RaceRecording getLastRecording() {
+        return lastRecording;
+    }
+}
@@ -0,0 +1,327 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A tick-by-tick record of one race, kept for audits and disputes and
+ * played back with RaceReplay.
+ *
+ * Distances are stored in fixed point (1/DISTANCE_SCALE of a unit), so a
+ * recording replays exactly the same way every time. The binary form starts
+ * with a header (magic, version, seed, tick length, track length, the field
+ * and its lanes, tick count, winner and falls) followed by one entry per tick
+ * for every horse still on its feet: the distance gained that tick as a
+ * varint. A horse gains less than two units a tick, so almost every entry
+ * fits in one byte and an eight-horse race comes to a few hundred bytes.
+ */
+public final class RaceRecording {
+    public static final int DISTANCE_SCALE = 64;    // Fixed-point steps per unit of distance
+    public static final int MAX_FIELD_SIZE = 1 << 14; // Largest field a recording is read back with
+    private static final int MAGIC = 0x48524543;    // "HREC"
+    private static final int VERSION = 1;
+
+    private final long seed;            // Seed of the race's random stream
+    private final long tickMillis;      // Simulation time covered by one tick
+    private final int trackLength;      // Length of the track
+    private final String[] names;       // Horse names, in lane assignment order
+    private final char[] symbols;       // Horse symbols
+    private final int[] lanes;          // Lane of each horse
+    private final int tickCount;        // Number of ticks the race lasted
+    private final int winner;           // Index of the winner, or -1 if there was none
+    private final int winnerTick;       // Tick the winner was decided on, or 0
+    private final int[] fallTicks;      // Tick each horse fell on, or 0 if it stayed up
+    private final int[] positions;      // Fixed-point distance of every horse after every tick, tick 0 first
+
+    RaceRecording(long seed, long tickMillis, int trackLength, String[] names, char[] symbols, int[] lanes,
+                  int tickCount, int winner, int winnerTick, int[] fallTicks, int[] positions) {
+        this.seed = seed;
+        this.tickMillis = tickMillis;
+        this.trackLength = trackLength;
+        this.names = names;
+        this.symbols = symbols;
+        this.lanes = lanes;
+        this.tickCount = tickCount;
+        this.winner = winner;
+        this.winnerTick = winnerTick;
+        this.fallTicks = fallTicks;
+        this.positions = positions;
+    }
+
+    /**
+     * Encode the recording in its binary form
+     *
+     * @return The encoded recording
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + positions.length);
+        try {
+            write(bytes);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write the recording in its binary form
+     *
+     * @param stream The stream to write to
+     * @throws IOException If the stream cannot be written
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        int size = names.length;
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(seed);
+        writeVarint(out, tickMillis);
+        writeVarint(out, trackLength);
+        writeVarint(out, size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(names[i]);
+            writeVarint(out, symbols[i]);
+            writeVarint(out, lanes[i]);
+        }
+        writeVarint(out, tickCount);
+        writeVarint(out, winner + 1);
+        writeVarint(out, winnerTick);
+        for (int i = 0; i < size; i++) {
+            writeVarint(out, fallTicks[i]);
+        }
+
+        for (int tick = 1; tick <= tickCount; tick++) {
+            int row = tick * size;
+            for (int i = 0; i < size; i++) {
+                if (isRecorded(i, tick)) {
+                    // Horses never go backwards, so the gain is never negative
+                    writeVarint(out, positions[row + i] - positions[row - size + i]);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Decode a recording from its binary form
+     *
+     * @param data The encoded recording
+     * @return The recording
+     * @throws IOException If the data is not a valid recording
+     */
+    public static RaceRecording fromBytes(byte[] data) throws IOException {
+        return read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Read a recording in its binary form. Every count and tick in the header
+     * is checked before it is used, so a damaged recording is reported as
+     * such rather than running out of memory.
+     *
+     * @param stream The stream to read from
+     * @return The recording
+     * @throws IOException If the stream cannot be read or does not hold a valid recording
+     */
+    public static RaceRecording read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a race recording");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported race recording version " + version);
+        }
+        long seed = in.readLong();
+        long tickMillis = readVarint(in);
+        int trackLength = readBounded(in, Integer.MAX_VALUE);
+        int size = readBounded(in, MAX_FIELD_SIZE);
+        String[] names = new String[size];
+        char[] symbols = new char[size];
+        int[] lanes = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = in.readUTF();
+            symbols[i] = (char) readBounded(in, Character.MAX_VALUE);
+            lanes[i] = readBounded(in, Integer.MAX_VALUE);
+        }
+        int tickCount = readBounded(in, RaceKernel.MAX_RACE_ROUNDS);
+        int winner = readBounded(in, size) - 1;
+        int winnerTick = readBounded(in, tickCount);
+        int[] fallTicks = new int[size];
+        for (int i = 0; i < size; i++) {
+            fallTicks[i] = readBounded(in, tickCount);
+        }
+
+        int[] positions = new int[(tickCount + 1) * size];
+        RaceRecording recording = new RaceRecording(seed, tickMillis, trackLength, names, symbols, lanes,
+            tickCount, winner, winnerTick, fallTicks, positions);
+        for (int tick = 1; tick <= tickCount; tick++) {
+            int row = tick * size;
+            for (int i = 0; i < size; i++) {
+                int delta = 0;
+                if (recording.isRecorded(i, tick)) {
+                    delta = readBounded(in, Integer.MAX_VALUE - positions[row - size + i]);
+                }
+                positions[row + i] = positions[row - size + i] + delta;
+            }
+        }
+        return recording;
+    }
+
+    /**
+     * Check if a horse has an entry for a tick. A horse does not move on the
+     * tick it falls or after, so it is left out from then on.
+     */
+    private boolean isRecorded(int index, int tick) {
+        return fallTicks[index] == 0 || fallTicks[index] > tick;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a varint that has to lie between 0 and a limit
+     */
+    private static int readBounded(DataInputStream in, int max) throws IOException {
+        long value = readVarint(in);
+        if (value < 0 || value > max) {
+            throw new IOException("Corrupt race recording: " + value + " is out of range");
+        }
+        return (int) value;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in race recording");
+    }
+
+    /**
+     * Get the number of horses in the race
+     *
+     * @return The field size
+     */
+    public int getSize() {
+        return names.length;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getTrackLength() {
+        return trackLength;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public char getSymbol(int index) {
+        return symbols[index];
+    }
+
+    public int getLane(int index) {
+        return lanes[index];
+    }
+
+    /**
+     * Get the number of ticks the race lasted
+     *
+     * @return The tick count
+     */
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Get the index of the winner
+     *
+     * @return The winner's index, or -1 if the race had no winner
+     */
+    public int getWinnerIndex() {
+        return winner;
+    }
+
+    /**
+     * Get the tick the winner was decided on
+     *
+     * @return The tick, or 0 if the race had no winner
+     */
+    public int getWinnerTick() {
+        return winnerTick;
+    }
+
+    /**
+     * Get the tick a horse fell on
+     *
+     * @param index The horse's index
+     * @return The tick, or 0 if the horse did not fall
+     */
+    public int getFallTick(int index) {
+        return fallTicks[index];
+    }
+
+    /**
+     * Get how far a horse had travelled after a tick
+     *
+     * @param index The horse's index
+     * @param tick The tick, from 0 (the start) to getTickCount()
+     * @return The distance travelled
+     */
+    public double getDistance(int index, int tick) {
+        return positions[tick * names.length + index] / (double) DISTANCE_SCALE;
+    }
+
+    /**
+     * Get the simulated duration of the race
+     *
+     * @return The number of ticks times the tick length, in milliseconds
+     */
+    public long getRaceDuration() {
+        return tickCount * tickMillis;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof RaceRecording)) {
+            return false;
+        }
+        RaceRecording that = (RaceRecording) other;
+        return seed == that.seed && tickMillis == that.tickMillis && trackLength == that.trackLength
+            && tickCount == that.tickCount && winner == that.winner && winnerTick == that.winnerTick
+            && Arrays.equals(names, that.names) && Arrays.equals(symbols, that.symbols)
+            && Arrays.equals(lanes, that.lanes) && Arrays.equals(fallTicks, that.fallTicks)
+            && Arrays.equals(positions, that.positions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(seed) * 31 + Arrays.hashCode(positions);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RaceRecording[seed=%d, %d horses, %d ticks, winner=%s]",
+            seed, names.length, tickCount, winner >= 0 ? names[winner] : "none");
+    }
+}
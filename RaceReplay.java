@@ -0,0 +1,184 @@
+import java.awt.geom.Point2D;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Plays a RaceRecording back as a sequence of RaceSnapshots, the same
+ * snapshots a live race publishes, so anything that draws or analyses a live
+ * race (the GUI's track panel, a headless consumer) can be fed a replay.
+ *
+ * Every tick of the recording is already decoded, so any tick can be shown
+ * directly: seek() jumps anywhere, forwards or back, without replaying what
+ * comes before. A replay can be paced on a TickScheduler at a chosen speed,
+ * or run through as fast as the consumer can take it.
+ */
+public class RaceReplay {
+    private RaceRecording recording;    // The race being replayed
+    private Track track;                // Track used to work out positions, or null
+    private Horse[] horses;             // The horses shown in the snapshots
+    private volatile int position;      // The tick the next snapshot is for
+    private Point2D.Double point = new Point2D.Double(); // Reused when working out positions
+
+    /**
+     * Constructor for a replay drawn with stand-in horses made from the recording
+     *
+     * @param recording The recording to replay
+     * @param track The track to work out positions on (may be null)
+     */
+    public RaceReplay(RaceRecording recording, Track track) {
+        this(recording, track, null);
+    }
+
+    /**
+     * Constructor for a replay that shows live horses where they match the
+     * recording by name, so they keep their colours and details in the GUI
+     *
+     * @param recording The recording to replay
+     * @param track The track to work out positions on (may be null)
+     * @param field Horses to match against the recording (may be null)
+     */
+    public RaceReplay(RaceRecording recording, Track track, List<Horse> field) {
+        this.recording = recording;
+        this.track = track;
+        this.horses = new Horse[recording.getSize()];
+        for (int i = 0; i < horses.length; i++) {
+            horses[i] = findHorse(field, recording.getName(i));
+            if (horses[i] == null) {
+                horses[i] = new Horse(recording.getSymbol(i), recording.getName(i), 0.5);
+            }
+        }
+    }
+
+    private static Horse findHorse(List<Horse> field, String name) {
+        if (field != null) {
+            for (Horse horse : field) {
+                if (horse.getName().equals(name)) {
+                    return horse;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the snapshot of the race after a tick
+     *
+     * @param tick The tick, from 0 (the start) to the last tick
+     * @return The snapshot
+     */
+    public synchronized RaceSnapshot snapshotAt(int tick) {
+        int size = horses.length;
+        tick = Math.max(0, Math.min(tick, recording.getTickCount()));
+        int[] lanes = new int[size];
+        double[] distances = new double[size];
+        double[] x = new double[size];
+        double[] y = new double[size];
+        boolean[] fallen = new boolean[size];
+
+        for (int i = 0; i < size; i++) {
+            lanes[i] = recording.getLane(i);
+            distances[i] = recording.getDistance(i, tick);
+            int fallTick = recording.getFallTick(i);
+            fallen[i] = fallTick > 0 && fallTick <= tick;
+            if (track != null) {
+                track.calculatePosition(distances[i], lanes[i], point);
+                x[i] = point.x;
+                y[i] = point.y;
+            }
+        }
+
+        int winnerIndex = recording.getWinnerIndex();
+        Horse winner = winnerIndex >= 0 && tick >= recording.getWinnerTick() ? horses[winnerIndex] : null;
+        return new RaceSnapshot(tick, tick * recording.getTickMillis(), recording.getTrackLength(), horses,
+            lanes, distances, x, y, fallen, winner, tick == recording.getTickCount());
+    }
+
+    /**
+     * Move the replay to a tick. Works while the replay is playing.
+     *
+     * @param tick The tick to show next, from 0 to the last tick
+     * @return The snapshot at that tick
+     */
+    public RaceSnapshot seek(int tick) {
+        position = Math.max(0, Math.min(tick, recording.getTickCount()));
+        return snapshotAt(position);
+    }
+
+    /**
+     * Check if there are ticks left to show
+     *
+     * @return true until the last tick has been shown
+     */
+    public boolean hasNext() {
+        return position <= recording.getTickCount();
+    }
+
+    /**
+     * Get the snapshot at the current tick and move on to the next one
+     *
+     * @return The snapshot
+     */
+    public RaceSnapshot next() {
+        int tick = position;
+        position = tick + 1;
+        return snapshotAt(tick);
+    }
+
+    /**
+     * Run the rest of the replay through a consumer as fast as it can take it
+     *
+     * @param consumer Receives one snapshot per tick
+     */
+    public void replay(Consumer<RaceSnapshot> consumer) {
+        while (hasNext()) {
+            consumer.accept(next());
+        }
+    }
+
+    /**
+     * Play the rest of the replay on the shared TickScheduler, one snapshot
+     * every tick length of the recording divided by the speed multiplier
+     *
+     * @param consumer Receives one snapshot per tick, on the scheduler thread
+     * @param speedMultiplier How much faster than the original race to play, from 0.25x to 100x
+     * @return A handle for changing the speed or stopping playback
+     */
+    public TickScheduler.PacedRace play(Consumer<RaceSnapshot> consumer, double speedMultiplier) {
+        return play(TickScheduler.getInstance(), consumer, speedMultiplier, () -> { });
+    }
+
+    /**
+     * Play the rest of the replay on a TickScheduler
+     *
+     * @param scheduler The scheduler to pace the replay
+     * @param consumer Receives one snapshot per tick, on the scheduler thread
+     * @param speedMultiplier How much faster than the original race to play
+     * @param onFinished Run once the last snapshot has been delivered
+     * @return A handle for changing the speed or stopping playback
+     */
+    public TickScheduler.PacedRace play(TickScheduler scheduler, Consumer<RaceSnapshot> consumer,
+                                        double speedMultiplier, Runnable onFinished) {
+        // The scheduler counts in its own tick length, which may not be the recording's
+        double scale = (double) scheduler.getTickMillis() / Math.max(1, recording.getTickMillis());
+        return scheduler.schedule(() -> {
+            if (!hasNext()) {
+                return false;
+            }
+            consumer.accept(next());
+            return true;
+        }, onFinished, speedMultiplier * scale);
+    }
+
+    /**
+     * Get the tick the next snapshot is for
+     *
+     * @return The current tick
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public RaceRecording getRecording() {
+        return recording;
+    }
+}
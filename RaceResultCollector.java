@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Race sink that quietly collects what happened in a race: the order horses
+ * fell in, the winner, the finishing order and the number of ticks.
+ * Useful for running races without a console or GUI and inspecting them afterwards.
+ */
+public class RaceResultCollector implements RaceSink {
+    private List<Horse> fallen = new ArrayList<>();         // Horses in the order they fell
+    private List<Horse> finishingOrder = new ArrayList<>(); // Final order of the field
+    private Horse winner;                                   // The winning horse
+    private int ticks;                                      // Ticks the race lasted
+    private long seed;                                      // Seed the race was run with
+
+    @Override
+    public void onRaceStart(RaceEngine race) {
+        fallen.clear();
+        finishingOrder.clear();
+        winner = null;
+        ticks = 0;
+        seed = race.getSeed();
+    }
+
+    @Override
+    public void onHorseFallen(RaceEngine race, Horse horse) {
+        fallen.add(horse);
+    }
+
+    @Override
+    public void onRaceEnd(RaceEngine race, Horse winner) {
+        this.winner = winner;
+        this.ticks = race.getTick();
+        finishingOrder.addAll(race.getFinishingOrder());
+    }
+
+    /**
+     * Get the horses that fell, in the order they fell
+     *
+     * @return The fallen horses
+     */
+    public List<Horse> getFallen() {
+        return new ArrayList<>(fallen);
+    }
+
+    /**
+     * Get the finishing order of the race
+     *
+     * @return The horses in finishing order
+     */
+    public List<Horse> getFinishingOrder() {
+        return new ArrayList<>(finishingOrder);
+    }
+
+    /**
+     * Get the winner of the race
+     *
+     * @return The winning horse, or null if the race was stopped
+     */
+    public Horse getWinner() {
+        return winner;
+    }
+
+    /**
+     * Get the number of ticks the race lasted
+     *
+     * @return The tick count
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Get the seed the race was run with
+     *
+     * @return The race seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+}
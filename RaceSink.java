@@ -0,0 +1,52 @@
+/**
+ * Receives the events of a race run by a RaceEngine.
+ * Sinks turn the shared race loop into output: the console renderer used by
+ * Race, the bridge to RaceManager's Swing listeners, or a headless collector.
+ * Every method has an empty default so a sink only implements what it needs.
+ */
+public interface RaceSink {
+    /**
+     * Called when the race starts, after the horses are back at the start
+     *
+     * @param race The engine running the race
+     */
+    default void onRaceStart(RaceEngine race) {
+    }
+
+    /**
+     * Called after every tick, once the horses' state has been updated
+     *
+     * @param race The engine running the race
+     */
+    default void onTick(RaceEngine race) {
+    }
+
+    /**
+     * Called when a horse falls
+     *
+     * @param race The engine running the race
+     * @param horse The horse that fell
+     */
+    default void onHorseFallen(RaceEngine race, Horse horse) {
+    }
+
+    /**
+     * Called once, when the winner is decided. If nobody reaches the line
+     * (every horse fell, or the round limit was hit) the horse that travelled
+     * furthest is the winner and is reported here too, as RaceManager always did.
+     *
+     * @param race The engine running the race
+     * @param horse The winning horse
+     */
+    default void onRaceWinner(RaceEngine race, Horse horse) {
+    }
+
+    /**
+     * Called when the race ends
+     *
+     * @param race The engine running the race
+     * @param winner The winning horse (may be null if the race was stopped)
+     */
+    default void onRaceEnd(RaceEngine race, Horse winner) {
+    }
+}
@@ -0,0 +1,164 @@
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * An immutable picture of a race at the end of one tick: where every horse
+ * is, which have fallen, how far through the race they are, the tick number
+ * and the winner once there is one.
+ *
+ * RaceManager builds a new snapshot after every tick and publishes it with a
+ * single volatile write, so readers on other threads (the GUI, the betting
+ * panel) always see one whole tick, never a half-updated field, without
+ * taking locks or copying the horse list.
+ */
+public final class RaceSnapshot {
+    private final int tick;             // Ticks run when the snapshot was taken
+    private final long raceTime;        // Simulated time when the snapshot was taken, in milliseconds
+    private final int trackLength;      // Length of the track
+    private final Horse[] horses;       // The horses, in lane assignment order
+    private final int[] lanes;          // Lane of each horse
+    private final double[] distances;   // Distance travelled by each horse
+    private final double[] x;           // Track x coordinate of each horse
+    private final double[] y;           // Track y coordinate of each horse
+    private final boolean[] fallen;     // Whether each horse has fallen
+    private final Horse winner;         // The winner, or null while undecided
+    private final boolean finished;     // Whether the race is over
+
+    RaceSnapshot(int tick, long raceTime, int trackLength, Horse[] horses, int[] lanes, double[] distances,
+                 double[] x, double[] y, boolean[] fallen, Horse winner, boolean finished) {
+        this.tick = tick;
+        this.raceTime = raceTime;
+        this.trackLength = trackLength;
+        this.horses = horses;
+        this.lanes = lanes;
+        this.distances = distances;
+        this.x = x;
+        this.y = y;
+        this.fallen = fallen;
+        this.winner = winner;
+        this.finished = finished;
+    }
+
+    /**
+     * Take a snapshot of a field from the horses' own state, for when no race is running
+     *
+     * @param track The track the horses are on
+     * @param horseList The horses
+     * @param laneList The lane of each horse
+     * @param winner The winner of the last race, or null
+     * @return The snapshot
+     */
+    public static RaceSnapshot of(Track track, List<Horse> horseList, List<Integer> laneList, Horse winner) {
+        int size = horseList.size();
+        Horse[] horses = horseList.toArray(new Horse[size]);
+        int[] lanes = new int[size];
+        double[] distances = new double[size];
+        double[] x = new double[size];
+        double[] y = new double[size];
+        boolean[] fallen = new boolean[size];
+        Point2D.Double position = new Point2D.Double();
+
+        for (int i = 0; i < size; i++) {
+            lanes[i] = laneList.get(i);
+            distances[i] = horses[i].getDistanceTravelled();
+            fallen[i] = horses[i].hasFallen();
+            track.calculatePosition(distances[i], lanes[i], position);
+            x[i] = position.x;
+            y[i] = position.y;
+        }
+        return new RaceSnapshot(0, 0, track.getLength(), horses, lanes, distances, x, y, fallen, winner, winner != null);
+    }
+
+    /**
+     * Get the number of horses in the snapshot
+     *
+     * @return The field size
+     */
+    public int getSize() {
+        return horses.length;
+    }
+
+    /**
+     * Get the position of a horse in the snapshot
+     *
+     * @param horse The horse
+     * @return Its index, or -1 if it is not in the race
+     */
+    public int indexOf(Horse horse) {
+        for (int i = 0; i < horses.length; i++) {
+            if (horses[i] == horse) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Horse getHorse(int index) {
+        return horses[index];
+    }
+
+    public int getLane(int index) {
+        return lanes[index];
+    }
+
+    public double getDistance(int index) {
+        return distances[index];
+    }
+
+    /**
+     * Get how far through the race a horse is
+     *
+     * @param index The horse's index
+     * @return Distance travelled as a fraction of the track length (1.0 or more once finished)
+     */
+    public double getProgress(int index) {
+        return trackLength > 0 ? distances[index] / trackLength : 0;
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public boolean hasFallen(int index) {
+        return fallen[index];
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the simulated time of the snapshot
+     *
+     * @return Milliseconds of race time since the start
+     */
+    public long getRaceTime() {
+        return raceTime;
+    }
+
+    public int getTrackLength() {
+        return trackLength;
+    }
+
+    /**
+     * Get the winner
+     *
+     * @return The winning horse, or null while the race is undecided
+     */
+    public Horse getWinner() {
+        return winner;
+    }
+
+    /**
+     * Check if the snapshot was taken after the race ended
+     *
+     * @return true if the race is over
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
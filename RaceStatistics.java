@@ -16,9 +16,10 @@ public class RaceStatistics {
     private String trackName;                   // Name of the track
     private TrackCondition trackCondition;      // Track condition during the race
     private int trackLength;                    // Length of the track
-    private long raceDuration;                  // Total duration of the race in milliseconds
+    private long raceDuration;                  // Simulated duration of the race in milliseconds
     private Map<Horse, HorsePerformance> performances; // Performance of each horse in this race
     private Horse winner;                        // The winning horse
+    private long seed;                           // Seed of the random stream the race was run with
     
     /**
      * Constructor for RaceStatistics
@@ -53,6 +54,25 @@ public class RaceStatistics {
         return raceDuration;
     }
     
+    /**
+     * Set the seed of the random stream the race was run with
+     * 
+     * @param seed The race seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Get the seed of the random stream the race was run with.
+     * Passing it to RaceManager.setSeed or Race.setSeed replays the race.
+     * 
+     * @return The race seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+    
     /**
      * Set the winning horse
      * 
@@ -12,6 +12,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.File;
 import javax.swing.table.DefaultTableModel;
 import java.text.DecimalFormat;
@@ -39,6 +41,15 @@ public class RacingGUI extends JFrame {
     private JPanel horsePanel;          // Panel for managing horses
     
     private Map<Horse, Color> horseColors; // Colors for each horse
+    private volatile RaceSnapshot replaySnapshot; // Frame of the replay being shown, or null to show the live race
+    private TickScheduler.PacedRace replayPlayback; // The replay being played, if any
+    
+    // Opens and settles betting books off the event dispatch thread, one at a time and in order
+    private static final ExecutorService BOOK_PRICING = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "betting-book");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     /**
      * Get the race manager
@@ -64,13 +75,14 @@ public class RacingGUI extends JFrame {
             @Override
             public void onRaceStart() {
                 SwingUtilities.invokeLater(() -> {
+                    stopReplay();
                     startButton.setEnabled(false);
                     resetButton.setEnabled(true);
                     trackTypeCombo.setEnabled(false);
                     lanesSlider.setEnabled(false);
                     lengthSlider.setEnabled(false);
                     conditionCombo.setEnabled(false);
-                    BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+                    openBettingBook(true);
                 });
             }
             
@@ -86,19 +98,21 @@ public class RacingGUI extends JFrame {
                         horse.getName() + " is the winner!", 
                         "Race Finished", 
                         JOptionPane.INFORMATION_MESSAGE);
-                    try {
-                        BettingService.getInstance().settleRace(horse);
-                    } catch (Exception ex) {
-                        System.err.println("Error settling race: " + ex.getMessage());
-                    }
+                    // Behind the book, so the race is never settled before it is opened
+                    BOOK_PRICING.execute(() -> {
+                        try {
+                            BettingService.getInstance().settleRace(horse);
+                        } catch (Exception ex) {
+                            System.err.println("Error settling race: " + ex.getMessage());
+                        }
+                    });
                 });
             }
             
             @Override
             public void onRaceUpdate() {
-                SwingUtilities.invokeLater(() -> {
-                    trackPanel.repaint();
-                });
+                // repaint() is thread-safe and Swing merges pending repaints into one
+                trackPanel.repaint();
             }
             
             @Override
@@ -113,7 +127,7 @@ public class RacingGUI extends JFrame {
                     
                     // Update horse panel to show new confidence values
                     if (winner == null) {
-                        BettingService.getInstance().endRace();
+                        BOOK_PRICING.execute(() -> BettingService.getInstance().endRace());
                     }
                     updateHorsePanel();
                     // Record race statistics
@@ -123,7 +137,7 @@ public class RacingGUI extends JFrame {
                     raceManager.resetRaceState();
                     // Update betting service with current horses and track
                     if (!raceManager.isRaceInProgress()) {
-                        BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+                        openBettingBook(false);
                     }
                 });
             }
@@ -143,7 +157,31 @@ public class RacingGUI extends JFrame {
         }
         setVisible(true);
     }
-    
+
+    /**
+     * Open the betting book for the current field and track. Pricing the
+     * field takes a while, so it runs on its own thread; books are opened
+     * in the order they were asked for.
+     *
+     * @param inRunning Whether to price the race in running once its book is open
+     */
+    private void openBettingBook(boolean inRunning) {
+        List<Horse> horses = new ArrayList<>(raceManager.getHorses());
+        Track track = raceManager.getTrack();
+        BOOK_PRICING.execute(() -> {
+            BettingService bettingService = BettingService.getInstance();
+            try {
+                bettingService.startRace(horses, track);
+            } catch (RuntimeException e) {
+                System.err.println("Error opening betting book: " + e.getMessage());
+            }
+            // Only after the book is open, so the pre-race odds never replace in-running ones
+            if (inRunning && raceManager.isRaceInProgress()) {
+                bettingService.startInRunningOdds(raceManager);
+            }
+        });
+    }
+
     private void setupUI() {
         // Create menu bar
         JMenuBar menuBar = new JMenuBar();
@@ -773,6 +811,7 @@ public class RacingGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 raceManager.stopRace();
+                stopReplay();
                 for (Horse horse : raceManager.getHorses()) {
                     horse.goBackToStart();
                 }
@@ -788,14 +827,18 @@ public class RacingGUI extends JFrame {
                 raceManager.resetRaceState();
                 // Update betting service with current horses and track
                 if (!raceManager.isRaceInProgress()) {
-                    BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+                    openBettingBook(false);
                 }
             }
         });
         
+        JButton replayButton = new JButton("Replay");
+        replayButton.addActionListener(e -> replayLastRace());
+        
         raceControlPanel.add(startButton);
         raceControlPanel.add(resetButton);
         raceControlPanel.add(addHorseButton);
+        raceControlPanel.add(replayButton);
         
         controlPanel.add(raceControlPanel);
         
@@ -818,6 +861,39 @@ public class RacingGUI extends JFrame {
         updateTrack();
     }
     
+    /**
+     * Play the last race back on the track panel at four times its original speed
+     */
+    private void replayLastRace() {
+        if (raceManager.isRaceInProgress()) {
+            return;
+        }
+        RaceRecording recording = raceManager.getLastRecording();
+        if (recording == null) {
+            JOptionPane.showMessageDialog(this, "There is no race to replay yet.",
+                "Replay", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        stopReplay();
+        RaceReplay replay = new RaceReplay(recording, raceManager.getTrack(), raceManager.getHorses());
+        replayPlayback = replay.play(frame -> {
+            replaySnapshot = frame;
+            trackPanel.repaint();
+        }, 4.0);
+    }
+    
+    /**
+     * Stop any replay and go back to showing the live race
+     */
+    private void stopReplay() {
+        if (replayPlayback != null) {
+            replayPlayback.cancel();
+            replayPlayback = null;
+        }
+        replaySnapshot = null;
+        trackPanel.repaint();
+    }
+    
     /**
      * Update the track based on current settings
      */
@@ -846,7 +922,7 @@ public class RacingGUI extends JFrame {
         
         // Update the betting service with the new track
         if (!raceManager.isRaceInProgress()) {
-            BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+            openBettingBook(false);
         }
     }
     
@@ -931,7 +1007,7 @@ public class RacingGUI extends JFrame {
                 updateHorsePanel();
                 // Update the betting service with the new horse
                 if (!raceManager.isRaceInProgress()) {
-                    BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+                    openBettingBook(false);
                 }
             } else {
                 JOptionPane.showMessageDialog(this, 
@@ -1057,7 +1133,7 @@ public class RacingGUI extends JFrame {
             
             // Update the betting service after editing a horse
             if (!raceManager.isRaceInProgress()) {
-                BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+                openBettingBook(false);
             }
         }
     }
@@ -1082,7 +1158,7 @@ public class RacingGUI extends JFrame {
         
         // Update the betting service after removing a horse
         if (!raceManager.isRaceInProgress()) {
-            BettingService.getInstance().startRace(raceManager.getHorses(), raceManager.getTrack());
+            openBettingBook(false);
         }
     }
     
@@ -1137,6 +1213,7 @@ public class RacingGUI extends JFrame {
      * The panel that displays the race track and horses
      */
     private class RaceTrackPanel extends JPanel {
+        private Point2D.Double position = new Point2D.Double(); // Reused for every horse drawn
         
         public RaceTrackPanel() {
             setBackground(new Color(230, 230, 230));
@@ -1243,14 +1320,16 @@ public class RacingGUI extends JFrame {
             g2d.setColor(Color.BLACK);
             g2d.drawString(conditionText, 10, 20);
             
-            // Draw the horses
-            for (Horse horse : raceManager.getHorses()) {
-                int lane = raceManager.getLane(horse);
-                Point2D.Double position;
+            // Draw the horses from the latest snapshot, which is never half way through a tick,
+            // or from the replay frame while a replay is showing
+            RaceSnapshot snapshot = replaySnapshot != null ? replaySnapshot : raceManager.getSnapshot();
+            for (int i = 0; i < snapshot.getSize(); i++) {
+                Horse horse = snapshot.getHorse(i);
+                int lane = snapshot.getLane(i);
                 
                 // Calculate position based on track type
                 if (track instanceof OvalTrack) {
-                    double angle = (horse.getDistanceTravelled() / track.getLength()) * 2 * Math.PI;
+                    double angle = snapshot.getProgress(i) * 2 * Math.PI;
                     int ovalWidth = (int)(trackWidth * scale * 0.8);
                     int ovalHeight = (int)(trackHeight * scale * 0.8);
                     int centerX = getWidth() / 2;
@@ -1259,9 +1338,9 @@ public class RacingGUI extends JFrame {
                     
                     int x = centerX + (int)((ovalWidth/2 + radius) * Math.cos(angle - Math.PI/2));
                     int y = centerY + (int)((ovalHeight/2 + radius) * Math.sin(angle - Math.PI/2));
-                    position = new Point2D.Double(x, y);
+                    position.setLocation(x, y);
                 } else if (track instanceof FigureEightTrack) {
-                    double t = (horse.getDistanceTravelled() / track.getLength()) * 2 * Math.PI;
+                    double t = snapshot.getProgress(i) * 2 * Math.PI;
                     int centerX = getWidth() / 2;
                     int centerY = getHeight() / 2;
                     int radius = (int)(Math.min(getWidth(), getHeight()) * 0.3);
@@ -1269,7 +1348,7 @@ public class RacingGUI extends JFrame {
                     
                     int x = centerX + (int)((radius + laneOffset) * Math.sin(t));
                     int y = centerY + (int)((radius/2 + laneOffset) * Math.sin(2 * t));
-                    position = new Point2D.Double(x, y);
+                    position.setLocation(x, y);
                 } else if (track instanceof ZigzagTrack) {
                     int startX = getWidth() / 5;
                     int endX = getWidth() * 4 / 5;
@@ -1277,7 +1356,7 @@ public class RacingGUI extends JFrame {
                     int bottomY = getHeight() * 4 / 5;
                     int segments = 6;
                     int segmentWidth = (endX - startX) / segments;
-                    double progress = horse.getDistanceTravelled() / track.getLength();
+                    double progress = snapshot.getProgress(i);
                     int segment = (int)(progress * segments);
                     double segmentProgress = (progress * segments) - segment;
                     
@@ -1289,11 +1368,10 @@ public class RacingGUI extends JFrame {
                         x = startX + segment * segmentWidth + (int)(segmentProgress * segmentWidth);
                         y = bottomY - (int)(segmentProgress * (bottomY - topY)) + lane * 10;
                     }
-                    position = new Point2D.Double(x, y);
+                    position.setLocation(x, y);
                 } else {
-                    position = track.calculatePosition(horse.getDistanceTravelled(), lane);
-                    position.x = position.x * scale + offsetX;
-                    position.y = position.y * scale + offsetY;
+                    position.x = snapshot.getX(i) * scale + offsetX;
+                    position.y = snapshot.getY(i) * scale + offsetY;
                 }
                 
                 int x = (int) position.x;
@@ -1301,7 +1379,7 @@ public class RacingGUI extends JFrame {
                 
                 // Draw a colored circle for the horse
                 g2d.setColor(horseColors.get(horse));
-                if (horse.hasFallen()) {
+                if (snapshot.hasFallen(i)) {
                     // Draw an X for fallen horses
                     g2d.setStroke(new BasicStroke(3));
                     g2d.drawLine(x - 10, y - 10, x + 10, y + 10);
@@ -1328,7 +1406,7 @@ public class RacingGUI extends JFrame {
                 
                 // Draw breed and progress below the horse
                 String breedText = horse.getBreed().getName();
-                String progressText = String.format("%.0f%%", (horse.getDistanceTravelled() / track.getLength()) * 100);
+                String progressText = String.format("%.0f%%", snapshot.getProgress(i) * 100);
                 String infoText = breedText + " - " + progressText;
                 textX = x - (fm.stringWidth(infoText) / 2);
                 textY = y + 30;
@@ -1347,8 +1425,8 @@ public class RacingGUI extends JFrame {
             }
             
             // Draw the winner declaration if a race has finished
-            Horse winner = raceManager.getWinner();
-            if (winner != null && !raceManager.isRaceInProgress()) {
+            Horse winner = snapshot.getWinner();
+            if (winner != null && snapshot.isFinished()) {
                 g2d.setColor(new Color(0, 100, 0));
                 g2d.setFont(new Font("Arial", Font.BOLD, 20));
                 String winnerText = winner.getName() + " (" + winner.getBreed().getName() + ") wins!";
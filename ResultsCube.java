@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The results of a scenario sweep: one simulated outcome distribution per
+ * grid cell, for every horse in the field. Cells are filled in as the sweep
+ * finishes them, so a cube can be read while the sweep is still running;
+ * cells not finished yet are simply left out of every answer.
+ *
+ * A cube can be sliced along any dimension, giving a smaller cube that
+ * shares the same results, and averaged along any dimension to see how each
+ * horse does in every condition, on every shape or at every length.
+ */
+public class ResultsCube {
+
+    /**
+     * The dimensions a cube can be sliced along
+     */
+    public enum Dimension {
+        CONDITION,
+        SHAPE,
+        LENGTH,
+        HORSE
+    }
+
+    private ScenarioGrid grid;
+    private List<Horse> field;
+    private AtomicReferenceArray<MonteCarloOddsEngine.SimulationResult> results; // Indexed by cell, shared by slices
+    private int[][] selected; // Grid positions in this slice, per dimension
+
+    /**
+     * Constructor for an empty cube covering a whole grid
+     *
+     * @param grid The grid swept
+     * @param field The horses raced in every cell
+     */
+    public ResultsCube(ScenarioGrid grid, List<Horse> field) {
+        this.grid = grid;
+        this.field = Collections.unmodifiableList(new ArrayList<>(field));
+        this.results = new AtomicReferenceArray<>(grid.getCellCount());
+        this.selected = new int[][] {
+            range(grid.getConditions().size()),
+            range(grid.getShapes().size()),
+            range(grid.getLengths().size()),
+            range(field.size())
+        };
+    }
+
+    private ResultsCube(ResultsCube source, int[][] selected) {
+        this.grid = source.grid;
+        this.field = source.field;
+        this.results = source.results;
+        this.selected = selected;
+    }
+
+    private static int[] range(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * Store the result of a cell
+     *
+     * @param cell The cell number in the grid
+     * @param result The simulated outcome distribution
+     */
+    void put(int cell, MonteCarloOddsEngine.SimulationResult result) {
+        results.set(cell, result);
+    }
+
+    /**
+     * Get the result of a cell
+     *
+     * @param cell The cell number in the grid
+     * @return The result, or null if the cell has not been simulated yet
+     */
+    public MonteCarloOddsEngine.SimulationResult getResult(int cell) {
+        return results.get(cell);
+    }
+
+    /**
+     * Get the result for a combination of grid values
+     *
+     * @param condition The track condition
+     * @param shape The track shape
+     * @param length The track length
+     * @return The result, or null if the grid does not have those values or the cell is not finished
+     */
+    public MonteCarloOddsEngine.SimulationResult getResult(TrackCondition condition, ScenarioGrid.TrackShape shape,
+                                                           int length) {
+        int c = grid.getConditions().indexOf(condition);
+        int s = grid.getShapes().indexOf(shape);
+        int l = grid.getLengths().indexOf(length);
+        if (c < 0 || s < 0 || l < 0) {
+            return null;
+        }
+        return results.get(grid.cellIndex(c, s, l));
+    }
+
+    /**
+     * Keep only some values of one dimension
+     *
+     * @param dimension The dimension to slice
+     * @param values The values to keep: TrackCondition, ScenarioGrid.TrackShape, Integer length or Horse
+     * @return A cube of the matching results, sharing this cube's storage
+     */
+    public ResultsCube slice(Dimension dimension, Object... values) {
+        List<?> all = valuesOf(dimension, false);
+        List<Integer> kept = new ArrayList<>();
+        for (Object value : values) {
+            int position = all.indexOf(value);
+            if (position < 0) {
+                throw new IllegalArgumentException(value + " is not a " + dimension + " of this sweep");
+            }
+            kept.add(position);
+        }
+        int[][] narrowed = selected.clone();
+        narrowed[dimension.ordinal()] = kept.stream().mapToInt(Integer::intValue).toArray();
+        return new ResultsCube(this, narrowed);
+    }
+
+    /**
+     * Get the values of a dimension in this slice
+     *
+     * @param dimension The dimension
+     * @return The values, in grid order
+     */
+    public List<?> getValues(Dimension dimension) {
+        return valuesOf(dimension, true);
+    }
+
+    private List<?> valuesOf(Dimension dimension, boolean sliceOnly) {
+        List<?> all;
+        switch (dimension) {
+            case CONDITION:
+                all = grid.getConditions();
+                break;
+            case SHAPE:
+                all = grid.getShapes();
+                break;
+            case LENGTH:
+                all = grid.getLengths();
+                break;
+            default:
+                all = field;
+                break;
+        }
+        if (!sliceOnly) {
+            return all;
+        }
+        List<Object> values = new ArrayList<>();
+        for (int position : selected[dimension.ordinal()]) {
+            values.add(all.get(position));
+        }
+        return values;
+    }
+
+    /**
+     * Get the number of cells in this slice that have results
+     *
+     * @return The finished cell count
+     */
+    public int getCompletedCells() {
+        int completed = 0;
+        for (int cell : cells()) {
+            if (results.get(cell) != null) {
+                completed++;
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Get the number of cells in this slice
+     *
+     * @return The cell count
+     */
+    public int getCellCount() {
+        return selected[0].length * selected[1].length * selected[2].length;
+    }
+
+    /**
+     * Get the grid cell numbers in this slice
+     */
+    private List<Integer> cells() {
+        List<Integer> cells = new ArrayList<>();
+        for (int c : selected[0]) {
+            for (int s : selected[1]) {
+                for (int l : selected[2]) {
+                    cells.add(grid.cellIndex(c, s, l));
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Average each horse's win chance over the finished cells of this slice
+     *
+     * @return The average win chance of every horse in the slice
+     */
+    public Map<Horse, Double> averageWin() {
+        Map<Horse, Double> averages = new LinkedHashMap<>();
+        List<Integer> cells = cells();
+        for (int h : selected[3]) {
+            Horse horse = field.get(h);
+            double total = 0;
+            int count = 0;
+            for (int cell : cells) {
+                MonteCarloOddsEngine.SimulationResult result = results.get(cell);
+                if (result != null) {
+                    total += result.getWin(horse).getProbability();
+                    count++;
+                }
+            }
+            averages.put(horse, count == 0 ? 0.0 : total / count);
+        }
+        return averages;
+    }
+
+    /**
+     * Average each horse's win chance for every value of a dimension, over
+     * the rest of the slice: for example every horse's chance in each condition
+     *
+     * @param dimension The dimension to break the averages down by
+     * @return The averages for each value of the dimension, in grid order
+     */
+    public Map<Object, Map<Horse, Double>> averageWinBy(Dimension dimension) {
+        Map<Object, Map<Horse, Double>> breakdown = new LinkedHashMap<>();
+        for (Object value : getValues(dimension)) {
+            breakdown.put(value, slice(dimension, value).averageWin());
+        }
+        return breakdown;
+    }
+
+    /**
+     * Write the finished cells of this slice as CSV, one row per cell and horse
+     *
+     * @param writer Where to write the rows
+     * @throws IOException If the rows cannot be written
+     */
+    public void exportCsv(Writer writer) throws IOException {
+        writer.write("condition,shape,length,horse,simulations,win,win_lower,win_upper,place,show\n");
+        for (int c : selected[0]) {
+            for (int s : selected[1]) {
+                for (int l : selected[2]) {
+                    MonteCarloOddsEngine.SimulationResult result = results.get(grid.cellIndex(c, s, l));
+                    if (result == null) {
+                        continue;
+                    }
+                    for (int h : selected[3]) {
+                        Horse horse = field.get(h);
+                        MonteCarloOddsEngine.Estimate win = result.getWin(horse);
+                        writer.write(String.format("%s,%s,%d,%s,%d,%.6f,%.6f,%.6f,%.6f,%.6f\n",
+                            csv(grid.getConditions().get(c).getName()), csv(grid.getShapes().get(s).name()),
+                            grid.getLengths().get(l), csv(horse.getName()), result.getSimulations(),
+                            win.getProbability(), win.getLower(), win.getUpper(),
+                            result.getPlace(horse).getProbability(), result.getShow(horse).getProbability()));
+                    }
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write the finished cells of this slice to a CSV file
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void exportCsv(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            exportCsv(writer);
+        }
+    }
+
+    /**
+     * Quote a CSV field if it needs it
+     */
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public ScenarioGrid getGrid() {
+        return grid;
+    }
+
+    public List<Horse> getField() {
+        return field;
+    }
+}
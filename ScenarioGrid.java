@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parameter grid of a scenario sweep: every combination of track
+ * condition, track shape and track length is one cell. Cells are numbered
+ * condition first, then shape, then length, so the length varies fastest.
+ */
+public class ScenarioGrid {
+
+    /**
+     * The track shapes a sweep can race on
+     */
+    public enum TrackShape {
+        OVAL("Oval Track"),
+        FIGURE_EIGHT("Figure-Eight Track"),
+        ZIGZAG("Zigzag Track");
+
+        private String trackName;
+
+        TrackShape(String trackName) {
+            this.trackName = trackName;
+        }
+
+        /**
+         * Build a track of this shape
+         *
+         * @param length The track length
+         * @param lanes The number of lanes
+         * @param condition The track condition
+         * @return The new track
+         */
+        public Track createTrack(int length, int lanes, TrackCondition condition) {
+            switch (this) {
+                case FIGURE_EIGHT:
+                    return TrackTypes.figureEight(trackName, length, lanes, condition);
+                case ZIGZAG:
+                    return TrackTypes.zigzag(trackName, length, lanes, condition);
+                default:
+                    return TrackTypes.oval(trackName, length, lanes, condition);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return trackName;
+        }
+    }
+
+    private List<TrackCondition> conditions; // Conditions to race in
+    private List<TrackShape> shapes;         // Track shapes to race on
+    private List<Integer> lengths;           // Track lengths to race over
+
+    /**
+     * Constructor for a grid of chosen values
+     *
+     * @param conditions The track conditions
+     * @param shapes The track shapes
+     * @param lengths The track lengths
+     */
+    public ScenarioGrid(List<TrackCondition> conditions, List<TrackShape> shapes, List<Integer> lengths) {
+        if (conditions.isEmpty() || shapes.isEmpty() || lengths.isEmpty()) {
+            throw new IllegalArgumentException("Every dimension of a scenario grid needs at least one value");
+        }
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.shapes = Collections.unmodifiableList(new ArrayList<>(shapes));
+        this.lengths = Collections.unmodifiableList(new ArrayList<>(lengths));
+    }
+
+    /**
+     * Build the grid of every standard condition and every track shape at the given lengths
+     *
+     * @param lengths The track lengths
+     * @return The grid
+     */
+    public static ScenarioGrid allConditionsAndShapes(Integer... lengths) {
+        return new ScenarioGrid(
+            Arrays.asList(TrackCondition.DRY, TrackCondition.MUDDY, TrackCondition.ICY, TrackCondition.WET,
+                TrackCondition.WINDY),
+            Arrays.asList(TrackShape.values()),
+            Arrays.asList(lengths));
+    }
+
+    public List<TrackCondition> getConditions() {
+        return conditions;
+    }
+
+    public List<TrackShape> getShapes() {
+        return shapes;
+    }
+
+    public List<Integer> getLengths() {
+        return lengths;
+    }
+
+    /**
+     * Get the number of cells in the grid
+     *
+     * @return The cell count
+     */
+    public int getCellCount() {
+        return conditions.size() * shapes.size() * lengths.size();
+    }
+
+    /**
+     * Get the number of a cell
+     *
+     * @param condition The condition's position in getConditions()
+     * @param shape The shape's position in getShapes()
+     * @param length The length's position in getLengths()
+     * @return The cell number
+     */
+    public int cellIndex(int condition, int shape, int length) {
+        return (condition * shapes.size() + shape) * lengths.size() + length;
+    }
+
+    public int conditionOf(int cell) {
+        return cell / (shapes.size() * lengths.size());
+    }
+
+    public int shapeOf(int cell) {
+        return cell / lengths.size() % shapes.size();
+    }
+
+    public int lengthOf(int cell) {
+        return cell % lengths.size();
+    }
+
+    /**
+     * Build the track of a cell
+     *
+     * @param cell The cell number
+     * @param lanes The number of lanes the field needs
+     * @return The track
+     */
+    public Track createTrack(int cell, int lanes) {
+        return shapes.get(shapeOf(cell)).createTrack(lengths.get(lengthOf(cell)), lanes,
+            conditions.get(conditionOf(cell)));
+    }
+
+    /**
+     * Describe a cell
+     *
+     * @param cell The cell number
+     * @return The condition, shape and length of the cell
+     */
+    public String describe(int cell) {
+        return conditions.get(conditionOf(cell)).getName() + ", " + shapes.get(shapeOf(cell)) + ", "
+            + lengths.get(lengthOf(cell));
+    }
+}
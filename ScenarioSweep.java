@@ -0,0 +1,300 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Races a field headless in every cell of a ScenarioGrid (every track
+ * condition, shape and length asked for) and collects the outcome
+ * distributions in a ResultsCube, for planning race cards.
+ *
+ * Cells are handed to a ForkJoin pool all at once and the simulations of
+ * each cell are split across the pool as well, so a sweep keeps every core
+ * busy. Results go into the cube as each cell finishes, listeners hear about
+ * every finished cell, and a sweep can be cancelled at any point: cells not
+ * yet started are skipped, and a cell already being simulated is finished.
+ *
+ * The field is copied when the sweep starts, so horses changing during the
+ * sweep (after a race, say) do not change its results. Every cell gets its
+ * own seed derived from the sweep's seed, so a sweep can be repeated exactly.
+ */
+public class ScenarioSweep {
+    public static final int DEFAULT_SIMULATIONS = 5000; // Races simulated in each cell
+
+    /**
+     * Interface for anything that follows a sweep's progress
+     */
+    public interface SweepListener {
+        /**
+         * Called when a cell has been simulated, on the thread that simulated it
+         *
+         * @param sweep The sweep
+         * @param cell The cell number in the grid
+         * @param result The cell's outcome distribution
+         */
+        void onCellCompleted(ScenarioSweep sweep, int cell, MonteCarloOddsEngine.SimulationResult result);
+
+        /**
+         * Called once when the sweep has finished or been cancelled
+         *
+         * @param sweep The sweep
+         * @param cancelled true if the sweep was cancelled before every cell was simulated
+         */
+        void onSweepFinished(ScenarioSweep sweep, boolean cancelled);
+    }
+
+    private List<Horse> field;            // The horses being swept
+    private ScenarioGrid grid;            // The cells to race in
+    private ForkJoinPool pool;            // Pool the cells and their simulations run on
+    private MonteCarloOddsEngine engine;  // Simulates each cell
+    private int simulationsPerCell = DEFAULT_SIMULATIONS;
+    private long seed = RaceRandom.randomSeed(); // Seed every cell's seed is derived from
+    private List<SweepListener> listeners = new CopyOnWriteArrayList<>();
+
+    // State of the running sweep
+    private ResultsCube cube;
+    private List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    private AtomicBoolean[] claimed;                       // Whether each cell has been run or cancelled
+    private AtomicInteger completed = new AtomicInteger(); // Cells simulated
+    private AtomicInteger remaining = new AtomicInteger(); // Cells neither simulated, skipped nor cancelled
+    private volatile boolean cancelled;
+    private CompletableFuture<ResultsCube> completion;
+
+    /**
+     * Constructor for a sweep on the common ForkJoin pool
+     *
+     * @param field The horses to race
+     * @param grid The conditions, shapes and lengths to race them in
+     */
+    public ScenarioSweep(List<Horse> field, ScenarioGrid grid) {
+        this(field, grid, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for a sweep on a specific ForkJoin pool
+     *
+     * @param field The horses to race
+     * @param grid The conditions, shapes and lengths to race them in
+     * @param pool The pool to run the sweep on
+     */
+    public ScenarioSweep(List<Horse> field, ScenarioGrid grid, ForkJoinPool pool) {
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException("A sweep needs at least one horse");
+        }
+        this.field = new ArrayList<>(field);
+        this.grid = grid;
+        this.pool = pool;
+        this.engine = new MonteCarloOddsEngine(pool);
+        this.cube = new ResultsCube(grid, field);
+    }
+
+    /**
+     * Start simulating every cell in the background
+     *
+     * @return This sweep, to wait on or cancel
+     */
+    public synchronized ScenarioSweep start() {
+        if (completion != null) {
+            throw new IllegalStateException("Sweep already started");
+        }
+        List<Horse> horses = new ArrayList<>();
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < field.size(); i++) {
+            horses.add(new Horse(field.get(i)));
+            lanes.add(i);
+        }
+
+        completion = new CompletableFuture<>();
+        int cells = grid.getCellCount();
+        remaining.set(cells);
+        claimed = new AtomicBoolean[cells];
+        for (int cell = 0; cell < cells; cell++) {
+            claimed[cell] = new AtomicBoolean();
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            int current = cell;
+            tasks.add(pool.submit(() -> runCell(current, horses, lanes)));
+        }
+        return this;
+    }
+
+    /**
+     * Start the sweep and wait for it to finish
+     *
+     * @return The results
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public ResultsCube run() throws InterruptedException {
+        return start().await();
+    }
+
+    private void runCell(int cell, List<Horse> horses, List<Integer> lanes) {
+        // A cell cancelled before it got here has already been counted as done
+        if (!claimed[cell].compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!cancelled) {
+                Track track = grid.createTrack(cell, horses.size());
+                MonteCarloOddsEngine.SimulationResult simulated = engine.simulate(horses, lanes, track,
+                    simulationsPerCell, RaceRandom.deriveSeed(seed, cell));
+                // Report against the caller's horses rather than the copies raced
+                MonteCarloOddsEngine.SimulationResult result = new MonteCarloOddsEngine.SimulationResult(field,
+                    simulated.getSimulations(), simulated.getCounts(), simulated.getSeed(), simulated.getSampling());
+                cube.put(cell, result);
+                completed.incrementAndGet();
+                for (SweepListener listener : listeners) {
+                    listener.onCellCompleted(this, cell, result);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error sweeping " + grid.describe(cell) + ": " + e.getMessage());
+        } finally {
+            cellDone();
+        }
+    }
+
+    private void cellDone() {
+        if (remaining.decrementAndGet() == 0) {
+            boolean incomplete = completed.get() < grid.getCellCount();
+            for (SweepListener listener : listeners) {
+                listener.onSweepFinished(this, cancelled && incomplete);
+            }
+            completion.complete(cube);
+        }
+    }
+
+    /**
+     * Stop the sweep. Cells not started yet are skipped; cells being
+     * simulated finish and still go into the cube.
+     */
+    public synchronized void cancel() {
+        if (completion == null || completion.isDone()) {
+            return;
+        }
+        cancelled = true;
+        for (int cell = 0; cell < tasks.size(); cell++) {
+            // Only cells that have not started are done now; a running cell
+            // counts itself done when it finishes
+            if (claimed[cell].compareAndSet(false, true)) {
+                tasks.get(cell).cancel(false);
+                cellDone();
+            }
+        }
+    }
+
+    /**
+     * Wait for the sweep to finish or be cancelled
+     *
+     * @return The results, complete unless the sweep was cancelled
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public ResultsCube await() throws InterruptedException {
+        CompletableFuture<ResultsCube> future;
+        synchronized (this) {
+            if (completion == null) {
+                throw new IllegalStateException("Sweep not started");
+            }
+            future = completion;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the results so far. Cells are added as they finish.
+     *
+     * @return The results cube
+     */
+    public ResultsCube getCube() {
+        return cube;
+    }
+
+    /**
+     * Get the number of cells simulated so far
+     *
+     * @return The finished cell count
+     */
+    public int getCompletedCells() {
+        return completed.get();
+    }
+
+    public int getTotalCells() {
+        return grid.getCellCount();
+    }
+
+    /**
+     * Get how much of the sweep is done
+     *
+     * @return The share of cells simulated, from 0 to 1
+     */
+    public double getProgress() {
+        return (double) completed.get() / grid.getCellCount();
+    }
+
+    /**
+     * Check if the sweep has finished, either by simulating every cell or by being cancelled
+     *
+     * @return true once no more cells will be simulated
+     */
+    public synchronized boolean isDone() {
+        return completion != null && completion.isDone();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void addListener(SweepListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SweepListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Set the number of races simulated in each cell
+     *
+     * @param simulations The simulation count (must be positive); takes effect when the sweep starts
+     */
+    public void setSimulationsPerCell(int simulations) {
+        if (simulations > 0) {
+            this.simulationsPerCell = simulations;
+        }
+    }
+
+    public int getSimulationsPerCell() {
+        return simulationsPerCell;
+    }
+
+    /**
+     * Set the seed the cells' seeds are derived from, to repeat a sweep exactly
+     *
+     * @param seed The sweep seed; takes effect when the sweep starts
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set how the races of each cell are sampled
+     *
+     * @param sampling The sampling option; takes effect when the sweep starts
+     */
+    public void setSampling(MonteCarloOddsEngine.Sampling sampling) {
+        engine.setSampling(sampling);
+    }
+}
@@ -5,11 +5,17 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * StatisticsManager is a central repository for all race and horse statistics.
  * It manages a collection of race statistics and horse-specific statistics.
  * 
+ * Races can finish on several threads at once, so recording and every
+ * reader hold the manager's lock, and readers get copies they can keep.
+ * A track record is replaced rather than changed, so one that has been
+ * handed out is never seen half updated.
+ * 
  * @author (Your Name)
  * @version (1.0)
  */
@@ -24,7 +30,7 @@ public class StatisticsManager {
      * Private constructor for singleton pattern
      */
     private StatisticsManager() {
-        raceHistory = new ArrayList<>();
+        raceHistory = new CopyOnWriteArrayList<>();
         horseStats = new HashMap<>();
         trackRecords = new HashMap<>();
     }
@@ -46,7 +52,7 @@ public class StatisticsManager {
      * 
      * @param statistics The race statistics to record
      */
-    public void recordRace(RaceStatistics statistics) {
+    public synchronized void recordRace(RaceStatistics statistics) {
         // Add to race history
         raceHistory.add(statistics);
         
@@ -61,11 +67,12 @@ public class StatisticsManager {
             TrackRecord record = trackRecords.getOrDefault(trackKey, 
                 new TrackRecord(trackName, condition));
             
-            // Update if this is a new best time
+            // Update if this is a new best time, in a new record so readers never see half of it
             if (bestTime < record.getBestTime() || record.getBestTime() == 0) {
                 Horse winner = statistics.getWinner();
-                record.updateRecord(bestTime, winner, new Date());
-                trackRecords.put(trackKey, record);
+                TrackRecord newRecord = new TrackRecord(trackName, condition);
+                newRecord.updateRecord(bestTime, winner, new Date());
+                trackRecords.put(trackKey, newRecord);
             }
         }
         
@@ -90,7 +97,7 @@ public class StatisticsManager {
      * @param horse The horse to look up
      * @return The horse statistics, or null if not found
      */
-    public HorseStatistics getHorseStatistics(Horse horse) {
+    public synchronized HorseStatistics getHorseStatistics(Horse horse) {
         return horseStats.get(horse);
     }
     
@@ -99,17 +106,17 @@ public class StatisticsManager {
      * 
      * @return A list of all horse statistics
      */
-    public List<HorseStatistics> getAllHorseStatistics() {
+    public synchronized List<HorseStatistics> getAllHorseStatistics() {
         return new ArrayList<>(horseStats.values());
     }
     
     /**
      * Get all race statistics
      * 
-     * @return A list of all race statistics
+     * @return A list of all race statistics, which does not change as more are recorded
      */
     public List<RaceStatistics> getAllRaceStatistics() {
-        return Collections.unmodifiableList(raceHistory);
+        return Collections.unmodifiableList(new ArrayList<>(raceHistory));
     }
     
     /**
@@ -117,7 +124,7 @@ public class StatisticsManager {
      * 
      * @return A list of all track records
      */
-    public List<TrackRecord> getAllTrackRecords() {
+    public synchronized List<TrackRecord> getAllTrackRecords() {
         return new ArrayList<>(trackRecords.values());
     }
     
@@ -128,7 +135,7 @@ public class StatisticsManager {
      * @param condition The track condition
      * @return The track record, or null if not found
      */
-    public TrackRecord getTrackRecord(String trackName, TrackCondition condition) {
+    public synchronized TrackRecord getTrackRecord(String trackName, TrackCondition condition) {
         return trackRecords.get(trackName + "-" + condition.getName());
     }
     
@@ -146,7 +153,7 @@ public class StatisticsManager {
      * 
      * @return The number of horses
      */
-    public int getHorseCount() {
+    public synchronized int getHorseCount() {
         return horseStats.size();
     }
     
@@ -156,7 +163,7 @@ public class StatisticsManager {
      * @param limit The maximum number of horses to return
      * @return A list of horse statistics sorted by win ratio (highest first)
      */
-    public List<HorseStatistics> getTopPerformingHorses(int limit) {
+    public synchronized List<HorseStatistics> getTopPerformingHorses(int limit) {
         List<HorseStatistics> topHorses = new ArrayList<>(horseStats.values());
         
         // Sort by win ratio
@@ -176,7 +183,7 @@ public class StatisticsManager {
      * @param limit The maximum number of horses to return
      * @return A list of horse statistics sorted by average speed (highest first)
      */
-    public List<HorseStatistics> getFastestHorses(int limit) {
+    public synchronized List<HorseStatistics> getFastestHorses(int limit) {
         List<HorseStatistics> fastestHorses = new ArrayList<>();
         
         // Only include horses with completed races
@@ -203,7 +210,7 @@ public class StatisticsManager {
      * @param limit The maximum number of horses to return
      * @return A list of horse statistics for improving horses
      */
-    public List<HorseStatistics> getMostImprovedHorses(int limit) {
+    public synchronized List<HorseStatistics> getMostImprovedHorses(int limit) {
         List<HorseStatistics> improvingHorses = new ArrayList<>();
         
         // Only include horses with enough race history
@@ -229,7 +236,7 @@ public class StatisticsManager {
      * 
      * @return A string with summary statistics
      */
-    public String getStatisticsSummary() {
+    public synchronized String getStatisticsSummary() {
         StringBuilder summary = new StringBuilder();
         summary.append("=== RACING STATISTICS SUMMARY ===\n\n");
         
@@ -302,7 +309,7 @@ public class StatisticsManager {
     /**
      * Clear all statistics (for testing purposes)
      */
-    public void clearAllStatistics() {
+    public synchronized void clearAllStatistics() {
         raceHistory.clear();
         horseStats.clear();
         trackRecords.clear();
@@ -0,0 +1,209 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Paces races at a fixed simulation tick rate.
+ * Each tick is scheduled against an absolute deadline rather than after a
+ * sleep that follows the tick's work, so time spent running a tick (a big
+ * field, slow listeners) comes out of the wait before the next one and the
+ * tick rate does not drift. If a race falls more than a few ticks behind it
+ * is resynchronised instead of bursting through the backlog.
+ *
+ * Every paced race has its own speed multiplier, which can be changed while
+ * the race runs: 2.0 runs ticks twice as often, 0.5 half as often. The
+ * simulation itself is unaffected, only how fast it is played out.
+ *
+ * A tick that throws ends its race: the exception is logged and the race's
+ * failure callback runs, so the race is never left half-run with nobody
+ * told.
+ */
+public class TickScheduler {
+    public static final long DEFAULT_TICK_MILLIS = 50; // Simulation time covered by one tick
+    public static final double MIN_SPEED = 0.25;       // Slowest speed multiplier
+    public static final double MAX_SPEED = 100.0;      // Fastest speed multiplier
+    private static final int MAX_CATCH_UP_TICKS = 5;   // Ticks a race may fall behind before it resyncs
+
+    private static TickScheduler instance;              // Shared scheduler for RaceManager
+
+    private ScheduledExecutorService executor; // Runs the ticks
+    private long tickMillis;                   // Simulation time covered by one tick
+
+    /**
+     * Constructor for a scheduler running ticks on an executor
+     *
+     * @param executor The executor that runs the ticks
+     * @param tickMillis Simulation time covered by one tick, in milliseconds
+     */
+    public TickScheduler(ScheduledExecutorService executor, long tickMillis) {
+        this.executor = executor;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * Get the shared scheduler, which runs ticks on a single daemon thread
+     *
+     * @return The shared scheduler
+     */
+    public static synchronized TickScheduler getInstance() {
+        if (instance == null) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "race-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            instance = new TickScheduler(executor, DEFAULT_TICK_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Start pacing a race. The first tick runs immediately.
+     *
+     * @param step Runs one tick, returning false once the race is over
+     * @param onFinished Run on the scheduler once step has returned false
+     * @param speedMultiplier The initial speed multiplier
+     * @return A handle for changing the speed or cancelling the race
+     */
+    public PacedRace schedule(BooleanSupplier step, Runnable onFinished, double speedMultiplier) {
+        return schedule(step, onFinished, e -> onFinished.run(), speedMultiplier);
+    }
+
+    /**
+     * Start pacing a race that needs to know if a tick fails. The first tick runs immediately.
+     *
+     * @param step Runs one tick, returning false once the race is over
+     * @param onFinished Run on the scheduler once step has returned false
+     * @param onFailed Run on the scheduler, instead of onFinished, if step throws
+     * @param speedMultiplier The initial speed multiplier
+     * @return A handle for changing the speed or cancelling the race
+     */
+    public PacedRace schedule(BooleanSupplier step, Runnable onFinished, Consumer<Throwable> onFailed,
+                              double speedMultiplier) {
+        PacedRace race = new PacedRace(step, onFinished, onFailed, speedMultiplier);
+        race.scheduleNext(0);
+        return race;
+    }
+
+    /**
+     * Get the simulation time covered by one tick
+     *
+     * @return The tick length in milliseconds
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Keep a speed multiplier within the supported range
+     *
+     * @param speedMultiplier The requested multiplier
+     * @return The multiplier clamped to [MIN_SPEED, MAX_SPEED]
+     */
+    public static double clampSpeed(double speedMultiplier) {
+        if (Double.isNaN(speedMultiplier)) {
+            return 1.0;
+        }
+        return Math.max(MIN_SPEED, Math.min(MAX_SPEED, speedMultiplier));
+    }
+
+    /**
+     * A race being paced by the scheduler
+     */
+    public class PacedRace implements Runnable {
+        private BooleanSupplier step;
+        private Runnable onFinished;
+        private Consumer<Throwable> onFailed;
+        private volatile double speedMultiplier;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> next;
+        private long deadline;    // When the next tick is due, in System.nanoTime() terms
+        private long overruns;    // Ticks that started late
+
+        PacedRace(BooleanSupplier step, Runnable onFinished, Consumer<Throwable> onFailed,
+                  double speedMultiplier) {
+            this.step = step;
+            this.onFinished = onFinished;
+            this.onFailed = onFailed;
+            this.speedMultiplier = clampSpeed(speedMultiplier);
+            this.deadline = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            boolean more;
+            try {
+                more = step.getAsBoolean();
+            } catch (RuntimeException | Error e) {
+                // Not rescheduled; whoever started the race has to hear it is over
+                System.err.println("Error running race tick: " + e);
+                onFailed.accept(e);
+                return;
+            }
+            if (!more) {
+                onFinished.run();
+                return;
+            }
+
+            // The next deadline follows on from the last one, not from now
+            long period = (long) (TimeUnit.MILLISECONDS.toNanos(tickMillis) / speedMultiplier);
+            deadline += period;
+            long delay = deadline - System.nanoTime();
+            if (delay < 0) {
+                overruns++;
+                if (-delay > MAX_CATCH_UP_TICKS * period) {
+                    deadline = System.nanoTime();
+                }
+            }
+            scheduleNext(Math.max(0, delay));
+        }
+
+        private void scheduleNext(long delayNanos) {
+            next = executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Change how fast the race is played out, from the next tick on
+         *
+         * @param speedMultiplier The new multiplier (clamped to [MIN_SPEED, MAX_SPEED])
+         */
+        public void setSpeedMultiplier(double speedMultiplier) {
+            this.speedMultiplier = clampSpeed(speedMultiplier);
+        }
+
+        /**
+         * Get the current speed multiplier
+         *
+         * @return The speed multiplier
+         */
+        public double getSpeedMultiplier() {
+            return speedMultiplier;
+        }
+
+        /**
+         * Stop running ticks. The finish callback is not run.
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> pending = next;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+
+        /**
+         * Get the number of ticks that started after their deadline
+         *
+         * @return The overrun count
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+    }
+}
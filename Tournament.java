@@ -0,0 +1,573 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A multi-stage event or a season: a schedule of races, each run as an
+ * ordinary headless RaceManager race that updates confidences and records
+ * its statistics with the StatisticsManager.
+ *
+ * A race can have a fixed field, take the leading finishers of earlier races
+ * (heats feeding semis feeding a final) or both. The schedule is turned into
+ * a dependency graph: a race waits for the races that feed it and for the
+ * last earlier race of every horse that could be in it, so every horse runs
+ * its races one at a time and in schedule order, carrying its confidence
+ * from one to the next. Races that share no horses run at the same time on
+ * a ForkJoin pool.
+ *
+ * Every race's seed is derived from the tournament's seed and the race's
+ * position in the schedule.
+ *
+ * If a race throws, it is marked failed and every race that depends on it
+ * fails in turn without running, so no race runs short of the qualifiers
+ * or with a horse whose earlier race never happened. The rest of the
+ * schedule still runs, and the tournament then completes exceptionally
+ * with the first failure.
+ */
+public class Tournament {
+
+    /**
+     * Interface for anything that follows a tournament's progress
+     */
+    public interface TournamentListener {
+        /**
+         * Called when a race has finished, on the thread that ran it
+         *
+         * @param tournament The tournament
+         * @param fixture The race that finished
+         */
+        void onRaceFinished(Tournament tournament, Fixture fixture);
+
+        /**
+         * Called once when every race has finished
+         *
+         * @param tournament The tournament
+         */
+        void onTournamentFinished(Tournament tournament);
+    }
+
+    /**
+     * One race in the schedule
+     */
+    public static class Fixture {
+        private int number;                 // Position in the schedule
+        private String name;
+        private Track track;
+        private List<Horse> fixedEntrants;  // Horses entered directly
+        private List<Fixture> feeders;      // Races whose leading finishers qualify for this one
+        private int qualifiers;             // Finishers that qualify from each feeder
+        private Set<Horse> possibleEntrants = new LinkedHashSet<>(); // Every horse that could be in the race
+        private List<Fixture> dependencies = new ArrayList<>(); // Races that must finish first
+        private List<Fixture> dependents = new ArrayList<>();   // Races waiting on this one
+        private AtomicInteger waitingOn = new AtomicInteger();  // Dependencies not finished yet
+
+        // Filled in when the race has run
+        private volatile boolean finished;
+        private volatile Throwable failure; // Why the race could not run, or null
+        private long seed;
+        private List<Horse> entrants = Collections.emptyList();
+        private List<Horse> finishingOrder = Collections.emptyList();
+        private Horse winner;
+        private Map<Horse, Double> confidenceBefore = new HashMap<>();
+        private Map<Horse, Double> confidenceAfter = new HashMap<>();
+
+        Fixture(int number, String name, Track track, List<Horse> fixedEntrants, List<Fixture> feeders,
+                int qualifiers) {
+            this.number = number;
+            this.name = name;
+            this.track = track;
+            this.fixedEntrants = new ArrayList<>(fixedEntrants);
+            this.feeders = new ArrayList<>(feeders);
+            this.qualifiers = qualifiers;
+            possibleEntrants.addAll(fixedEntrants);
+            for (Fixture feeder : feeders) {
+                possibleEntrants.addAll(feeder.possibleEntrants);
+            }
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Track getTrack() {
+            return track;
+        }
+
+        /**
+         * Get the races that had to finish before this one could start
+         *
+         * @return The feeding races and the previous races of its horses
+         */
+        public List<Fixture> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Check if the race failed, or could not run because a race it depends on failed
+         *
+         * @return true if the race has no result
+         */
+        public boolean isFailed() {
+            return failure != null;
+        }
+
+        /**
+         * Get why the race failed
+         *
+         * @return The exception, or null if the race did not fail
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Get the horses that ran, in lane order
+         *
+         * @return The field, or an empty list if the race has not run
+         */
+        public List<Horse> getEntrants() {
+            return entrants;
+        }
+
+        /**
+         * Get the finishing order
+         *
+         * @return The horses in finishing order, or an empty list if the race has not run
+         */
+        public List<Horse> getFinishingOrder() {
+            return finishingOrder;
+        }
+
+        public Horse getWinner() {
+            return winner;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Get a horse's confidence going into the race
+         *
+         * @param horse The horse
+         * @return The confidence, or -1 if the horse did not run
+         */
+        public double getConfidenceBefore(Horse horse) {
+            return confidenceBefore.getOrDefault(horse, -1.0);
+        }
+
+        /**
+         * Get a horse's confidence after the race
+         *
+         * @param horse The horse
+         * @return The confidence, or -1 if the horse did not run
+         */
+        public double getConfidenceAfter(Horse horse) {
+            return confidenceAfter.getOrDefault(horse, -1.0);
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + track.getName() + ", " + track.getCondition().getName() + ")"
+                + (winner != null ? ": won by " + winner.getName() : "");
+        }
+    }
+
+    private String name;
+    private long seed = RaceRandom.randomSeed(); // Seed every race's seed is derived from
+    private List<Fixture> fixtures = new ArrayList<>();
+    private Map<Horse, Fixture> lastRaceOf = new HashMap<>(); // Latest race each horse could be in
+    private List<TournamentListener> listeners = new CopyOnWriteArrayList<>();
+
+    // State of the running tournament
+    private ForkJoinPool pool;
+    private AtomicInteger remaining = new AtomicInteger();
+    private AtomicInteger completed = new AtomicInteger();
+    private CompletableFuture<Tournament> completion;
+    private volatile Throwable firstFailure; // The first race failure, which the tournament completes with
+
+    /**
+     * Constructor for an empty tournament
+     *
+     * @param name The tournament name
+     */
+    public Tournament(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add a race with a fixed field
+     *
+     * @param raceName The race name
+     * @param track The track to race on (with its condition)
+     * @param horses The field, one per lane
+     * @return The race
+     */
+    public Fixture addRace(String raceName, Track track, List<Horse> horses) {
+        return addRace(raceName, track, horses, 0);
+    }
+
+    /**
+     * Add a race for the leading finishers of earlier races, and any horses entered directly
+     *
+     * @param raceName The race name
+     * @param track The track to race on (with its condition)
+     * @param horses Horses entered directly, who take the first lanes
+     * @param qualifiers The number of finishers that qualify from each feeding race
+     * @param feeders The races feeding this one
+     * @return The race
+     */
+    public synchronized Fixture addRace(String raceName, Track track, List<Horse> horses, int qualifiers,
+                                        Fixture... feeders) {
+        if (completion != null) {
+            throw new IllegalStateException("Tournament already started");
+        }
+        int fieldSize = horses.size() + qualifiers * feeders.length;
+        if (fieldSize == 0 || fieldSize > track.getLanes()) {
+            throw new IllegalArgumentException(raceName + " needs " + fieldSize + " lanes but "
+                + track.getName() + " has " + track.getLanes());
+        }
+        List<Fixture> feederList = new ArrayList<>();
+        for (Fixture feeder : feeders) {
+            if (!fixtures.contains(feeder)) {
+                throw new IllegalArgumentException(feeder.getName() + " is not an earlier race of " + name);
+            }
+            feederList.add(feeder);
+        }
+
+        Fixture fixture = new Fixture(fixtures.size(), raceName, track, horses, feederList, qualifiers);
+        Set<Fixture> dependencies = new LinkedHashSet<>(feederList);
+        for (Horse horse : fixture.possibleEntrants) {
+            Fixture previous = lastRaceOf.put(horse, fixture);
+            if (previous != null) {
+                dependencies.add(previous);
+            }
+        }
+        for (Fixture dependency : dependencies) {
+            fixture.dependencies.add(dependency);
+            dependency.dependents.add(fixture);
+        }
+        fixtures.add(fixture);
+        return fixture;
+    }
+
+    /**
+     * Build a knockout: heats for the whole field, then rounds for the
+     * qualifiers of the round before, until one race is left for the final
+     *
+     * @param name The tournament name
+     * @param track The track every race is run on
+     * @param horses The field
+     * @param raceSize The most horses in one race (at most the track's lanes)
+     * @param qualifiers The number of finishers that go through from each race
+     * @return The tournament
+     */
+    public static Tournament knockout(String name, Track track, List<Horse> horses, int raceSize, int qualifiers) {
+        if (qualifiers < 1 || qualifiers * 2 > raceSize) {
+            throw new IllegalArgumentException("Each race must send through at least one and at most half its field");
+        }
+        Tournament tournament = new Tournament(name);
+        List<Fixture> round = new ArrayList<>();
+        int races = (horses.size() + raceSize - 1) / raceSize;
+        for (int r = 0; r < races; r++) {
+            // Deal the field out so the heats are the same size give or take one
+            List<Horse> field = new ArrayList<>();
+            for (int h = r; h < horses.size(); h += races) {
+                field.add(horses.get(h));
+            }
+            round.add(tournament.addRace((races == 1 ? "Final" : "Heat " + (r + 1)), track, field));
+        }
+
+        int stage = 1;
+        while (round.size() > 1) {
+            int perRace = raceSize / qualifiers;
+            races = (round.size() + perRace - 1) / perRace;
+            List<Fixture> next = new ArrayList<>();
+            for (int r = 0; r < races; r++) {
+                List<Fixture> feeders = new ArrayList<>();
+                for (int f = r; f < round.size(); f += races) {
+                    feeders.add(round.get(f));
+                }
+                String raceName = races == 1 ? "Final" : "Round " + (stage + 1) + " Race " + (r + 1);
+                next.add(tournament.addRace(raceName, track, Collections.emptyList(), qualifiers,
+                    feeders.toArray(new Fixture[0])));
+            }
+            round = next;
+            stage++;
+        }
+        return tournament;
+    }
+
+    /**
+     * Build a season of race days. On every day the stable is shuffled and
+     * split into fields, so a horse runs at most once a day, and each race
+     * is on a track picked at random.
+     *
+     * @param name The season name
+     * @param tracks The tracks races can be on
+     * @param stable The horses taking part
+     * @param days The number of race days
+     * @param racesPerDay The number of races each day
+     * @param fieldSize The number of horses in each race
+     * @param seed The seed for the schedule and the races
+     * @return The season
+     */
+    public static Tournament season(String name, List<Track> tracks, List<Horse> stable, int days,
+                                    int racesPerDay, int fieldSize, long seed) {
+        if (racesPerDay * fieldSize > stable.size()) {
+            throw new IllegalArgumentException("A stable of " + stable.size() + " cannot fill " + racesPerDay
+                + " races of " + fieldSize + " in one day");
+        }
+        Tournament season = new Tournament(name);
+        season.setSeed(seed);
+        RaceRandom random = new RaceRandom(RaceRandom.deriveSeed(seed, -1));
+        List<Horse> shuffled = new ArrayList<>(stable);
+        for (int day = 1; day <= days; day++) {
+            for (int i = shuffled.size() - 1; i > 0; i--) {
+                Collections.swap(shuffled, i, random.nextInt(i + 1));
+            }
+            for (int race = 0; race < racesPerDay; race++) {
+                Track track = tracks.get(random.nextInt(tracks.size()));
+                season.addRace("Day " + day + " Race " + (race + 1), track,
+                    shuffled.subList(race * fieldSize, (race + 1) * fieldSize));
+            }
+        }
+        return season;
+    }
+
+    /**
+     * Start running the races on the common ForkJoin pool
+     *
+     * @return This tournament, to wait on
+     */
+    public Tournament start() {
+        return start(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Start running the races on a specific pool
+     *
+     * @param pool The pool to run the races on
+     * @return This tournament, to wait on
+     */
+    public synchronized Tournament start(ForkJoinPool pool) {
+        if (completion != null) {
+            throw new IllegalStateException("Tournament already started");
+        }
+        this.pool = pool;
+        completion = new CompletableFuture<>();
+        remaining.set(fixtures.size());
+        if (fixtures.isEmpty()) {
+            finish();
+            return this;
+        }
+        for (Fixture fixture : fixtures) {
+            fixture.waitingOn.set(fixture.dependencies.size());
+        }
+        for (Fixture fixture : fixtures) {
+            if (fixture.dependencies.isEmpty()) {
+                pool.execute(() -> runFixture(fixture));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Run every race and wait for them to finish
+     *
+     * @return This tournament
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public Tournament run() throws InterruptedException {
+        return start().await();
+    }
+
+    private void runFixture(Fixture fixture) {
+        try {
+            for (Fixture dependency : fixture.dependencies) {
+                if (dependency.failure != null) {
+                    throw new IllegalStateException(fixture.getName() + " cannot run because "
+                        + dependency.getName() + " failed", dependency.failure);
+                }
+            }
+            List<Horse> field = new ArrayList<>(fixture.fixedEntrants);
+            for (Fixture feeder : fixture.feeders) {
+                List<Horse> order = feeder.finishingOrder;
+                field.addAll(order.subList(0, Math.min(fixture.qualifiers, order.size())));
+            }
+
+            RaceManager manager = new RaceManager(fixture.track, TickScheduler.getInstance());
+            manager.setConsoleOutput(false);
+            for (int lane = 0; lane < field.size(); lane++) {
+                manager.addHorse(field.get(lane), lane);
+                fixture.confidenceBefore.put(field.get(lane), field.get(lane).getConfidence());
+            }
+            fixture.seed = RaceRandom.deriveSeed(seed, fixture.number);
+            manager.setSeed(fixture.seed);
+            // Updates confidences and records the race with the StatisticsManager
+            manager.runHeadlessRace(true);
+
+            fixture.entrants = Collections.unmodifiableList(field);
+            fixture.finishingOrder = Collections.unmodifiableList(manager.getFinishingOrder());
+            fixture.winner = manager.getWinner();
+            for (Horse horse : field) {
+                fixture.confidenceAfter.put(horse, horse.getConfidence());
+            }
+        } catch (RuntimeException | Error e) {
+            fixture.failure = e;
+            synchronized (this) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+        } finally {
+            // Whatever happened, the races waiting on this one and the tournament must hear it is over
+            fixture.finished = true;
+            completed.incrementAndGet();
+            try {
+                for (TournamentListener listener : listeners) {
+                    listener.onRaceFinished(this, fixture);
+                }
+            } finally {
+                for (Fixture dependent : fixture.dependents) {
+                    if (dependent.waitingOn.decrementAndGet() == 0) {
+                        pool.execute(() -> runFixture(dependent));
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    finish();
+                }
+            }
+        }
+    }
+
+    private void finish() {
+        try {
+            for (TournamentListener listener : listeners) {
+                listener.onTournamentFinished(this);
+            }
+        } finally {
+            Throwable failure = firstFailure;
+            if (failure != null) {
+                completion.completeExceptionally(failure);
+            } else {
+                completion.complete(this);
+            }
+        }
+    }
+
+    /**
+     * Wait for every race to finish
+     *
+     * @return This tournament
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     * @throws IllegalStateException If a race failed, with the first failure as its cause
+     */
+    public Tournament await() throws InterruptedException {
+        CompletableFuture<Tournament> future;
+        synchronized (this) {
+            if (completion == null) {
+                throw new IllegalStateException("Tournament not started");
+            }
+            future = completion;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public synchronized boolean isDone() {
+        return completion != null && completion.isDone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the races in schedule order
+     *
+     * @return The races
+     */
+    public synchronized List<Fixture> getFixtures() {
+        return Collections.unmodifiableList(new ArrayList<>(fixtures));
+    }
+
+    /**
+     * Get the last race in the schedule, which is the final of a knockout
+     *
+     * @return The last race, or null if there are none
+     */
+    public synchronized Fixture getFinal() {
+        return fixtures.isEmpty() ? null : fixtures.get(fixtures.size() - 1);
+    }
+
+    public int getCompletedRaces() {
+        return completed.get();
+    }
+
+    public synchronized int getTotalRaces() {
+        return fixtures.size();
+    }
+
+    /**
+     * Get the number of races in the longest chain of races that have to
+     * run one after the other, which bounds how far the schedule can be
+     * run in parallel
+     *
+     * @return The length of the critical path
+     */
+    public synchronized int getCriticalPathLength() {
+        int[] depth = new int[fixtures.size()];
+        int longest = 0;
+        for (Fixture fixture : fixtures) {
+            int deepest = 0;
+            for (Fixture dependency : fixture.dependencies) {
+                deepest = Math.max(deepest, depth[dependency.number]);
+            }
+            depth[fixture.number] = deepest + 1;
+            longest = Math.max(longest, depth[fixture.number]);
+        }
+        return longest;
+    }
+
+    /**
+     * Set the seed the races' seeds are derived from
+     *
+     * @param seed The tournament seed; takes effect when the tournament starts
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void addListener(TournamentListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TournamentListener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -18,6 +18,42 @@ public abstract class Track {
     protected String name;              // Track name
     protected List<Point2D.Double> trackPoints;  // Points defining the track path
     
+    // Lookup tables sampled at fixed intervals over one lap, so the race loop
+    // interpolates instead of running trig for every horse on every tick
+    public static final int DEFAULT_LOOKUP_RESOLUTION = 1024; // Samples per lap
+    private volatile int lookupResolution = DEFAULT_LOOKUP_RESOLUTION; // 0 disables the tables
+    private volatile LookupTables tables; // The tables in use, or null to compute exactly
+    
+    // Scratch space for exact layout computation, one per thread so lookups stay allocation-free
+    private static final ThreadLocal<double[]> LAYOUT_SCRATCH = ThreadLocal.withInitial(() -> new double[4]);
+    
+    /**
+     * Lookup tables and the resolution they were sampled at. A race on another
+     * thread reads the tables while they may be rebuilt, so a new set is always
+     * built whole and published in one write; a reader that takes the
+     * reference once never sees a resolution that does not match its tables.
+     */
+    private static final class LookupTables {
+        final int resolution;      // Samples per lap
+        final double[] curves;     // Curve factor at each sample
+        final boolean[] crossings; // Whether each sample is at a crossing
+        final double[] centreX;    // x coordinate of lane 0 at each sample
+        final double[] centreY;    // y coordinate of lane 0 at each sample
+        final double[] laneX;      // x offset added per lane at each sample
+        final double[] laneY;      // y offset added per lane at each sample
+        
+        LookupTables(int resolution, double[] curves, boolean[] crossings, double[] centreX, double[] centreY,
+                     double[] laneX, double[] laneY) {
+            this.resolution = resolution;
+            this.curves = curves;
+            this.crossings = crossings;
+            this.centreX = centreX;
+            this.centreY = centreY;
+            this.laneX = laneX;
+            this.laneY = laneY;
+        }
+    }
+    
     /**
      * Constructor for the Track class
      * 
@@ -41,6 +77,70 @@ public abstract class Track {
      */
     protected abstract void generateTrackPath();
     
+    /**
+     * Compute the curve factor at a point on the track shape
+     * 1.0 means straight, lower values indicate turns
+     * 
+     * @param relativeDistance A value between 0.0 and 1.0 representing a position along the track
+     * @return A value between 0.0 and 1.0 indicating how curved the track is at that point
+     */
+    protected abstract double computeCurveFactor(double relativeDistance);
+    
+    /**
+     * Compute the layout of the track at a point on its shape. The position of a
+     * horse in a lane is the lane 0 position plus the lane number times the lane offset.
+     * 
+     * @param relativeDistance A value between 0.0 and 1.0 representing a position along the track
+     * @param layout Array to fill with lane 0 x, lane 0 y, per-lane x offset and per-lane y offset
+     */
+    protected abstract void computeLayout(double relativeDistance, double[] layout);
+    
+    /**
+     * Compute whether a point on the track shape is at a crossing where paths meet.
+     * Tracks without a crossing can rely on this default.
+     * 
+     * @param relativeDistance A value between 0.0 and 1.0 representing a position along the track
+     * @return true if the point is at a crossing, false otherwise
+     */
+    protected boolean computeCrossing(double relativeDistance) {
+        return false;
+    }
+    
+    /**
+     * Build the lookup tables by sampling the track shape. Subclasses call this at the
+     * end of their constructor, once their shape fields are set, and it is called again
+     * whenever the track length or lookup resolution changes.
+     */
+    protected void buildLookupTables() {
+        int resolution = lookupResolution;
+        if (resolution <= 0) {
+            tables = null;
+            return;
+        }
+        
+        int samples = resolution + 1; // The last sample closes the lap for interpolation
+        double[] curves = new double[samples];
+        boolean[] crossings = new boolean[samples];
+        double[] centreX = new double[samples];
+        double[] centreY = new double[samples];
+        double[] laneX = new double[samples];
+        double[] laneY = new double[samples];
+        double[] layout = new double[4];
+        
+        for (int i = 0; i < samples; i++) {
+            double relativeDistance = (double) i / resolution;
+            curves[i] = computeCurveFactor(relativeDistance);
+            crossings[i] = computeCrossing(relativeDistance);
+            computeLayout(relativeDistance, layout);
+            centreX[i] = layout[0];
+            centreY[i] = layout[1];
+            laneX[i] = layout[2];
+            laneY[i] = layout[3];
+        }
+        
+        tables = new LookupTables(resolution, curves, crossings, centreX, centreY, laneX, laneY);
+    }
+    
     /**
      * Calculate the position of a horse on the track based on its distance traveled
      * 
@@ -48,16 +148,143 @@ public abstract class Track {
      * @param lane The lane number the horse is in (0-based)
      * @return A Point2D.Double representing the x,y coordinates of the horse
      */
-    public abstract Point2D.Double calculatePosition(double distance, int lane);
+    public Point2D.Double calculatePosition(double distance, int lane) {
+        Point2D.Double position = new Point2D.Double();
+        calculatePosition(distance, lane, position);
+        return position;
+    }
+    
+    /**
+     * Calculate the position of a horse on the track into a caller-supplied point,
+     * so the race loop and the GUI can reuse one point instead of allocating
+     * a new one for every horse on every tick
+     * 
+     * @param distance The distance traveled by the horse
+     * @param lane The lane number the horse is in (0-based)
+     * @param position The point to write the x,y coordinates into
+     */
+    public void calculatePosition(double distance, int lane, Point2D.Double position) {
+        double relativeDistance = absoluteToRelativeDistance(distance);
+        LookupTables t = tables;
+        
+        if (t == null) {
+            double[] layout = LAYOUT_SCRATCH.get();
+            computeLayout(relativeDistance, layout);
+            position.x = layout[0] + lane * layout[2];
+            position.y = layout[1] + lane * layout[3];
+            return;
+        }
+        
+        double samplePosition = relativeDistance * t.resolution;
+        int index = Math.min((int) samplePosition, t.resolution - 1);
+        double fraction = samplePosition - index;
+        position.x = interpolate(t.centreX, index, fraction) + lane * interpolate(t.laneX, index, fraction);
+        position.y = interpolate(t.centreY, index, fraction) + lane * interpolate(t.laneY, index, fraction);
+    }
+    
+    /**
+     * Move a horse to its position on the track for the distance it has travelled,
+     * writing the coordinates straight into the horse
+     * 
+     * @param horse The horse to position
+     * @param lane The lane number the horse is in (0-based)
+     */
+    public void updatePosition(Horse horse, int lane) {
+        double relativeDistance = absoluteToRelativeDistance(horse.getDistanceTravelled());
+        LookupTables t = tables;
+        
+        if (t == null) {
+            double[] layout = LAYOUT_SCRATCH.get();
+            computeLayout(relativeDistance, layout);
+            horse.setPosition(layout[0] + lane * layout[2], layout[1] + lane * layout[3]);
+            return;
+        }
+        
+        double samplePosition = relativeDistance * t.resolution;
+        int index = Math.min((int) samplePosition, t.resolution - 1);
+        double fraction = samplePosition - index;
+        horse.setPosition(
+            interpolate(t.centreX, index, fraction) + lane * interpolate(t.laneX, index, fraction),
+            interpolate(t.centreY, index, fraction) + lane * interpolate(t.laneY, index, fraction));
+    }
     
     /**
-     * Calculate the curve factor at a specific position on the track
+     * Get the curve factor at a specific position on the track
      * 1.0 means straight, lower values indicate turns
      * 
      * @param distance The distance along the track
      * @return A value between 0.0 and 1.0 indicating how curved the track is at that point
      */
-    public abstract double getCurveFactor(double distance);
+    public double getCurveFactor(double distance) {
+        double relativeDistance = absoluteToRelativeDistance(distance);
+        LookupTables t = tables;
+        
+        if (t == null) {
+            return computeCurveFactor(relativeDistance);
+        }
+        
+        double position = relativeDistance * t.resolution;
+        int index = Math.min((int) position, t.resolution - 1);
+        return interpolate(t.curves, index, position - index);
+    }
+    
+    /**
+     * Check if the track has any crossing points at all. Tracks without a
+     * crossing can rely on this default.
+     * 
+     * @return true if horses can meet at a crossing somewhere on the track
+     */
+    public boolean hasCrossings() {
+        return false;
+    }
+    
+    /**
+     * Check if a horse is at a crossing point of the track.
+     * With lookup tables enabled this uses the nearest sample.
+     * 
+     * @param distance The distance traveled by the horse
+     * @return true if the horse is at a crossing, false otherwise
+     */
+    public boolean isAtCrossing(double distance) {
+        double relativeDistance = absoluteToRelativeDistance(distance);
+        LookupTables t = tables;
+        
+        if (t == null) {
+            return computeCrossing(relativeDistance);
+        }
+        
+        int index = (int) Math.round(relativeDistance * t.resolution);
+        return t.crossings[index];
+    }
+    
+    /**
+     * Linearly interpolate between a table sample and the next one
+     */
+    private static double interpolate(double[] table, int index, double fraction) {
+        double start = table[index];
+        return start + (table[index + 1] - start) * fraction;
+    }
+    
+    /**
+     * Set the number of lookup table samples per lap. Higher resolutions are more
+     * accurate but use more memory; 0 turns the tables off and computes every
+     * curve factor and position exactly.
+     * 
+     * @param resolution The number of samples per lap, or 0 to disable the tables
+     */
+    public synchronized void setLookupResolution(int resolution) {
+        this.lookupResolution = Math.max(0, resolution);
+        buildLookupTables();
+    }
+    
+    /**
+     * Get the number of lookup table samples per lap
+     * 
+     * @return The lookup resolution, or 0 if the tables are disabled
+     */
+    public int getLookupResolution() {
+        return lookupResolution;
+    }
     
     /**
      * Get the total length of the track
@@ -109,9 +336,10 @@ public abstract class Track {
      * 
      * @param newLength The new track length
      */
-    public void setLength(int newLength) {
+    public synchronized void setLength(int newLength) {
         this.length = newLength;
         generateTrackPath(); // Regenerate the track path
+        buildLookupTables(); // Resample the lookup tables
     }
     
     /**
@@ -161,6 +389,10 @@ public abstract class Track {
      * @return A value between 0.0 and 1.0 representing the relative position
      */
     protected double absoluteToRelativeDistance(double absoluteDistance) {
+        // Skip the floating-point remainder for the usual case of a horse on its first lap
+        if (absoluteDistance >= 0 && absoluteDistance < length) {
+            return absoluteDistance / length;
+        }
         return (absoluteDistance % length) / length;
     }
 }
\ No newline at end of file
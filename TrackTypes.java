@@ -9,6 +9,54 @@ import java.awt.geom.Point2D;
  * @version (1.0)
  */
 
+/**
+ * Builds the track shapes in this file, so code elsewhere can create them
+ * without naming the shape classes themselves.
+ */
+public final class TrackTypes {
+    private TrackTypes() {
+    }
+
+    /**
+     * Build an oval track
+     *
+     * @param name The track name
+     * @param length The track length
+     * @param lanes The number of lanes
+     * @param condition The track condition
+     * @return The new track
+     */
+    public static Track oval(String name, int length, int lanes, TrackCondition condition) {
+        return new OvalTrack(name, length, lanes, condition);
+    }
+
+    /**
+     * Build a figure-eight track
+     *
+     * @param name The track name
+     * @param length The track length
+     * @param lanes The number of lanes
+     * @param condition The track condition
+     * @return The new track
+     */
+    public static Track figureEight(String name, int length, int lanes, TrackCondition condition) {
+        return new FigureEightTrack(name, length, lanes, condition);
+    }
+
+    /**
+     * Build a zigzag track
+     *
+     * @param name The track name
+     * @param length The track length
+     * @param lanes The number of lanes
+     * @param condition The track condition
+     * @return The new track
+     */
+    public static Track zigzag(String name, int length, int lanes, TrackCondition condition) {
+        return new ZigzagTrack(name, length, lanes, condition);
+    }
+}
+
 /**
  * OvalTrack represents a standard oval racing track
  */
@@ -23,6 +71,7 @@ class OvalTrack extends Track {
         super(name, length, lanes, condition);
         this.width = length / 3.0;  // Width is 1/3 of the total track length
         this.height = length / 6.0; // Height is 1/6 of the total track length
+        buildLookupTables();
     }
     
     @Override
@@ -44,27 +93,24 @@ class OvalTrack extends Track {
     }
     
     @Override
-    public Point2D.Double calculatePosition(double distance, int lane) {
-        // Convert distance to a relative position on the track (0.0 to 1.0)
-        double relativeDistance = absoluteToRelativeDistance(distance);
-        
+    protected void computeLayout(double relativeDistance, double[] layout) {
         // Calculate angle based on relative distance
         double angle = 2 * Math.PI * relativeDistance;
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
         
-        // Calculate lane offset (outer lanes have larger radius)
-        double laneOffset = lane * 10; // 10 pixels between lanes
+        // Lane 0 runs on the oval itself
+        layout[0] = width * cos;
+        layout[1] = height * sin;
         
-        // Calculate position
-        double x = (width + laneOffset) * Math.cos(angle);
-        double y = (height + laneOffset) * Math.sin(angle);
-        
-        return new Point2D.Double(x, y);
+        // Outer lanes have a larger radius, 10 pixels between lanes
+        layout[2] = 10 * cos;
+        layout[3] = 10 * sin;
     }
     
     @Override
-    public double getCurveFactor(double distance) {
+    protected double computeCurveFactor(double relativeDistance) {
         // In an oval, curves are at the top and bottom
-        double relativeDistance = absoluteToRelativeDistance(distance);
         double angle = 2 * Math.PI * relativeDistance;
         
         // Calculate how curved the track is at this point (1.0 = straight, 0.5 = most curved)
@@ -89,6 +135,12 @@ class FigureEightTrack extends Track {
         super(name, length, lanes, condition);
         this.width = length / 5.0;  // Width of each loop
         this.height = length / 10.0; // Height of each loop
+        buildLookupTables();
+    }
+    
+    @Override
+    public boolean hasCrossings() {
+        return true;
     }
     
     @Override
@@ -111,16 +163,13 @@ class FigureEightTrack extends Track {
     }
     
     @Override
-    public Point2D.Double calculatePosition(double distance, int lane) {
-        // Convert distance to a relative position on the track (0.0 to 1.0)
-        double relativeDistance = absoluteToRelativeDistance(distance);
-        
+    protected void computeLayout(double relativeDistance, double[] layout) {
         // Calculate angle based on relative distance
         double angle = 2 * Math.PI * relativeDistance;
         
         // Figure-8 parametric equations
-        double x = width * Math.sin(angle);
-        double y = height * Math.sin(2 * angle);
+        layout[0] = width * Math.sin(angle);
+        layout[1] = height * Math.sin(2 * angle);
         
         // Calculate perpendicular direction for lane offset
         double dx = width * Math.cos(angle);
@@ -137,18 +186,14 @@ class FigureEightTrack extends Track {
         double perpX = -dy;
         double perpY = dx;
         
-        // Apply lane offset
-        double laneOffset = lane * 8; // 8 pixels between lanes
-        x += perpX * laneOffset;
-        y += perpY * laneOffset;
-        
-        return new Point2D.Double(x, y);
+        // Lane offset along the perpendicular, 8 pixels between lanes
+        layout[2] = perpX * 8;
+        layout[3] = perpY * 8;
     }
     
     @Override
-    public double getCurveFactor(double distance) {
+    protected double computeCurveFactor(double relativeDistance) {
         // In a figure-8, the crossing point has the sharpest turn
-        double relativeDistance = absoluteToRelativeDistance(distance);
         double angle = 2 * Math.PI * relativeDistance;
         
         // Calculate curvature based on position in the figure-8
@@ -166,14 +211,8 @@ class FigureEightTrack extends Track {
         return Math.max(0.3, Math.min(1.0, curveFactor));
     }
     
-    /**
-     * Check if a horse is at the crossing point of the figure-8
-     * 
-     * @param distance The distance traveled by the horse
-     * @return true if the horse is at the crossing, false otherwise
-     */
-    public boolean isAtCrossing(double distance) {
-        double relativeDistance = absoluteToRelativeDistance(distance);
+    @Override
+    protected boolean computeCrossing(double relativeDistance) {
         double angle = 2 * Math.PI * relativeDistance;
         
         // Crossing is when x and y are close to 0 (center)
@@ -193,6 +232,7 @@ class ZigzagTrack extends Track {
     public ZigzagTrack(String name, int length, int lanes, TrackCondition condition) {
         super(name, length, lanes, condition);
         this.segments = 6; // Number of zigzag segments
+        buildLookupTables();
     }
     
     @Override
@@ -212,10 +252,7 @@ class ZigzagTrack extends Track {
     }
     
     @Override
-    public Point2D.Double calculatePosition(double distance, int lane) {
-        // Convert distance to a relative position on the track (0.0 to 1.0)
-        double relativeDistance = absoluteToRelativeDistance(distance);
-        
+    protected void computeLayout(double relativeDistance, double[] layout) {
         double segmentWidth = length / (2.0 * segments);
         double segmentHeight = length / (4.0 * segments);
         
@@ -236,24 +273,17 @@ class ZigzagTrack extends Track {
             y = segmentHeight * (1 - segmentProgress);
         }
         
-        // Apply lane offset perpendicular to the current segment direction
-        double laneOffset = lane * 8; // 8 pixels between lanes
-        
-        if (segment % 2 == 0) {
-            // Even segment (going up) - lanes spread horizontally
-            y += laneOffset;
-        } else {
-            // Odd segment (going down) - lanes spread horizontally
-            y += laneOffset;
-        }
+        layout[0] = x;
+        layout[1] = y;
         
-        return new Point2D.Double(x, y);
+        // Lanes spread vertically on every segment, 8 pixels between lanes
+        layout[2] = 0;
+        layout[3] = 8;
     }
     
     @Override
-    public double getCurveFactor(double distance) {
+    protected double computeCurveFactor(double relativeDistance) {
         // In a zigzag track, turns are at the segment boundaries
-        double relativeDistance = absoluteToRelativeDistance(distance);
         
         // Calculate which segment the horse is in
         double segmentRelative = relativeDistance * segments;
@@ -1,93 +1,202 @@
 /**
  * Manages virtual currency for betting.
  * Tracks balance, prevents over-betting, and handles transactions.
+ *
+ * A wallet is a view of one account in a WalletService, which holds the
+ * balance in whole cents, so deposits and withdrawals from any number of
+ * threads are atomic: a withdrawal either takes the whole amount or fails,
+ * and no update is ever lost. Two wallets of the same account are equal.
+ *
+ * A wallet made with one of the public constructors opens its own account;
+ * close it when it is no longer needed. Once the account is closed every
+ * deposit or withdrawal through any wallet of it is refused.
  */
-public class VirtualWallet {
-    private double balance;
+public class VirtualWallet implements AutoCloseable {
+    private WalletService service;   // Service holding the balance
+    private int account;             // Account id in the service
     private static final double INITIAL_BALANCE = 1000.0; // Starting balance
-    
+
     /**
-     * Constructor for a new wallet with default initial balance
+     * Constructor for a new wallet with default initial balance, in the shared wallet service
      */
     public VirtualWallet() {
-        this.balance = INITIAL_BALANCE;
+        this(INITIAL_BALANCE);
     }
-    
+
     /**
-     * Constructor with a custom initial balance
-     * 
+     * Constructor with a custom initial balance, in the shared wallet service
+     *
      * @param initialBalance The initial balance for the wallet
      */
     public VirtualWallet(double initialBalance) {
-        this.balance = initialBalance;
+        this(WalletService.getInstance(), initialBalance);
+    }
+
+    /**
+     * Constructor for a new wallet with default initial balance
+     *
+     * @param service The service to open the wallet's account in
+     */
+    public VirtualWallet(WalletService service) {
+        this(service, INITIAL_BALANCE);
+    }
+
+    /**
+     * Constructor with a custom initial balance
+     *
+     * @param service The service to open the wallet's account in
+     * @param initialBalance The initial balance for the wallet
+     */
+    public VirtualWallet(WalletService service, double initialBalance) {
+        this.service = service;
+        this.account = service.openAccount(toCents(initialBalance));
+    }
+
+    /**
+     * Constructor for a view of an existing account. The account comes
+     * first so the call cannot be mistaken for opening one with a balance.
+     *
+     * @param account The account id
+     * @param service The service holding the account
+     */
+    VirtualWallet(int account, WalletService service) {
+        this.service = service;
+        this.account = account;
     }
-    
+
+    /**
+     * Convert an amount of money to whole cents
+     *
+     * @param amount The amount
+     * @return The amount in cents, rounded to the nearest cent
+     */
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
     /**
      * Get the current balance
-     * 
+     *
      * @return The current balance
      */
     public double getBalance() {
-        return balance;
+        return service.getBalance(account) / 100.0;
+    }
+
+    /**
+     * Get the current balance in cents
+     *
+     * @return The current balance in cents
+     */
+    public long getBalanceCents() {
+        return service.getBalance(account);
+    }
+
+    /**
+     * Get the account the wallet is a view of
+     *
+     * @return The account id in the wallet's service
+     */
+    public int getAccountId() {
+        return account;
     }
-    
+
+    /**
+     * Get the service holding the wallet's balance
+     *
+     * @return The wallet service
+     */
+    public WalletService getService() {
+        return service;
+    }
+
     /**
      * Add funds to the wallet
-     * 
+     *
      * @param amount The amount to add
      * @return The new balance
      * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if the wallet's account is closed
      */
     public double addFunds(double amount) {
         if (amount < 0) {
             throw new IllegalArgumentException("Cannot add negative amount");
         }
-        
-        balance += amount;
-        return balance;
+
+        return service.credit(account, toCents(amount)) / 100.0;
     }
-    
+
     /**
      * Withdraw funds from the wallet
-     * 
+     *
      * @param amount The amount to withdraw
      * @return The new balance
      * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if the wallet's account is closed
      * @throws InsufficientFundsException if there are not enough funds
      */
     public double withdraw(double amount) throws InsufficientFundsException {
         if (amount < 0) {
             throw new IllegalArgumentException("Cannot withdraw negative amount");
         }
-        
-        if (amount > balance) {
-            throw new InsufficientFundsException("Insufficient funds for withdrawal");
-        }
-        
-        balance -= amount;
-        return balance;
+
+        return service.debit(account, toCents(amount)) / 100.0;
     }
-    
+
     /**
      * Check if there are sufficient funds for a transaction
-     * 
+     *
      * @param amount The amount to check
      * @return true if there are sufficient funds, false otherwise
      */
     public boolean hasSufficientFunds(double amount) {
-        return balance >= amount;
+        return service.getBalance(account) >= toCents(amount);
     }
-    
+
     /**
-     * Reset the wallet to the initial balance
-     * 
+     * Reset the wallet to the balance its account was opened with
+     *
      * @return The new balance
+     * @throws IllegalStateException if the wallet's account is closed
      */
     public double reset() {
-        balance = INITIAL_BALANCE;
-        return balance;
+        service.resetBalance(account);
+        return getBalance();
+    }
+
+    /**
+     * Close the wallet's account. Its balance is dropped, and every later
+     * deposit or withdrawal through this or any other wallet of the account
+     * is refused. Closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        service.closeAccount(account);
+    }
+
+    /**
+     * Check if the wallet's account is still open
+     *
+     * @return true until the account is closed
+     */
+    public boolean isOpen() {
+        return service.isOpen(account);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof VirtualWallet)) {
+            return false;
+        }
+        VirtualWallet wallet = (VirtualWallet) other;
+        return service == wallet.service && account == wallet.account;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(service) * 31 + account;
     }
-    
+
     /**
      * Exception thrown when attempting to withdraw more than the available balance
      */
@@ -96,4 +205,4 @@ public class VirtualWallet {
             super(message);
         }
     }
-}
\ No newline at end of file
+}
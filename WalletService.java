@@ -0,0 +1,506 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the balances of any number of betting accounts.
+ *
+ * Balances are whole cents in segments of AtomicLongArray, so an account
+ * costs sixteen bytes (its balance and its opening balance) and no object
+ * of its own, an account id is an index found in constant time, and a debit
+ * or credit is one atomic update that never locks other accounts. A
+ * VirtualWallet is a view of one account. Closing an account swaps its
+ * balance for a marker in the same atomic update, so every debit or credit
+ * lands either before the close, in the balance the close hands back, or
+ * after it, where it is refused. Ids are never handed out twice, so a wallet
+ * kept after its account closed can only ever be refused.
+ *
+ * Debits and credits can carry a transaction id. The first operation with
+ * an id is applied; any other operation on the same account with the same
+ * id is ignored, so a request that is retried after a timeout or delivered
+ * twice moves the money only once. Each account remembers the ids of its
+ * last TRANSACTION_HORIZON transactions, so a repeat is recognised as long
+ * as fewer than that many newer transactions have reached the same account.
+ * The ids are kept in a log that starts at a few dozen bytes and grows with
+ * the account's transactions up to the horizon, so accounts that never use
+ * transaction ids cost nothing for them.
+ */
+public class WalletService {
+    private static WalletService instance;
+
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;   // Accounts per segment
+    private static final int MAX_SEGMENTS = 1 << (31 - SEGMENT_BITS);
+    public static final int TRANSACTION_HORIZON = 1024;          // Transaction ids remembered per account
+    private static final long NO_TRANSACTION = Long.MIN_VALUE;   // Empty place in a transaction log
+    private static final long CLOSED = Long.MIN_VALUE;           // Balance of a closed account
+    private static final int LOCK_STRIPES = 256;
+
+    private AtomicReferenceArray<AtomicLongArray> segments; // Balances in cents, by account id, CLOSED once closed
+    private AtomicReferenceArray<AtomicLongArray> openings; // Opening balances in cents
+    private AtomicReferenceArray<TransactionLog[]> logs;    // Recent transaction ids of each account
+    private Object[] locks;                                 // Guard the logs, striped by account
+    private AtomicInteger nextAccount;                      // Next account id never handed out
+    private AtomicInteger published;                        // Ids below this are ready to use
+    private AtomicInteger closedCount;                      // Accounts closed so far
+
+    /**
+     * Constructor for an empty wallet service
+     */
+    public WalletService() {
+        this.segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        this.openings = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        this.logs = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.nextAccount = new AtomicInteger();
+        this.published = new AtomicInteger();
+        this.closedCount = new AtomicInteger();
+    }
+
+    /**
+     * Get the singleton instance, which holds the accounts of every wallet
+     * not opened in a service of its own
+     *
+     * @return The WalletService instance
+     */
+    public static synchronized WalletService getInstance() {
+        if (instance == null) {
+            instance = new WalletService();
+        }
+        return instance;
+    }
+
+    /**
+     * Open a new account
+     *
+     * @param initialCents The opening balance in cents
+     * @return The account id
+     * @throws IllegalArgumentException if the opening balance is negative
+     * @throws IllegalStateException if the service cannot hold more accounts
+     */
+    public int openAccount(long initialCents) {
+        if (initialCents < 0) {
+            throw new IllegalArgumentException("Cannot open an account with a negative balance");
+        }
+        int account = nextAccount.getAndIncrement();
+        if (account < 0) {
+            nextAccount.set(Integer.MIN_VALUE);
+            throw new IllegalStateException("No more accounts can be opened");
+        }
+        int segment = account >>> SEGMENT_BITS;
+        int slot = account & (SEGMENT_SIZE - 1);
+        try {
+            if (segments.get(segment) == null) {
+                segments.compareAndSet(segment, null, new AtomicLongArray(SEGMENT_SIZE));
+            }
+            if (openings.get(segment) == null) {
+                openings.compareAndSet(segment, null, new AtomicLongArray(SEGMENT_SIZE));
+            }
+            segments.get(segment).set(slot, initialCents);
+            openings.get(segment).set(slot, initialCents);
+        } finally {
+            // Publish the ids in order, each only once its balance is in place
+            while (!published.compareAndSet(account, account + 1)) {
+                Thread.onSpinWait();
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Close an account. Its balance is taken out in the same atomic update
+     * that closes it and handed back, so no debit or credit is lost: each
+     * one either counted in that balance or is refused. Every later debit or
+     * credit of the account is refused, and its id is never handed out again.
+     *
+     * @param account The account id
+     * @return The balance the account held when it closed, in cents, or -1 if it was already closed
+     * @throws IllegalArgumentException if there is no such account
+     */
+    public long closeAccount(int account) {
+        AtomicLongArray segment = segmentOf(account);
+        int slot = account & (SEGMENT_SIZE - 1);
+        long balance;
+        do {
+            balance = segment.get(slot);
+            if (balance == CLOSED) {
+                return -1;
+            }
+        } while (!segment.compareAndSet(slot, balance, CLOSED));
+
+        closedCount.incrementAndGet();
+        synchronized (lockOf(account)) {
+            TransactionLog[] segmentLogs = logs.get(account >>> SEGMENT_BITS);
+            if (segmentLogs != null) {
+                segmentLogs[slot] = null;
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Check if an account is open
+     *
+     * @param account The account id
+     * @return true if the account has been opened and not closed
+     */
+    public boolean isOpen(int account) {
+        if (account < 0 || account >= published.get()) {
+            return false;
+        }
+        AtomicLongArray segment = segments.get(account >>> SEGMENT_BITS);
+        return segment != null && segment.get(account & (SEGMENT_SIZE - 1)) != CLOSED;
+    }
+
+    /**
+     * Get the number of accounts open
+     *
+     * @return The account count
+     */
+    public int getAccountCount() {
+        return published.get() - closedCount.get();
+    }
+
+    /**
+     * Get a wallet that reads and moves the balance of an account
+     *
+     * @param account The account id
+     * @return The wallet
+     * @throws IllegalArgumentException if there is no such account
+     */
+    public VirtualWallet getWallet(int account) {
+        if (!isOpen(account)) {
+            throw new IllegalArgumentException("No such account: " + account);
+        }
+        return new VirtualWallet(account, this);
+    }
+
+    /**
+     * Get the balance of an account
+     *
+     * @param account The account id
+     * @return The balance in cents, or 0 once the account is closed
+     * @throws IllegalArgumentException if there is no such account
+     */
+    public long getBalance(int account) {
+        long balance = segmentOf(account).get(account & (SEGMENT_SIZE - 1));
+        return balance == CLOSED ? 0 : balance;
+    }
+
+    /**
+     * Get the balance an account was opened with
+     *
+     * @param account The account id
+     * @return The opening balance in cents
+     * @throws IllegalArgumentException if there is no such account
+     */
+    public long getOpeningBalance(int account) {
+        segmentOf(account);
+        return openings.get(account >>> SEGMENT_BITS).get(account & (SEGMENT_SIZE - 1));
+    }
+
+    /**
+     * Add money to an account
+     *
+     * @param account The account id
+     * @param cents The amount in cents
+     * @return The new balance in cents
+     * @throws IllegalArgumentException if the amount is negative or there is no such account
+     * @throws IllegalStateException if the account is closed
+     */
+    public long credit(int account, long cents) {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Cannot add negative amount");
+        }
+        AtomicLongArray segment = segmentOf(account);
+        int slot = account & (SEGMENT_SIZE - 1);
+        while (true) {
+            long balance = segment.get(slot);
+            if (balance == CLOSED) {
+                throw closed(account);
+            }
+            if (segment.compareAndSet(slot, balance, balance + cents)) {
+                return balance + cents;
+            }
+        }
+    }
+
+    /**
+     * Take money from an account. The whole amount is taken or none of it.
+     *
+     * @param account The account id
+     * @param cents The amount in cents
+     * @return The new balance in cents
+     * @throws IllegalArgumentException if the amount is negative or there is no such account
+     * @throws IllegalStateException if the account is closed
+     * @throws VirtualWallet.InsufficientFundsException if the balance is less than the amount
+     */
+    public long debit(int account, long cents) throws VirtualWallet.InsufficientFundsException {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Cannot withdraw negative amount");
+        }
+        AtomicLongArray segment = segmentOf(account);
+        int slot = account & (SEGMENT_SIZE - 1);
+        while (true) {
+            long balance = segment.get(slot);
+            if (balance == CLOSED) {
+                throw closed(account);
+            }
+            if (cents > balance) {
+                throw new VirtualWallet.InsufficientFundsException("Insufficient funds for withdrawal");
+            }
+            if (segment.compareAndSet(slot, balance, balance - cents)) {
+                return balance - cents;
+            }
+        }
+    }
+
+    /**
+     * Add money to an account unless the transaction has already been applied
+     *
+     * @param account The account id
+     * @param cents The amount in cents
+     * @param transactionId The id of the transaction
+     * @return true if the money was added, false if the transaction id had already been used
+     * @throws IllegalArgumentException if the amount is negative, the id is Long.MIN_VALUE
+     *         or there is no such account
+     * @throws IllegalStateException if the account is closed
+     */
+    public boolean credit(int account, long cents, long transactionId) {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Cannot add negative amount");
+        }
+        TransactionLog[] segmentLogs = logsOf(account, transactionId);
+        int slot = account & (SEGMENT_SIZE - 1);
+        synchronized (lockOf(account)) {
+            TransactionLog log = segmentLogs[slot];
+            if (log != null && log.contains(transactionId)) {
+                return false;
+            }
+            credit(account, cents);
+            remember(segmentLogs, slot, log, transactionId);
+        }
+        return true;
+    }
+
+    /**
+     * Take money from an account unless the transaction has already been
+     * applied. A debit refused for lack of funds is not applied, so it can
+     * be tried again with the same id; an attempt made while the first is
+     * still running waits for it and then counts as a repeat.
+     *
+     * @param account The account id
+     * @param cents The amount in cents
+     * @param transactionId The id of the transaction
+     * @return true if the money was taken, false if the transaction id had already been used
+     * @throws IllegalArgumentException if the amount is negative, the id is Long.MIN_VALUE
+     *         or there is no such account
+     * @throws IllegalStateException if the account is closed
+     * @throws VirtualWallet.InsufficientFundsException if the balance is less than the amount
+     */
+    public boolean debit(int account, long cents, long transactionId)
+            throws VirtualWallet.InsufficientFundsException {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Cannot withdraw negative amount");
+        }
+        TransactionLog[] segmentLogs = logsOf(account, transactionId);
+        int slot = account & (SEGMENT_SIZE - 1);
+        synchronized (lockOf(account)) {
+            TransactionLog log = segmentLogs[slot];
+            if (log != null && log.contains(transactionId)) {
+                return false;
+            }
+            debit(account, cents);
+            remember(segmentLogs, slot, log, transactionId);
+        }
+        return true;
+    }
+
+    /**
+     * Check if a transaction has been applied to an account, among the
+     * account's last TRANSACTION_HORIZON transactions
+     *
+     * @param account The account id
+     * @param transactionId The id of the transaction
+     * @return true if a debit or credit with the id has been applied, false
+     *         if not or once the account is closed
+     * @throws IllegalArgumentException if there is no such account
+     */
+    public boolean isApplied(int account, long transactionId) {
+        segmentOf(account);
+        TransactionLog[] segmentLogs = logs.get(account >>> SEGMENT_BITS);
+        if (segmentLogs == null) {
+            return false;
+        }
+        synchronized (lockOf(account)) {
+            TransactionLog log = segmentLogs[account & (SEGMENT_SIZE - 1)];
+            return log != null && log.contains(transactionId);
+        }
+    }
+
+    /**
+     * Put the balance of an account back to its opening balance, as when a wallet is reset
+     *
+     * @throws IllegalStateException if the account is closed
+     */
+    void resetBalance(int account) {
+        AtomicLongArray segment = segmentOf(account);
+        int slot = account & (SEGMENT_SIZE - 1);
+        long opening = getOpeningBalance(account);
+        long balance;
+        do {
+            balance = segment.get(slot);
+            if (balance == CLOSED) {
+                throw closed(account);
+            }
+        } while (!segment.compareAndSet(slot, balance, opening));
+    }
+
+    private static IllegalStateException closed(int account) {
+        return new IllegalStateException("Account is closed: " + account);
+    }
+
+    private AtomicLongArray segmentOf(int account) {
+        if (account < 0 || account >= published.get()) {
+            throw new IllegalArgumentException("No such account: " + account);
+        }
+        AtomicLongArray segment = segments.get(account >>> SEGMENT_BITS);
+        if (segment == null) {
+            // Its opening failed
+            throw new IllegalArgumentException("No such account: " + account);
+        }
+        return segment;
+    }
+
+    private Object lockOf(int account) {
+        return locks[account & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Get the transaction logs of an account's segment, allocating them on first use
+     */
+    private TransactionLog[] logsOf(int account, long transactionId) {
+        if (transactionId == NO_TRANSACTION) {
+            throw new IllegalArgumentException("Transaction id cannot be Long.MIN_VALUE");
+        }
+        segmentOf(account);
+        int segment = account >>> SEGMENT_BITS;
+        TransactionLog[] segmentLogs = logs.get(segment);
+        if (segmentLogs == null) {
+            logs.compareAndSet(segment, null, new TransactionLog[SEGMENT_SIZE]);
+            segmentLogs = logs.get(segment);
+        }
+        return segmentLogs;
+    }
+
+    /**
+     * Add a transaction id to an account's log, starting the log if the account has none
+     */
+    private static void remember(TransactionLog[] segmentLogs, int slot, TransactionLog log, long transactionId) {
+        if (log == null) {
+            log = new TransactionLog();
+            segmentLogs[slot] = log;
+        }
+        log.add(transactionId);
+    }
+
+    /**
+     * The ids of an account's last TRANSACTION_HORIZON transactions: a ring
+     * of the ids in the order they were applied, to find the oldest, and an
+     * open-addressed hash set of them, to look one up in constant time. Both
+     * start small and double as the account uses more ids. Only used under
+     * the account's lock.
+     */
+    private static final class TransactionLog {
+        private long[] order = new long[2];   // Ids, oldest at head
+        private int head;                     // Position of the oldest id in order
+        private int count;                    // Ids remembered
+        private long[] table = emptyTable(4); // The same ids, by hash
+
+        boolean contains(long transactionId) {
+            int mask = table.length - 1;
+            for (int i = slotOf(transactionId, mask); table[i] != NO_TRANSACTION; i = (i + 1) & mask) {
+                if (table[i] == transactionId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remember an id not already in the log, forgetting the oldest once the log is full
+         */
+        void add(long transactionId) {
+            if (count == order.length) {
+                if (order.length < TRANSACTION_HORIZON) {
+                    grow();
+                } else {
+                    remove(order[head]);
+                    head = (head + 1) & (order.length - 1);
+                    count--;
+                }
+            }
+            order[(head + count) & (order.length - 1)] = transactionId;
+            count++;
+            insert(transactionId);
+        }
+
+        private void grow() {
+            long[] larger = new long[order.length * 2];
+            for (int i = 0; i < count; i++) {
+                larger[i] = order[(head + i) & (order.length - 1)];
+            }
+            order = larger;
+            head = 0;
+            table = emptyTable(larger.length * 2);
+            for (int i = 0; i < count; i++) {
+                insert(order[i]);
+            }
+        }
+
+        private void insert(long transactionId) {
+            int mask = table.length - 1;
+            int i = slotOf(transactionId, mask);
+            while (table[i] != NO_TRANSACTION) {
+                i = (i + 1) & mask;
+            }
+            table[i] = transactionId;
+        }
+
+        /**
+         * Take an id out of the table, moving back any ids after it that
+         * could no longer be found past the gap it leaves
+         */
+        private void remove(long transactionId) {
+            int mask = table.length - 1;
+            int gap = slotOf(transactionId, mask);
+            while (table[gap] != transactionId) {
+                gap = (gap + 1) & mask;
+            }
+            for (int i = (gap + 1) & mask; table[i] != NO_TRANSACTION; i = (i + 1) & mask) {
+                int home = slotOf(table[i], mask);
+                boolean reachable = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+                if (!reachable) {
+                    table[gap] = table[i];
+                    gap = i;
+                }
+            }
+            table[gap] = NO_TRANSACTION;
+        }
+
+        private static int slotOf(long transactionId, int mask) {
+            long hash = transactionId * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private static long[] emptyTable(int size) {
+            long[] table = new long[size];
+            Arrays.fill(table, NO_TRANSACTION);
+            return table;
+        }
+    }
+}